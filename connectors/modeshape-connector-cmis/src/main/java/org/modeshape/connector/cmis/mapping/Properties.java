@@ -35,7 +35,6 @@ import org.infinispan.schematic.document.Document;
 import org.infinispan.schematic.document.Document.Field;
 import org.infinispan.schematic.document.Json;
 import org.infinispan.schematic.internal.document.BasicArray;
-import org.infinispan.schematic.internal.document.BasicDocument;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.value.ValueFactories;
 import org.modeshape.jcr.value.ValueFactory;
@@ -229,10 +228,10 @@ public class Properties {
                 Object decimal = document.get(jcrName);
                 if (decimal == null) return decimal; // no object with this name
 
-                if (!(decimal instanceof BasicDocument)) {
+                if (!(decimal instanceof Document)) {
                     break; // Unknown type
                 }
-                BasicDocument decimalDocument = (BasicDocument) decimal;
+                Document decimalDocument = (Document) decimal;
                 if (!decimalDocument.containsField(DocumentTranslator.KEY_DECIMAL)) {
                     break; // Unknown fields
                 }
@@ -254,10 +253,10 @@ public class Properties {
                     break; // There is no fields with such name
                 }
                 GregorianCalendar lCal = new GregorianCalendar();
-                if (!(date instanceof BasicDocument)) {
+                if (!(date instanceof Document)) {
                     break; // Unknown type
                 }
-                BasicDocument dateDocument = (BasicDocument) date;
+                Document dateDocument = (Document) date;
 
                 if (!dateDocument.containsField(DocumentTranslator.KEY_DATE)) {
                     break; // Unknown fields
@@ -0,0 +1,300 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.statistic;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.annotation.ThreadSafe;
+
+/**
+ * A histogram of non-negative long values that many threads can record into without locking and without allocating any
+ * objects, and that is periodically {@link #drainTo(Snapshot) drained} into a {@link Snapshot} from which the count, minimum,
+ * maximum, mean, variance and percentiles of the recorded values can be computed.
+ * <p>
+ * The values are counted in a fixed number of logarithmic buckets: the values below {@link #SUB_BUCKET_COUNT} each have a bucket
+ * of their own, and every larger power-of-two range of values is split into {@link #SUB_BUCKET_COUNT} buckets of equal width.
+ * The percentiles are therefore approximate, but the value reported for a percentile is never more than 1/16 (6.25%) larger
+ * than the actual value, regardless of the magnitude of the values. The minimum, maximum and sum are tracked exactly.
+ * </p>
+ * <p>
+ * To reduce contention, the counts are kept in several stripes, and each thread records into the stripe selected by its
+ * identifier. Draining resets each bucket atomically, so a value recorded concurrently with a drain is counted either in that
+ * drain or in the next one, though its contribution to the sum, minimum and maximum may land in the other.
+ * </p>
+ */
+@ThreadSafe
+public final class ConcurrentHistogram {
+
+    /**
+     * The number of bits used to split each power-of-two range of values into buckets.
+     */
+    public static final int SUB_BUCKET_BITS = 4;
+
+    /**
+     * The number of buckets in each power-of-two range of values.
+     */
+    public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The total number of buckets, which covers all non-negative long values.
+     */
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private static final int MAX_STRIPES = 8;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    /**
+     * Create a histogram with a number of stripes based upon the number of processors.
+     */
+    public ConcurrentHistogram() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a histogram with the supplied number of stripes, which is rounded down to a power of two between 1 and 8.
+     * 
+     * @param stripes the desired number of stripes
+     */
+    public ConcurrentHistogram( int stripes ) {
+        int count = Integer.highestOneBit(Math.max(1, Math.min(stripes, MAX_STRIPES)));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i != count; ++i) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Record a value. Negative values are recorded as 0.
+     * 
+     * @param value the value
+     */
+    public void record( long value ) {
+        if (value < 0L) value = 0L;
+        Stripe stripe = stripes[(int)Thread.currentThread().getId() & stripeMask];
+        stripe.counts.incrementAndGet(bucketFor(value));
+        stripe.sum.addAndGet(value);
+        // Only update the minimum and maximum when they change, which is rare once the histogram has some values ...
+        long min = stripe.min.get();
+        while (value < min && !stripe.min.compareAndSet(min, value)) {
+            min = stripe.min.get();
+        }
+        long max = stripe.max.get();
+        while (value > max && !stripe.max.compareAndSet(max, value)) {
+            max = stripe.max.get();
+        }
+    }
+
+    /**
+     * Move all of the values recorded since the previous drain into the supplied snapshot, which is first cleared.
+     * 
+     * @param snapshot the snapshot into which the values are to be moved; may not be null
+     * @return the supplied snapshot
+     */
+    public Snapshot drainTo( Snapshot snapshot ) {
+        snapshot.clear();
+        for (Stripe stripe : stripes) {
+            long count = 0L;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                if (stripe.counts.get(i) == 0L) continue;
+                long n = stripe.counts.getAndSet(i, 0L);
+                snapshot.counts[i] += n;
+                count += n;
+            }
+            snapshot.count += count;
+            snapshot.sum += stripe.sum.getAndSet(0L);
+            snapshot.min = Math.min(snapshot.min, stripe.min.getAndSet(Long.MAX_VALUE));
+            snapshot.max = Math.max(snapshot.max, stripe.max.getAndSet(Long.MIN_VALUE));
+        }
+        return snapshot;
+    }
+
+    /**
+     * Get the index of the bucket for the supplied value.
+     * 
+     * @param value the non-negative value
+     * @return the index of the bucket
+     */
+    static int bucketFor( long value ) {
+        if (value < SUB_BUCKET_COUNT) return (int)value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return ((shift + 1) << SUB_BUCKET_BITS) + (int)((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    /**
+     * Get the smallest value that is counted in the bucket with the supplied index.
+     * 
+     * @param index the index of the bucket
+     * @return the smallest value in the bucket
+     */
+    static long lowestValueIn( int index ) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return ((long)(SUB_BUCKET_COUNT + (index & (SUB_BUCKET_COUNT - 1)))) << shift;
+    }
+
+    /**
+     * Get the largest value that is counted in the bucket with the supplied index.
+     * 
+     * @param index the index of the bucket
+     * @return the largest value in the bucket
+     */
+    static long highestValueIn( int index ) {
+        if (index < SUB_BUCKET_COUNT) return index;
+        int shift = (index >>> SUB_BUCKET_BITS) - 1;
+        return lowestValueIn(index) + ((1L << shift) - 1L);
+    }
+
+    private static final class Stripe {
+        protected final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+        protected final AtomicLong sum = new AtomicLong();
+        protected final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        protected final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    }
+
+    /**
+     * The counts of the values in a {@link ConcurrentHistogram}, which can be merged with other snapshots to compute the
+     * statistics of the values recorded over longer periods of time.
+     */
+    @NotThreadSafe
+    public static final class Snapshot {
+        protected final long[] counts = new long[BUCKET_COUNT];
+        protected long count;
+        protected long sum;
+        protected long min = Long.MAX_VALUE;
+        protected long max = Long.MIN_VALUE;
+
+        /**
+         * Add the values in the supplied snapshot to this snapshot.
+         * 
+         * @param other the other snapshot; may not be null
+         */
+        public void add( Snapshot other ) {
+            if (other.count == 0L) return;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+
+        /**
+         * Remove all values from this snapshot.
+         */
+        public void clear() {
+            if (count != 0L) Arrays.fill(counts, 0L);
+            count = 0L;
+            sum = 0L;
+            min = Long.MAX_VALUE;
+            max = Long.MIN_VALUE;
+        }
+
+        /**
+         * Get the number of values.
+         * 
+         * @return the number of values; never negative
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Get the smallest value.
+         * 
+         * @return the smallest value, or 0 if there are no values
+         */
+        public long getMinimum() {
+            return count == 0L ? 0L : Math.min(min, max);
+        }
+
+        /**
+         * Get the largest value.
+         * 
+         * @return the largest value, or 0 if there are no values
+         */
+        public long getMaximum() {
+            return count == 0L ? 0L : Math.max(min, max);
+        }
+
+        /**
+         * Get the mean of the values.
+         * 
+         * @return the mean, or 0 if there are no values
+         */
+        public double getMean() {
+            return count == 0L ? 0.0d : ((double)sum) / count;
+        }
+
+        /**
+         * Get the variance of the values, which is estimated from the midpoints of the buckets.
+         * 
+         * @return the variance; never negative
+         */
+        public double getVariance() {
+            if (count == 0L) return 0.0d;
+            double mean = getMean();
+            double total = 0.0d;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                long n = counts[i];
+                if (n == 0L) continue;
+                double distance = ((lowestValueIn(i) + highestValueIn(i)) / 2.0d) - mean;
+                total += n * distance * distance;
+            }
+            return total / count;
+        }
+
+        /**
+         * Get the value at or below which the given percentage of the values fall. The result is the largest value of the bucket
+         * that contains the percentile, limited to the range of the recorded values; the 0th percentile is the minimum.
+         * 
+         * @param percentile the percentile, between 0 and 100
+         * @return the value at the percentile, or 0 if there are no values
+         */
+        public long getValueAtPercentile( double percentile ) {
+            if (count == 0L) return 0L;
+            if (percentile <= 0.0d) return getMinimum();
+            double fraction = Math.min(percentile, 100.0d) / 100.0d;
+            long rank = Math.max(1L, (long)Math.ceil(fraction * count));
+            long seen = 0L;
+            for (int i = 0; i != BUCKET_COUNT; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.max(getMinimum(), Math.min(highestValueIn(i), getMaximum()));
+                }
+            }
+            return getMaximum();
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + count + "; min=" + getMinimum() + "; mean=" + getMean() + "; max=" + getMaximum();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.common.statistic;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Test;
+import org.modeshape.common.statistic.ConcurrentHistogram.Snapshot;
+
+public class ConcurrentHistogramTest {
+
+    private ConcurrentHistogram histogram = new ConcurrentHistogram(4);
+    private Snapshot snapshot = new Snapshot();
+
+    @Test
+    public void shouldHaveValidValuesWhenUnused() {
+        histogram.drainTo(snapshot);
+        assertThat(snapshot.getCount(), is(0L));
+        assertThat(snapshot.getMinimum(), is(0L));
+        assertThat(snapshot.getMaximum(), is(0L));
+        assertThat(snapshot.getMean(), is(0.0d));
+        assertThat(snapshot.getVariance(), is(0.0d));
+        assertThat(snapshot.getValueAtPercentile(50.0d), is(0L));
+    }
+
+    @Test
+    public void shouldPlaceEveryValueInBucketWhoseRangeContainsIt() {
+        long[] values = {0L, 1L, 15L, 16L, 17L, 31L, 32L, 33L, 1000L, 1023L, 1024L, 123456789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = ConcurrentHistogram.bucketFor(value);
+            assertTrue(bucket >= 0 && bucket < ConcurrentHistogram.BUCKET_COUNT);
+            assertTrue(ConcurrentHistogram.lowestValueIn(bucket) <= value);
+            assertTrue(ConcurrentHistogram.highestValueIn(bucket) >= value);
+        }
+        assertThat(ConcurrentHistogram.bucketFor(Long.MAX_VALUE), is(ConcurrentHistogram.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void shouldHaveContiguousBuckets() {
+        for (int i = 1; i != ConcurrentHistogram.BUCKET_COUNT; ++i) {
+            assertThat(ConcurrentHistogram.lowestValueIn(i), is(ConcurrentHistogram.highestValueIn(i - 1) + 1L));
+        }
+    }
+
+    @Test
+    public void shouldComputeExactCountMinimumMaximumAndMean() {
+        histogram.record(19);
+        histogram.record(10);
+        histogram.record(20);
+        histogram.record(7);
+        histogram.record(73);
+        histogram.record(-5);
+        histogram.drainTo(snapshot);
+        assertThat(snapshot.getCount(), is(6L));
+        assertThat(snapshot.getMinimum(), is(0L));
+        assertThat(snapshot.getMaximum(), is(73L));
+        assertThat(snapshot.getMean(), is(129.0d / 6));
+    }
+
+    @Test
+    public void shouldComputePercentilesWithinRelativeError() {
+        for (long i = 1; i <= 10000; ++i) {
+            histogram.record(i * 1000L);
+        }
+        histogram.drainTo(snapshot);
+        assertWithinError(snapshot.getValueAtPercentile(50.0d), 5000000L);
+        assertWithinError(snapshot.getValueAtPercentile(95.0d), 9500000L);
+        assertWithinError(snapshot.getValueAtPercentile(99.0d), 9900000L);
+        assertWithinError(snapshot.getValueAtPercentile(99.9d), 9990000L);
+        assertThat(snapshot.getValueAtPercentile(100.0d), is(10000000L));
+        assertThat(snapshot.getValueAtPercentile(0.0d), is(1000L));
+    }
+
+    @Test
+    public void shouldEmptyHistogramWhenDrained() {
+        histogram.record(5);
+        histogram.drainTo(snapshot);
+        assertThat(snapshot.getCount(), is(1L));
+        histogram.drainTo(snapshot);
+        assertThat(snapshot.getCount(), is(0L));
+        assertThat(snapshot.getMaximum(), is(0L));
+    }
+
+    @Test
+    public void shouldMergeSnapshots() {
+        histogram.record(100);
+        histogram.drainTo(snapshot);
+        Snapshot total = new Snapshot();
+        total.add(snapshot);
+        histogram.record(300);
+        total.add(histogram.drainTo(snapshot));
+        assertThat(total.getCount(), is(2L));
+        assertThat(total.getMinimum(), is(100L));
+        assertThat(total.getMaximum(), is(300L));
+        assertThat(total.getMean(), is(200.0d));
+        assertTrue(total.getVariance() > 9000.0d && total.getVariance() < 11000.0d);
+    }
+
+    @Test
+    public void shouldNotLoseValuesRecordedConcurrently() throws Exception {
+        final int threads = 8;
+        final int valuesPerThread = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t != threads; ++t) {
+            final long seed = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        Random random = new Random(seed);
+                        for (int i = 0; i != valuesPerThread; ++i) {
+                            histogram.record(random.nextInt(1000000));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        Snapshot total = new Snapshot();
+        start.countDown();
+        while (done.getCount() != 0) {
+            total.add(histogram.drainTo(snapshot));
+        }
+        done.await();
+        total.add(histogram.drainTo(snapshot));
+        assertThat(total.getCount(), is((long)threads * valuesPerThread));
+    }
+
+    protected void assertWithinError( long actual,
+                                      long expected ) {
+        double error = Math.abs(actual - expected) / (double)expected;
+        assertTrue("Expected " + expected + " but was " + actual, error <= 1.0d / ConcurrentHistogram.SUB_BUCKET_COUNT);
+    }
+}
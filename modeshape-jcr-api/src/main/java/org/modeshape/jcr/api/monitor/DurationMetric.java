@@ -29,7 +29,62 @@ public enum DurationMetric {
      * instances are strings containing the sequencer name and the input and output paths.
      */
     SEQUENCER_EXECUTION_TIME("sequencer-execution-time", "Sequencing duration",
-                             "The metric measuring how long sequencers take to run and save the changes.");
+                             "The metric measuring how long sequencers take to run and save the changes."),
+    /**
+     * The metric that captures how long text extractions wait in the queue before they are run. Note that the payload of the
+     * {@link DurationActivity} instances are the keys of the binary values.
+     */
+    TEXT_EXTRACTION_WAIT_TIME("text-extraction-wait-time", "Text extraction wait time",
+                              "The metric measuring how long text extractions wait before they are run."),
+    /**
+     * The metric that captures the duration of text extractions. Note that the payload of the {@link DurationActivity} instances
+     * are strings containing the extractor name and the key and MIME type of the binary value.
+     */
+    TEXT_EXTRACTION_TIME("text-extraction-time", "Text extraction duration",
+                         "The metric measuring how long text extractors take to extract and store the text of binary values."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to run the pre-save operations on the changed nodes,
+     * before the changes are persisted. The statistics for this metric are in microseconds.
+     */
+    SAVE_PRE_SAVE_TIME("save-pre-save-time", "Save preparation duration",
+                       "The metric measuring how long saves take to prepare the changed nodes, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} wait to acquire the locks on the persisted nodes that are
+     * changed. The statistics for this metric are in microseconds.
+     */
+    SAVE_LOCK_TIME("save-lock-time", "Save lock duration",
+                   "The metric measuring how long saves wait to lock the changed nodes, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to write the changes to the persisted nodes, excluding
+     * the time spent updating the indexes. The statistics for this metric are in microseconds.
+     */
+    SAVE_PERSIST_TIME("save-persist-time", "Save persist duration",
+                      "The metric measuring how long saves take to write the changes to the persistent store, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to commit the transaction, excluding the time spent
+     * marking binary values as used or unused. The statistics for this metric are in microseconds.
+     */
+    SAVE_COMMIT_TIME("save-commit-time", "Save commit duration",
+                     "The metric measuring how long saves take to commit the transaction, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to mark binary values as used or unused once the
+     * changes are committed. The statistics for this metric are in microseconds.
+     */
+    SAVE_BINARY_USAGE_TIME("save-binary-usage-time", "Save binary usage duration",
+                           "The metric measuring how long saves take to update the usage of binary values, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to submit the index updates. This only includes the
+     * time spent enqueuing the updates, and not the time the indexes take to apply them. The statistics for this metric are in
+     * microseconds.
+     */
+    SAVE_INDEXING_TIME("save-indexing-time", "Save indexing duration",
+                       "The metric measuring how long saves take to submit the index updates, in microseconds."),
+    /**
+     * The metric that captures how long {@link Session#save() saves} take to update the workspace caches and notify the
+     * listeners of the changes. The statistics for this metric are in microseconds.
+     */
+    SAVE_NOTIFICATION_TIME("save-notification-time", "Save notification duration",
+                           "The metric measuring how long saves take to notify the caches and listeners, in microseconds.");
 
     private static final Map<String, DurationMetric> BY_LITERAL;
     private static final Map<String, DurationMetric> BY_NAME;
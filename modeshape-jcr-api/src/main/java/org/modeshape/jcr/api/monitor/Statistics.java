@@ -29,9 +29,10 @@ package org.modeshape.jcr.api.monitor;
  * {@link #getMaximum() maximum}, {@link #getMean() mean (average)}, {@link #getVariance() variance} and
  * {@link #getStandardDeviation() standard deviation}.
  * <p>
- * The median value is not included in these statistics, since the median value cannot be rolled up given a series of statistics
- * without having the original values. It is possible to compute the weighted median, but this loses effectiveness/value the more
- * times it is rolled up.
+ * The statistics for {@link DurationMetric durations} also include the {@link #getMedian() median} and the
+ * {@link #get95thPercentile() 95th}, {@link #get99thPercentile() 99th} and {@link #get999thPercentile() 99.9th} percentiles.
+ * These are computed from histograms of the recorded durations (and so are accurate to within a few percent) that are merged as
+ * the statistics are rolled up into longer windows. The statistics for {@link ValueMetric values} do not include percentiles.
  * </p>
  * 
  * @since 3.0
@@ -85,4 +86,36 @@ public interface Statistics {
      * @return the standard deviation; never negative
      */
     double getStandardDeviation();
+
+    /**
+     * Get the median of the sampled values, which is the value at the 50th percentile.
+     * 
+     * @return the median value, or 0 if percentiles are not tracked for the sampled values
+     * @since 3.8
+     */
+    long getMedian();
+
+    /**
+     * Get the value at or below which 95% of the sampled values fall.
+     * 
+     * @return the value at the 95th percentile, or 0 if percentiles are not tracked for the sampled values
+     * @since 3.8
+     */
+    long get95thPercentile();
+
+    /**
+     * Get the value at or below which 99% of the sampled values fall.
+     * 
+     * @return the value at the 99th percentile, or 0 if percentiles are not tracked for the sampled values
+     * @since 3.8
+     */
+    long get99thPercentile();
+
+    /**
+     * Get the value at or below which 99.9% of the sampled values fall.
+     * 
+     * @return the value at the 99.9th percentile, or 0 if percentiles are not tracked for the sampled values
+     * @since 3.8
+     */
+    long get999thPercentile();
 }
@@ -84,7 +84,106 @@ public enum ValueMetric {
     /**
      * The metric that records the number of nodes that were sequenced.
      */
-    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window.");
+    SEQUENCED_COUNT("sequenced-count", false, "Sequenced nodes", "The number of nodes that were sequenced during the window."),
+    /**
+     * The metric that records the number of {@link Query queries} whose parsed form or optimized plan was found in the cache.
+     */
+    QUERY_PLAN_CACHE_HITS("query-plan-cache-hits", false, "Query plan cache hits",
+                          "The number of parsed queries and optimized query plans that were found in the cache during the window."),
+    /**
+     * The metric that records the number of {@link Query queries} whose parsed form or optimized plan was not found in the cache.
+     */
+    QUERY_PLAN_CACHE_MISSES("query-plan-cache-misses", false, "Query plan cache misses",
+                            "The number of parsed queries and optimized query plans that were not found in the cache during the window."),
+    /**
+     * The metric that records the largest number of change sets waiting to be sent to a single {@link EventListener observation
+     * listener}.
+     */
+    LISTENER_LAG("listener-lag", true, "Maximum listener lag",
+                 "The largest number of change sets at the end of the window that a single listener had yet to process."),
+    /**
+     * The metric that records the number of change sets that were not sent to a listener because its queue was full.
+     */
+    DROPPED_CHANGE_SET_COUNT("dropped-change-set-count", false, "Dropped change sets",
+                             "The number of change sets that were not sent to a listener because its queue was full during the window."),
+    /**
+     * The metric that records the number of change sets that were merged with other change sets because the queue of a listener
+     * was full.
+     */
+    COALESCED_CHANGE_SET_COUNT("coalesced-change-set-count", false, "Coalesced change sets",
+                               "The number of change sets that were merged with other change sets because the queue of a listener was full during the window."),
+    /**
+     * The metric that records the number of nodes that were found in the workspace node caches.
+     */
+    NODE_CACHE_HITS("node-cache-hits", false, "Node cache hits",
+                    "The number of nodes that were found in the workspace node caches during the window."),
+    /**
+     * The metric that records the number of nodes that were not found in the workspace node caches and had to be read from the
+     * store.
+     */
+    NODE_CACHE_MISSES("node-cache-misses", false, "Node cache misses",
+                      "The number of nodes that were not found in the workspace node caches during the window."),
+    /**
+     * The metric that records the number of nodes that were evicted from the workspace node caches because the caches were full.
+     */
+    NODE_CACHE_EVICTIONS("node-cache-evictions", false, "Node cache evictions",
+                         "The number of nodes that were evicted from the workspace node caches during the window."),
+    /**
+     * The metric that records the number of text extractions whose text was truncated because it exceeded the configured maximum
+     * length.
+     */
+    TEXT_EXTRACTIONS_TRUNCATED("text-extractions-truncated", false, "Truncated text extractions",
+                               "The number of text extractions whose text was truncated during the window."),
+    /**
+     * The metric that records the number of text extractions whose text was too large to be kept in memory and was buffered on
+     * disk.
+     */
+    TEXT_EXTRACTIONS_OVERSIZED("text-extractions-oversized", false, "Oversized text extractions",
+                               "The number of text extractions whose text was too large to be kept in memory during the window."),
+    /**
+     * The metric that records the number of text extractions that are waiting to be run.
+     */
+    TEXT_EXTRACTION_QUEUE_SIZE("text-extraction-queue-size", true, "Text extraction queue size",
+                               "The number of text extractions at the end of the window that are waiting to be run."),
+    /**
+     * The metric that records the number of requests for text extraction that were satisfied by an extraction that was already
+     * queued or running for the same binary value.
+     */
+    TEXT_EXTRACTIONS_DEDUPLICATED("text-extractions-deduplicated", false, "Deduplicated text extractions",
+                                  "The number of text extraction requests that joined an existing extraction during the window."),
+    /**
+     * The metric that records the number of background text extractions that were not run because the extraction queue was full.
+     */
+    TEXT_EXTRACTIONS_REJECTED("text-extractions-rejected", false, "Rejected text extractions",
+                              "The number of background text extractions that were rejected because the queue was full during the window."),
+    /**
+     * The metric that records the number of changed nodes that were persisted by {@link Session#save() saves}. Together with
+     * {@link #SESSION_SAVES}, this gives the average number of nodes saved per call.
+     */
+    SAVED_NODES("saved-nodes", false, "Saved nodes", "The number of changed nodes persisted by saves during the window."),
+    /**
+     * The metric that records the number of times that saves could not lock the changed nodes within the lock timeout and were
+     * retried.
+     */
+    SAVE_LOCK_RETRIES("save-lock-retries", false, "Save lock retries",
+                      "The number of times saves were retried because the changed nodes could not be locked during the window."),
+    /**
+     * The metric that records the number of saves that failed because the changed nodes could not be locked within the lock
+     * timeout, even after retrying.
+     */
+    SAVE_LOCK_TIMEOUTS("save-lock-timeouts", false, "Save lock timeouts",
+                       "The number of saves that failed because the changed nodes could not be locked during the window."),
+    /**
+     * The metric that records the number of child names that were found in the repository's cache of path segments.
+     */
+    SEGMENT_CACHE_HITS("segment-cache-hits", false, "Segment cache hits",
+                       "The number of child names that were found in the path segment cache during the window."),
+    /**
+     * The metric that records the number of child names that were not found in the repository's cache of path segments and had
+     * to be parsed.
+     */
+    SEGMENT_CACHE_MISSES("segment-cache-misses", false, "Segment cache misses",
+                         "The number of child names that were not found in the path segment cache during the window.");
 
     private static final Map<String, ValueMetric> BY_LITERAL;
     private static final Map<String, ValueMetric> BY_NAME;
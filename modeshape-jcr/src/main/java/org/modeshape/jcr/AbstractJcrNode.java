@@ -91,6 +91,7 @@ import org.modeshape.jcr.cache.NodeNotFoundInParentException;
 import org.modeshape.jcr.cache.PropertyTypeUtil;
 import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.cache.SiblingCounter;
+import org.modeshape.jcr.cache.document.DocumentCache;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
@@ -3653,7 +3654,7 @@ abstract class AbstractJcrNode extends AbstractJcrItem implements Node {
         public Node nodeFrom( ChildReference ref ) {
             try {
                 AbstractJcrNode node =  session.node(ref.getKey(), null, parentKey);
-                if (checkPermission  && !node.isExternal() && !session.hasPermission(node.getPath(), ModeShapePermissions.READ)) {
+                if (checkPermission  && !node.isExternal() && !session.hasPermission(node, ModeShapePermissions.READ)) {
                     return null;
                 }
                 return node;
@@ -3661,5 +3662,17 @@ abstract class AbstractJcrNode extends AbstractJcrItem implements Node {
                 return null;
             }
         }
+
+        @Override
+        public void prefetch( List<ChildReference> refs ) {
+            NodeCache cache = session.cache().unwrap();
+            if (!(cache instanceof DocumentCache)) return;
+            // Load all of the children that are not yet in the workspace cache at once ...
+            List<NodeKey> keys = new ArrayList<NodeKey>(refs.size());
+            for (ChildReference ref : refs) {
+                keys.add(ref.getKey());
+            }
+            ((DocumentCache)cache).workspaceCache().prefetchNodes(keys);
+        }
     }
 }
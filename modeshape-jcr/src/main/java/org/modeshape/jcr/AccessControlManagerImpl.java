@@ -41,6 +41,12 @@ import javax.jcr.security.AccessControlPolicy;
 import javax.jcr.security.AccessControlPolicyIterator;
 import javax.jcr.security.Privilege;
 import javax.jcr.version.VersionException;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import org.modeshape.jcr.EffectiveAclCache.EffectiveAcl;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.SessionCache;
+import org.modeshape.jcr.security.SecurityContext;
 import org.modeshape.jcr.security.SimplePrincipal;
 import org.modeshape.jcr.security.acl.AccessControlPolicyIteratorImpl;
 import org.modeshape.jcr.security.acl.JcrAccessControlList;
@@ -256,6 +262,7 @@ public class AccessControlManagerImpl implements AccessControlManager {
                 session.aclRemoved(1);
             }
         }
+        session.aclModified();
     }
 
     @Override
@@ -279,6 +286,7 @@ public class AccessControlManagerImpl implements AccessControlManager {
                 session.aclRemoved(aclNode.childCount());
                 aclNode.remove();
                 node.removeMixin(MODE_ACCESS_CONTROLLABLE);
+                session.aclModified();
             }
         } catch (PathNotFoundException e) {
         }
@@ -377,20 +385,73 @@ public class AccessControlManagerImpl implements AccessControlManager {
 
     public boolean hasPermission( Path absPath,
                                   String... actions ) {
+        return hasPermission(absPath, null, actions);
+    }
+
+    /**
+     * Checks the permissions on the node with the given path and key. When the key is known and the session has no transient
+     * changes, the repository-wide {@link EffectiveAclCache cache} of effective ACLs is used rather than searching and reading
+     * the access list of the node or its ancestors.
+     * 
+     * @param absPath the absolute path of the node
+     * @param key the key of the node; may be null if not known
+     * @param actions the actions
+     * @return true if the actions are permitted
+     */
+    public boolean hasPermission( Path absPath,
+                                  NodeKey key,
+                                  String... actions ) {
         // convert actions to privileges
         Privilege[] permissions = new Privilege[actions.length];
         for (int i = 0; i < actions.length; i++) {
             permissions[i] = privileges.forAction(actions[i]);
         }
 
-        // check privileges for the given path
+        // check privileges for the given node
         try {
+            EffectiveAcl acl = effectiveAclFor(key);
+            if (found(acl)) {
+                SecurityContext context = session.context().getSecurityContext();
+                if (acl.isDefault()) return defaultACL.hasPrivileges(context, permissions);
+                return acl.isEmpty() || acl.hasPrivileges(context, EffectiveAclCache.requiredBitsFor(permissions));
+            }
             return this.hasPrivileges(absPath.toString(), permissions);
         } catch (Exception e) {
             return true;
         }
     }
 
+    /**
+     * Gets the cached effective access list of the node with the given key.
+     * 
+     * @param key the key of the node; may be null
+     * @return the effective access list, or null if it cannot be used because the key is not known, the session has transient
+     *         changes (which may include changes to access lists), or the node is not in the session's workspace
+     */
+    private EffectiveAcl effectiveAclFor( NodeKey key ) {
+        if (key == null) return null;
+        SessionCache cache = session.cache();
+        if (cache.hasChanges()) return null;
+        if (!cache.getRootKey().getWorkspaceKey().equals(key.getWorkspaceKey())) return null;
+        EffectiveAclCache aclCache = session.repository().runningState().aclCache();
+        if (isInTransaction()) {
+            // The session sees the changes saved within the transaction, which are not committed and may be rolled back,
+            // so the access list must not be shared with other sessions ...
+            return aclCache.resolveEffectiveAcl(key, cache);
+        }
+        return aclCache.effectiveAclFor(key, cache);
+    }
+
+    private boolean isInTransaction() {
+        try {
+            Transaction txn = session.repository().transactionManager().getTransaction();
+            return txn != null;
+        } catch (SystemException e) {
+            // Assume there is a transaction, which just means the cached access lists are not used ...
+            return true;
+        }
+    }
+
     /**
      * Gets principal instance for the given name. This method uses feature of the security context to discover known principals.
      * 
@@ -0,0 +1,455 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.jcr.security.Privilege;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.security.SecurityContext;
+import org.modeshape.jcr.security.SimplePrincipal;
+import org.modeshape.jcr.security.acl.PrivilegeImpl;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicName;
+
+/**
+ * A repository-wide cache of the access control list that is in effect for each node, keyed by the node's {@link NodeKey}. The
+ * effective ACL of a node is the ACL stored in the <code>mode:acl</code> child of the node itself or of its closest ancestor, or
+ * the default ACL when neither the node nor any of its ancestors has one. Each ACL is compiled once into a bitset of the granted
+ * privileges per principal, and is shared by all of the nodes that inherit it.
+ * <p>
+ * Resolving the effective ACL of a node walks up the ancestors only until it finds a node whose effective ACL is already cached
+ * (or which has an ACL of its own), and then caches the result for every node it passed. So the ancestors of a node are visited at
+ * most once, no matter how many times the permissions on the node and its siblings are checked.
+ * </p>
+ * <p>
+ * The cache listens to the repository's change bus and is invalidated precisely: changes to the entries of an existing ACL only
+ * evict the nodes that use that ACL, while adding or removing an ACL or moving a node (which can change which ACL a whole subtree
+ * inherits) evicts the nodes of that workspace.
+ * </p>
+ */
+@ThreadSafe
+final class EffectiveAclCache implements ChangeSetListener {
+
+    /**
+     * The default maximum number of nodes whose effective ACL is cached.
+     */
+    static final int DEFAULT_MAXIMUM_SIZE = 100000;
+
+    private static final Name ACCESS_LIST_NODE = new BasicName(ModeShapeLexicon.Namespace.URI, "acl");
+    private static final Name PRINCIPAL_NAME = new BasicName("", "name");
+    private static final Name PRIVILEGES = new BasicName("", "privileges");
+
+    /**
+     * The bit that is required (but never granted) for privileges that are not known.
+     */
+    private static final int UNKNOWN_PRIVILEGE = 1 << 31;
+
+    /**
+     * The bit of each privilege, by local name.
+     */
+    private static final Map<String, Integer> PRIVILEGE_BITS = new HashMap<String, Integer>();
+
+    /**
+     * The bits that are granted by each privilege, which for aggregate privileges include the bits of the aggregated ones.
+     */
+    private static final Map<String, Integer> GRANTED_BITS = new HashMap<String, Integer>();
+
+    static {
+        String[] names = {Privilege.JCR_READ, Privilege.JCR_MODIFY_PROPERTIES, Privilege.JCR_ADD_CHILD_NODES,
+            Privilege.JCR_REMOVE_NODE, Privilege.JCR_REMOVE_CHILD_NODES, Privilege.JCR_READ_ACCESS_CONTROL,
+            Privilege.JCR_MODIFY_ACCESS_CONTROL, Privilege.JCR_LOCK_MANAGEMENT, Privilege.JCR_VERSION_MANAGEMENT,
+            Privilege.JCR_NODE_TYPE_MANAGEMENT, Privilege.JCR_RETENTION_MANAGEMENT, Privilege.JCR_LIFECYCLE_MANAGEMENT,
+            Privilege.JCR_WRITE, Privilege.JCR_ALL};
+        for (int i = 0; i != names.length; ++i) {
+            PRIVILEGE_BITS.put(localName(names[i]), 1 << i);
+            GRANTED_BITS.put(localName(names[i]), 1 << i);
+        }
+        int write = bitOf(Privilege.JCR_WRITE) | bitOf(Privilege.JCR_MODIFY_PROPERTIES) | bitOf(Privilege.JCR_ADD_CHILD_NODES)
+                    | bitOf(Privilege.JCR_REMOVE_NODE) | bitOf(Privilege.JCR_REMOVE_CHILD_NODES);
+        GRANTED_BITS.put(localName(Privilege.JCR_WRITE), write);
+        GRANTED_BITS.put(localName(Privilege.JCR_ALL), (1 << names.length) - 1);
+    }
+
+    private static int bitOf( String privilegeName ) {
+        return PRIVILEGE_BITS.get(localName(privilegeName));
+    }
+
+    private static String localName( String privilegeName ) {
+        int index = Math.max(privilegeName.lastIndexOf('}'), privilegeName.lastIndexOf(':'));
+        return privilegeName.substring(index + 1);
+    }
+
+    /**
+     * Compute the bits that must be granted for all of the supplied privileges.
+     * 
+     * @param privileges the privileges; may not be null
+     * @return the required bits
+     */
+    static int requiredBitsFor( Privilege[] privileges ) {
+        int required = 0;
+        for (Privilege privilege : privileges) {
+            String name = privilege instanceof PrivilegeImpl ? ((PrivilegeImpl)privilege).localName() : localName(privilege.getName());
+            Integer bit = PRIVILEGE_BITS.get(name);
+            required |= bit != null ? bit : UNKNOWN_PRIVILEGE;
+        }
+        return required;
+    }
+
+    private static int grantedBitsFor( Property privileges ) {
+        int granted = 0;
+        if (privileges == null) return granted;
+        for (Object value : privileges) {
+            Integer bits = GRANTED_BITS.get(localName(value.toString()));
+            if (bits != null) granted |= bits;
+        }
+        return granted;
+    }
+
+    private final ConcurrentMap<NodeKey, EffectiveAcl> aclsByNodeKey = new ConcurrentHashMap<NodeKey, EffectiveAcl>();
+    private final AtomicLong generation = new AtomicLong();
+    private final int maximumSize;
+
+    EffectiveAclCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    EffectiveAclCache( int maximumSize ) {
+        assert maximumSize > 0;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Get the access control list that is in effect for the node with the supplied key, resolving and caching it if required.
+     * 
+     * @param key the key of the node; may not be null
+     * @param cache the cache that should be used to read the node and its ancestors; may not be null and should not contain
+     *        transient changes
+     * @return the effective ACL, or null if it could not be resolved (e.g., the node does not exist or one of its ancestors is
+     *         in another workspace)
+     */
+    EffectiveAcl effectiveAclFor( NodeKey key,
+                                  NodeCache cache ) {
+        return effectiveAclFor(key, cache, true);
+    }
+
+    /**
+     * Get the access control list that is in effect for the node with the supplied key, without using the cached ACLs. This
+     * should be used when the supplied cache may contain changes that are not yet committed (such as when indexing the changes
+     * of a session), or when the cached ACLs may not have been invalidated yet.
+     * 
+     * @param key the key of the node; may not be null
+     * @param cache the cache that should be used to read the node and its ancestors; may not be null
+     * @return the effective ACL, or null if it could not be resolved (e.g., the node does not exist or one of its ancestors is
+     *         in another workspace)
+     */
+    EffectiveAcl resolveEffectiveAcl( NodeKey key,
+                                      NodeCache cache ) {
+        return effectiveAclFor(key, cache, false);
+    }
+
+    private EffectiveAcl effectiveAclFor( NodeKey key,
+                                          NodeCache cache,
+                                          boolean useCache ) {
+        EffectiveAcl acl = useCache ? aclsByNodeKey.get(key) : null;
+        if (acl != null) return acl;
+
+        long startingGeneration = generation.get();
+        String workspaceKey = key.getWorkspaceKey();
+        List<NodeKey> visited = new ArrayList<NodeKey>();
+        NodeKey nodeKey = key;
+        while (true) {
+            CachedNode node = cache.getNode(nodeKey);
+            if (node == null) return null;
+            visited.add(nodeKey);
+            ChildReference aclRef = node.getChildReferences(cache).getChild(ACCESS_LIST_NODE);
+            if (aclRef != null) {
+                acl = compile(nodeKey, cache.getNode(aclRef.getKey()), cache);
+                if (acl == null) return null;
+                break;
+            }
+            NodeKey parentKey = node.getParentKey(cache);
+            if (parentKey == null) {
+                acl = EffectiveAcl.DEFAULT;
+                break;
+            }
+            if (!workspaceKey.equals(parentKey.getWorkspaceKey())) return null;
+            if (useCache) {
+                acl = aclsByNodeKey.get(parentKey);
+                if (acl != null) break;
+            }
+            nodeKey = parentKey;
+        }
+        if (!useCache) return acl;
+
+        // Cache the ACL for all of the nodes that were visited, unless the cache was invalidated in the meantime ...
+        if (aclsByNodeKey.size() + visited.size() > maximumSize) aclsByNodeKey.clear();
+        for (NodeKey visitedKey : visited) {
+            aclsByNodeKey.putIfAbsent(visitedKey, acl);
+        }
+        if (generation.get() != startingGeneration) {
+            for (NodeKey visitedKey : visited) {
+                aclsByNodeKey.remove(visitedKey, acl);
+            }
+        }
+        return acl;
+    }
+
+    private EffectiveAcl compile( NodeKey ownerKey,
+                                  CachedNode aclNode,
+                                  NodeCache cache ) {
+        if (aclNode == null) return null;
+        Set<NodeKey> sourceKeys = new HashSet<NodeKey>();
+        sourceKeys.add(aclNode.getKey());
+        Map<String, Integer> grantsByPrincipal = new LinkedHashMap<String, Integer>();
+        for (ChildReference entryRef : aclNode.getChildReferences(cache)) {
+            CachedNode entry = cache.getNode(entryRef.getKey());
+            if (entry == null) return null;
+            sourceKeys.add(entry.getKey());
+            Property principal = entry.getProperty(PRINCIPAL_NAME, cache);
+            if (principal == null || principal.isEmpty()) continue;
+            String principalName = principal.getFirstValue().toString();
+            int granted = grantedBitsFor(entry.getProperty(PRIVILEGES, cache));
+            Integer existing = grantsByPrincipal.get(principalName);
+            grantsByPrincipal.put(principalName, existing != null ? existing | granted : granted);
+        }
+        return new EffectiveAcl(ownerKey, sourceKeys, grantsByPrincipal);
+    }
+
+    /**
+     * Evict the effective ACLs of all nodes in the workspace with the supplied key.
+     * 
+     * @param workspaceKey the key of the workspace; may not be null
+     */
+    void invalidateWorkspace( String workspaceKey ) {
+        generation.incrementAndGet();
+        for (Iterator<NodeKey> iter = aclsByNodeKey.keySet().iterator(); iter.hasNext();) {
+            if (workspaceKey.equals(iter.next().getWorkspaceKey())) iter.remove();
+        }
+    }
+
+    /**
+     * Evict the effective ACLs that were compiled from any of the supplied ACL or ACL entry nodes.
+     * 
+     * @param sourceKeys the keys of the changed ACL nodes or ACL entry nodes; may not be null
+     */
+    void invalidateAclsFrom( Set<NodeKey> sourceKeys ) {
+        generation.incrementAndGet();
+        for (Iterator<EffectiveAcl> iter = aclsByNodeKey.values().iterator(); iter.hasNext();) {
+            if (iter.next().isCompiledFromAny(sourceKeys)) iter.remove();
+        }
+    }
+
+    /**
+     * Get the number of nodes whose effective ACL is currently cached.
+     * 
+     * @return the number of cached nodes
+     */
+    int size() {
+        return aclsByNodeKey.size();
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        Set<String> workspacesToInvalidate = null;
+        Set<NodeKey> changedAclNodes = null;
+        for (Change change : changeSet) {
+            if (!(change instanceof AbstractNodeChange)) continue;
+            AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+            NodeKey key = nodeChange.getKey();
+            if (change instanceof NodeMoved || isAccessListNode(nodeChange.getPath())) {
+                // Moving a node or adding/removing an ACL can change the ACL that a whole subtree inherits ...
+                if (workspacesToInvalidate == null) workspacesToInvalidate = new HashSet<String>();
+                workspacesToInvalidate.add(key.getWorkspaceKey());
+            } else if (isInAccessList(nodeChange.getPath())) {
+                // An entry of an existing ACL was added, changed or removed ...
+                if (changedAclNodes == null) changedAclNodes = new HashSet<NodeKey>();
+                changedAclNodes.add(key);
+                if (change instanceof NodeAdded) changedAclNodes.add(((NodeAdded)change).getParentKey());
+                if (change instanceof NodeRemoved) changedAclNodes.add(((NodeRemoved)change).getParentKey());
+            } else if (change instanceof NodeRemoved) {
+                aclsByNodeKey.remove(key);
+            }
+        }
+        if (workspacesToInvalidate != null) {
+            for (String workspaceKey : workspacesToInvalidate) {
+                invalidateWorkspace(workspaceKey);
+            }
+        }
+        if (changedAclNodes != null) invalidateAclsFrom(changedAclNodes);
+    }
+
+    private static boolean isAccessListNode( Path path ) {
+        return path != null && !path.isRoot() && ACCESS_LIST_NODE.equals(path.getLastSegment().getName());
+    }
+
+    private static boolean isInAccessList( Path path ) {
+        return accessListOwnerPath(path) != null;
+    }
+
+    /**
+     * Get the path of the node that owns the ACL containing the node at the supplied path.
+     * 
+     * @param path the path of the ACL node or of an ACL entry node; may be null
+     * @return the path of the node that owns the ACL, or null if the path is not within an ACL
+     */
+    static Path accessListOwnerPath( Path path ) {
+        if (path == null) return null;
+        int index = 0;
+        for (Path.Segment segment : path) {
+            if (ACCESS_LIST_NODE.equals(segment.getName())) return path.subpath(0, index);
+            ++index;
+        }
+        return null;
+    }
+
+    /**
+     * The compiled form of the access control list that is in effect for one or more nodes.
+     */
+    @Immutable
+    static final class EffectiveAcl {
+        /**
+         * The ACL used when neither a node nor any of its ancestors has an ACL.
+         */
+        static final EffectiveAcl DEFAULT = new EffectiveAcl(null, Collections.<NodeKey>emptySet(),
+                                                                    Collections.<String, Integer>emptyMap());
+
+        private final NodeKey ownerKey;
+        private final Set<NodeKey> sourceKeys;
+        private final String[] principals;
+        private final int[] grantedBits;
+        private final String[] readPrincipals;
+
+        EffectiveAcl( NodeKey ownerKey,
+                      Set<NodeKey> sourceKeys,
+                      Map<String, Integer> grantsByPrincipal ) {
+            this.ownerKey = ownerKey;
+            this.sourceKeys = sourceKeys;
+            this.principals = new String[grantsByPrincipal.size()];
+            this.grantedBits = new int[grantsByPrincipal.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : grantsByPrincipal.entrySet()) {
+                principals[i] = entry.getKey();
+                grantedBits[i] = entry.getValue();
+                ++i;
+            }
+            int read = PRIVILEGE_BITS.get(localName(Privilege.JCR_READ));
+            List<String> readers = new ArrayList<String>();
+            for (i = 0; i != principals.length; ++i) {
+                if ((grantedBits[i] & read) == read) readers.add(principals[i]);
+            }
+            this.readPrincipals = readers.toArray(new String[readers.size()]);
+        }
+
+        /**
+         * Get the key of the node that owns this ACL.
+         * 
+         * @return the key of the owning node, or null if this is the {@link #DEFAULT default} ACL
+         */
+        NodeKey getOwnerKey() {
+            return ownerKey;
+        }
+
+        boolean isDefault() {
+            return this == DEFAULT;
+        }
+
+        /**
+         * Determine whether this ACL has no entries, in which case it grants all privileges.
+         * 
+         * @return true if there are no entries
+         */
+        boolean isEmpty() {
+            return principals.length == 0;
+        }
+
+        /**
+         * Get the principals that are granted {@link Privilege#JCR_READ read} access by this ACL.
+         * 
+         * @return the names of the principals, which is empty if no principal can read; or null if this is the default ACL or an
+         *         empty ACL, which grant read access to everyone
+         */
+        String[] getReadPrincipals() {
+            if (isDefault() || isEmpty()) return null;
+            return readPrincipals.clone();
+        }
+
+        boolean isCompiledFromAny( Set<NodeKey> keys ) {
+            for (NodeKey key : keys) {
+                if (sourceKeys.contains(key)) return true;
+            }
+            return false;
+        }
+
+        /**
+         * Determine whether a single entry that applies to the user of the supplied security context grants all of the required
+         * privileges, using the same rules as {@link org.modeshape.jcr.security.acl.JcrAccessControlList#hasPrivileges}.
+         * 
+         * @param context the security context; may not be null
+         * @param requiredBits the {@link EffectiveAclCache#requiredBitsFor(Privilege[]) bits} of the required privileges
+         * @return true if the privileges are granted
+         */
+        boolean hasPrivileges( SecurityContext context,
+                               int requiredBits ) {
+            String username = null;
+            for (int i = 0; i != principals.length; ++i) {
+                if ((grantedBits[i] & requiredBits) != requiredBits) continue;
+                String principal = principals[i];
+                if (SimplePrincipal.EVERYONE.getName().equals(principal)) return true;
+                if (username == null) username = username(context.getUserName());
+                if (principal.equals(username) || context.hasRole(principal)) return true;
+            }
+            return false;
+        }
+
+        private static String username( String username ) {
+            if (username == null) return "";
+            return (username.startsWith("<") && username.endsWith(">")) ? username.substring(1, username.length() - 1) : username;
+        }
+    }
+}
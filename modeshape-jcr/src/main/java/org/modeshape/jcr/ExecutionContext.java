@@ -47,6 +47,7 @@ import org.modeshape.jcr.value.BinaryFactory;
 import org.modeshape.jcr.value.DateTimeFactory;
 import org.modeshape.jcr.value.NameFactory;
 import org.modeshape.jcr.value.NamespaceRegistry;
+import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.PathFactory;
 import org.modeshape.jcr.value.Property;
 import org.modeshape.jcr.value.PropertyFactory;
@@ -124,6 +125,8 @@ public final class ExecutionContext implements ThreadPoolFactory, Cloneable, Nam
     private final UuidFactory uuidFactory;
     private final ValueFactory<Object> objectFactory;
     private final TypeSystem typeSystem;
+    /** The cache of path segments, which is created only when needed since many contexts never use it. */
+    private volatile InterningCache<String, Path.Segment> segmentCache;
 
     /**
      * Create an instance of an execution context that uses the {@link AccessController#getContext() current JAAS calling context}
@@ -455,6 +458,27 @@ public final class ExecutionContext implements ThreadPoolFactory, Cloneable, Nam
         return Collections.unmodifiableMap(data);
     }
 
+    /**
+     * Get the cache of the path segments that have an SNS index of 1, keyed by the string form of their names. Components can
+     * use this cache to reuse the segments rather than parsing the same names over and over again. Each context has its own
+     * cache, since the names that are parsed from a string depend upon the context's namespace registry.
+     * 
+     * @return the cache of segments; never null
+     */
+    public InterningCache<String, Path.Segment> getSegmentCache() {
+        InterningCache<String, Path.Segment> cache = segmentCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = segmentCache;
+                if (cache == null) {
+                    cache = new InterningCache<String, Path.Segment>();
+                    segmentCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
     /**
      * Get the text decoder for this context.
      * 
@@ -0,0 +1,292 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+
+/**
+ * A bounded cache of immutable values (such as {@link org.modeshape.jcr.value.Name names} or
+ * {@link org.modeshape.jcr.value.Path.Segment path segments}) that are expensive to create and that are requested many times by
+ * many threads, so that components can reuse a single instance for each key.
+ * <p>
+ * The cache is split into shards that are selected by the hash code of the key, and each shard is a {@link ConcurrentHashMap}
+ * so that lookups never lock. When a shard holds more than its share of the capacity, it evicts values with a "second chance"
+ * (or CLOCK) policy that approximates LRU: each lookup marks the value as referenced, and eviction removes the values that were
+ * not referenced since the previous eviction. Only one thread evicts from a given shard at a time, and other threads never wait
+ * for it.
+ * </p>
+ * 
+ * @param <K> the type of key
+ * @param <V> the type of value
+ */
+@ThreadSafe
+public final class InterningCache<K, V> {
+
+    /**
+     * The default maximum number of values in a cache.
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final int MAXIMUM_SHARD_COUNT = 64;
+
+    private final Shard<K, V>[] shards;
+    private final int shardMask;
+
+    /**
+     * Create a cache with the {@link #DEFAULT_CAPACITY default capacity}.
+     */
+    public InterningCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create a cache with the supplied capacity and a number of shards that depends upon the number of processors.
+     * 
+     * @param capacity the maximum number of values in the cache; must be positive
+     */
+    public InterningCache( int capacity ) {
+        this(capacity, Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * Create a cache with the supplied capacity and number of shards.
+     * 
+     * @param capacity the maximum number of values in the cache; must be positive
+     * @param shardCount the number of shards, which is rounded up to a power of two; must be positive
+     */
+    @SuppressWarnings( "unchecked" )
+    public InterningCache( int capacity,
+                           int shardCount ) {
+        CheckArg.isPositive(capacity, "capacity");
+        CheckArg.isPositive(shardCount, "shardCount");
+        int count = 1;
+        while (count < shardCount && count < MAXIMUM_SHARD_COUNT) {
+            count <<= 1;
+        }
+        this.shards = new Shard[count];
+        int shardCapacity = Math.max(1, capacity / count);
+        for (int i = 0; i != count; ++i) {
+            this.shards[i] = new Shard<K, V>(shardCapacity);
+        }
+        this.shardMask = count - 1;
+    }
+
+    private Shard<K, V> shardFor( Object key ) {
+        int hash = key.hashCode();
+        // Spread the higher bits, since the shard is selected by the lower bits ...
+        hash ^= (hash >>> 16);
+        hash ^= (hash >>> 7);
+        return shards[hash & shardMask];
+    }
+
+    /**
+     * Get the value with the supplied key.
+     * 
+     * @param key the key; may not be null
+     * @return the value, or null if there is no value in the cache with the supplied key
+     */
+    public V get( K key ) {
+        return shardFor(key).get(key);
+    }
+
+    /**
+     * Add the supplied value to the cache, unless there already is a value with the supplied key.
+     * 
+     * @param key the key; may not be null
+     * @param value the value; may not be null
+     * @return the value in the cache, which is the existing value if there was one or the supplied value otherwise
+     */
+    public V intern( K key,
+                     V value ) {
+        assert value != null;
+        return shardFor(key).intern(key, value);
+    }
+
+    /**
+     * Remove all values from the cache.
+     */
+    public void clear() {
+        for (Shard<K, V> shard : shards) {
+            shard.clear();
+        }
+    }
+
+    /**
+     * Get the number of values in the cache.
+     * 
+     * @return the number of values
+     */
+    public int size() {
+        int size = 0;
+        for (Shard<K, V> shard : shards) {
+            size += shard.size.get();
+        }
+        return size;
+    }
+
+    /**
+     * Get the number of lookups that found a value.
+     * 
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        long count = 0L;
+        for (Shard<K, V> shard : shards) {
+            count += shard.hits.get();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of lookups that did not find a value.
+     * 
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        long count = 0L;
+        for (Shard<K, V> shard : shards) {
+            count += shard.misses.get();
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of values that were evicted because the cache was full.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        long count = 0L;
+        for (Shard<K, V> shard : shards) {
+            count += shard.evictions.get();
+        }
+        return count;
+    }
+
+    /**
+     * Get the fraction of lookups that found a value.
+     * 
+     * @return the hit rate, between 0.0 and 1.0 (inclusive), or 0.0 if there were no lookups
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long total = hits + getMissCount();
+        return total == 0L ? 0.0d : (double)hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "InterningCache(size=" + size() + ", hits=" + getHitCount() + ", misses=" + getMissCount() + ")";
+    }
+
+    protected static final class Entry<V> {
+        protected final V value;
+        protected volatile boolean referenced;
+
+        protected Entry( V value ) {
+            this.value = value;
+        }
+    }
+
+    protected static final class Shard<K, V> {
+        // The shards already spread the writes, so each map needs only a few segments ...
+        private final ConcurrentMap<K, Entry<V>> entries = new ConcurrentHashMap<K, Entry<V>>(16, 0.75f, 4);
+        private final ReentrantLock evictionLock = new ReentrantLock();
+        private final int capacity;
+        protected final AtomicInteger size = new AtomicInteger();
+        protected final AtomicLong hits = new AtomicLong();
+        protected final AtomicLong misses = new AtomicLong();
+        protected final AtomicLong evictions = new AtomicLong();
+
+        protected Shard( int capacity ) {
+            this.capacity = capacity;
+        }
+
+        protected V get( Object key ) {
+            Entry<V> entry = entries.get(key);
+            if (entry == null) {
+                misses.incrementAndGet();
+                return null;
+            }
+            // Only write the flag when it changes, so that reads of popular values do not invalidate CPU caches ...
+            if (!entry.referenced) entry.referenced = true;
+            hits.incrementAndGet();
+            return entry.value;
+        }
+
+        protected V intern( K key,
+                            V value ) {
+            Entry<V> existing = entries.putIfAbsent(key, new Entry<V>(value));
+            if (existing != null) return existing.value;
+            if (size.incrementAndGet() > capacity) evict();
+            return value;
+        }
+
+        protected void clear() {
+            evictionLock.lock();
+            try {
+                Iterator<Map.Entry<K, Entry<V>>> iter = entries.entrySet().iterator();
+                while (iter.hasNext()) {
+                    Map.Entry<K, Entry<V>> entry = iter.next();
+                    if (entries.remove(entry.getKey(), entry.getValue())) size.decrementAndGet();
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+
+        private void evict() {
+            // Another thread is already evicting, so just let it do the work ...
+            if (!evictionLock.tryLock()) return;
+            try {
+                // Evict a tenth of the capacity at once, so that eviction is not needed for every new value ...
+                int target = capacity - capacity / 10;
+                for (int pass = 0; pass != 2 && size.get() > target; ++pass) {
+                    Iterator<Map.Entry<K, Entry<V>>> iter = entries.entrySet().iterator();
+                    while (iter.hasNext() && size.get() > target) {
+                        Map.Entry<K, Entry<V>> entry = iter.next();
+                        Entry<V> value = entry.getValue();
+                        if (value.referenced) {
+                            // Give it a second chance ...
+                            value.referenced = false;
+                        } else if (entries.remove(entry.getKey(), value)) {
+                            size.decrementAndGet();
+                            evictions.incrementAndGet();
+                        }
+                    }
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+    }
+}
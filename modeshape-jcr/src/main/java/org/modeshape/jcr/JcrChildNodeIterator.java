@@ -36,16 +36,33 @@ import org.modeshape.jcr.cache.ChildReferences;
 /**
  * A concrete {@link NodeIterator} implementation for children. Where possible, the creator should pass in the size. However, if
  * it is not known, the size is computed by this iterator only when needed.
+ * <p>
+ * The iterator reads the child references {@value #PREFETCH_SIZE} at a time, and asks the {@link NodeResolver resolver} to
+ * {@link NodeResolver#prefetch(List) prefetch} each batch of children before resolving them one by one.
+ * </p>
  */
 @NotThreadSafe
 final class JcrChildNodeIterator implements NodeIterator {
 
     protected static interface NodeResolver {
         public Node nodeFrom( ChildReference ref );
+
+        /**
+         * Load the children with the supplied references, which are about to be {@link #nodeFrom(ChildReference) resolved}.
+         * 
+         * @param refs the references to the children; never null or empty
+         */
+        public void prefetch( List<ChildReference> refs );
     }
 
+    /**
+     * The number of child references that are read and prefetched at once.
+     */
+    protected static final int PREFETCH_SIZE = 100;
+
     private final NodeResolver resolver;
     private final Iterator<ChildReference> iterator;
+    private final LinkedList<ChildReference> batch = new LinkedList<ChildReference>();
     private Iterator<Node> nodeIterator;
     private int ndx;
     private long size;
@@ -81,8 +98,8 @@ final class JcrChildNodeIterator implements NodeIterator {
         // Otherwise, we have to iterate through the remaining iterator and keep the results ...
         List<Node> remainingNodes = new LinkedList<Node>();
         size = ndx;
-        while (iterator.hasNext()) {
-            Node node = resolver.nodeFrom(iterator.next());
+        while (hasNextReference()) {
+            Node node = resolver.nodeFrom(nextReference());
             if (node != null) {
                 remainingNodes.add(node);
                 ++size;
@@ -94,7 +111,7 @@ final class JcrChildNodeIterator implements NodeIterator {
 
     @Override
     public boolean hasNext() {
-        return nodeIterator != null ? nodeIterator.hasNext() : iterator.hasNext();
+        return nodeIterator != null ? nodeIterator.hasNext() : hasNextReference();
     }
 
     @Override
@@ -109,13 +126,28 @@ final class JcrChildNodeIterator implements NodeIterator {
         }
         Node child = null;
         do {
-            ChildReference childRef = iterator.next();
+            ChildReference childRef = nextReference();
             child = resolver.nodeFrom(childRef);
         } while (child == null);
         ndx++;
         return child;
     }
 
+    private boolean hasNextReference() {
+        return !batch.isEmpty() || iterator.hasNext();
+    }
+
+    private ChildReference nextReference() {
+        if (batch.isEmpty()) {
+            // Read the next batch of references and prefetch the nodes ...
+            while (batch.size() < PREFETCH_SIZE && iterator.hasNext()) {
+                batch.add(iterator.next());
+            }
+            if (batch.size() > 1) resolver.prefetch(batch);
+        }
+        return batch.removeFirst();
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
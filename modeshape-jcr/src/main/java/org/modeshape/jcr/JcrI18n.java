@@ -103,6 +103,11 @@ public final class JcrI18n {
     public static I18n unableToInitializeAuthenticationProvider;
     public static I18n errorInAuthenticationProvider;
     public static I18n unableToInitializeSequencer;
+    public static I18n unableToStartSequencingWorkJournal;
+    public static I18n errorRecordingSequencingWork;
+    public static I18n resumingSequencingWork;
+    public static I18n sequencingWillBeRetried;
+    public static I18n unableToFindSequencerForResumedWork;
     public static I18n unableToInitializeTextExtractor;
     public static I18n unableToInitializeConnector;
     public static I18n requiredFieldNotSetInConnector;
@@ -377,6 +382,19 @@ public final class JcrI18n {
     // JcrObservationManager messages
     public static I18n cannotCreateUuid;
     public static I18n cannotPerformNodeTypeCheck;
+    public static I18n errorNotifyingEventListener;
+    public static I18n eventListenerQueueOverflowed;
+    public static I18n unableToCreateJournalDirectory;
+    public static I18n errorWritingToJournal;
+    public static I18n errorReadingFromJournal;
+    public static I18n unableToDeleteJournalSegment;
+    public static I18n journalSegmentTruncated;
+    public static I18n unableToCreateWorkJournalDirectory;
+    public static I18n unableToReplaceWorkJournal;
+    public static I18n errorReadingWorkJournalItem;
+    public static I18n errorWritingToWorkJournal;
+    public static I18n workJournalTruncated;
+    public static I18n workJournalIsNotRunning;
     public static I18n sessionIsNotActive;
 
     // Versioning messages
@@ -508,6 +526,8 @@ public final class JcrI18n {
     public static I18n reindexMissingNoIndexesExist;
     public static I18n noReindex;
     public static I18n reindexAll;
+    public static I18n reindexProgress;
+    public static I18n reindexCompleted;
     public static I18n noIndexesExist;
 
     public static I18n errorCreatingDatabaseTable;
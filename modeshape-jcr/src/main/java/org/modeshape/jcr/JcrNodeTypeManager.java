@@ -83,14 +83,24 @@ import org.xml.sax.helpers.XMLReaderFactory;
 @Immutable
 public class JcrNodeTypeManager implements NodeTypeManager {
 
+    /**
+     * The maximum number of node types with the session's context that are kept by each manager.
+     */
+    private static final int NODE_TYPE_CACHE_CAPACITY = 1000;
+
     private final JcrSession session;
     private final RepositoryNodeTypeManager repositoryTypeManager;
     private Schemata schemata;
+    /** The node types with the session's context, which were created from the {@link #cachedNodeTypes} snapshot */
+    private final InterningCache<Name, JcrNodeType> nodeTypeCache;
+    private volatile NodeTypes cachedNodeTypes;
 
     JcrNodeTypeManager( JcrSession session,
                         RepositoryNodeTypeManager repositoryTypeManager ) {
         this.session = session;
         this.repositoryTypeManager = repositoryTypeManager;
+        // Each session uses only a few node types at once, so a single shard is enough ...
+        this.nodeTypeCache = new InterningCache<Name, JcrNodeType>(NODE_TYPE_CACHE_CAPACITY, 1);
     }
 
     private final ExecutionContext context() {
@@ -107,6 +117,7 @@ public class JcrNodeTypeManager implements NodeTypeManager {
 
     void signalNamespaceChanges() {
         this.schemata = null;
+        this.nodeTypeCache.clear();
     }
 
     final NodeTypes nodeTypes() {
@@ -153,16 +164,18 @@ public class JcrNodeTypeManager implements NodeTypeManager {
      * @see NodeTypes#getNodeType(Name)
      */
     JcrNodeType getNodeType( Name nodeTypeName ) {
-        String identifier = nodeTypeName.getLocalName()+"_"+nodeTypeName.getNamespaceUri();
-        JcrNodeType nodeType = (JcrNodeType) GenericCacheContainer.getInstance().get(identifier);
+        NodeTypes nodeTypes = nodeTypes();
+        if (nodeTypes != cachedNodeTypes) {
+            // The node types were changed since they were cached ...
+            nodeTypeCache.clear();
+            cachedNodeTypes = nodeTypes;
+        }
+        JcrNodeType nodeType = nodeTypeCache.get(nodeTypeName);
         if (nodeType == null) {
-            nodeType = nodeTypes().getNodeType(nodeTypeName);
-
-            if (nodeType != null) {
-                nodeType = nodeType.with(context(), session);
-            }
-            GenericCacheContainer.getInstance().put(identifier, nodeType);
-        }        
+            nodeType = nodeTypes.getNodeType(nodeTypeName);
+            if (nodeType == null) return null;
+            nodeType = nodeTypeCache.intern(nodeTypeName, nodeType.with(context(), session));
+        }
         return nodeType;
     }
 
@@ -40,6 +40,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -68,7 +69,6 @@ import org.modeshape.jcr.cache.change.AbstractPropertyChange;
 import org.modeshape.jcr.cache.change.AbstractSequencingChange;
 import org.modeshape.jcr.cache.change.Change;
 import org.modeshape.jcr.cache.change.ChangeSet;
-import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.cache.change.NodeAdded;
 import org.modeshape.jcr.cache.change.NodeMoved;
 import org.modeshape.jcr.cache.change.NodeRemoved;
@@ -76,13 +76,14 @@ import org.modeshape.jcr.cache.change.NodeRenamed;
 import org.modeshape.jcr.cache.change.NodeReordered;
 import org.modeshape.jcr.cache.change.NodeSequenced;
 import org.modeshape.jcr.cache.change.NodeSequencingFailure;
-import org.modeshape.jcr.cache.change.Observable;
 import org.modeshape.jcr.cache.change.PropertyAdded;
 import org.modeshape.jcr.cache.change.PropertyChanged;
 import org.modeshape.jcr.cache.change.PropertyRemoved;
+import org.modeshape.jcr.journal.ChangeJournal;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.PathFactory;
+import org.modeshape.jcr.value.ValueFormatException;
 
 /**
  * The implementation of JCR {@link ObservationManager}.
@@ -111,9 +112,14 @@ final class JcrObservationManager implements ObservationManager {
     static final String ORDER_SRC_KEY = "srcChildRelPath";
 
     /**
-     * The repository observable the JCR listeners will be registered with.
+     * The mask of all event types
      */
-    private final Observable repositoryObservable;
+    private static final int ALL_EVENTS = ~0;
+
+    /**
+     * The repository's dispatcher the JCR listeners will be registered with.
+     */
+    private final ObservationDispatcher dispatcher;
 
     /**
      * The JCR repository listener wrappers.
@@ -133,19 +139,19 @@ final class JcrObservationManager implements ObservationManager {
 
     /**
      * @param session the owning session (never <code>null</code>)
-     * @param repositoryObservable the repository observable used to register JCR listeners (never <code>null</code>)
+     * @param dispatcher the repository's dispatcher used to register JCR listeners (never <code>null</code>)
      * @throws IllegalArgumentException if either parameter is <code>null</code>
      */
     JcrObservationManager( JcrSession session,
-                           Observable repositoryObservable ) {
+                           ObservationDispatcher dispatcher ) {
         CheckArg.isNotNull(session, "session");
-        CheckArg.isNotNull(repositoryObservable, "repositoryObservable");
+        CheckArg.isNotNull(dispatcher, "dispatcher");
 
         this.session = session;
         this.workspaceName = this.session.getWorkspace().getName();
         this.systemWorkspaceName = this.session.repository().systemWorkspaceName();
 
-        this.repositoryObservable = repositoryObservable;
+        this.dispatcher = dispatcher;
         this.listeners = Collections.newSetFromMap(new ConcurrentHashMap<JcrListenerAdapter, Boolean>());
     }
 
@@ -162,7 +168,7 @@ final class JcrObservationManager implements ObservationManager {
 
         // create wrapper and register
         JcrListenerAdapter adapter = new JcrListenerAdapter(listener, eventTypes, absPath, isDeep, uuid, nodeTypeName, noLocal);
-        if (this.repositoryObservable.register(adapter)) {
+        if (this.dispatcher.register(adapter)) {
             this.listeners.add(adapter);
         }
     }
@@ -226,7 +232,7 @@ final class JcrObservationManager implements ObservationManager {
     void removeAllEventListeners() {
         for (JcrListenerAdapter adapter : this.listeners) {
             assert (adapter != null);
-            this.repositoryObservable.unregister(adapter);
+            this.dispatcher.unregister(adapter);
         }
         this.listeners.clear();
     }
@@ -239,7 +245,7 @@ final class JcrObservationManager implements ObservationManager {
             JcrListenerAdapter adapter = adapterIterator.next();
             assert (adapter != null);
             if (adapter.delegate.equals(listener)) {
-                this.repositoryObservable.unregister(adapter);
+                this.dispatcher.unregister(adapter);
                 adapterIterator.remove();
                 break;
             }
@@ -255,20 +261,20 @@ final class JcrObservationManager implements ObservationManager {
     /**
      * {@inheritDoc}
      * <p>
-     * Since ModeShape does not support journaled observation, this method returns null.
+     * This method returns null if the repository is not configured to keep a journal of the events.
      * </p>
      * 
      * @see javax.jcr.observation.ObservationManager#getEventJournal()
      */
     @Override
-    public EventJournal getEventJournal() {
-        return null;
+    public EventJournal getEventJournal() throws RepositoryException {
+        return getEventJournal(ALL_EVENTS, null, true, null, null);
     }
 
     /**
      * {@inheritDoc}
      * <p>
-     * Since ModeShape does not support journaled observation, this method returns null.
+     * This method returns null if the repository is not configured to keep a journal of the events.
      * </p>
      * 
      * @see javax.jcr.observation.ObservationManager#getEventJournal(int, java.lang.String, boolean, java.lang.String[],
@@ -279,8 +285,13 @@ final class JcrObservationManager implements ObservationManager {
                                          String absPath,
                                          boolean isDeep,
                                          String[] uuid,
-                                         String[] nodeTypeName ) {
-        return null;
+                                         String[] nodeTypeName ) throws RepositoryException {
+        checkSession(); // make sure session is still active
+        ChangeJournal journal = session.repository().runningState().journal();
+        if (journal == null) {
+            return null;
+        }
+        return new JcrEventJournal(journal.cursor(), eventTypes, absPath, isDeep, uuid, nodeTypeName);
     }
 
     /**
@@ -659,12 +670,141 @@ final class JcrObservationManager implements ObservationManager {
         }
     }
 
+    /**
+     * An implementation of JCR {@link EventJournal} that reads the change sets from the repository's {@link ChangeJournal
+     * journal}, and uses a {@link JcrListenerAdapter} to select the changes and convert them into events in the same way as for
+     * a registered listener. The {@link #getPosition() position} is only approximate after {@link #skipTo(long)} is called, since
+     * the events in the change sets that are skipped are never read.
+     */
+    @NotThreadSafe
+    protected class JcrEventJournal implements EventJournal {
+
+        private final ChangeJournal.Cursor cursor;
+        private final JcrListenerAdapter adapter;
+        private final LinkedList<JcrEvent> pending = new LinkedList<JcrEvent>();
+        private long position;
+
+        protected JcrEventJournal( ChangeJournal.Cursor cursor,
+                                   int eventTypes,
+                                   String absPath,
+                                   boolean isDeep,
+                                   String[] uuids,
+                                   String[] nodeTypeNames ) {
+            this.cursor = cursor;
+            EventListener collector = new EventListener() {
+                @SuppressWarnings( "synthetic-access" )
+                @Override
+                public void onEvent( EventIterator events ) {
+                    while (events.hasNext()) {
+                        pending.add((JcrEvent)events.nextEvent());
+                    }
+                }
+            };
+            this.adapter = new JcrListenerAdapter(collector, eventTypes, absPath, isDeep, uuids, nodeTypeNames, false);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (pending.isEmpty() && cursor.hasNext()) {
+                readEvents(cursor.next());
+            }
+            return !pending.isEmpty();
+        }
+
+        private void readEvents( ChangeSet changeSet ) {
+            if (adapter.matchesNothing()) {
+                return;
+            }
+            List<AbstractNodeChange> changes = new ArrayList<AbstractNodeChange>();
+            for (Change change : changeSet) {
+                if (!(change instanceof AbstractNodeChange)) {
+                    continue;
+                }
+                AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+                if ((ObservationDispatcher.eventTypesFor(nodeChange) & adapter.eventTypes()) != 0) {
+                    changes.add(nodeChange);
+                }
+            }
+            if (!changes.isEmpty()) {
+                adapter.notify(changeSet, changes);
+            }
+        }
+
+        @Override
+        public Event nextEvent() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            ++position;
+            return pending.removeFirst();
+        }
+
+        @Override
+        public Object next() {
+            return nextEvent();
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * The journal finds the first change set at or after the date without reading the earlier change sets, so the
+         * {@link #getPosition() position} counts only the skipped events that were already read, and not the events in the change
+         * sets that the journal skipped.
+         * </p>
+         * 
+         * @see javax.jcr.observation.EventJournal#skipTo(long)
+         */
+        @Override
+        public void skipTo( long date ) {
+            if (!skipEventsBefore(date)) {
+                return;
+            }
+            cursor.skipTo(date);
+            // Change sets are recorded no earlier than the previous one, so a few of the next events may still be earlier ...
+            while (hasNext()) {
+                if (!skipEventsBefore(date)) {
+                    return;
+                }
+            }
+        }
+
+        private boolean skipEventsBefore( long date ) {
+            while (!pending.isEmpty() && pending.getFirst().getDate() < date) {
+                pending.removeFirst();
+                ++position;
+            }
+            return pending.isEmpty();
+        }
+
+        @Override
+        public void skip( long skipNum ) {
+            for (long i = 0; i < skipNum; ++i) {
+                nextEvent();
+            }
+        }
+
+        @Override
+        public long getSize() {
+            return -1;
+        }
+
+        @Override
+        public long getPosition() {
+            return position;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
     /**
      * The <code>JcrListener</code> class wraps JCR {@link EventListener} and is responsible for converting
      * {@link org.modeshape.jcr.cache.change.Change events} into JCR {@link Event events}.
      */
     @NotThreadSafe
-    class JcrListenerAdapter implements ChangeSetListener {
+    class JcrListenerAdapter {
 
         private final Logger logger = Logger.getLogger(getClass());
 
@@ -673,6 +813,16 @@ final class JcrObservationManager implements ObservationManager {
          */
         private final String absPath;
 
+        /**
+         * The parsed form of the <code>absPath</code>, or <code>null</code> if all node paths should be handled.
+         */
+        private final Path matchPath;
+
+        /**
+         * A flag indicating if the criteria of this listener exclude all events, in which case the listener is never notified.
+         */
+        private final boolean matchesNothing;
+
         /**
          * The JCR event listener.
          */
@@ -738,11 +888,34 @@ final class JcrObservationManager implements ObservationManager {
             }
             this.nodeTypeNames = nodeTypeNames;
             this.noLocal = noLocal;
+
+            // Parse the path once, rather than for every change ...
+            Path path = null;
+            boolean validPath = true;
+            if (!StringUtil.isBlank(absPath)) {
+                try {
+                    path = pathFactory().create(absPath);
+                    validPath = path.isAbsolute();
+                } catch (ValueFormatException e) {
+                    validPath = false;
+                }
+            }
+            this.matchPath = validPath ? path : null;
+            // JSR 283#12.5.3.4.2 and JSR 283#12.5.3.4.3
+            boolean noUuids = this.uuids != null && this.uuids.isEmpty();
+            boolean noNodeTypes = nodeTypeNames != null && nodeTypeNames.length == 0;
+            this.matchesNothing = !validPath || noUuids || noNodeTypes;
         }
 
-        @SuppressWarnings( "synthetic-access" )
-        @Override
-        public void notify( ChangeSet changeSet ) {
+        /**
+         * Process the supplied changes, which the {@link ObservationDispatcher dispatcher} found to be in the paths or nodes
+         * observed by this listener, and notify the JCR listener of the resulting events.
+         * 
+         * @param changeSet the change set; may not be null
+         * @param changes the changes from the change set that may be of interest to this listener; may not be null
+         */
+        void notify( ChangeSet changeSet,
+                     List<AbstractNodeChange> changes ) {
             if (shouldReject(changeSet)) {
                 return;
             }
@@ -752,7 +925,7 @@ final class JcrObservationManager implements ObservationManager {
             String userData = changeSet.getUserData().get(OBSERVATION_USER_DATA_KEY);
             JcrEventBundle bundle = new JcrEventBundle(changeSet.getTimestamp(), changeSet.getUserId(), userData);
 
-            for (Change change : changeSet) {
+            for (AbstractNodeChange change : changes) {
                 processChange(events, bundle, change);
             }
 
@@ -768,11 +941,7 @@ final class JcrObservationManager implements ObservationManager {
 
         private void processChange( Collection<Event> events,
                                     JcrEventBundle bundle,
-                                    Change change ) {
-            if (!(change instanceof AbstractNodeChange)) {
-                return;
-            }
-            AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+                                    AbstractNodeChange nodeChange ) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Received change: " + nodeChange);
             }
@@ -1027,13 +1196,12 @@ final class JcrObservationManager implements ObservationManager {
          */
         @SuppressWarnings( "synthetic-access" )
         private boolean acceptBasedOnPath( AbstractNodeChange change ) {
-            if (!StringUtil.isBlank(absPath)) {
-                Path matchPath = session.pathFactory().create(this.absPath);
+            if (matchPath != null) {
                 Path parentPath = parentNodePathOfChange(change);
 
                 return this.isDeep ? matchPath.isAtOrAbove(parentPath) : matchPath.equals(parentPath);
             }
-            return true;
+            return !matchesNothing;
         }
 
         /**
@@ -1046,11 +1214,58 @@ final class JcrObservationManager implements ObservationManager {
         }
 
         private Path parentNodePathOfChange( AbstractNodeChange change ) {
-            Path changePath = change.getPath();
-            if (change instanceof AbstractPropertyChange) {
-                return changePath;
-            }
-            return changePath.isRoot() ? changePath : changePath.getParent();
+            return ObservationDispatcher.parentNodePathOfChange(change);
+        }
+
+        /**
+         * @return the parsed absolute path whose events should be handled, or <code>null</code> if all node paths should be
+         *         handled
+         */
+        final Path matchPath() {
+            return matchPath;
+        }
+
+        /**
+         * @return <code>true</code> if events below the {@link #matchPath() path} should be handled
+         */
+        final boolean isDeep() {
+            return isDeep;
+        }
+
+        /**
+         * @return the event types this listener is interested in
+         */
+        final int eventTypes() {
+            return eventTypes;
+        }
+
+        /**
+         * @return the identifiers of the nodes whose events should be handled, or <code>null</code> if nodes with any
+         *         identifier should be handled
+         */
+        final Set<String> identifiers() {
+            return uuids;
+        }
+
+        /**
+         * @return <code>true</code> if the criteria of this listener exclude all events
+         */
+        final boolean matchesNothing() {
+            return matchesNothing;
+        }
+
+        /**
+         * @return the name of the workspace used by the session that registered this listener
+         */
+        final String workspaceName() {
+            return getWorkspaceName();
+        }
+
+        /**
+         * @return the key of the root node in the workspace used by the session that registered this listener
+         */
+        final NodeKey workspaceRootKey() {
+            return session.cache().getRootKey();
         }
 
         @Override
@@ -1064,6 +1279,11 @@ final class JcrObservationManager implements ObservationManager {
             return this.delegate.hashCode();
         }
 
+        @Override
+        public String toString() {
+            return this.delegate.toString();
+        }
+
         /**
          * @return <code>true</code> if the node type of the event locations need to be checked
          */
@@ -53,6 +53,7 @@ import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.JcrQuery;
 import org.modeshape.jcr.query.JcrQueryContext;
 import org.modeshape.jcr.query.JcrTypeSystem;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.QueryResults.Location;
 import org.modeshape.jcr.query.model.QueryCommand;
 import org.modeshape.jcr.query.model.QueryObjectModel;
@@ -70,6 +71,7 @@ import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
 import org.modeshape.jcr.value.ValueFactories;
+import org.modeshape.jcr.value.basic.LocalNamespaceRegistry;
 
 /**
  * Place-holder implementation of {@link QueryManager} interface.
@@ -128,17 +130,24 @@ class JcrQueryManager implements QueryManager {
             throw new InvalidQueryException(JcrI18n.invalidQueryLanguage.text(language, languages));
         }
         try {
-            // Parsing must be done now ...
-            QueryCommand command = parser.parseQuery(expression, typeSystem);
+            // Parsing must be done now, unless the same statement was already parsed ...
+            QueryPlanCache planCache = planCache();
+            Schemata schemata = planCache != null ? context.getSchemata() : null;
+            QueryCommand command = planCache != null ? planCache.getCommand(parser.getLanguage(), expression, schemata) : null;
             if (command == null) {
-                // The query is not well-formed and cannot be parsed ...
-                throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                command = parser.parseQuery(expression, typeSystem);
+                if (command == null) {
+                    // The query is not well-formed and cannot be parsed ...
+                    throw new InvalidQueryException(JcrI18n.queryCannotBeParsedUsingLanguage.text(language, expression));
+                }
+                if (planCache != null) planCache.putCommand(parser.getLanguage(), expression, schemata, command);
             }
             // Set up the hints ...
             PlanHints hints = new PlanHints();
             hints.showPlan = true;
             hints.hasFullTextSearch = true; // always include the score
             hints.validateColumnExistance = false; // see MODE-1055
+            hints.restrictToReadableNodes = true; // the results are filtered by the session's permissions anyway
             if (parser.getLanguage().equals(QueryLanguage.JCR_SQL2)) {
                 hints.qualifyExpandedColumnNames = true;
             }
@@ -178,6 +187,7 @@ class JcrQueryManager implements QueryManager {
             hints.showPlan = true;
             hints.hasFullTextSearch = true; // always include the score
             hints.qualifyExpandedColumnNames = true; // always qualify expanded names with the selector name in JCR-SQL2
+            hints.restrictToReadableNodes = true; // the results are filtered by the session's permissions anyway
             return resultWith(expression, QueryLanguage.JCR_SQL2, command, hints, null);
         } catch (org.modeshape.jcr.query.parse.InvalidQueryException e) {
             // The query was parsed, but there is an error in the query
@@ -186,6 +196,19 @@ class JcrQueryManager implements QueryManager {
         }
     }
 
+    /**
+     * Get the repository's cache of parsed queries, if the queries parsed by this session can be shared with other sessions.
+     * 
+     * @return the cache, or null if this session has its own namespace mappings (which may be used when parsing queries)
+     */
+    private QueryPlanCache planCache() {
+        NamespaceRegistry registry = session.context().getNamespaceRegistry();
+        if (registry instanceof LocalNamespaceRegistry && !((LocalNamespaceRegistry)registry).getLocalNamespaces().isEmpty()) {
+            return null;
+        }
+        return session.repository().runningState().queryManager().planCache();
+    }
+
     @Override
     public org.modeshape.jcr.api.query.Query getQuery( Node node ) throws InvalidQueryException, RepositoryException {
         AbstractJcrNode jcrNode = CheckArg.getInstanceOf(node, AbstractJcrNode.class, "node");
@@ -261,6 +284,11 @@ class JcrQueryManager implements QueryManager {
             RepositoryQueryManager queryManager = state.queryManager();
             RepositoryCache repoCache = state.repositoryCache();
             NodeCache nodeCache = hints.useSessionContent ? session.cache() : session.cache().getWorkspace();
+            if (hints.restrictToReadableNodes && session.cache().hasChanges()) {
+                // The indexed permissions don't reflect the session's transient changes to the access control lists ...
+                hints = hints.clone();
+                hints.restrictToReadableNodes = false;
+            }
             Map<String, NodeCache> overriddenNodeCaches = new HashMap<String, NodeCache>();
             overriddenNodeCaches.put(workspaceName, nodeCache);
             Set<String> workspaceNames = new HashSet<String>();
@@ -279,7 +307,7 @@ class JcrQueryManager implements QueryManager {
             if (location != null) {
                 Path path = location.getPath();
                 try {
-                    session.checkPermission(path, ModeShapePermissions.READ);
+                    session.checkPermission(path, location.getKey(), ModeShapePermissions.READ);
                     return session.node(location.getKey(), null);
                 } catch (ItemNotFoundException infe) {
                     LOGGER.debug("'{0}' not found - it must have been deleted from storage but not yet from the indexes", path);
@@ -24,6 +24,7 @@
 package org.modeshape.jcr;
 
 import static org.modeshape.jcr.RepositoryConfiguration.QueryRebuild.FAIL_IF_MISSING;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.ref.WeakReference;
@@ -105,6 +106,7 @@ import org.modeshape.jcr.api.AnonymousCredentials;
 import org.modeshape.jcr.api.Repository;
 import org.modeshape.jcr.api.RepositoryManager;
 import org.modeshape.jcr.api.Workspace;
+import org.modeshape.jcr.api.monitor.DurationMetric;
 import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.query.Query;
 import org.modeshape.jcr.api.value.DateTime;
@@ -114,10 +116,15 @@ import org.modeshape.jcr.bus.RepositoryChangeBus;
 import org.modeshape.jcr.cache.*;
 import org.modeshape.jcr.cache.SessionEnvironment.Monitor;
 import org.modeshape.jcr.cache.SessionEnvironment.MonitorFactory;
+import org.modeshape.jcr.cache.SessionEnvironment.SaveMonitor;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
 import org.modeshape.jcr.cache.document.DocumentStore;
 import org.modeshape.jcr.cache.document.LocalDocumentStore;
 import org.modeshape.jcr.cache.document.TransactionalWorkspaceCaches;
+import org.modeshape.jcr.cache.document.WeightedNodeCache;
 import org.modeshape.jcr.federation.FederatedDocumentStore;
+import org.modeshape.jcr.journal.ChangeJournal;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
 import org.modeshape.jcr.mimetype.MimeTypeDetectors;
 import org.modeshape.jcr.query.QueryIndexing;
@@ -840,7 +847,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         descriptors.put(Repository.OPTION_ACTIVITIES_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_BASELINES_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_ACCESS_CONTROL_SUPPORTED, valueFor(factories, true));
-        descriptors.put(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED, valueFor(factories, false));
+        descriptors.put(Repository.OPTION_JOURNALED_OBSERVATION_SUPPORTED,
+                        valueFor(factories, repositoryConfiguration().getJournaling().isEnabled()));
         descriptors.put(Repository.OPTION_RETENTION_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_LIFECYCLE_SUPPORTED, valueFor(factories, false));
         descriptors.put(Repository.OPTION_NODE_AND_PROPERTY_WITH_SAME_NAME_SUPPORTED, valueFor(factories, true));
@@ -961,6 +969,9 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         private final ExecutorService indexingExecutor;
         private final TextExtractors extractors;
         private final ChangeBus changeBus;
+        private final ObservationDispatcher observationDispatcher;
+        private final EffectiveAclCache aclCache;
+        private final ChangeJournal journal;
         private final ExecutorService changeDispatchingQueue;
         private final boolean useXaSessions;
         private final MimeTypeDetectors mimeTypeDetector;
@@ -977,6 +988,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
 
         private Transaction existingUserTransaction;
         private RepositoryCache cache;
+        private long segmentCacheHits;
+        private long segmentCacheMisses;
 
         protected RunningState() throws Exception {
             this(null, null);
@@ -1069,6 +1082,9 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     this.persistentRegistry = other.persistentRegistry;
                     this.changeDispatchingQueue = other.changeDispatchingQueue;
                     this.changeBus = other.changeBus;
+                    this.observationDispatcher = other.observationDispatcher;
+                    this.aclCache = other.aclCache;
+                    this.journal = other.journal;
                 } else {
                     // find the Schematic database and Infinispan Cache ...
                     CacheContainer container = config.getContentCacheContainer();
@@ -1105,19 +1121,52 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     // Create the event bus
                     this.changeDispatchingQueue = this.context().getCachedTreadPool("modeshape-event-dispatcher");
                     this.changeBus = createBus(config.getClustering(),
+                                               config.getEvents(),
                                                this.changeDispatchingQueue,
                                                systemWorkspaceName(),
                                                context.getProcessId());
                     this.changeBus.start();
 
+                    // All JCR event listeners are notified through a single listener on the bus, which routes the changes
+                    // in the saving thread and then delivers them to each listener in the dispatching executor ...
+                    RepositoryConfiguration.Events events = config.getEvents();
+                    this.observationDispatcher = new ObservationDispatcher(systemWorkspaceName(), this.changeDispatchingQueue,
+                                                                           events.getListenerQueueCapacity(),
+                                                                           events.getListenerOverflowPolicy(),
+                                                                           new StatisticsDispatchMonitor(statistics()));
+                    this.changeBus.registerInThread(this.observationDispatcher);
+
+                    // The cached effective ACLs are invalidated by the changes to the ACLs ...
+                    this.aclCache = new EffectiveAclCache();
+                    this.changeBus.register(this.aclCache);
+
+                    // Set up the journal of the events ...
+                    RepositoryConfiguration.Journaling journaling = config.getJournaling();
+                    if (journaling.isEnabled()) {
+                        int maxDays = journaling.getMaxDaysToKeepRecords();
+                        long maxAgeInMillis = maxDays < 0 ? -1L : TimeUnit.MILLISECONDS.convert(maxDays, TimeUnit.DAYS);
+                        this.journal = new ChangeJournal(new File(journaling.getLocation()),
+                                                         journaling.getSegmentSizeInBytes(),
+                                                         journaling.getIndexIntervalInBytes(),
+                                                         maxAgeInMillis,
+                                                         getClass().getClassLoader());
+                        this.journal.start();
+                        this.changeBus.register(this.journal);
+                    } else {
+                        this.journal = null;
+                    }
+
                     // Set up the repository cache ...
                     QuerySystem query = config.getQuery();
                     boolean indexingClustered = query.queriesEnabled() && query.indexingClustered();
 
-                    final SessionEnvironment sessionEnv = new RepositorySessionEnvironment(this.transactions, indexingClustered);
+                    SaveMonitor saveMonitor = new StatisticsSaveMonitor(statistics());
+                    final SessionEnvironment sessionEnv = new RepositorySessionEnvironment(this.transactions, indexingClustered,
+                                                                                           saveMonitor);
                     CacheContainer workspaceCacheContainer = this.config.getWorkspaceContentCacheContainer();
                     this.cache = new RepositoryCache(context, documentStore, config, systemContentInitializer, sessionEnv,
-                                                     changeBus, workspaceCacheContainer, Upgrades.STANDARD_UPGRADES);
+                                                     changeBus, workspaceCacheContainer, Upgrades.STANDARD_UPGRADES,
+                                                     new StatisticsNodeCacheMonitor(statistics()));
 
                     // Set up the node type manager ...
                     this.nodeTypes = new RepositoryNodeTypeManager(this, true, true);
@@ -1196,7 +1245,9 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                     Properties indexingProps = query.getIndexingProperties();
                     Properties indexStorageProps = query.getIndexStorageProperties();
                     this.repositoryQueryManager = new RepositoryQueryManager(this, indexingExecutor, backendProps, indexingProps,
-                                                                             indexStorageProps);
+                                                                             indexStorageProps, query.getReindexingOptions());
+                    // The read permissions of the nodes are indexed, and must be re-indexed when the ACLs are changed ...
+                    this.changeBus.registerInThread(this.repositoryQueryManager.accessControlChangeListener());
                     this.indexRebuildOptions = query.getIndexRebuildOptions();
                 } else {
                     this.repositoryQueryManager = new RepositoryDisabledQueryManager(this, config.getQuery());
@@ -1205,6 +1256,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                  repositoryName());
                 }
 
+                if (other != null && other.repositoryQueryManager != null) {
+                    this.changeBus.unregister(other.repositoryQueryManager.accessControlChangeListener());
+                }
+
                 // Check that we have parsers for all the required languages ...
                 assert this.queryParsers.getParserFor(Query.XPATH) != null;
                 assert this.queryParsers.getParserFor(Query.SQL) != null;
@@ -1405,6 +1460,18 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                                                                      binaryGcInitialTimeInMillis,
                                                                                      binaryGcIntervalInMillis,
                                                                                      TimeUnit.MILLISECONDS));
+                long statisticsIntervalInSeconds = RepositoryStatistics.CAPTURE_INTERVAL_IN_SECONDS;
+                backgroundProcesses.add(garbageCollectionService.scheduleAtFixedRate(new CacheStatisticsTask(JcrRepository.this),
+                                                                                     statisticsIntervalInSeconds,
+                                                                                     statisticsIntervalInSeconds,
+                                                                                     TimeUnit.SECONDS));
+                if (journal != null) {
+                    backgroundProcesses.add(garbageCollectionService.scheduleAtFixedRate(new JournalGarbageCollectionTask(
+                                                                                                                          JcrRepository.this),
+                                                                                         1,
+                                                                                         1,
+                                                                                         TimeUnit.HOURS));
+                }
 
                 DocumentOptimization optConfig = config.getDocumentOptimization();
                 if (optConfig.isEnabled()) {
@@ -1531,6 +1598,21 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             return changeBus;
         }
 
+        final ObservationDispatcher observationDispatcher() {
+            return observationDispatcher;
+        }
+
+        final EffectiveAclCache aclCache() {
+            return aclCache;
+        }
+
+        /**
+         * @return the journal of the events, or null if the journal is not enabled
+         */
+        final ChangeJournal journal() {
+            return journal;
+        }
+
         final Connectors connectors() {
             return connectors;
         }
@@ -1705,6 +1787,14 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             if (this.changeBus != null) {
                 this.changeBus.shutdown();
             }
+            if (this.observationDispatcher != null) {
+                this.observationDispatcher.shutdown();
+            }
+
+            // Close the journal of the events ...
+            if (this.journal != null) {
+                this.journal.shutdown();
+            }
 
             // Shutdown the query engine ...
             if (repositoryQueryManager != null) {
@@ -1828,6 +1918,18 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             }
         }
 
+        /**
+         * @see JournalGarbageCollectionTask
+         */
+        void cleanUpJournal() {
+            if (journal == null) return;
+            int removed = journal.removeExpiredRecords();
+            if (removed != 0 && logger.isDebugEnabled()) {
+                logger.debug("Removed {0} expired segments from the event journal of the '{1}' repository", removed,
+                             repositoryName());
+            }
+        }
+
         /**
          * @see LockGarbageCollectionTask
          */
@@ -1880,6 +1982,21 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
             }
         }
 
+        /**
+         * Record in the statistics the lookups in the repository's cache of path segments that were made since the previous call.
+         * 
+         * @see CacheStatisticsTask
+         */
+        synchronized void recordCacheStatistics() {
+            InterningCache<String, org.modeshape.jcr.value.Path.Segment> segments = context.getSegmentCache();
+            long hits = segments.getHitCount();
+            long misses = segments.getMissCount();
+            statistics().increment(ValueMetric.SEGMENT_CACHE_HITS, hits - segmentCacheHits);
+            statistics().increment(ValueMetric.SEGMENT_CACHE_MISSES, misses - segmentCacheMisses);
+            segmentCacheHits = hits;
+            segmentCacheMisses = misses;
+        }
+
         protected Session loginInternalSession() throws RepositoryException {
             return loginInternalSession(defaultWorkspaceName());
         }
@@ -1899,14 +2016,134 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         }
 
         protected ChangeBus createBus( RepositoryConfiguration.Clustering clusteringConfiguration,
+                                       RepositoryConfiguration.Events eventsConfiguration,
                                        ExecutorService executor,
                                        String systemWorkspaceName,
                                        String processId ) {
-            RepositoryChangeBus standaloneBus = new RepositoryChangeBus(executor, systemWorkspaceName);
+            RepositoryChangeBus standaloneBus = new RepositoryChangeBus(executor, systemWorkspaceName,
+                                                                        eventsConfiguration.getListenerQueueCapacity(),
+                                                                        eventsConfiguration.getListenerOverflowPolicy(),
+                                                                        new StatisticsDispatchMonitor(statistics()));
             return clusteringConfiguration.isEnabled() ? new ClusteredRepositoryChangeBus(clusteringConfiguration, standaloneBus,
                                                                                           processId) : standaloneBus;
         }
 
+        /**
+         * Records the activity of the change bus dispatchers in the repository statistics.
+         */
+        protected final class StatisticsDispatchMonitor implements RepositoryChangeBus.DispatchMonitor {
+            private final RepositoryStatistics statistics;
+
+            protected StatisticsDispatchMonitor( RepositoryStatistics statistics ) {
+                this.statistics = statistics;
+            }
+
+            @Override
+            public void queueSizes( int total,
+                                    int maximum ) {
+                // Include the change sets waiting for the JCR event listeners, which are queued by the observation dispatcher ...
+                ObservationDispatcher dispatcher = observationDispatcher;
+                if (dispatcher != null) {
+                    int[] sizes = dispatcher.queueSizes();
+                    total += sizes[0];
+                    maximum = Math.max(maximum, sizes[1]);
+                }
+                statistics.set(ValueMetric.EVENT_QUEUE_SIZE, total);
+                statistics.set(ValueMetric.LISTENER_LAG, maximum);
+            }
+
+            @Override
+            public void dropped( ChangeSetListener listener,
+                                 ChangeSet changeSet ) {
+                statistics.increment(ValueMetric.DROPPED_CHANGE_SET_COUNT);
+            }
+
+            @Override
+            public void coalesced( ChangeSetListener listener,
+                                   ChangeSet changeSet ) {
+                statistics.increment(ValueMetric.COALESCED_CHANGE_SET_COUNT);
+            }
+        }
+
+        /**
+         * Records the activity of the workspace node caches in the repository statistics.
+         */
+        protected final class StatisticsNodeCacheMonitor implements WeightedNodeCache.Monitor {
+            private final RepositoryStatistics statistics;
+
+            protected StatisticsNodeCacheMonitor( RepositoryStatistics statistics ) {
+                this.statistics = statistics;
+            }
+
+            @Override
+            public void hit() {
+                statistics.increment(ValueMetric.NODE_CACHE_HITS);
+            }
+
+            @Override
+            public void miss() {
+                statistics.increment(ValueMetric.NODE_CACHE_MISSES);
+            }
+
+            @Override
+            public void evicted( long weight ) {
+                statistics.increment(ValueMetric.NODE_CACHE_EVICTIONS);
+            }
+        }
+
+        /**
+         * Records the durations of the phases of session saves and their lock contention in the repository statistics.
+         */
+        protected final class StatisticsSaveMonitor implements SaveMonitor {
+            private final Map<String, String> noPayload = Collections.emptyMap();
+            private final RepositoryStatistics statistics;
+
+            protected StatisticsSaveMonitor( RepositoryStatistics statistics ) {
+                this.statistics = statistics;
+            }
+
+            @Override
+            public void recordDuration( SaveMonitor.Phase phase,
+                                        long durationInNanos ) {
+                statistics.recordDuration(metricFor(phase), durationInNanos, TimeUnit.NANOSECONDS, noPayload);
+            }
+
+            @Override
+            public void recordSaved( long nodeCount ) {
+                statistics.increment(ValueMetric.SAVED_NODES, nodeCount);
+            }
+
+            @Override
+            public void recordLockRetry() {
+                statistics.increment(ValueMetric.SAVE_LOCK_RETRIES);
+            }
+
+            @Override
+            public void recordLockTimeout() {
+                statistics.increment(ValueMetric.SAVE_LOCK_TIMEOUTS);
+            }
+
+            private DurationMetric metricFor( SaveMonitor.Phase phase ) {
+                switch (phase) {
+                    case PRE_SAVE:
+                        return DurationMetric.SAVE_PRE_SAVE_TIME;
+                    case LOCKING:
+                        return DurationMetric.SAVE_LOCK_TIME;
+                    case PERSISTING:
+                        return DurationMetric.SAVE_PERSIST_TIME;
+                    case COMMIT:
+                        return DurationMetric.SAVE_COMMIT_TIME;
+                    case BINARY_USAGE:
+                        return DurationMetric.SAVE_BINARY_USAGE_TIME;
+                    case INDEXING:
+                        return DurationMetric.SAVE_INDEXING_TIME;
+                    case NOTIFICATION:
+                        return DurationMetric.SAVE_NOTIFICATION_TIME;
+                }
+                throw new IllegalArgumentException("Unknown save phase: " + phase);
+            }
+        }
+
         boolean suspendExistingUserTransaction() throws SystemException {
             // suspend any potential existing transaction, so that the initialization is "atomic"
             this.existingUserTransaction = this.transactions.suspend();
@@ -1925,12 +2162,15 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         private final Transactions transactions;
         private final TransactionalWorkspaceCaches transactionalWorkspaceCacheFactory;
         private final boolean indexingClustered;
+        private final SaveMonitor saveMonitor;
 
         protected RepositorySessionEnvironment( Transactions transactions,
-                                                boolean indexingClustered ) {
+                                                boolean indexingClustered,
+                                                SaveMonitor saveMonitor ) {
             this.transactions = transactions;
             this.transactionalWorkspaceCacheFactory = new TransactionalWorkspaceCaches(transactions);
             this.indexingClustered = indexingClustered;
+            this.saveMonitor = saveMonitor;
         }
 
         @Override
@@ -1947,6 +2187,11 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         public boolean indexingClustered() {
             return indexingClustered;
         }
+
+        @Override
+        public SaveMonitor getSaveMonitor() {
+            return saveMonitor;
+        }
     }
 
     protected static class RepositoryMonitorFactory implements MonitorFactory {
@@ -2021,8 +2266,10 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                        org.modeshape.jcr.value.Path path,
                                        Name primaryType,
                                        Set<Name> mixinTypes,
-                                       Iterator<Property> propertiesIterator ) {
-                    indexes.addToIndex(workspace, key, path, primaryType, mixinTypes, propertiesIterator, schemata, txnCtx);
+                                       Iterator<Property> propertiesIterator,
+                                       NodeCache cache ) {
+                    indexes.addToIndex(workspace, key, path, primaryType, mixinTypes, propertiesIterator, cache, schemata,
+                                       txnCtx);
                 }
 
                 @Override
@@ -2031,8 +2278,9 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                           org.modeshape.jcr.value.Path path,
                                           Name primaryType,
                                           Set<Name> mixinTypes,
-                                          Iterator<Property> properties ) {
-                    indexes.updateIndex(workspace, key, path, primaryType, mixinTypes, properties, schemata, txnCtx);
+                                          Iterator<Property> properties,
+                                          NodeCache cache ) {
+                    indexes.updateIndex(workspace, key, path, primaryType, mixinTypes, properties, cache, schemata, txnCtx);
                 }
 
                 @Override
@@ -2060,7 +2308,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                        org.modeshape.jcr.value.Path path,
                                        Name primaryType,
                                        Set<Name> mixinTypes,
-                                       Iterator<Property> propertiesIterator ) {
+                                       Iterator<Property> propertiesIterator,
+                                       NodeCache cache ) {
                 }
 
                 @Override
@@ -2074,7 +2323,8 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
                                           org.modeshape.jcr.value.Path path,
                                           Name primaryType,
                                           Set<Name> mixinTypes,
-                                          Iterator<Property> properties ) {
+                                          Iterator<Property> properties,
+                                          NodeCache cache ) {
                 }
             };
         }
@@ -2190,6 +2440,28 @@ public class JcrRepository implements org.modeshape.jcr.api.Repository {
         }
     }
 
+    protected static class JournalGarbageCollectionTask extends BackgroundRepositoryTask {
+        protected JournalGarbageCollectionTask( JcrRepository repository ) {
+            super(repository);
+        }
+
+        @Override
+        protected void doRun( JcrRepository repository ) {
+            repository.runningState().cleanUpJournal();
+        }
+    }
+
+    protected static class CacheStatisticsTask extends BackgroundRepositoryTask {
+        protected CacheStatisticsTask( JcrRepository repository ) {
+            super(repository);
+        }
+
+        @Override
+        protected void doRun( JcrRepository repository ) {
+            repository.runningState().recordCacheStatistics();
+        }
+    }
+
     protected static class OptimizationTask extends BackgroundRepositoryTask {
         private final int targetCount;
         private final int tolerance;
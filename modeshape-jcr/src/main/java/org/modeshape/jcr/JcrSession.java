@@ -138,6 +138,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
     private final AtomicReference<Map<NodeKey, NodeKey>> originalVersionKeys = new AtomicReference<Map<NodeKey, NodeKey>>();
     private final AtomicReference<JcrSharedNodeCache> shareableNodeCache = new AtomicReference<JcrSharedNodeCache>();
     private final AtomicLong aclChangesCount = new AtomicLong(0);
+    private volatile boolean aclsModified = false;
     private volatile JcrValueFactory valueFactory;
     private volatile boolean isLive = true;
     private final long nanosCreated;
@@ -453,6 +454,22 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         return aclChangesCount.addAndGet(-count);
     }
 
+    protected final void aclModified() {
+        aclsModified = true;
+    }
+
+    /**
+     * Evict the cached effective ACLs of this session's workspace if this session has modified any ACLs, so that the session sees
+     * its own changes without waiting for the change bus to deliver them.
+     *
+     * @param allChangesSaved true if all of the session's changes were saved, or false if some changes remain
+     */
+    private void aclModificationsSaved( boolean allChangesSaved ) {
+        if (!aclsModified) return;
+        if (allChangesSaved) aclsModified = false;
+        repository().runningState().aclCache().invalidateWorkspace(cache().getRootKey().getWorkspaceKey());
+    }
+
     protected final String readable( Path path ) {
         return stringFactory().create(path);
     }
@@ -1159,6 +1176,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
             this.baseVersionKeys.set(null);
             this.originalVersionKeys.set(null);
             this.aclChangesCount.set(0);
+            aclModificationsSaved(true);
         } catch (WrappedException e) {
             Throwable cause = e.getCause();
             throw (cause instanceof RepositoryException) ? (RepositoryException)cause : new RepositoryException(e.getCause());
@@ -1235,6 +1253,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         try {
             sessionCache.save(keysToBeSaved, systemContent.cache(), new JcrPreSave(systemContent, baseVersionKeys,
                                                                                    originalVersionKeys, aclChangesCount()));
+            aclModificationsSaved(false);
         } catch (WrappedException e) {
             Throwable cause = e.getCause();
             throw (cause instanceof RepositoryException) ? (RepositoryException) cause : new RepositoryException(e.getCause());
@@ -1269,6 +1288,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         if (!keepChanges) {
             cache.clear();
             aclChangesCount.set(0);
+            aclsModified = false;
         }
         // Otherwise there is nothing to do, as all persistent changes are always immediately visible to all sessions
         // using that same workspace
@@ -1294,14 +1314,31 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
          * @throws ItemNotFoundException if the node was deleted
          */
         Path getAbsolutePath() throws ItemNotFoundException;
+
+        /**
+         * Get the key of the node at the path, if it is known
+         *
+         * @return the node key, or null if the key is not known or the path is not that of a node
+         */
+        NodeKey getNodeKey();
     }
 
     private PathSupplier pathSupplierFor( final Path path ) {
+        return pathSupplierFor(path, null);
+    }
+
+    private PathSupplier pathSupplierFor( final Path path,
+                                          final NodeKey key ) {
         return new PathSupplier() {
             @Override
             public Path getAbsolutePath() {
                 return path;
             }
+
+            @Override
+            public NodeKey getNodeKey() {
+                return key;
+            }
         };
     }
 
@@ -1312,6 +1349,11 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
             public Path getAbsolutePath() throws ItemNotFoundException {
                 return node.getPath(nodeCache);
             }
+
+            @Override
+            public NodeKey getNodeKey() {
+                return node.getKey();
+            }
         };
     }
 
@@ -1332,6 +1374,11 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
                 assert false;
                 return null;
             }
+
+            @Override
+            public NodeKey getNodeKey() {
+                return item instanceof AbstractJcrNode ? ((AbstractJcrNode)item).key() : null;
+            }
         };
     }
 
@@ -1365,7 +1412,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
                     hasPermission = authorizer.hasPermission(context, repositoryName, repositoryName, workspaceName, path, actions);
     
                     if (checkAcl && hasPermission) {
-                        hasPermission = acm.hasPermission(path, actions);
+                        hasPermission = acm.hasPermission(path, pathSupplier.getNodeKey(), actions);
                     }
                     return hasPermission;
                 }
@@ -1380,7 +1427,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
                     hasPermission = authorizer.hasPermission(authorizerContext, path, actions);
     
                     if (checkAcl && hasPermission) {
-                        hasPermission = acm.hasPermission(path, actions);
+                        hasPermission = acm.hasPermission(path, pathSupplier.getNodeKey(), actions);
                     }
                     return hasPermission;
                 }
@@ -1412,7 +1459,7 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
                 Path path = pathSupplier != null ? pathSupplier.getAbsolutePath() : null;
                 if (path != null) {
                     assert path.isAbsolute() : "The path (if provided) must be absolute";
-                    hasPermission = acm.hasPermission(path, actions);
+                    hasPermission = acm.hasPermission(path, pathSupplier.getNodeKey(), actions);
                 }
             }
 
@@ -1505,6 +1552,21 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         checkPermission(this.workspace().getName(), path, actions);
     }
 
+    /**
+     * Throws an {@link AccessControlException} if the current user does not have permission for all of the named actions on the
+     * node with the given path and key in the current workspace, otherwise returns silently.
+     *
+     * @param path the absolute path of the node on which the actions are occurring
+     * @param key the key of the node on which the actions are occurring; may be null if not known
+     * @param actions a comma-delimited list of actions to check
+     * @throws AccessDeniedException if the actions cannot be performed on the node
+     */
+    void checkPermission( Path path,
+                          NodeKey key,
+                          String... actions ) throws AccessDeniedException {
+        checkPermission(this.workspace().getName(), pathSupplierFor(path, key), actions);
+    }
+
     void checkPermission( PathSupplier pathSupplier,
                           String... actions ) throws AccessDeniedException {
         checkPermission(this.workspace().getName(), pathSupplier, actions);
@@ -1573,6 +1635,19 @@ public class JcrSession implements org.modeshape.jcr.api.Session {
         checkPermission(workspaceName, (PathSupplier)null, actions);
     }
 
+    /**
+     * Determine if the current user has permission for all of the named actions on the given item in the current workspace. Unlike
+     * {@link #hasPermission(String, String)}, this does not check whether the item is in a read-only external source.
+     *
+     * @param item the property or node on which the actions are occurring
+     * @param actions the list of {@link ModeShapePermissions actions} to check
+     * @return true if the actions can be performed on the item, or false otherwise
+     */
+    boolean hasPermission( AbstractJcrItem item,
+                           String... actions ) {
+        return hasPermission(this.workspace().getName(), pathSupplierFor(item), actions);
+    }
+
     @Override
     public boolean hasPermission( String absPath,
                                   String actions ) throws RepositoryException {
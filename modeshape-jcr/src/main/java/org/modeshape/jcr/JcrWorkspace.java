@@ -625,7 +625,7 @@ class JcrWorkspace implements org.modeshape.jcr.api.Workspace {
             try {
                 lock.lock();
                 if (observationManager == null) {
-                    observationManager = new JcrObservationManager(session, repository().changeBus());
+                    observationManager = new JcrObservationManager(session, repository().runningState().observationDispatcher());
                 }
             } finally {
                 lock.unlock();
@@ -0,0 +1,558 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.modeshape.jcr.api.observation.Event.Sequencing.NODE_SEQUENCED;
+import static org.modeshape.jcr.api.observation.Event.Sequencing.NODE_SEQUENCING_FAILURE;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.jcr.observation.Event;
+import org.modeshape.common.annotation.GuardedBy;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.JcrObservationManager.JcrListenerAdapter;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
+import org.modeshape.jcr.bus.RepositoryChangeBus.DispatchMonitor;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.AbstractPropertyChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.cache.change.NodeSequenced;
+import org.modeshape.jcr.cache.change.NodeSequencingFailure;
+import org.modeshape.jcr.cache.change.PropertyAdded;
+import org.modeshape.jcr.cache.change.PropertyChanged;
+import org.modeshape.jcr.cache.change.PropertyRemoved;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * The single {@link ChangeSetListener} through which the repository's change sets reach all of the JCR event listeners. Rather
+ * than having every listener look at every change, the dispatcher indexes the listeners of each workspace by the absolute path
+ * they observe (in a {@link PathIndex prefix tree}) and by the identifiers of the nodes they observe, so that each change is
+ * only given to the listeners that could produce an event for it. The listeners then apply the remaining checks (e.g.,
+ * permissions and node types) to just those changes.
+ * <p>
+ * The dispatcher is meant to be {@link org.modeshape.jcr.bus.ChangeBus#registerInThread(ChangeSetListener) notified} in the
+ * thread that made the changes, since the routing is cheap. The changes routed to a listener are then put into the listener's
+ * own bounded queue, and are delivered by a task in the supplied executor. There is at most one such task for each listener, so
+ * each listener sees the change sets in the order in which they were made, but a slow listener never delays the others. What
+ * happens when a listener's queue is full is determined by the {@link EventOverflowPolicy}; with the
+ * {@link EventOverflowPolicy#BLOCK} policy, the thread that made the changes waits for room in the queue.
+ * </p>
+ * <p>
+ * The index is rebuilt whenever a listener is added or removed, and is replaced atomically so that the change sets can be
+ * routed without any locking.
+ * </p>
+ */
+@ThreadSafe
+final class ObservationDispatcher implements ChangeSetListener {
+
+    private static final Logger LOGGER = Logger.getLogger(ObservationDispatcher.class);
+
+    /**
+     * The factor by which a listener's queue may grow beyond its capacity to hold the change sets made by the listener itself,
+     * which can never wait for its own queue to be emptied. This is the same factor used by the change bus.
+     */
+    static final int MAX_GROWTH_FACTOR = 4;
+
+    private final String systemWorkspaceName;
+    private final Executor executor;
+    private final int queueCapacity;
+    private final EventOverflowPolicy overflowPolicy;
+    private final DispatchMonitor monitor;
+    /** The adapters are compared by identity, since the adapters of several sessions may wrap the same listener */
+    private final Map<JcrListenerAdapter, Delivery> deliveries = new IdentityHashMap<JcrListenerAdapter, Delivery>();
+    private volatile Map<String, WorkspaceListeners> listenersByWorkspace = Collections.emptyMap();
+    private volatile List<Delivery> allDeliveries = Collections.emptyList();
+
+    /**
+     * Create a dispatcher.
+     * 
+     * @param systemWorkspaceName the name of the system workspace; may not be null
+     * @param executor the executor in which the listeners are notified; may not be null
+     * @param queueCapacity the maximum number of change sets that may be waiting to be delivered to each listener; must be
+     *        positive
+     * @param overflowPolicy the policy that determines what happens when the queue of a listener is full; may not be null
+     * @param monitor the component that should be notified of the dropped and coalesced change sets; may be null
+     */
+    ObservationDispatcher( String systemWorkspaceName,
+                           Executor executor,
+                           int queueCapacity,
+                           EventOverflowPolicy overflowPolicy,
+                           DispatchMonitor monitor ) {
+        assert systemWorkspaceName != null;
+        assert executor != null;
+        assert queueCapacity > 0;
+        assert overflowPolicy != null;
+        this.systemWorkspaceName = systemWorkspaceName;
+        this.executor = executor;
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.monitor = monitor;
+    }
+
+    /**
+     * Add the supplied listener.
+     * 
+     * @param adapter the listener; may not be null
+     * @return true if the listener was added, or false if it was already registered
+     */
+    synchronized boolean register( JcrListenerAdapter adapter ) {
+        assert adapter != null;
+        if (deliveries.containsKey(adapter)) return false;
+        deliveries.put(adapter, new Delivery(adapter));
+        rebuildIndex();
+        return true;
+    }
+
+    /**
+     * Remove the supplied listener.
+     * 
+     * @param adapter the listener; may not be null
+     * @return true if the listener was removed, or false if it was not registered
+     */
+    synchronized boolean unregister( JcrListenerAdapter adapter ) {
+        assert adapter != null;
+        Delivery delivery = deliveries.remove(adapter);
+        if (delivery == null) return false;
+        rebuildIndex();
+        // The change sets that have not yet been delivered are discarded ...
+        delivery.close();
+        return true;
+    }
+
+    /**
+     * Remove all of the listeners, discarding the change sets that have not yet been delivered to them.
+     */
+    synchronized void shutdown() {
+        for (Delivery delivery : deliveries.values()) {
+            delivery.close();
+        }
+        deliveries.clear();
+        rebuildIndex();
+    }
+
+    /**
+     * Get the number of registered listeners.
+     * 
+     * @return the number of listeners
+     */
+    synchronized int listenerCount() {
+        return deliveries.size();
+    }
+
+    /**
+     * Get the number of change sets that are waiting to be delivered to all of the listeners and to the slowest listener. This
+     * does not lock the queues, so the numbers are only approximate.
+     * 
+     * @return the total number of waiting change sets followed by the largest number waiting for a single listener; never null
+     */
+    int[] queueSizes() {
+        int total = 0;
+        int maximum = 0;
+        for (Delivery delivery : allDeliveries) {
+            int size = delivery.size();
+            total += size;
+            if (size > maximum) maximum = size;
+        }
+        return new int[] {total, maximum};
+    }
+
+    private void rebuildIndex() {
+        Map<String, WorkspaceListeners> byWorkspace = new HashMap<String, WorkspaceListeners>();
+        for (Delivery delivery : deliveries.values()) {
+            JcrListenerAdapter adapter = delivery.adapter;
+            if (adapter.matchesNothing()) continue;
+            String workspaceName = adapter.workspaceName();
+            WorkspaceListeners listeners = byWorkspace.get(workspaceName);
+            if (listeners == null) {
+                listeners = new WorkspaceListeners(adapter.workspaceRootKey());
+                byWorkspace.put(workspaceName, listeners);
+            }
+            listeners.add(delivery);
+        }
+        this.listenersByWorkspace = byWorkspace;
+        this.allDeliveries = new ArrayList<Delivery>(deliveries.values());
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        Map<String, WorkspaceListeners> byWorkspace = this.listenersByWorkspace;
+        if (byWorkspace.isEmpty()) return;
+
+        // Find the listeners that might be interested in the workspace ...
+        String workspaceName = changeSet.getWorkspaceName();
+        Collection<WorkspaceListeners> candidates = null;
+        if (systemWorkspaceName.equalsIgnoreCase(workspaceName)) {
+            // The changes in the system workspace are seen by the listeners of all workspaces ...
+            candidates = byWorkspace.values();
+        } else {
+            WorkspaceListeners listeners = workspaceName != null ? byWorkspace.get(workspaceName) : null;
+            if (listeners == null) return;
+            candidates = Collections.singleton(listeners);
+        }
+
+        // Route each change to the listeners that can match it ...
+        Map<Delivery, List<AbstractNodeChange>> routed = null;
+        List<Delivery> recipients = new ArrayList<Delivery>();
+        List<Delivery> matches = new ArrayList<Delivery>();
+        for (Change change : changeSet) {
+            if (!(change instanceof AbstractNodeChange)) continue;
+            AbstractNodeChange nodeChange = (AbstractNodeChange)change;
+            int eventTypes = eventTypesFor(nodeChange);
+            if (eventTypes == 0) continue;
+            for (WorkspaceListeners listeners : candidates) {
+                matches.clear();
+                listeners.collect(nodeChange, matches);
+                for (Delivery delivery : matches) {
+                    if ((delivery.adapter.eventTypes() & eventTypes) == 0) continue;
+                    if (routed == null) routed = new IdentityHashMap<Delivery, List<AbstractNodeChange>>();
+                    List<AbstractNodeChange> changes = routed.get(delivery);
+                    if (changes == null) {
+                        changes = new ArrayList<AbstractNodeChange>();
+                        routed.put(delivery, changes);
+                        recipients.add(delivery);
+                    }
+                    changes.add(nodeChange);
+                }
+            }
+        }
+
+        if (routed == null) return;
+
+        // Queue the changes for each listener, which are then delivered in the executor ...
+        for (Delivery delivery : recipients) {
+            delivery.add(changeSet, routed.get(delivery));
+        }
+    }
+
+    /**
+     * Determine the JCR event types that the supplied change can produce.
+     * 
+     * @param change the change; may not be null
+     * @return the bitmask of the event types; 0 if the change never produces an event
+     */
+    static int eventTypesFor( AbstractNodeChange change ) {
+        if (change instanceof NodeMoved || change instanceof NodeRenamed || change instanceof NodeReordered) {
+            // JCR 1.0 listeners also expect an add and a remove event for a move ...
+            return Event.NODE_MOVED | Event.NODE_ADDED | Event.NODE_REMOVED;
+        }
+        if (change instanceof NodeAdded) return Event.NODE_ADDED;
+        if (change instanceof NodeRemoved) return Event.NODE_REMOVED;
+        if (change instanceof PropertyChanged) return Event.PROPERTY_CHANGED;
+        if (change instanceof PropertyAdded) return Event.PROPERTY_ADDED;
+        if (change instanceof PropertyRemoved) return Event.PROPERTY_REMOVED;
+        if (change instanceof NodeSequenced) return NODE_SEQUENCED;
+        if (change instanceof NodeSequencingFailure) return NODE_SEQUENCING_FAILURE;
+        return 0;
+    }
+
+    /**
+     * Get the path of the node with which the listeners associate the supplied change: the changed node itself for property
+     * changes, or otherwise the parent of the changed node.
+     * 
+     * @param change the change; may not be null
+     * @return the path; never null
+     */
+    static Path parentNodePathOfChange( AbstractNodeChange change ) {
+        Path changePath = change.getPath();
+        if (change instanceof AbstractPropertyChange) {
+            return changePath;
+        }
+        return changePath.isRoot() ? changePath : changePath.getParent();
+    }
+
+    /**
+     * The index of the listeners that were registered by the sessions of a single workspace.
+     */
+    protected static final class WorkspaceListeners {
+        private final NodeKey rootKey;
+        private final PathIndex<Delivery> byPath = new PathIndex<Delivery>();
+        private final Map<String, List<Delivery>> byIdentifier = new HashMap<String, List<Delivery>>();
+
+        protected WorkspaceListeners( NodeKey rootKey ) {
+            this.rootKey = rootKey;
+        }
+
+        protected void add( Delivery delivery ) {
+            JcrListenerAdapter adapter = delivery.adapter;
+            Set<String> identifiers = adapter.identifiers();
+            if (identifiers != null) {
+                // The adapter checks the path itself, since there are few of these nodes ...
+                for (String identifier : identifiers) {
+                    List<Delivery> deliveries = byIdentifier.get(identifier);
+                    if (deliveries == null) {
+                        deliveries = new ArrayList<Delivery>(1);
+                        byIdentifier.put(identifier, deliveries);
+                    }
+                    deliveries.add(delivery);
+                }
+            } else {
+                Path path = adapter.matchPath();
+                byPath.add(path, path == null || adapter.isDeep(), delivery);
+            }
+        }
+
+        protected void collect( AbstractNodeChange change,
+                                List<Delivery> matches ) {
+            byPath.collect(parentNodePathOfChange(change), matches);
+            if (!byIdentifier.isEmpty()) {
+                List<Delivery> deliveries = byIdentifier.get(JcrSession.nodeIdentifier(change.getKey(), rootKey));
+                if (deliveries != null) matches.addAll(deliveries);
+            }
+        }
+    }
+
+    /**
+     * The queue of the changes that were routed to a single listener and that are waiting to be delivered, which is emptied by
+     * a task in the executor. The task is only submitted when there is no such task already, and the listener is only ever
+     * notified by that task, so the listener sees the change sets in order and is never notified concurrently.
+     */
+    protected final class Delivery implements Runnable {
+        protected final JcrListenerAdapter adapter;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notFull = lock.newCondition();
+        @GuardedBy( "lock" )
+        private final LinkedList<RoutedChanges> queue = new LinkedList<RoutedChanges>();
+        @GuardedBy( "lock" )
+        private boolean scheduled;
+        @GuardedBy( "lock" )
+        private boolean closed;
+        private volatile int size;
+        private volatile Thread deliveringThread;
+
+        protected Delivery( JcrListenerAdapter adapter ) {
+            this.adapter = adapter;
+        }
+
+        protected int size() {
+            return size;
+        }
+
+        protected void add( ChangeSet changeSet,
+                            List<AbstractNodeChange> changes ) {
+            boolean schedule = false;
+            lock.lock();
+            try {
+                while (!closed && queue.size() >= queueCapacity) {
+                    if (overflowPolicy == EventOverflowPolicy.DROP) {
+                        LOGGER.debug("Cannot deliver change set: {0} to {1} because the queue is full", changeSet, adapter);
+                        if (monitor != null) monitor.dropped(ObservationDispatcher.this, changeSet);
+                        return;
+                    }
+                    if (overflowPolicy == EventOverflowPolicy.COALESCE && coalesceWithLast(changeSet, changes)) {
+                        if (monitor != null) monitor.coalesced(ObservationDispatcher.this, changeSet);
+                        return;
+                    }
+                    if (Thread.currentThread() == deliveringThread) {
+                        // The listener itself made the changes, so waiting for it would never end ...
+                        if (queue.size() >= (long)queueCapacity * MAX_GROWTH_FACTOR) {
+                            LOGGER.warn(JcrI18n.eventListenerQueueOverflowed, changeSet, adapter);
+                            if (monitor != null) monitor.dropped(ObservationDispatcher.this, changeSet);
+                            return;
+                        }
+                        break;
+                    }
+                    notFull.awaitUninterruptibly();
+                }
+                if (closed) return;
+                queue.add(new RoutedChanges(changeSet, changes));
+                size = queue.size();
+                if (!scheduled) {
+                    scheduled = true;
+                    schedule = true;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (schedule) {
+                try {
+                    executor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    LOGGER.debug("Cannot deliver change set: {0} to {1} because the executor was shut down", changeSet, adapter);
+                    close();
+                }
+            }
+        }
+
+        private boolean coalesceWithLast( ChangeSet changeSet,
+                                          List<AbstractNodeChange> changes ) {
+            RoutedChanges last = queue.getLast();
+            if (!(last.changeSet instanceof RecordingChanges) || !(changeSet instanceof RecordingChanges)) return false;
+            RecordingChanges coalesced = ((RecordingChanges)last.changeSet).coalesce((RecordingChanges)changeSet);
+            if (coalesced == null) return false;
+            List<AbstractNodeChange> allChanges = new ArrayList<AbstractNodeChange>(last.changes.size() + changes.size());
+            allChanges.addAll(last.changes);
+            allChanges.addAll(changes);
+            queue.set(queue.size() - 1, new RoutedChanges(coalesced, allChanges));
+            return true;
+        }
+
+        protected void close() {
+            lock.lock();
+            try {
+                closed = true;
+                queue.clear();
+                size = 0;
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            deliveringThread = Thread.currentThread();
+            try {
+                while (true) {
+                    RoutedChanges next = null;
+                    lock.lock();
+                    try {
+                        next = queue.poll();
+                        if (next == null) {
+                            scheduled = false;
+                            return;
+                        }
+                        size = queue.size();
+                        notFull.signal();
+                    } finally {
+                        lock.unlock();
+                    }
+                    try {
+                        adapter.notify(next.changeSet, next.changes);
+                    } catch (RuntimeException e) {
+                        // Make sure that one misbehaving listener does not prevent its later change sets from being delivered ...
+                        String workspaceName = next.changeSet.getWorkspaceName();
+                        LOGGER.error(e, JcrI18n.errorNotifyingEventListener, adapter, workspaceName, e.getMessage());
+                    }
+                }
+            } finally {
+                deliveringThread = null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Delivery(" + size() + "/" + queueCapacity + ", " + adapter + ")";
+        }
+    }
+
+    private static final class RoutedChanges {
+        protected final ChangeSet changeSet;
+        protected final List<AbstractNodeChange> changes;
+
+        protected RoutedChanges( ChangeSet changeSet,
+                                 List<AbstractNodeChange> changes ) {
+            this.changeSet = changeSet;
+            this.changes = changes;
+        }
+    }
+
+    /**
+     * A prefix tree of values that are each associated with an absolute path, and which can quickly find the values whose path
+     * is the same as or (for the "deep" values) above a given path. This class is not thread-safe, and is not modified once it
+     * is in use.
+     * 
+     * @param <T> the type of values
+     */
+    static final class PathIndex<T> {
+        private final PathNode<T> root = new PathNode<T>();
+
+        /**
+         * Add a value.
+         * 
+         * @param path the absolute path associated with the value, or null if the value applies to all paths
+         * @param deep true if the value also applies to all paths below the supplied path, or false if it only applies to the
+         *        supplied path
+         * @param value the value; may not be null
+         */
+        void add( Path path,
+                  boolean deep,
+                  T value ) {
+            PathNode<T> node = root;
+            if (path != null) {
+                for (Path.Segment segment : path) {
+                    node = node.childFor(segment);
+                }
+            }
+            if (deep || path == null) {
+                node.deep.add(value);
+            } else {
+                node.exact.add(value);
+            }
+        }
+
+        /**
+         * Find the values that apply to the supplied path.
+         * 
+         * @param path the absolute path; may not be null
+         * @param results the collection to which the values are to be added; may not be null
+         */
+        void collect( Path path,
+                      Collection<T> results ) {
+            PathNode<T> node = root;
+            results.addAll(node.deep);
+            for (int i = 0, size = path.size(); i != size; ++i) {
+                node = node.children == null ? null : node.children.get(path.getSegment(i));
+                if (node == null) return;
+                results.addAll(node.deep);
+            }
+            results.addAll(node.exact);
+        }
+    }
+
+    private static final class PathNode<T> {
+        protected final List<T> deep = new ArrayList<T>(1);
+        protected final List<T> exact = new ArrayList<T>(1);
+        protected Map<Path.Segment, PathNode<T>> children;
+
+        protected PathNode<T> childFor( Path.Segment segment ) {
+            if (children == null) children = new HashMap<Path.Segment, PathNode<T>>();
+            PathNode<T> child = children.get(segment);
+            if (child == null) {
+                child = new PathNode<T>();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+}
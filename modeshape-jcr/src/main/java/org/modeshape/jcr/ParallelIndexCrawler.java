@@ -0,0 +1,367 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import org.hibernate.search.backend.TransactionContext;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.ChildReference;
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.PathCache;
+import org.modeshape.jcr.query.QueryIndexing;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * A crawler that re-indexes the content below a set of starting nodes using several workers. Each starting node is the root of a
+ * subtree (or partition) that is crawled breadth-first by a single worker; workers that find the shared queue of partitions
+ * running low hand off some of the children they encounter as new partitions, so that a single very large subtree is still spread
+ * across all workers.
+ * <p>
+ * One of the workers always runs in the calling thread, and the remaining ones are submitted to the supplied executor. Workers
+ * that have not started by the time all partitions have been crawled are cancelled, so the crawl completes even when the executor
+ * has no idle threads (for example, when the crawl itself was started on that executor).
+ * </p>
+ * <p>
+ * Each worker accumulates its index updates in its own batch and writes them to the indexes once the batch is full.
+ * </p>
+ */
+class ParallelIndexCrawler {
+
+    private static final Logger LOGGER = Logger.getLogger(ParallelIndexCrawler.class);
+
+    /**
+     * The number of nodes between two consecutive progress reports.
+     */
+    private static final long PROGRESS_INTERVAL = 100000L;
+
+    /**
+     * The time an idle worker waits before looking again for partitions that other workers may have handed off.
+     */
+    private static final long IDLE_WAIT_IN_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String repositoryName;
+    private final ExecutorService executor;
+    private final QueryIndexing indexes;
+    private final int threadCount;
+    private final int batchSize;
+
+    ParallelIndexCrawler( String repositoryName,
+                          ExecutorService executor,
+                          QueryIndexing indexes,
+                          int threadCount,
+                          int batchSize ) {
+        assert repositoryName != null;
+        assert executor != null;
+        assert indexes != null;
+        assert threadCount > 0;
+        assert batchSize > 0;
+        this.repositoryName = repositoryName;
+        this.executor = executor;
+        this.indexes = indexes;
+        this.threadCount = threadCount;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Crawl and index the subtrees below the supplied nodes.
+     *
+     * @param workspaceName the name of the workspace in which the nodes exist; may not be null
+     * @param schemata the node type schemata that should be used to index the nodes; may not be null
+     * @param cache the cache from which the nodes are to be read; may not be null
+     * @param startingKeys the keys of the nodes at the top of the subtrees; may not be null but may be empty
+     * @param depth the maximum depth of the content to be indexed
+     * @return the number of nodes that were indexed
+     */
+    long crawl( String workspaceName,
+                NodeTypeSchemata schemata,
+                NodeCache cache,
+                Collection<NodeKey> startingKeys,
+                int depth ) {
+        long start = System.currentTimeMillis();
+        Crawl crawl = new Crawl(workspaceName, schemata, cache, depth);
+        for (NodeKey key : startingKeys) {
+            crawl.addPartition(key);
+        }
+
+        // Start the other workers, and then work in this thread ...
+        List<Future<?>> workers = new ArrayList<Future<?>>(threadCount - 1);
+        try {
+            for (int i = 1; i < threadCount; ++i) {
+                workers.add(executor.submit(crawl.newWorker()));
+            }
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Only {0} of {1} workers could be started to re-index workspace '{2}' in repository {3}",
+                         workers.size() + 1, threadCount, workspaceName, repositoryName);
+        }
+        crawl.newWorker().run();
+
+        // All partitions were crawled (or the crawl was aborted), so wait for the workers that did start ...
+        boolean interrupted = false;
+        for (Future<?> worker : workers) {
+            if (worker.cancel(false)) continue;
+            while (true) {
+                try {
+                    worker.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    crawl.abort();
+                } catch (ExecutionException e) {
+                    crawl.fail(e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+
+        Throwable failure = crawl.failure.get();
+        if (failure instanceof RuntimeException) throw (RuntimeException)failure;
+        if (failure instanceof Error) throw (Error)failure;
+        if (failure != null) throw new RuntimeException(failure);
+
+        long count = crawl.indexedCount.get();
+        LOGGER.info(JcrI18n.reindexCompleted, count, workspaceName, repositoryName, workers.size() + 1,
+                    System.currentTimeMillis() - start);
+        return count;
+    }
+
+    /**
+     * The state of a single crawl, shared by all of its workers.
+     */
+    protected final class Crawl {
+        protected final String workspaceName;
+        protected final NodeTypeSchemata schemata;
+        protected final NodeCache cache;
+        protected final int depth;
+        private final Queue<NodeKey> partitions = new ConcurrentLinkedQueue<NodeKey>();
+        /** The number of partitions that are queued or are being crawled */
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        /** The number of partitions that are queued; tracked separately since ConcurrentLinkedQueue.size() is not constant-time */
+        private final AtomicInteger queuedCount = new AtomicInteger();
+        protected final AtomicLong indexedCount = new AtomicLong();
+        protected final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        private volatile boolean aborted = false;
+
+        protected Crawl( String workspaceName,
+                         NodeTypeSchemata schemata,
+                         NodeCache cache,
+                         int depth ) {
+            this.workspaceName = workspaceName;
+            this.schemata = schemata;
+            this.cache = cache;
+            this.depth = depth;
+        }
+
+        protected Worker newWorker() {
+            return new Worker(this);
+        }
+
+        protected void addPartition( NodeKey key ) {
+            pendingCount.incrementAndGet();
+            queuedCount.incrementAndGet();
+            partitions.add(key);
+        }
+
+        protected NodeKey nextPartition() {
+            NodeKey key = partitions.poll();
+            if (key != null) queuedCount.decrementAndGet();
+            return key;
+        }
+
+        protected void completedPartition() {
+            pendingCount.decrementAndGet();
+        }
+
+        protected boolean isFinished() {
+            return aborted || pendingCount.get() == 0;
+        }
+
+        protected boolean needsMorePartitions() {
+            return queuedCount.get() < threadCount;
+        }
+
+        protected boolean isAborted() {
+            return aborted;
+        }
+
+        protected void abort() {
+            aborted = true;
+        }
+
+        protected void fail( Throwable t ) {
+            failure.compareAndSet(null, t);
+            aborted = true;
+        }
+
+        protected void recordIndexed() {
+            long count = indexedCount.incrementAndGet();
+            if (count % PROGRESS_INTERVAL == 0) {
+                LOGGER.info(JcrI18n.reindexProgress, count, workspaceName, repositoryName);
+            }
+        }
+    }
+
+    /**
+     * A worker that repeatedly takes a partition from the shared queue and crawls it, until there are no more partitions.
+     */
+    protected final class Worker implements Runnable {
+        private final Crawl crawl;
+        private final BatchTransactionContext batch = new BatchTransactionContext();
+
+        protected Worker( Crawl crawl ) {
+            this.crawl = crawl;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!crawl.isFinished()) {
+                    if (Thread.currentThread().isInterrupted()) {
+                        crawl.abort();
+                        break;
+                    }
+                    NodeKey key = crawl.nextPartition();
+                    if (key == null) {
+                        // Other workers are still crawling and may hand off more partitions ...
+                        LockSupport.parkNanos(IDLE_WAIT_IN_NANOS);
+                        continue;
+                    }
+                    try {
+                        crawlPartition(key);
+                    } finally {
+                        crawl.completedPartition();
+                    }
+                }
+                batch.flush();
+            } catch (Throwable t) {
+                crawl.fail(t);
+            }
+        }
+
+        private void crawlPartition( NodeKey partitionKey ) {
+            NodeCache cache = crawl.cache;
+            PathCache paths = new PathCache(cache);
+            Queue<NodeKey> queue = new LinkedList<NodeKey>();
+            queue.add(partitionKey);
+            while (true) {
+                NodeKey key = queue.poll();
+                if (key == null) break;
+                if (crawl.isAborted()) return;
+
+                // Look up the node and find the path ...
+                CachedNode node = cache.getNode(key);
+                if (node == null || !node.isQueryable(cache)) {
+                    continue;
+                }
+                Path nodePath = paths.getPath(node);
+
+                // Index the node ...
+                indexes.updateIndex(crawl.workspaceName,
+                                    node.getKey(),
+                                    nodePath,
+                                    node.getPrimaryType(cache),
+                                    node.getMixinTypes(cache),
+                                    node.getProperties(cache),
+                                    cache,
+                                    crawl.schemata,
+                                    batch);
+                if (batch.incrementAndGet() >= batchSize) {
+                    batch.flush();
+                }
+                crawl.recordIndexed();
+
+                // Check the depth ...
+                if (nodePath.size() <= crawl.depth) {
+                    // Add the children to the queue, or hand them off to the other workers if they are running out of work ...
+                    for (ChildReference childRef : node.getChildReferences(cache)) {
+                        if (crawl.needsMorePartitions()) {
+                            crawl.addPartition(childRef.getKey());
+                        } else {
+                            queue.add(childRef.getKey());
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * A {@link TransactionContext} that behaves as a transaction which is committed every time the batch is
+     * {@link #flush() flushed}, so that Hibernate Search queues the index updates and then applies them all at once.
+     */
+    protected static final class BatchTransactionContext implements TransactionContext {
+        private final List<Synchronization> synchronizations = new ArrayList<Synchronization>();
+        private int size;
+
+        @Override
+        public boolean isTransactionInProgress() {
+            return true;
+        }
+
+        @Override
+        public Object getTransactionIdentifier() {
+            return this;
+        }
+
+        @Override
+        public void registerSynchronization( Synchronization synchronization ) {
+            synchronizations.add(synchronization);
+        }
+
+        protected int incrementAndGet() {
+            return ++size;
+        }
+
+        protected void flush() {
+            if (synchronizations.isEmpty()) return;
+            List<Synchronization> syncs = new ArrayList<Synchronization>(synchronizations);
+            synchronizations.clear();
+            size = 0;
+            for (Synchronization sync : syncs) {
+                sync.beforeCompletion();
+            }
+            for (Synchronization sync : syncs) {
+                sync.afterCompletion(Status.STATUS_COMMITTED);
+            }
+        }
+    }
+}
@@ -78,6 +78,7 @@ import org.modeshape.common.util.ObjectUtil;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.connector.filesystem.FileSystemConnector;
 import org.modeshape.jcr.clustering.DefaultChannelProvider;
+import org.modeshape.jcr.journal.ChangeJournal;
 import org.modeshape.jcr.security.AnonymousProvider;
 import org.modeshape.jcr.security.JaasProvider;
 import org.modeshape.jcr.value.binary.AbstractBinaryStore;
@@ -241,6 +242,59 @@ public class RepositoryConfiguration {
          */
         public static final String MONITORING = "monitoring";
 
+        /**
+         * The name for the field whose value is a document containing the configuration of the dispatching of events to the
+         * listeners.
+         */
+        public static final String EVENTS = "events";
+
+        /**
+         * The name for the optional field specifying the maximum number of change sets that can be waiting to be sent to a
+         * single listener.
+         */
+        public static final String LISTENER_QUEUE_CAPACITY = "listenerQueueCapacity";
+
+        /**
+         * The name for the optional field specifying what happens when a change set is sent to the JCR event listeners that
+         * already have {@link #LISTENER_QUEUE_CAPACITY the maximum number} of change sets waiting. The value must be one of the
+         * {@link EventOverflowPolicy} literals. The repository's own listeners always wait.
+         */
+        public static final String LISTENER_OVERFLOW_POLICY = "listenerOverflowPolicy";
+
+        /**
+         * The name for the field whose value is a document containing the configuration of the journal of the events, which is
+         * used by {@link javax.jcr.observation.ObservationManager#getEventJournal()}. The journal is only kept if this field is
+         * present.
+         */
+        public static final String JOURNALING = "journaling";
+
+        /**
+         * The name for the optional field specifying whether the journal is enabled.
+         */
+        public static final String JOURNAL_ENABLED = "enabled";
+
+        /**
+         * The name for the optional field specifying the path of the directory in which the journal is stored.
+         */
+        public static final String JOURNAL_LOCATION = "location";
+
+        /**
+         * The name for the optional field specifying the number of days for which the records of the journal are kept. A
+         * negative value means the records are kept forever.
+         */
+        public static final String MAX_DAYS_TO_KEEP_RECORDS = "maxDaysToKeepRecords";
+
+        /**
+         * The name for the optional field specifying the size in bytes of each of the files in which the journal is stored.
+         */
+        public static final String JOURNAL_SEGMENT_SIZE_IN_BYTES = "segmentSizeInBytes";
+
+        /**
+         * The name for the optional field specifying the number of bytes between two consecutive records in the timestamp index
+         * of each of the files of the journal.
+         */
+        public static final String JOURNAL_INDEX_INTERVAL_IN_BYTES = "indexIntervalInBytes";
+
         /**
          * The name for the optional field specifying whether the monitoring system is enabled or disabled.
          */
@@ -379,6 +433,13 @@ public class RepositoryConfiguration {
          */
         public static final String WORKSPACE_CACHE_CONFIGURATION = "cacheConfiguration";
 
+        /**
+         * The name for the field in the "workspaces" document whose value is the maximum estimated size (in bytes) of the nodes
+         * that each workspace keeps in memory. When this value is positive, each workspace uses a weight-bounded node cache
+         * instead of an Infinispan cache defined by the {@link #WORKSPACE_CACHE_CONFIGURATION workspace cache configuration}.
+         */
+        public static final String NODE_CACHE_SIZE_IN_BYTES = "nodeCacheSizeInBytes";
+
         /**
          * The name for the field whose value is a document containing binary storage information.
          */
@@ -461,8 +522,16 @@ public class RepositoryConfiguration {
         public static final String TABLES_INCLUDE_INHERITED_COLUMNS = "tablesIncludeInheritedColumns";
         public static final String TEXT_EXTRACTING = "textExtracting";
         public static final String EXTRACTORS = "extractors";
+        public static final String MAX_EXTRACTED_TEXT_LENGTH = "maxExtractedTextLength";
+        public static final String MAX_CONCURRENT_EXTRACTIONS = "maxConcurrentExtractions";
+        public static final String MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR = "maxConcurrentExtractionsPerExtractor";
+        public static final String EXTRACTION_QUEUE_CAPACITY = "queueCapacity";
         public static final String SEQUENCING = "sequencing";
         public static final String SEQUENCERS = "sequencers";
+        public static final String SEQUENCING_QUEUE_LOCATION = "queueLocation";
+        public static final String MAX_CONCURRENT_SEQUENCINGS_PER_SEQUENCER = "maxConcurrentPerSequencer";
+        public static final String SEQUENCING_MAX_RETRIES = "maxRetries";
+        public static final String SEQUENCING_RETRY_DELAY_IN_MILLIS = "retryDelayInMillis";
         public static final String EXTERNAL_SOURCES = "externalSources";
         public static final String PROJECTIONS = "projections";
         public static final String PATH_EXPRESSION = "pathExpression";
@@ -497,6 +566,8 @@ public class RepositoryConfiguration {
         public static final String INDEXING_MODE = "mode";
         public static final String INDEXING_ASYNC_THREAD_POOL_SIZE = "asyncThreadPoolSize";
         public static final String INDEXING_ASYNC_MAX_QUEUE_SIZE = "asyncMaxQueueSize";
+        public static final String INDEXING_REINDEXING_THREADS = "reindexingThreads";
+        public static final String INDEXING_REINDEXING_BATCH_SIZE = "reindexingBatchSize";
 
         public static final String INDEX_STORAGE_LOCATION = "location";
         public static final String INDEX_STORAGE_SOURCE_LOCATION = "sourceLocation";
@@ -549,6 +620,18 @@ public class RepositoryConfiguration {
          * The optional string representing a valid JGroups channel configuration object
          */
         public static final String CHANNEL_CONFIGURATION = "channelConfiguration";
+
+        /**
+         * The optional time in milliseconds during which the change sets are collected before being sent to the cluster in a
+         * single message. A value of 0 (the default) means that each change set is sent immediately in its own message.
+         */
+        public static final String BATCH_WINDOW_IN_MILLIS = "batchWindowInMillis";
+
+        /**
+         * The optional maximum number of change sets that are sent to the cluster in a single message; a batch is sent as soon
+         * as it reaches this size, even if the batch window has not yet elapsed.
+         */
+        public static final String BATCH_MAXIMUM_SIZE = "batchMaximumSize";
     }
 
     public static class Default {
@@ -588,6 +671,12 @@ public class RepositoryConfiguration {
          */
         public static final String WORKSPACE_CACHE_CONFIGURATION = "org/modeshape/jcr/default-workspace-cache-config.xml";
 
+        /**
+         * The default value of the {@link FieldName#NODE_CACHE_SIZE_IN_BYTES} field is '{@value} ', meaning that the workspaces use
+         * the Infinispan workspace caches.
+         */
+        public static final long NODE_CACHE_SIZE_IN_BYTES = 0L;
+
         /**
          * The default value of the {@link FieldName#USE_ANONYMOUS_ON_FAILED_LOGINS} field is '{@value} '.
          */
@@ -606,6 +695,9 @@ public class RepositoryConfiguration {
         public static final boolean REMOVE_DERIVED_CONTENT_WITH_ORIGINAL = true;
 
         public static final String SEQUENCING_POOL = "modeshape-sequencer";
+        public static final int MAX_CONCURRENT_SEQUENCINGS_PER_SEQUENCER = 4;
+        public static final int SEQUENCING_MAX_RETRIES = 3;
+        public static final long SEQUENCING_RETRY_DELAY_IN_MILLIS = 1000L;
         public static final String QUERY_THREAD_POOL = "modeshape-indexer";
         public static final String GARBAGE_COLLECTION_POOL = "modeshape-gc";
         public static final String OPTIMIZATION_POOL = "modeshape-opt";
@@ -620,6 +712,12 @@ public class RepositoryConfiguration {
         public static final IndexingMode INDEXING_MODE_SYSTEM_CONTENT = IndexingMode.DISABLED;
         public static final String INDEXING_ASYNC_THREAD_POOL_SIZE = "1";
         public static final String INDEXING_ASYNC_MAX_QUEUE_SIZE = "1";
+        public static final int INDEXING_REINDEXING_THREADS = 1;
+        public static final int INDEXING_REINDEXING_BATCH_SIZE = 100;
+        public static final long MAX_EXTRACTED_TEXT_LENGTH = 10L * 1024L * 1024L;
+        public static final int MAX_CONCURRENT_EXTRACTIONS = 4;
+        public static final int MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR = 2;
+        public static final int EXTRACTION_QUEUE_CAPACITY = 1000;
 
         public static final FileSystemLockingStrategy INDEX_STORAGE_LOCKING_STRATEGY = FileSystemLockingStrategy.NATIVE;
         public static final FileSystemAccessType INDEX_STORAGE_FILE_SYSTEM_ACCESS_TYPE = FileSystemAccessType.AUTO;
@@ -632,6 +730,15 @@ public class RepositoryConfiguration {
 
         public static final String CLUSTER_NAME = "ModeShape-JCR";
         public static final String CHANNEL_PROVIDER = DefaultChannelProvider.class.getName();
+        public static final int BATCH_WINDOW_IN_MILLIS = 0;
+        public static final int LISTENER_QUEUE_CAPACITY = 10000;
+        public static final EventOverflowPolicy LISTENER_OVERFLOW_POLICY = EventOverflowPolicy.BLOCK;
+        public static final boolean JOURNAL_ENABLED = true;
+        public static final String JOURNAL_LOCATION = "modeshape/journal";
+        public static final int MAX_DAYS_TO_KEEP_RECORDS = -1;
+        public static final int JOURNAL_SEGMENT_SIZE_IN_BYTES = ChangeJournal.DEFAULT_SEGMENT_SIZE_IN_BYTES;
+        public static final int JOURNAL_INDEX_INTERVAL_IN_BYTES = ChangeJournal.DEFAULT_INDEX_INTERVAL_IN_BYTES;
+        public static final int BATCH_MAXIMUM_SIZE = 100;
 
         public static final String GARBAGE_COLLECTION_INITIAL_TIME = "00:00";
         public static final int GARBAGE_COLLECTION_INTERVAL_IN_HOURS = 24;
@@ -1044,6 +1151,19 @@ public class RepositoryConfiguration {
         return Default.WORKSPACE_CACHE_CONFIGURATION;
     }
 
+    /**
+     * Get the maximum estimated size (in bytes) of the nodes that each workspace keeps in memory.
+     * 
+     * @return the size in bytes, or 0 if the workspaces use the Infinispan workspace caches
+     */
+    public long getWorkspaceNodeCacheSizeInBytes() {
+        Document workspaces = doc.getDocument(FieldName.WORKSPACES);
+        if (workspaces != null) {
+            return workspaces.getLong(FieldName.NODE_CACHE_SIZE_IN_BYTES, Default.NODE_CACHE_SIZE_IN_BYTES);
+        }
+        return Default.NODE_CACHE_SIZE_IN_BYTES;
+    }
+
     CacheContainer getContentCacheContainer() throws IOException, NamingException {
         return getCacheContainer(null);
     }
@@ -1834,6 +1954,149 @@ public class RepositoryConfiguration {
         NONE
     }
 
+    /**
+     * Possible options for handling a change set sent to a listener that already has the maximum number of change sets waiting.
+     * <p>
+     * A listener can never wait for itself, so the change sets made by a listener while it is handling the changes (e.g., by
+     * saving a session in {@link javax.jcr.observation.EventListener#onEvent(javax.jcr.observation.EventIterator)}) are always
+     * added to its queue, which can grow to 4 times its capacity. When even that is full, those change sets are discarded
+     * regardless of the policy; each such change set is logged as a warning and counted in the
+     * {@link org.modeshape.jcr.api.monitor.ValueMetric#DROPPED_CHANGE_SET_COUNT dropped change sets} statistics.
+     * </p>
+     */
+    public enum EventOverflowPolicy {
+        /**
+         * Wait until the listener has processed some of the waiting change sets. The change sets that the listener itself makes
+         * are discarded if its queue has grown to 4 times its capacity.
+         */
+        BLOCK,
+        /**
+         * Merge the change set with the last waiting change set when both were made by the same session, or otherwise wait
+         * until the listener has processed some of the waiting change sets. The change sets that the listener itself makes are
+         * discarded if they cannot be merged and its queue has grown to 4 times its capacity.
+         */
+        COALESCE,
+        /**
+         * Discard the change set, so that the listener never sees it.
+         */
+        DROP
+    }
+
+    /**
+     * Get the configuration for the dispatching of events to the listeners.
+     * 
+     * @return the events configuration; never null
+     */
+    public Events getEvents() {
+        return new Events(doc.getDocument(FieldName.EVENTS));
+    }
+
+    /**
+     * The configuration of the dispatching of events to the listeners.
+     */
+    @Immutable
+    public class Events {
+        private final Document events;
+
+        protected Events( Document events ) {
+            this.events = events != null ? events : EMPTY;
+        }
+
+        /**
+         * Get the maximum number of change sets that can be waiting to be sent to a single listener.
+         * 
+         * @return the capacity of the queue of each listener; always positive
+         */
+        public int getListenerQueueCapacity() {
+            int capacity = events.getInteger(FieldName.LISTENER_QUEUE_CAPACITY, Default.LISTENER_QUEUE_CAPACITY);
+            return capacity > 0 ? capacity : Default.LISTENER_QUEUE_CAPACITY;
+        }
+
+        /**
+         * Get what happens when a change set is sent to a listener that already has the maximum number of change sets waiting.
+         * 
+         * @return the overflow policy; never null
+         */
+        public EventOverflowPolicy getListenerOverflowPolicy() {
+            String policy = events.getString(FieldName.LISTENER_OVERFLOW_POLICY);
+            return policy != null ? EventOverflowPolicy.valueOf(policy.trim().toUpperCase()) : Default.LISTENER_OVERFLOW_POLICY;
+        }
+    }
+
+    /**
+     * Get the configuration for the journal of the events.
+     * 
+     * @return the journaling configuration; never null
+     */
+    public Journaling getJournaling() {
+        return new Journaling(doc.getDocument(FieldName.JOURNALING));
+    }
+
+    /**
+     * The configuration of the journal of the events.
+     */
+    @Immutable
+    public class Journaling {
+        private final Document journaling;
+
+        protected Journaling( Document journaling ) {
+            this.journaling = journaling;
+        }
+
+        /**
+         * Determine whether the journal is kept. The journal is only kept if the journaling section is present in the
+         * configuration.
+         * 
+         * @return true if the journal is enabled, or false otherwise
+         */
+        public boolean isEnabled() {
+            return journaling != null && journaling.getBoolean(FieldName.JOURNAL_ENABLED, Default.JOURNAL_ENABLED);
+        }
+
+        /**
+         * Get the path of the directory in which the journal is stored.
+         * 
+         * @return the path; never null
+         */
+        public String getLocation() {
+            if (journaling == null) return Default.JOURNAL_LOCATION;
+            return journaling.getString(FieldName.JOURNAL_LOCATION, Default.JOURNAL_LOCATION);
+        }
+
+        /**
+         * Get the number of days for which the records of the journal are kept.
+         * 
+         * @return the number of days, or a negative number if the records are kept forever
+         */
+        public int getMaxDaysToKeepRecords() {
+            if (journaling == null) return Default.MAX_DAYS_TO_KEEP_RECORDS;
+            return journaling.getInteger(FieldName.MAX_DAYS_TO_KEEP_RECORDS, Default.MAX_DAYS_TO_KEEP_RECORDS);
+        }
+
+        /**
+         * Get the size of each of the files in which the journal is stored.
+         * 
+         * @return the size in bytes; always positive
+         */
+        public int getSegmentSizeInBytes() {
+            if (journaling == null) return Default.JOURNAL_SEGMENT_SIZE_IN_BYTES;
+            int size = journaling.getInteger(FieldName.JOURNAL_SEGMENT_SIZE_IN_BYTES, Default.JOURNAL_SEGMENT_SIZE_IN_BYTES);
+            return size > 0 ? size : Default.JOURNAL_SEGMENT_SIZE_IN_BYTES;
+        }
+
+        /**
+         * Get the number of bytes between two consecutive records in the timestamp index of each of the files of the journal.
+         * 
+         * @return the number of bytes; always positive
+         */
+        public int getIndexIntervalInBytes() {
+            if (journaling == null) return Default.JOURNAL_INDEX_INTERVAL_IN_BYTES;
+            int interval = journaling.getInteger(FieldName.JOURNAL_INDEX_INTERVAL_IN_BYTES,
+                                                 Default.JOURNAL_INDEX_INTERVAL_IN_BYTES);
+            return interval > 0 ? interval : Default.JOURNAL_INDEX_INTERVAL_IN_BYTES;
+        }
+    }
+
     /**
      * Get the configuration for the query-related aspects of this repository.
      * 
@@ -1909,6 +2172,15 @@ public class RepositoryConfiguration {
             return new IndexRebuildOptions(query);
         }
 
+        /**
+         * Returns the options that should be used when crawling content to rebuild the indexes.
+         * 
+         * @return a {@code non-null} {@link ReindexingOptions} instance.
+         */
+        public ReindexingOptions getReindexingOptions() {
+            return new ReindexingOptions(query);
+        }
+
         /**
          * Get the configuration properties for the storage of indexes. The values of the properties will consist of string
          * values.
@@ -1974,6 +2246,8 @@ public class RepositoryConfiguration {
                     String name = field.getName();
                     if (FieldName.INDEXING_BACKEND.equals(name)) continue;
                     if (FieldName.THREAD_POOL.equals(name)) continue;
+                    if (FieldName.INDEXING_REINDEXING_THREADS.equals(name)) continue;
+                    if (FieldName.INDEXING_REINDEXING_BATCH_SIZE.equals(name)) continue;
                     String value = field.getValue().toString(); // schema only allows strings and integers
                     props.setProperty(name, value);
                 }
@@ -2115,6 +2389,52 @@ public class RepositoryConfiguration {
         }
     }
 
+    @Immutable
+    public static class ReindexingOptions {
+
+        private final int threadCount;
+        private final int batchSize;
+
+        protected ReindexingOptions( Document query ) {
+            assert query != null;
+            Document indexing = query.getDocument(FieldName.INDEXING);
+            if (indexing == null) indexing = EMPTY;
+            this.threadCount = Math.max(1, indexing.getInteger(FieldName.INDEXING_REINDEXING_THREADS,
+                                                               Default.INDEXING_REINDEXING_THREADS));
+            this.batchSize = Math.max(1, indexing.getInteger(FieldName.INDEXING_REINDEXING_BATCH_SIZE,
+                                                             Default.INDEXING_REINDEXING_BATCH_SIZE));
+        }
+
+        /**
+         * Returns the number of workers that should concurrently crawl the content when the indexes are rebuilt. A value of
+         * '1' means that the content is crawled sequentially by a single thread.
+         * 
+         * @return the number of crawling workers; always positive
+         */
+        public int getThreadCount() {
+            return threadCount;
+        }
+
+        /**
+         * Returns the number of index updates each crawling worker accumulates before writing them to the indexes. This is only
+         * used when the content is crawled by more than one worker.
+         * 
+         * @return the batch size; always positive
+         */
+        public int getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Determine whether the content should be crawled by multiple workers.
+         * 
+         * @return true if the content is to be crawled in parallel, or false if it is to be crawled sequentially
+         */
+        public boolean isParallel() {
+            return threadCount > 1;
+        }
+    }
+
     @Immutable
     public class TextExtracting {
         private final Document textExtracting;
@@ -2132,6 +2452,48 @@ public class RepositoryConfiguration {
             return textExtracting.getString(FieldName.THREAD_POOL, "modeshape-text-extractor");
         }
 
+        /**
+         * Get the maximum number of characters of text that are extracted from a single binary value. Any additional text is
+         * discarded and will not be indexed.
+         * 
+         * @return the maximum number of characters, or a negative number if the extracted text is not limited
+         */
+        public long getMaxExtractedTextLength() {
+            return textExtracting.getLong(FieldName.MAX_EXTRACTED_TEXT_LENGTH, Default.MAX_EXTRACTED_TEXT_LENGTH);
+        }
+
+        /**
+         * Get the maximum number of text extractions that may run at the same time.
+         * 
+         * @return the maximum number of concurrent extractions; always positive
+         */
+        public int getMaxConcurrentExtractions() {
+            int max = textExtracting.getInteger(FieldName.MAX_CONCURRENT_EXTRACTIONS, Default.MAX_CONCURRENT_EXTRACTIONS);
+            return max > 0 ? max : Default.MAX_CONCURRENT_EXTRACTIONS;
+        }
+
+        /**
+         * Get the maximum number of text extractions that a single text extractor may run at the same time.
+         * 
+         * @return the maximum number of concurrent extractions per extractor; always positive
+         */
+        public int getMaxConcurrentExtractionsPerExtractor() {
+            int max = textExtracting.getInteger(FieldName.MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR,
+                                                Default.MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR);
+            return max > 0 ? max : Default.MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR;
+        }
+
+        /**
+         * Get the maximum number of background text extractions that may wait to be run. Extractions needed by callers that are
+         * waiting for the text are always accepted.
+         * 
+         * @return the capacity of the extraction queue; always positive
+         */
+        public int getQueueCapacity() {
+            int capacity = textExtracting.getInteger(FieldName.EXTRACTION_QUEUE_CAPACITY, Default.EXTRACTION_QUEUE_CAPACITY);
+            return capacity > 0 ? capacity : Default.EXTRACTION_QUEUE_CAPACITY;
+        }
+
         /**
          * Get the ordered list of text extractors. All text extractors are configured with this list.
          * 
@@ -2342,6 +2704,48 @@ public class RepositoryConfiguration {
             return sequencing.getString(FieldName.THREAD_POOL, Default.SEQUENCING_POOL);
         }
 
+        /**
+         * Get the path of the file in which the pending sequencing work is recorded, so that the work is resumed after the
+         * repository is restarted. The pending work is only kept in memory if no location is configured.
+         * 
+         * @return the path of the file, or null if the pending work is not persisted
+         */
+        public String getQueueLocation() {
+            return sequencing.getString(FieldName.SEQUENCING_QUEUE_LOCATION);
+        }
+
+        /**
+         * Get the maximum number of inputs that a single sequencer may process at the same time.
+         * 
+         * @return the maximum number of concurrent sequencing operations per sequencer; always positive
+         */
+        public int getMaxConcurrentPerSequencer() {
+            int max = sequencing.getInteger(FieldName.MAX_CONCURRENT_SEQUENCINGS_PER_SEQUENCER,
+                                            Default.MAX_CONCURRENT_SEQUENCINGS_PER_SEQUENCER);
+            return max > 0 ? max : Default.MAX_CONCURRENT_SEQUENCINGS_PER_SEQUENCER;
+        }
+
+        /**
+         * Get the maximum number of times that the sequencing of an input is retried after it fails.
+         * 
+         * @return the maximum number of retries; never negative
+         */
+        public int getMaxRetries() {
+            int max = sequencing.getInteger(FieldName.SEQUENCING_MAX_RETRIES, Default.SEQUENCING_MAX_RETRIES);
+            return max >= 0 ? max : 0;
+        }
+
+        /**
+         * Get the time to wait before the first retry of a failed sequencing operation. The time is doubled for every
+         * subsequent retry of the same input.
+         * 
+         * @return the delay in milliseconds; never negative
+         */
+        public long getRetryDelayInMillis() {
+            long delay = sequencing.getLong(FieldName.SEQUENCING_RETRY_DELAY_IN_MILLIS, Default.SEQUENCING_RETRY_DELAY_IN_MILLIS);
+            return delay >= 0L ? delay : 0L;
+        }
+
         /**
          * Get the ordered list of sequencers. All sequencers are configured with this list.
          * 
@@ -2560,6 +2964,24 @@ public class RepositoryConfiguration {
             return clusteringDoc.getString(FieldName.CHANNEL_CONFIGURATION);
         }
 
+        /**
+         * Get the time during which the change sets are collected before being sent to the cluster in a single message.
+         * 
+         * @return the batch window in milliseconds, or 0 if each change set is sent immediately in its own message
+         */
+        public int getBatchWindowInMillis() {
+            return clusteringDoc.getInteger(FieldName.BATCH_WINDOW_IN_MILLIS, Default.BATCH_WINDOW_IN_MILLIS);
+        }
+
+        /**
+         * Get the maximum number of change sets that are sent to the cluster in a single message.
+         * 
+         * @return the maximum size of a batch of change sets
+         */
+        public int getBatchMaximumSize() {
+            return clusteringDoc.getInteger(FieldName.BATCH_MAXIMUM_SIZE, Default.BATCH_MAXIMUM_SIZE);
+        }
+
         public Document getDocument() {
             return clusteringDoc;
         }
@@ -66,6 +66,7 @@ class RepositoryDisabledQueryManager extends RepositoryQueryManager {
                                 Name primaryType,
                                 Set<Name> mixinTypes,
                                 Iterator<Property> propertiesIterator,
+                                NodeCache cache,
                                 NodeTypeSchemata schemata,
                                 TransactionContext txnCtx ) {
         }
@@ -99,6 +100,7 @@ class RepositoryDisabledQueryManager extends RepositoryQueryManager {
                                  Name primaryType,
                                  Set<Name> mixinTypes,
                                  Iterator<Property> properties,
+                                 NodeCache cache,
                                  NodeTypeSchemata schemata,
                                  TransactionContext txnCtx ) {
         }
@@ -292,6 +292,9 @@ class RepositoryNodeTypeManager implements ChangeSetListener {
         // This is idempotent, so it's okay not to lock ...
         schemata = new NodeTypeSchemata(context, nodeTypesCache, includeColumnsForInheritedProperties,
                                         includePseudoColumnsInSelectStar);
+        // The parsed queries and plans that were cached for the previous schemata can no longer be used ...
+        RepositoryQueryManager queryManager = repository.queryManager();
+        if (queryManager != null) queryManager.planCache().invalidate();
         return schemata;
     }
 
@@ -23,6 +23,7 @@
  */
 package org.modeshape.jcr;
 
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Map;
 import java.util.Properties;
@@ -32,6 +33,7 @@ import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.jcr.query.InvalidQueryException;
@@ -43,6 +45,9 @@ import org.modeshape.common.annotation.GuardedBy;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.JcrRepository.RunningState;
+import org.modeshape.jcr.RepositoryConfiguration.ReindexingOptions;
+import org.modeshape.jcr.api.monitor.ValueMetric;
+import org.modeshape.jcr.EffectiveAclCache.EffectiveAcl;
 import org.modeshape.jcr.api.query.qom.QueryCommand;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.ChildReference;
@@ -51,13 +56,20 @@ import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.PathCache;
 import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.document.WorkspaceCache;
 import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.QueryIndexing;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.lucene.LuceneQueryEngine;
 import org.modeshape.jcr.query.lucene.LuceneSearchConfiguration;
+import org.modeshape.jcr.query.lucene.ReadPermissions;
 import org.modeshape.jcr.query.lucene.basic.BasicLuceneConfiguration;
 import org.modeshape.jcr.query.optimize.Optimizer;
-import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
 import org.modeshape.jcr.query.plan.CanonicalPlanner;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.plan.Planner;
@@ -73,11 +85,16 @@ class RepositoryQueryManager {
     private final RunningState runningState;
     private final ExecutorService indexingExecutorService;
     private final LuceneSearchConfiguration config;
+    private final ReindexingOptions reindexingOptions;
     private final Lock engineInitLock = new ReentrantLock();
     @GuardedBy( "engineInitLock" )
     private volatile LuceneQueryEngine queryEngine;
     private final Logger logger = Logger.getLogger(getClass());
 
+    private final QueryPlanCache planCache;
+    private final ChangeSetListener accessControlChangeListener = new AccessControlChangeListener();
+    private final AtomicInteger pendingAccessControlReindexes = new AtomicInteger();
+
     private Future<Void> asyncReindexingResult;
     private JMSMasterIndexingListener jmsListener;
 
@@ -85,15 +102,20 @@ class RepositoryQueryManager {
         this.runningState = runningState;
         this.indexingExecutorService = null;
         this.config = null;
+        this.reindexingOptions = null;
+        this.planCache = new StatisticsQueryPlanCache(runningState);
     }
 
     RepositoryQueryManager( RunningState runningState,
                             ExecutorService indexingExecutorService,
                             Properties backendProps,
                             Properties indexingProps,
-                            Properties indexStorageProps ) {
+                            Properties indexStorageProps,
+                            ReindexingOptions reindexingOptions ) {
         this.runningState = runningState;
         this.indexingExecutorService = indexingExecutorService;
+        this.reindexingOptions = reindexingOptions;
+        this.planCache = new StatisticsQueryPlanCache(runningState);
         // Set up the query engine ...
         String repoName = runningState.name();
         this.config = new BasicLuceneConfiguration(repoName, backendProps, indexingProps, indexStorageProps);
@@ -167,6 +189,24 @@ class RepositoryQueryManager {
                                    variables);
     }
 
+    /**
+     * Get the cache of the parsed queries and optimized query plans.
+     * 
+     * @return the cache; never null
+     */
+    QueryPlanCache planCache() {
+        return planCache;
+    }
+
+    /**
+     * Get the listener that keeps the indexed read permissions of the nodes up to date when access control lists are changed.
+     * 
+     * @return the listener; never null
+     */
+    ChangeSetListener accessControlChangeListener() {
+        return accessControlChangeListener;
+    }
+
     public QueryIndexing getIndexes() {
         return queryEngine().getQueryIndexing();
     }
@@ -181,11 +221,13 @@ class RepositoryQueryManager {
                                                        config);
                     boolean enableFullTextSearch = runningState.isFullTextSearchEnabled();
                     Planner planner = new CanonicalPlanner();
-                    Optimizer optimizer = new RuleBasedOptimizer();
+                    // Use the default optimizer, which estimates cardinalities using the statistics of the indexes ...
+                    Optimizer optimizer = null;
                     SearchFactoryImplementor searchFactory = new SearchFactoryBuilder().configuration(config)
                                                                                        .buildSearchFactory();
                     queryEngine = new LuceneQueryEngine(runningState.context(), runningState.name(), planner, optimizer,
-                                                        searchFactory, config.getVersion(), enableFullTextSearch);
+                                                        planCache, searchFactory, config.getVersion(), enableFullTextSearch,
+                                                        new AclReadPermissions());
 
                     if (this.jmsListener != null) {
                         //if we're dealing with a JMS master configuration, we need to start the JMS listener
@@ -287,9 +329,21 @@ class RepositoryQueryManager {
                                 int depth ) {
         CheckArg.isPositive(depth, "depth");
         JcrSession session = workspace.getSession();
-        NodeCache cache = session.cache().getWorkspace();
-        String workspaceName = workspace.getName();
+        reindexContent(workspace.getName(), session.cache().getWorkspace(), path, depth);
+    }
 
+    /**
+     * Crawl and index the persisted content starting at the supplied path in the named workspace, to the designated depth.
+     * 
+     * @param workspaceName the name of the workspace
+     * @param cache the cache of the workspace's persisted content
+     * @param path the path of the content to be indexed
+     * @param depth the depth of the content to be indexed
+     */
+    protected void reindexContent( String workspaceName,
+                                   NodeCache cache,
+                                   Path path,
+                                   int depth ) {
         // Look for the node ...
         CachedNode node = cache.getNode(cache.getRootKey());
         for (Segment segment : path) {
@@ -335,6 +389,7 @@ class RepositoryQueryManager {
                             node.getPrimaryType(cache),
                             node.getMixinTypes(cache),
                             node.getProperties(cache),
+                            cache,
                             schemata,
                             txnCtx);
 
@@ -369,6 +424,15 @@ class RepositoryQueryManager {
             }
         }
 
+        if (reindexingOptions != null && reindexingOptions.isParallel()) {
+            // Crawl the subtrees below the children in parallel ...
+            ParallelIndexCrawler crawler = new ParallelIndexCrawler(runningState.name(), indexingExecutorService, indexes,
+                                                                    reindexingOptions.getThreadCount(),
+                                                                    reindexingOptions.getBatchSize());
+            crawler.crawl(workspaceName, schemata, cache, queue, depth);
+            return;
+        }
+
         // Now, process the queue until empty ...
         while (true) {
             NodeKey key = queue.poll();
@@ -388,6 +452,7 @@ class RepositoryQueryManager {
                                 node.getPrimaryType(cache),
                                 node.getMixinTypes(cache),
                                 node.getProperties(cache),
+                                cache,
                                 schemata,
                                 txnCtx);
 
@@ -476,6 +541,107 @@ class RepositoryQueryManager {
         });
     }
 
+    /**
+     * The {@link ReadPermissions} that determines the principals that can read each indexed node from the node's effective
+     * access control list.
+     */
+    protected final class AclReadPermissions implements ReadPermissions {
+        @Override
+        public boolean isAccessControlEnabled() {
+            return runningState.repositoryCache().isAccessControlEnabled();
+        }
+
+        @Override
+        public boolean isIndexCurrent() {
+            return pendingAccessControlReindexes.get() == 0;
+        }
+
+        @Override
+        public String[] getReadPrincipals( NodeKey key,
+                                           NodeCache cache ) {
+            // The nodes being indexed may not be committed yet, so don't cache their ACLs ...
+            EffectiveAcl acl = runningState.aclCache().resolveEffectiveAcl(key, cache);
+            return acl != null ? acl.getReadPrincipals() : null;
+        }
+    }
+
+    /**
+     * A listener that re-indexes the nodes whose readers may have changed: the subtree below each node whose access control list
+     * was changed, and (when access control lists are used) the subtree of each moved node. The other nodes are indexed with the
+     * principals that can read them when they are saved, but the descendants of these nodes are not changed by the save.
+     * <p>
+     * This listener is {@link org.modeshape.jcr.bus.ChangeBus#registerInThread(ChangeSetListener) notified in the thread} that
+     * makes the changes, so queries stop relying on the indexed principals before the save returns; the re-indexing itself is
+     * done in the background. Change sets from other processes are handled here too, even when the indexes are clustered, so that
+     * this process does not rely on the indexed principals while the affected nodes are being re-indexed.
+     * </p>
+     */
+    protected final class AccessControlChangeListener implements ChangeSetListener {
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            final String workspaceName = changeSet.getWorkspaceName();
+            if (workspaceName == null) return;
+            boolean indexMoved = runningState.repositoryCache().isAccessControlEnabled()
+                                 && !workspaceName.equals(runningState.systemWorkspaceName());
+            final Set<Path> subtreePaths = new HashSet<Path>();
+            for (Change change : changeSet) {
+                if (!(change instanceof AbstractNodeChange)) continue;
+                Path ownerPath = EffectiveAclCache.accessListOwnerPath(((AbstractNodeChange)change).getPath());
+                if (ownerPath != null) subtreePaths.add(ownerPath);
+                if (indexMoved && change instanceof NodeMoved) subtreePaths.add(((NodeMoved)change).getNewPath());
+            }
+            if (subtreePaths.isEmpty()) return;
+            final WorkspaceCache cache = runningState.repositoryCache().getWorkspaceCache(workspaceName);
+            if (!runningState.context().getProcessId().equals(changeSet.getProcessKey())) {
+                // Other listeners may not have yet cleared the remotely-changed nodes from the workspace cache ...
+                cache.notify(changeSet);
+            }
+            // Queries should not rely on the indexed principals until the nodes are re-indexed ...
+            pendingAccessControlReindexes.incrementAndGet();
+            try {
+                indexingExecutorService.submit(new Callable<Void>() {
+                    @SuppressWarnings( "synthetic-access" )
+                    @Override
+                    public Void call() throws Exception {
+                        try {
+                            for (Path subtreePath : subtreePaths) {
+                                reindexContent(workspaceName, cache, subtreePath, Integer.MAX_VALUE);
+                            }
+                            return null;
+                        } finally {
+                            pendingAccessControlReindexes.decrementAndGet();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                // This is called while the changes are being saved, so don't fail the save ...
+                pendingAccessControlReindexes.decrementAndGet();
+                logger.error(e, JcrI18n.errorUpdatingQueryIndexes, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * A {@link QueryPlanCache} that records its hits and misses in the repository's statistics.
+     */
+    protected static final class StatisticsQueryPlanCache extends QueryPlanCache {
+        private final RunningState runningState;
+
+        protected StatisticsQueryPlanCache( RunningState runningState ) {
+            this.runningState = runningState;
+        }
+
+        @Override
+        protected void hit() {
+            runningState.statistics().increment(ValueMetric.QUERY_PLAN_CACHE_HITS);
+        }
+
+        @Override
+        protected void missed() {
+            runningState.statistics().increment(ValueMetric.QUERY_PLAN_CACHE_MISSES);
+        }
+    }
+
     protected static final TransactionContext NO_TRANSACTION = new TransactionContext() {
         @Override
         public boolean isTransactionInProgress() {
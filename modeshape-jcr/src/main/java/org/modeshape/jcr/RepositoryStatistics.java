@@ -43,6 +43,8 @@ import java.util.concurrent.locks.ReentrantReadWriteLock;
 import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.Immutable;
 import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.statistic.ConcurrentHistogram;
+import org.modeshape.common.statistic.ConcurrentHistogram.Snapshot;
 import org.modeshape.common.text.Inflector;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.api.monitor.DurationActivity;
@@ -70,6 +72,31 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * <li><b>{@link ValueMetric#SESSION_SAVES save operations}</b> - the number of Session save operations performed the window;</li>
  * <li><b>{@link ValueMetric#NODE_CHANGES changed nodes}</b> - the number of nodes that were created, updated, or deleted during
  * the window;</li>
+ * <li><b>{@link ValueMetric#QUERY_PLAN_CACHE_HITS query plan cache hits}</b> and <b>{@link ValueMetric#QUERY_PLAN_CACHE_MISSES
+ * misses}</b> - the number of parsed queries and optimized query plans that were or were not found in the cache during the
+ * window;</li>
+ * <li><b>{@link ValueMetric#EVENT_QUEUE_SIZE event queue size}</b> and <b>{@link ValueMetric#LISTENER_LAG listener lag}</b> - the
+ * number of change sets waiting to be sent to all listeners and to the slowest listener at the end of the window;</li>
+ * <li><b>{@link ValueMetric#DROPPED_CHANGE_SET_COUNT dropped}</b> and <b>{@link ValueMetric#COALESCED_CHANGE_SET_COUNT
+ * coalesced}</b> change sets - the number of change sets that were dropped or merged during the window because the queue of a
+ * listener was full;</li>
+ * <li><b>{@link ValueMetric#NODE_CACHE_HITS node cache hits}</b>, <b>{@link ValueMetric#NODE_CACHE_MISSES misses}</b> and
+ * <b>{@link ValueMetric#NODE_CACHE_EVICTIONS evictions}</b> - the number of nodes that were or were not found in, or were evicted
+ * from, the weight-bounded workspace node caches during the window;</li>
+ * <li><b>{@link ValueMetric#TEXT_EXTRACTIONS_TRUNCATED truncated}</b> and <b>{@link ValueMetric#TEXT_EXTRACTIONS_OVERSIZED
+ * oversized}</b> text extractions - the number of extractions whose text exceeded the configured maximum length, or was too large
+ * to be kept in memory, during the window;</li>
+ * <li><b>{@link ValueMetric#TEXT_EXTRACTION_QUEUE_SIZE text extraction queue size}</b> - the number of text extractions waiting
+ * to be run at the end of the window;</li>
+ * <li><b>{@link ValueMetric#TEXT_EXTRACTIONS_DEDUPLICATED deduplicated}</b> and <b>{@link ValueMetric#TEXT_EXTRACTIONS_REJECTED
+ * rejected}</b> text extractions - the number of extraction requests that joined an existing extraction, or that were not run
+ * because the queue was full, during the window;</li>
+ * <li><b>{@link ValueMetric#SAVED_NODES saved nodes}</b> - the number of changed nodes persisted by saves during the window;</li>
+ * <li><b>{@link ValueMetric#SAVE_LOCK_RETRIES save lock retries}</b> and <b>{@link ValueMetric#SAVE_LOCK_TIMEOUTS timeouts}</b> -
+ * the number of times saves could not lock the changed nodes and were retried, or failed, during the window;</li>
+ * <li><b>{@link ValueMetric#SEGMENT_CACHE_HITS segment cache hits}</b> and <b>{@link ValueMetric#SEGMENT_CACHE_MISSES
+ * misses}</b> - the number of child names that were or were not found in the repository's cache of path segments during the
+ * window;</li>
  * </ol>
  * and the metrics that record durations include:
  * <ol>
@@ -78,10 +105,19 @@ import org.modeshape.jcr.value.DateTimeFactory;
  * window;</li>
  * <li><b>{@link DurationMetric#SEQUENCER_EXECUTION_TIME sequencer execution time}</b> - the duration of sequencing operations
  * completed during the window;</li>
+ * <li><b>{@link DurationMetric#TEXT_EXTRACTION_WAIT_TIME text extraction wait time}</b> and
+ * <b>{@link DurationMetric#TEXT_EXTRACTION_TIME text extraction time}</b> - how long the text extractions run during the window
+ * waited in the queue, and how long they took to run;</li>
+ * <li><b>{@link DurationMetric#SAVE_PRE_SAVE_TIME save preparation}</b>, <b>{@link DurationMetric#SAVE_LOCK_TIME locking}</b>,
+ * <b>{@link DurationMetric#SAVE_PERSIST_TIME persisting}</b>, <b>{@link DurationMetric#SAVE_COMMIT_TIME commit}</b>,
+ * <b>{@link DurationMetric#SAVE_BINARY_USAGE_TIME binary usage}</b>,
+ * <b>{@link DurationMetric#SAVE_INDEXING_TIME indexing}</b> and <b>{@link DurationMetric#SAVE_NOTIFICATION_TIME notification}
+ * </b> time - how long each phase of the saves completed during the window took, in microseconds;</li>
  * </ol>
  * This class provides a way to obtain the {@link History history} for a particular metric during a specified window, where the
  * window is comprised of the {@link Statistics statistics} (the average value, minimum value, maximum value, variance, standard
- * deviation, number of samples, and time interval of the statistics) for:
+ * deviation, number of samples, time interval of the statistics and, for durations, the median, 95th, 99th and 99.9th
+ * percentiles) for:
  * <ol>
  * <li>each ten 5-second intervals during the last minute (60 seconds); or</li>
  * <li>each minute during the last hour (60 minutes); or</li>
@@ -115,6 +151,27 @@ public class RepositoryStatistics implements RepositoryMonitor {
      */
     public static final int MAXIMUM_LONG_RUNNING_SESSION_COUNT = 15;
 
+    /**
+     * The maximum number of longest-running (or longest-waiting) text extractions to retain.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT = 15;
+
+    /**
+     * The maximum number of longest-running phases of saves to retain for each of the save duration metrics.
+     */
+    public static final int MAXIMUM_LONG_RUNNING_SAVE_COUNT = 15;
+
+    /**
+     * The metrics that record the durations of the phases of saves, which are recorded in microseconds.
+     */
+    private static final EnumSet<DurationMetric> SAVE_DURATION_METRICS = EnumSet.of(DurationMetric.SAVE_PRE_SAVE_TIME,
+                                                                                    DurationMetric.SAVE_LOCK_TIME,
+                                                                                    DurationMetric.SAVE_PERSIST_TIME,
+                                                                                    DurationMetric.SAVE_COMMIT_TIME,
+                                                                                    DurationMetric.SAVE_BINARY_USAGE_TIME,
+                                                                                    DurationMetric.SAVE_INDEXING_TIME,
+                                                                                    DurationMetric.SAVE_NOTIFICATION_TIME);
+
     /**
      * The frequency at which the metric values are rolled into statistics.
      */
@@ -167,6 +224,13 @@ public class RepositoryStatistics implements RepositoryMonitor {
                                                                                    MAXIMUM_LONG_RUNNING_SEQUENCING_COUNT));
         durations.put(DurationMetric.SESSION_LIFETIME, new DurationHistory(TimeUnit.MILLISECONDS,
                                                                            MAXIMUM_LONG_RUNNING_SESSION_COUNT));
+        durations.put(DurationMetric.TEXT_EXTRACTION_WAIT_TIME,
+                      new DurationHistory(TimeUnit.MILLISECONDS, MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT));
+        durations.put(DurationMetric.TEXT_EXTRACTION_TIME,
+                      new DurationHistory(TimeUnit.MILLISECONDS, MAXIMUM_LONG_RUNNING_TEXT_EXTRACTION_COUNT));
+        for (DurationMetric metric : SAVE_DURATION_METRICS) {
+            durations.put(metric, new DurationHistory(TimeUnit.MICROSECONDS, MAXIMUM_LONG_RUNNING_SAVE_COUNT));
+        }
 
         for (ValueMetric metric : EnumSet.allOf(ValueMetric.class)) {
             boolean resetUponRollup = !metric.isContinuous();
@@ -184,7 +248,6 @@ public class RepositoryStatistics implements RepositoryMonitor {
 
         // Then schedule the rollup to be done at a fixed rate ...
         this.rollupFuture.set(service.scheduleAtFixedRate(new Runnable() {
-            @SuppressWarnings( "synthetic-access" )
             @Override
             public void run() {
                 rollup();
@@ -209,7 +272,7 @@ public class RepositoryStatistics implements RepositoryMonitor {
      * @see #start(ScheduledExecutorService)
      */
     @SuppressWarnings( "fallthrough" )
-    private void rollup() {
+    void rollup() {
         DateTime now = timeFactory.create();
         Window largest = null;
         for (DurationHistory history : durations.values()) {
@@ -339,7 +402,7 @@ public class RepositoryStatistics implements RepositoryMonitor {
               long value ) {
         assert metric != null;
         ValueHistory history = values.get(metric);
-        if (history != null) history.recordNewValue(1L);
+        if (history != null) history.recordNewValue(value);
     }
 
     /**
@@ -444,25 +507,25 @@ public class RepositoryStatistics implements RepositoryMonitor {
                     // The we've finished filling the seconds, so reset the index
                     // and roll the seconds statistics into a new cumulative statistic for the last minute ...
                     currentSecond = 0;
-                    Statistics cumulative = statisticsFor(seconds);
+                    Statistics cumulative = cumulativeStatistics(Window.PREVIOUS_60_MINUTES, seconds);
                     minutes[currentMinute++] = cumulative;
                     if (currentMinute == MAX_MINUTES) {
                         // The we've finished filling the minutes, so reset the index
                         // and roll the minutes statistics into a new cumulative statistic for the last hour ...
                         currentMinute = 0;
-                        cumulative = statisticsFor(minutes);
+                        cumulative = cumulativeStatistics(Window.PREVIOUS_24_HOURS, minutes);
                         hours[currentHour++] = cumulative;
                         if (currentHour == MAX_HOURS) {
                             // The we've finished filling the hours, so reset the index
                             // and roll the hour statistics into a new cumulative statistic for the last day ...
                             currentHour = 0;
-                            cumulative = statisticsFor(hours);
+                            cumulative = cumulativeStatistics(Window.PREVIOUS_7_DAYS, hours);
                             days[currentDay++] = cumulative;
                             if (currentDay == MAX_DAYS) {
                                 // The we've finished filling the days, so reset the index
                                 // and roll the days statistics into a new cumulative statistic for the last week ...
                                 currentDay = 0;
-                                cumulative = statisticsFor(days);
+                                cumulative = cumulativeStatistics(Window.PREVIOUS_52_WEEKS, days);
                                 weeks[currentWeek++] = cumulative;
                                 if (currentWeek == MAX_WEEKS) {
                                     // The we've finished filling the weeks, so reset the index ...
@@ -482,6 +545,20 @@ public class RepositoryStatistics implements RepositoryMonitor {
             }
         }
 
+        /**
+         * Compute the cumulative statistics that are to be recorded in the supplied window, given the statistics in the next
+         * smaller window that are being rolled up. This method is called by {@link #recordStatisticsForLastSecond(Statistics)}
+         * while holding the write lock. By default, the statistics are simply combined.
+         * 
+         * @param window the window in which the cumulative statistics will be recorded; never null
+         * @param statistics the statistics being rolled up; never null
+         * @return the cumulative statistics; never null
+         */
+        protected Statistics cumulativeStatistics( Window window,
+                                                   Statistics[] statistics ) {
+            return statisticsFor(statistics);
+        }
+
         protected Statistics[] getHistory( Window window ) {
             java.util.concurrent.locks.Lock lock = this.lock.readLock();
             try {
@@ -589,19 +666,38 @@ public class RepositoryStatistics implements RepositoryMonitor {
         }
     }
 
+    /**
+     * The {@link MetricHistory} specialization used for recording the statistics for activities with measured durations. The
+     * durations are recorded in a {@link ConcurrentHistogram}, which requires no locking or allocation, and the histogram is
+     * drained every time the statistics are rolled up. The drained counts are also accumulated for each of the larger windows,
+     * so that the percentiles of the cumulative statistics are computed from all of the recorded durations rather than from the
+     * percentiles of the smaller windows. The statistics are expressed in the time unit of the history.
+     * <p>
+     * Only those durations that are longer than the shortest of the retained longest-running activities are allocated and
+     * queued, and these are sorted into the longest-running activities when the statistics are rolled up.
+     * </p>
+     */
     @ThreadSafe
     protected static final class DurationHistory extends MetricHistory {
-        private final Queue<DurationActivity> duration1 = new ConcurrentLinkedQueue<DurationActivity>();
-        private final Queue<DurationActivity> duration2 = new ConcurrentLinkedQueue<DurationActivity>();
-        private final AtomicReference<Queue<DurationActivity>> durations = new AtomicReference<Queue<DurationActivity>>();
+        private final ConcurrentHistogram histogram = new ConcurrentHistogram();
+        private final Snapshot lastSecond = new Snapshot();
+        private final Snapshot lastMinute = new Snapshot();
+        private final Snapshot lastHour = new Snapshot();
+        private final Snapshot lastDay = new Snapshot();
+        private final Snapshot lastWeek = new Snapshot();
+        private final Queue<DurationActivity> candidates = new ConcurrentLinkedQueue<DurationActivity>();
         private final TimeUnit timeUnit;
         private final int retentionSize;
         private final PriorityBlockingQueue<DurationActivity> largestDurations;
+        /**
+         * The duration (in {@link #timeUnit}) that a new duration must exceed to be a candidate for the longest-running
+         * activities, or -1 if there are fewer than {@link #retentionSize} longest-running activities.
+         */
+        private volatile long candidateThreshold = -1L;
 
         protected DurationHistory( TimeUnit timeUnit,
                                    int retentionSize ) {
             assert retentionSize > 0;
-            this.durations.set(duration1);
             this.timeUnit = timeUnit;
             this.retentionSize = retentionSize;
             this.largestDurations = new PriorityBlockingQueue<DurationActivity>(this.retentionSize + 5);
@@ -618,37 +714,57 @@ public class RepositoryStatistics implements RepositoryMonitor {
                              TimeUnit timeUnit,
                              Map<String, String> payload ) {
             value = this.timeUnit.convert(value, timeUnit);
-            this.durations.get().add(new DurationActivityImpl(value, this.timeUnit, payload));
+            histogram.record(value);
+            if (value > candidateThreshold) {
+                candidates.add(new DurationActivityImpl(value, this.timeUnit, payload));
+            }
         }
 
         @Override
         Window rollup() {
-            // Swap the queue (which should work, since we should be the only concurrent thread doing this) ...
-            Queue<DurationActivity> durations = null;
-            if (this.durations.weakCompareAndSet(duration1, duration2)) {
-                durations = duration1;
-            } else {
-                this.durations.weakCompareAndSet(duration2, duration1);
-                durations = duration2;
-            }
-            // Make a copy to minimize the time spent using the durations ...
-            List<DurationActivity> records = new ArrayList<DurationActivity>(durations);
-            durations.clear();
-
-            // Now add to the largest durations and compute the statistics ...
-            int numRecords = records.size();
-            long[] values = new long[numRecords];
-            int i = 0;
-            for (DurationActivity record : records) {
-                values[i++] = record != null ? record.getDuration(TimeUnit.MILLISECONDS) : 0L;
-                this.largestDurations.add(record);
+            // Move the candidates into the largest durations ...
+            DurationActivity candidate = null;
+            while ((candidate = candidates.poll()) != null) {
+                this.largestDurations.add(candidate);
                 while (this.largestDurations.size() > this.retentionSize) {
                     this.largestDurations.poll(); // remove the smallest duration from the front of the queue
                 }
             }
+            if (this.largestDurations.size() >= this.retentionSize) {
+                DurationActivity smallest = this.largestDurations.peek();
+                if (smallest != null) candidateThreshold = smallest.getDuration(this.timeUnit);
+            }
+
+            // Drain the histogram and compute the statistics ...
+            histogram.drainTo(lastSecond);
+            lastMinute.add(lastSecond);
+            return recordStatisticsForLastSecond(statisticsFor(lastSecond));
+        }
+
+        @Override
+        protected Statistics cumulativeStatistics( Window window,
+                                                   Statistics[] statistics ) {
+            switch (window) {
+                case PREVIOUS_60_MINUTES:
+                    return rollupInto(lastMinute, lastHour);
+                case PREVIOUS_24_HOURS:
+                    return rollupInto(lastHour, lastDay);
+                case PREVIOUS_7_DAYS:
+                    return rollupInto(lastDay, lastWeek);
+                case PREVIOUS_52_WEEKS:
+                    return rollupInto(lastWeek, null);
+                case PREVIOUS_60_SECONDS:
+                    break;
+            }
+            return super.cumulativeStatistics(window, statistics);
+        }
 
-            Statistics stats = statisticsFor(values);
-            return recordStatisticsForLastSecond(stats);
+        private Statistics rollupInto( Snapshot completed,
+                                       Snapshot next ) {
+            Statistics stats = statisticsFor(completed);
+            if (next != null) next.add(completed);
+            completed.clear();
+            return stats;
         }
 
         DurationActivity[] getLongestRunning() {
@@ -657,6 +773,20 @@ public class RepositoryStatistics implements RepositoryMonitor {
         }
     }
 
+    /**
+     * Utility method to construct the statistics, including the percentiles, for the values in a histogram snapshot.
+     * 
+     * @param snapshot the snapshot of the histogram; may not be null
+     * @return the statistics; never null
+     */
+    public static Statistics statisticsFor( Snapshot snapshot ) {
+        if (snapshot.getCount() == 0L) return EMPTY_STATISTICS;
+        return new StatisticsImpl((int)Math.min(snapshot.getCount(), Integer.MAX_VALUE), snapshot.getMinimum(),
+                                  snapshot.getMaximum(), snapshot.getMean(), snapshot.getVariance(),
+                                  snapshot.getValueAtPercentile(50.0d), snapshot.getValueAtPercentile(95.0d),
+                                  snapshot.getValueAtPercentile(99.0d), snapshot.getValueAtPercentile(99.9d));
+    }
+
     /**
      * Utility method to construct the statistics for a series of values.
      * 
@@ -738,9 +868,9 @@ public class RepositoryStatistics implements RepositoryMonitor {
      * maximum}, {@link #getMean() mean (average)}, {@link #getVariance() variance} and {@link #getStandardDeviation() standard
      * deviation}.
      * <p>
-     * The median value is not included in these statistics, since the median value cannot be rolled up given a series of
-     * statistics without having the original values. It is possible to compute the weighted median, but this loses
-     * effectiveness/value the more times it is rolled up.
+     * The percentiles are only included in the statistics {@link #statisticsFor(Snapshot) computed from histograms} of
+     * durations, since they cannot be rolled up given a series of statistics without having the original values. The
+     * {@link DurationHistory} therefore accumulates the histograms for each window instead.
      * </p>
      */
     @Immutable
@@ -751,17 +881,37 @@ public class RepositoryStatistics implements RepositoryMonitor {
         private final long minimum;
         private final double mean;
         private final double variance; // just the square of the standard deviation
+        private final long median;
+        private final long percentile95;
+        private final long percentile99;
+        private final long percentile999;
 
         protected StatisticsImpl( int count,
                               long min,
                               long max,
                               double mean,
                               double variance ) {
+            this(count, min, max, mean, variance, 0L, 0L, 0L, 0L);
+        }
+
+        protected StatisticsImpl( int count,
+                                  long min,
+                                  long max,
+                                  double mean,
+                                  double variance,
+                                  long median,
+                                  long percentile95,
+                                  long percentile99,
+                                  long percentile999 ) {
             this.count = count;
             this.maximum = max;
             this.minimum = min;
             this.mean = mean;
             this.variance = variance;
+            this.median = median;
+            this.percentile95 = percentile95;
+            this.percentile99 = percentile99;
+            this.percentile999 = percentile999;
         }
 
         @Override
@@ -794,17 +944,50 @@ public class RepositoryStatistics implements RepositoryMonitor {
             return variance <= 0.0d ? 0.0d : Math.sqrt(variance);
         }
 
+        @Override
+        public long getMedian() {
+            return median;
+        }
+
+        @Override
+        public long get95thPercentile() {
+            return percentile95;
+        }
+
+        @Override
+        public long get99thPercentile() {
+            return percentile99;
+        }
+
+        @Override
+        public long get999thPercentile() {
+            return percentile999;
+        }
+
         @Override
         public String toString() {
             long count = this.getCount();
             String samples = Inflector.getInstance().pluralize("sample", count > 1L ? 2 : 1);
-            return StringUtil.createString("{0} {1}: min={2}; avg={3}; max={4}; dev={5}",
+            if (percentile999 == 0L) {
+                return StringUtil.createString("{0} {1}: min={2}; avg={3}; max={4}; dev={5}",
+                                               count,
+                                               samples,
+                                               this.minimum,
+                                               this.mean,
+                                               this.maximum,
+                                               this.getStandardDeviation());
+            }
+            return StringUtil.createString("{0} {1}: min={2}; avg={3}; max={4}; dev={5}; p50={6}; p95={7}; p99={8}; p999={9}",
                                            count,
                                            samples,
                                            this.minimum,
                                            this.mean,
                                            this.maximum,
-                                           this.getStandardDeviation());
+                                           this.getStandardDeviation(),
+                                           this.median,
+                                           this.percentile95,
+                                           this.percentile99,
+                                           this.percentile999);
         }
     }
 
@@ -23,6 +23,8 @@
  */
 package org.modeshape.jcr;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -35,10 +37,16 @@ import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.jcr.NamespaceRegistry;
@@ -62,7 +70,9 @@ import org.modeshape.jcr.cache.change.PropertyAdded;
 import org.modeshape.jcr.cache.change.PropertyChanged;
 import org.modeshape.jcr.cache.change.WorkspaceAdded;
 import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.journal.WorkJournal;
 import org.modeshape.jcr.sequencer.InvalidSequencerPathExpression;
+import org.modeshape.jcr.sequencer.PathExpressionIndex;
 import org.modeshape.jcr.sequencer.SequencerPathExpression;
 import org.modeshape.jcr.sequencer.SequencerPathExpression.Matcher;
 import org.modeshape.jcr.value.Name;
@@ -85,6 +95,7 @@ public class Sequencers implements ChangeSetListener {
     private static final Logger LOGGER = Logger.getLogger("org.modeshape.jcr.sequencing.sequencers");
     private static final boolean TRACE = LOGGER.isTraceEnabled();
     private static final boolean DEBUG = LOGGER.isDebugEnabled();
+    private static final String RETRY_POOL_NAME = "modeshape-sequencing-retry";
 
     protected final JcrRepository.RunningState repository;
     private final Map<UUID, Sequencer> sequencersById;
@@ -92,7 +103,7 @@ public class Sequencers implements ChangeSetListener {
     private final Collection<Component> components;
     private final Lock configChangeLock = new ReentrantLock();
     private final Map<UUID, Collection<SequencerPathExpression>> pathExpressionsBySequencerId;
-    private volatile Map<String, Collection<SequencingConfiguration>> configByWorkspaceName;
+    private volatile Map<String, PathExpressionIndex<SequencingConfiguration>> configByWorkspaceName;
     private final String systemWorkspaceKey;
     private final String processId;
     private final ValueFactory<String> stringFactory;
@@ -120,13 +131,13 @@ public class Sequencers implements ChangeSetListener {
         } else {
             String threadPoolName = config.getSequencing().getThreadPoolName();
             this.sequencingExecutor = repository.context().getCachedTreadPool(threadPoolName);
-            this.workQueue = new SequencingWorkQueue();
+            this.workQueue = new SequencingWorkQueue(config.getSequencing());
             this.processId = repository.context().getProcessId();
             ExecutionContext context = this.repository.context();
             this.stringFactory = context.getValueFactories().getStringFactory();
             this.sequencersById = new HashMap<UUID, Sequencer>();
             this.sequencersByName = new HashMap<String, Sequencer>();
-            this.configByWorkspaceName = new HashMap<String, Collection<SequencingConfiguration>>();
+            this.configByWorkspaceName = new HashMap<String, PathExpressionIndex<SequencingConfiguration>>();
             this.pathExpressionsBySequencerId = new HashMap<UUID, Collection<SequencerPathExpression>>();
 
             String repoName = repository.name();
@@ -247,6 +258,9 @@ public class Sequencers implements ChangeSetListener {
                 }
             }
             this.initialized = true;
+
+            // Now that the sequencers are ready, resume any work that was pending when the repository was last stopped ...
+            if (workQueue != null) workQueue.resume();
         } catch (RepositoryException e) {
             throw new SystemFailureException(e);
         } finally {
@@ -285,14 +299,14 @@ public class Sequencers implements ChangeSetListener {
             // No sequencers for the system workspace!
             return;
         }
-        Collection<SequencingConfiguration> configs = new LinkedList<SequencingConfiguration>();
+        PathExpressionIndex.Builder<SequencingConfiguration> configs = PathExpressionIndex.create();
         // Go through the sequencers to see which apply to this workspace ...
         for (Sequencer sequencer : sequencersById.values()) {
             boolean updated = false;
             for (SequencerPathExpression expression : pathExpressionsBySequencerId.get(sequencer.getUniqueId())) {
                 if (expression.appliesToWorkspace(workspaceName)) {
                     updated = true;
-                    configs.add(new SequencingConfiguration(expression, sequencer));
+                    configs.add(expression, new SequencingConfiguration(expression, sequencer));
                 }
             }
             if (DEBUG && updated) {
@@ -303,15 +317,17 @@ public class Sequencers implements ChangeSetListener {
                              repository.name());
             }
         }
-        if (configs.isEmpty()) return;
+        // Compile the path expressions into a single index ...
+        PathExpressionIndex<SequencingConfiguration> index = configs.build();
+        if (index.isEmpty()) return;
         // Otherwise, update the configs by workspace key ...
         try {
             configChangeLock.lock();
             // Make a copy of the existing map ...
-            Map<String, Collection<SequencingConfiguration>> configByWorkspaceName = new HashMap<String, Collection<SequencingConfiguration>>(
-                                                                                                                                              this.configByWorkspaceName);
+            Map<String, PathExpressionIndex<SequencingConfiguration>> configByWorkspaceName;
+            configByWorkspaceName = new HashMap<String, PathExpressionIndex<SequencingConfiguration>>(this.configByWorkspaceName);
             // Insert the new information ...
-            configByWorkspaceName.put(workspaceName, configs);
+            configByWorkspaceName.put(workspaceName, index);
             // Replace the exisiting map (which is used without a lock) ...
             this.configByWorkspaceName = configByWorkspaceName;
         } finally {
@@ -329,8 +345,8 @@ public class Sequencers implements ChangeSetListener {
         try {
             configChangeLock.lock();
             // Make a copy of the existing map ...
-            Map<String, Collection<SequencingConfiguration>> configByWorkspaceName = new HashMap<String, Collection<SequencingConfiguration>>(
-                                                                                                                                              this.configByWorkspaceName);
+            Map<String, PathExpressionIndex<SequencingConfiguration>> configByWorkspaceName;
+            configByWorkspaceName = new HashMap<String, PathExpressionIndex<SequencingConfiguration>>(this.configByWorkspaceName);
             // Insert the new information ...
             if (configByWorkspaceName.remove(workspaceName) != null) {
                 // Replace the exisiting map (which is used without a lock) ...
@@ -364,15 +380,16 @@ public class Sequencers implements ChangeSetListener {
                                Matcher matcher,
                                String inputWorkspaceName,
                                String propertyName,
-                               String userId ) {
+                               String userId,
+                               List<SequencingWorkItem> work ) {
         if (shutdown) return;
         // Convert the input path (which has a '@' to denote a property) to a standard JCR path ...
-        SequencingWorkItem workItem = new SequencingWorkItem(sequencingConfig.getSequencer().getUniqueId(), userId,
+        Sequencer sequencer = sequencingConfig.getSequencer();
+        SequencingWorkItem workItem = new SequencingWorkItem(sequencer.getUniqueId(), sequencer.getName(), userId,
                                                              inputWorkspaceName, matcher.getSelectedPath(),
                                                              matcher.getJcrInputPath(), matcher.getOutputPath(),
                                                              matcher.getOutputWorkspaceName(), propertyName);
-        statistics().increment(ValueMetric.SEQUENCER_QUEUE_SIZE);
-        workQueue.submit(workItem);
+        work.add(workItem);
     }
 
     protected Sequencer getSequencer( UUID id ) {
@@ -443,14 +460,15 @@ public class Sequencers implements ChangeSetListener {
         }
 
         final String workspaceName = changeSet.getWorkspaceName();
-        final Collection<SequencingConfiguration> configs = this.configByWorkspaceName.get(workspaceName);
+        final PathExpressionIndex<SequencingConfiguration> configs = this.configByWorkspaceName.get(workspaceName);
         if (configs == null) {
             // No sequencers apply to this workspace ...
             return;
         }
 
         try {
-            // Now process the changes ...
+            // Now process the changes, collecting the work so that it is all submitted (and recorded) at once ...
+            List<SequencingWorkItem> work = new ArrayList<SequencingWorkItem>();
             for (Change change : changeSet) {
                 // Look at property added and removed events.
                 if (change instanceof PropertyAdded) {
@@ -458,8 +476,9 @@ public class Sequencers implements ChangeSetListener {
                     Path nodePath = added.getPathToNode();
                     String strPath = stringFactory.create(nodePath);
                     Name propName = added.getProperty().getName();
-                    // Check if the property is sequencable ...
-                    for (SequencingConfiguration config : configs) {
+                    // Check if the property is sequencable, using the index to skip the expressions that can't match ...
+                    String absolutePath = strPath + "/@" + stringFactory.create(propName);
+                    for (SequencingConfiguration config : TRACE ? configs.values() : configs.candidates(absolutePath)) {
                         Matcher matcher = config.matches(strPath, propName);
                         if (!matcher.matches()) {
                             if (TRACE) {
@@ -481,15 +500,16 @@ public class Sequencers implements ChangeSetListener {
                                          config.getPathExpression());
                         }
                         // The property should be sequenced ...
-                        submitWork(config, matcher, workspaceName, stringFactory.create(propName), changeSet.getUserId());
+                        submitWork(config, matcher, workspaceName, stringFactory.create(propName), changeSet.getUserId(), work);
                     }
                 } else if (change instanceof PropertyChanged) {
                     PropertyChanged changed = (PropertyChanged)change;
                     Path nodePath = changed.getPathToNode();
                     String strPath = stringFactory.create(nodePath);
                     Name propName = changed.getNewProperty().getName();
-                    // Check if the property is sequencable ...
-                    for (SequencingConfiguration config : configs) {
+                    // Check if the property is sequencable, using the index to skip the expressions that can't match ...
+                    String absolutePath = strPath + "/@" + stringFactory.create(propName);
+                    for (SequencingConfiguration config : TRACE ? configs.values() : configs.candidates(absolutePath)) {
                         Matcher matcher = config.matches(strPath, propName);
                         if (!matcher.matches()) {
                             if (TRACE) {
@@ -511,7 +531,7 @@ public class Sequencers implements ChangeSetListener {
                                          config.getPathExpression());
                         }
                         // The property should be sequenced ...
-                        submitWork(config, matcher, workspaceName, stringFactory.create(propName), changeSet.getUserId());
+                        submitWork(config, matcher, workspaceName, stringFactory.create(propName), changeSet.getUserId(), work);
                     }
                 }
                 // It's possible we should also be looking at other types of events (like property removed or
@@ -526,31 +546,229 @@ public class Sequencers implements ChangeSetListener {
                     workspaceRemoved(removed.getWorkspaceName());
                 }
             }
+            if (!work.isEmpty() && !shutdown) workQueue.submit(work);
         } catch (Throwable e) {
             LOGGER.error(e, JcrI18n.errorCleaningUpLocks, repository.name());
         }
     }
 
     protected static interface WorkQueue {
-        void submit( SequencingWorkItem work );
+        void submit( List<SequencingWorkItem> work );
+
+        /**
+         * Submit the work that was pending when the repository was last stopped.
+         */
+        void resume();
 
         void shutdown();
     }
 
+    /**
+     * A {@link WorkQueue} that keeps a separate queue for each sequencer and runs at most a configured number of work items of
+     * each sequencer at the same time, so that a flood of inputs for one sequencer neither starts an unbounded number of
+     * threads nor delays the work of the other sequencers. Work that fails is retried with an exponentially increasing delay.
+     * <p>
+     * When a queue location is configured, all work is recorded in a {@link WorkJournal} before it is queued and removed from
+     * the journal once it is completed (or has failed for the last time), so that the work that was pending when the repository
+     * was stopped or crashed is {@link #resume() resumed} when the repository is started again. The
+     * {@link ValueMetric#SEQUENCER_QUEUE_SIZE queue size} includes the resumed work and the work that is waiting to be retried,
+     * and is only decremented when the work is completed.
+     * </p>
+     */
     protected final class SequencingWorkQueue implements WorkQueue {
-        private final List<Future<?>> results = new ArrayList<Future<?>>();
+        private final ConcurrentMap<UUID, SequencerQueue> queuesBySequencerId = new ConcurrentHashMap<UUID, SequencerQueue>();
+        private final int maxConcurrentPerSequencer;
+        private final int maxRetries;
+        private final long retryDelayInMillis;
+        private final WorkJournal<SequencingWorkItem> journal;
+        private volatile SortedMap<Long, SequencingWorkItem> resumable;
+        private volatile boolean stopped = false;
+
+        protected SequencingWorkQueue( RepositoryConfiguration.Sequencing config ) {
+            this.maxConcurrentPerSequencer = config.getMaxConcurrentPerSequencer();
+            this.maxRetries = config.getMaxRetries();
+            this.retryDelayInMillis = config.getRetryDelayInMillis();
+            String location = config.getQueueLocation();
+            WorkJournal<SequencingWorkItem> journal = null;
+            if (location != null) {
+                journal = new WorkJournal<SequencingWorkItem>(new File(location), SequencingWorkItem.class,
+                                                              WorkJournal.DEFAULT_COMPACTION_THRESHOLD_IN_BYTES,
+                                                              getClass().getClassLoader());
+                try {
+                    this.resumable = journal.start();
+                } catch (IOException e) {
+                    LOGGER.error(e, JcrI18n.unableToStartSequencingWorkJournal, location, repository.name(), e.getMessage());
+                    journal = null;
+                }
+            }
+            this.journal = journal;
+        }
+
+        @Override
+        public void submit( List<SequencingWorkItem> work ) {
+            if (stopped) return;
+            List<Long> ids = null;
+            if (journal != null) {
+                try {
+                    ids = journal.add(work);
+                } catch (IOException e) {
+                    LOGGER.error(e, JcrI18n.errorRecordingSequencingWork, repository.name(), journal.getFile(), e.getMessage());
+                }
+            }
+            for (int i = 0; i != work.size(); ++i) {
+                enqueue(new PendingWork(ids != null ? ids.get(i) : PendingWork.NOT_RECORDED, work.get(i)));
+            }
+        }
 
         @Override
-        public void submit( SequencingWorkItem work ) {
-            results.add(sequencingExecutor.submit(new SequencingRunner(repository, work)));
+        public void resume() {
+            SortedMap<Long, SequencingWorkItem> resumable = this.resumable;
+            this.resumable = null;
+            if (resumable == null || resumable.isEmpty() || stopped) return;
+            LOGGER.info(JcrI18n.resumingSequencingWork, resumable.size(), repository.name());
+            for (Map.Entry<Long, SequencingWorkItem> entry : resumable.entrySet()) {
+                enqueue(new PendingWork(entry.getKey(), resolve(entry.getValue())));
+            }
+        }
+
+        /**
+         * The identifiers of the sequencers are generated each time the repository is started, so work that was recorded before
+         * the restart is resolved to the sequencer that now has the same (configured) name.
+         * 
+         * @param item the work that was recorded in the journal; may not be null
+         * @return the work for the current sequencer; never null
+         */
+        private SequencingWorkItem resolve( SequencingWorkItem item ) {
+            Sequencer sequencer = getSequencer(item.getSequencerName());
+            if (sequencer == null || getSequencer(sequencer.getUniqueId()) == null) {
+                // The runner will skip this work ...
+                LOGGER.warn(JcrI18n.unableToFindSequencerForResumedWork, item.getSequencerName(), repository.name(),
+                            item.getInputPath(), item.getInputWorkspaceName());
+                return item;
+            }
+            return item.withSequencerId(sequencer.getUniqueId());
+        }
+
+        private void enqueue( PendingWork work ) {
+            statistics().increment(ValueMetric.SEQUENCER_QUEUE_SIZE);
+            queueFor(work.item.getSequencerId()).add(work);
+        }
+
+        private SequencerQueue queueFor( UUID sequencerId ) {
+            SequencerQueue queue = queuesBySequencerId.get(sequencerId);
+            if (queue == null) {
+                queue = new SequencerQueue();
+                SequencerQueue existing = queuesBySequencerId.putIfAbsent(sequencerId, queue);
+                if (existing != null) queue = existing;
+            }
+            return queue;
+        }
+
+        protected void run( SequencerQueue queue,
+                            final PendingWork work ) {
+            SequencingRunner runner = new SequencingRunner(repository, work.item, work.attempts < maxRetries);
+            runner.run();
+            if (runner.shouldRetry() && !stopped) {
+                // Wait longer after every failure ...
+                long delay = retryDelayInMillis << Math.min(work.attempts, 20);
+                ++work.attempts;
+                Sequencer sequencer = getSequencer(work.item.getSequencerId());
+                LOGGER.warn(JcrI18n.sequencingWillBeRetried,
+                            work.item.getInputPath(),
+                            work.item.getInputWorkspaceName(),
+                            repository.name(),
+                            sequencer != null ? sequencer.getName() : work.item.getSequencerId(),
+                            delay,
+                            runner.getFailure().getMessage());
+                final SequencerQueue retryQueue = queue;
+                retryService().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!stopped) retryQueue.add(work);
+                    }
+                }, delay, TimeUnit.MILLISECONDS);
+                return;
+            }
+            completed(work);
+        }
+
+        private void completed( PendingWork work ) {
+            statistics().increment(ValueMetric.SEQUENCED_COUNT);
+            statistics().decrement(ValueMetric.SEQUENCER_QUEUE_SIZE);
+            if (journal != null && work.id != PendingWork.NOT_RECORDED) {
+                try {
+                    journal.complete(work.id);
+                } catch (IOException e) {
+                    LOGGER.error(e, JcrI18n.errorWritingToWorkJournal, journal.getFile(), e.getMessage());
+                }
+            }
         }
 
         @Override
         public void shutdown() {
-            for (Future<?> workItem : results) {
-                workItem.cancel(true);
+            stopped = true;
+            // Any work that has not been completed remains in the journal, and will be resumed upon restart ...
+            if (journal != null) journal.shutdown();
+        }
+
+        /**
+         * The queue of the work for a single sequencer, which is run by at most {@link #maxConcurrentPerSequencer} tasks.
+         */
+        protected final class SequencerQueue implements Runnable {
+            private final Queue<PendingWork> pending = new LinkedList<PendingWork>();
+            private int running;
+
+            protected void add( PendingWork work ) {
+                synchronized (this) {
+                    pending.add(work);
+                    if (running >= maxConcurrentPerSequencer) return;
+                    ++running;
+                }
+                try {
+                    sequencingExecutor.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // The executor has been shut down, so leave the work in the journal ...
+                    synchronized (this) {
+                        --running;
+                    }
+                }
+            }
+
+            private synchronized PendingWork next() {
+                PendingWork work = stopped ? null : pending.poll();
+                if (work == null) --running;
+                return work;
+            }
+
+            @Override
+            public void run() {
+                PendingWork work = null;
+                while ((work = next()) != null) {
+                    SequencingWorkQueue.this.run(this, work);
+                }
             }
-            results.clear();
+        }
+    }
+
+    private ScheduledExecutorService retryService() {
+        return repository.context().getScheduledThreadPool(RETRY_POOL_NAME);
+    }
+
+    /**
+     * A work item and the number of times its sequencing has failed.
+     */
+    protected static final class PendingWork {
+        /** The identifier of work that is not recorded in a journal */
+        protected static final long NOT_RECORDED = -1L;
+
+        protected final long id;
+        protected final SequencingWorkItem item;
+        protected int attempts;
+
+        protected PendingWork( long id,
+                               SequencingWorkItem item ) {
+            this.id = id;
+            this.item = item;
         }
     }
 
@@ -603,6 +821,7 @@ public class Sequencers implements ChangeSetListener {
         private static final long serialVersionUID = 1L;
 
         private final UUID sequencerId;
+        private final String sequencerName;
         private final String inputWorkspaceName;
         private final String selectedPath;
         private final String inputPath;
@@ -613,6 +832,7 @@ public class Sequencers implements ChangeSetListener {
         private final String userId;
 
         protected SequencingWorkItem( UUID sequencerId,
+                                      String sequencerName,
                                       String userId,
                                       String inputWorkspaceName,
                                       String selectedPath,
@@ -622,6 +842,7 @@ public class Sequencers implements ChangeSetListener {
                                       String changedPropertyName ) {
             this.userId = userId;
             this.sequencerId = sequencerId;
+            this.sequencerName = sequencerName;
             this.inputWorkspaceName = inputWorkspaceName;
             this.selectedPath = selectedPath;
             this.inputPath = inputPath;
@@ -635,6 +856,7 @@ public class Sequencers implements ChangeSetListener {
                                        this.outputPath,
                                        this.outputWorkspaceName);
             assert this.sequencerId != null;
+            assert this.sequencerName != null;
             assert this.inputPath != null;
             assert this.changedPropertyName != null;
             assert this.outputPath != null;
@@ -649,6 +871,28 @@ public class Sequencers implements ChangeSetListener {
             return sequencerId;
         }
 
+        /**
+         * Get the configured name of the sequencer. Unlike the {@link #getSequencerId() identifier}, the name of the sequencer is
+         * the same after the repository is restarted.
+         * 
+         * @return the sequencer name; never null
+         */
+        public String getSequencerName() {
+            return sequencerName;
+        }
+
+        /**
+         * Create a copy of this work item for the sequencer with the supplied identifier.
+         * 
+         * @param sequencerId the identifier of the sequencer; may not be null
+         * @return the work item for the sequencer; never null
+         */
+        protected SequencingWorkItem withSequencerId( UUID sequencerId ) {
+            if (this.sequencerId.equals(sequencerId)) return this;
+            return new SequencingWorkItem(sequencerId, sequencerName, userId, inputWorkspaceName, selectedPath, inputPath,
+                                          outputPath, outputWorkspaceName, changedPropertyName);
+        }
+
         /**
          * Get the id (username) of the user which triggered the sequencing
          * 
@@ -48,7 +48,6 @@ import org.modeshape.jcr.Sequencers.SequencingWorkItem;
 import org.modeshape.jcr.api.JcrConstants;
 import org.modeshape.jcr.api.JcrTools;
 import org.modeshape.jcr.api.monitor.DurationMetric;
-import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.sequencer.Sequencer;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.cache.change.RecordingChanges;
@@ -65,11 +64,58 @@ final class SequencingRunner implements Runnable {
 
     private final RunningState repository;
     private final SequencingWorkItem work;
+    private final boolean mayRetry;
+    private Throwable failure;
 
     protected SequencingRunner( RunningState repository,
                                 SequencingWorkItem work ) {
+        this(repository, work, false);
+    }
+
+    /**
+     * Create a runner for a single attempt at sequencing the input.
+     * 
+     * @param repository the repository; may not be null
+     * @param work the work item; may not be null
+     * @param mayRetry true if the sequencing will be retried should this attempt fail with a {@link #isRetryable(Throwable)
+     *        retryable} error (in which case the failure is neither logged nor reported with an event), or false if this is the
+     *        last attempt
+     */
+    protected SequencingRunner( RunningState repository,
+                                SequencingWorkItem work,
+                                boolean mayRetry ) {
         this.repository = repository;
         this.work = work;
+        this.mayRetry = mayRetry;
+    }
+
+    /**
+     * Get the error that caused the sequencing to fail.
+     * 
+     * @return the error, or null if the sequencing has not been run or did not fail
+     */
+    protected Throwable getFailure() {
+        return failure;
+    }
+
+    /**
+     * Determine whether the sequencing failed and should be retried.
+     * 
+     * @return true if the sequencing should be retried, or false otherwise
+     */
+    protected boolean shouldRetry() {
+        return mayRetry && failure != null && isRetryable(failure);
+    }
+
+    /**
+     * Determine whether the sequencing could succeed if it is retried after failing with the supplied error. Sequencing never
+     * succeeds once the input has been removed.
+     * 
+     * @param t the error; may not be null
+     * @return true if the sequencing may be retried, or false otherwise
+     */
+    protected static boolean isRetryable( Throwable t ) {
+        return !(t instanceof PathNotFoundException) && !(t instanceof ItemNotFoundException);
     }
 
     @Override
@@ -228,12 +274,19 @@ final class SequencingRunner implements Runnable {
                                              payload);
                     }
                 } catch (Throwable t) {
-                    fireSequencingFailureEvent(selectedNode, inputSession, t, sequencerName);
+                    if (!mayRetry || !isRetryable(t)) {
+                        fireSequencingFailureEvent(selectedNode, inputSession, t, sequencerName);
+                    }
                     // let it bubble down, because we still want to log it and update the stats
                     throw t;
                 }
             }
         } catch (Throwable t) {
+            failure = t;
+            if (shouldRetry()) {
+                // The queue will log the failure and try again ...
+                return;
+            }
             Logger logger = Logger.getLogger(getClass());
             if (work.getOutputWorkspaceName() != null) {
                 logger.error(t,
@@ -254,8 +307,6 @@ final class SequencingRunner implements Runnable {
                              work.getOutputPath());
             }
         } finally {
-            stats.increment(ValueMetric.SEQUENCED_COUNT);
-            stats.decrement(ValueMetric.SEQUENCER_QUEUE_SIZE);
             if (inputSession != null && inputSession.isLive()) inputSession.logout();
             if (outputSession != null && outputSession != inputSession && outputSession.isLive()) outputSession.logout();
         }
@@ -23,54 +23,119 @@
  */
 package org.modeshape.jcr;
 
-import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.CheckArg;
-import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.RepositoryConfiguration.Component;
+import org.modeshape.jcr.api.monitor.DurationMetric;
+import org.modeshape.jcr.api.monitor.ValueMetric;
 import org.modeshape.jcr.api.text.TextExtractor;
 import org.modeshape.jcr.text.TextExtractorOutput;
 import org.modeshape.jcr.value.BinaryKey;
 import org.modeshape.jcr.value.BinaryValue;
 import org.modeshape.jcr.value.binary.AbstractBinaryStore;
 import org.modeshape.jcr.value.binary.InMemoryBinaryValue;
+import java.io.Reader;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Facility for managing {@link TextExtractor} instances and submitting text extraction work
+ * Facility for managing {@link TextExtractor} instances and submitting text extraction work.
+ * <p>
+ * Extraction work is scheduled by this object rather than submitted directly to the executor: the work waits in a priority queue
+ * and is run by at most a configured number of runners, each of which is a task in the executor. Extractions needed by a caller
+ * that is waiting for the text (see {@link #extract(AbstractBinaryStore, BinaryValue, TextExtractor.Context, boolean)}) are run
+ * before any background extractions. In addition, each {@link TextExtractor} may only run a limited number of extractions at
+ * once; work for an extractor that is already busy is set aside until one of that extractor's extractions completes. The number
+ * of background extractions that may wait, whether queued or set aside, is bounded.
+ * </p>
+ * <p>
+ * Requests to extract the text of a binary value for which an extraction is already queued or running share that extraction, and
+ * the extraction is forgotten as soon as it completes.
+ * </p>
  */
-@Immutable
+@ThreadSafe
 public final class TextExtractors {
 
     private static final Logger LOGGER = Logger.getLogger(TextExtractors.class);
 
     private final List<TextExtractor> extractors;
     private final ExecutorService extractingQueue;
-    private final ConcurrentHashMap<BinaryKey, CountDownLatch> workerLatches;
     private final boolean fullTextSearchEnabled;
+    private final long maxTextLength;
+    private final RepositoryStatistics statistics;
+    private final int maxConcurrentExtractions;
+    private final int maxConcurrentExtractionsPerExtractor;
+    private final int queueCapacity;
+    /** The work that is queued, set aside or running, by the key of the binary value */
+    private final ConcurrentMap<BinaryKey, Worker> workers = new ConcurrentHashMap<BinaryKey, Worker>();
+    private final PriorityBlockingQueue<Worker> queue = new PriorityBlockingQueue<Worker>();
+    private final ConcurrentMap<TextExtractor, ExtractorSlots> slots = new ConcurrentHashMap<TextExtractor, ExtractorSlots>();
+    private final AtomicInteger runnerCount = new AtomicInteger();
+    /** The number of workers that were set aside because their extractor was busy */
+    private final AtomicInteger setAsideCount = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
 
     public TextExtractors( ExecutorService extractingQueue,
                            boolean fullTextSearchEnabled,
                            List<TextExtractor> extractors ) {
+        this(extractingQueue, fullTextSearchEnabled, extractors, RepositoryConfiguration.Default.MAX_EXTRACTED_TEXT_LENGTH,
+             RepositoryConfiguration.Default.MAX_CONCURRENT_EXTRACTIONS,
+             RepositoryConfiguration.Default.MAX_CONCURRENT_EXTRACTIONS_PER_EXTRACTOR,
+             RepositoryConfiguration.Default.EXTRACTION_QUEUE_CAPACITY, null);
+    }
+
+    TextExtractors( ExecutorService extractingQueue,
+                    boolean fullTextSearchEnabled,
+                    List<TextExtractor> extractors,
+                    long maxTextLength,
+                    int maxConcurrentExtractions,
+                    int maxConcurrentExtractionsPerExtractor,
+                    int queueCapacity,
+                    RepositoryStatistics statistics ) {
+        assert maxConcurrentExtractions > 0;
+        assert maxConcurrentExtractionsPerExtractor > 0;
+        assert queueCapacity > 0;
         this.extractingQueue = extractingQueue;
-        this.workerLatches = new ConcurrentHashMap<BinaryKey, CountDownLatch>();
         this.fullTextSearchEnabled = fullTextSearchEnabled;
         this.extractors = extractors;
+        this.maxTextLength = maxTextLength;
+        this.maxConcurrentExtractions = maxConcurrentExtractions;
+        this.maxConcurrentExtractionsPerExtractor = maxConcurrentExtractionsPerExtractor;
+        this.queueCapacity = queueCapacity;
+        this.statistics = statistics;
     }
 
     TextExtractors( JcrRepository.RunningState repository,
                     RepositoryConfiguration.TextExtracting extracting ) {
         this(repository.context().getCachedTreadPool(extracting.getThreadPoolName()), repository.isFullTextSearchEnabled(),
-             getConfiguredExtractors(repository, extracting));
+             getConfiguredExtractors(repository, extracting), extracting.getMaxExtractedTextLength(),
+             extracting.getMaxConcurrentExtractions(), extracting.getMaxConcurrentExtractionsPerExtractor(),
+             extracting.getQueueCapacity(), repository.statistics());
     }
 
     protected void shutdown() {
         extractors.clear();
         extractingQueue.shutdown();
+        // Release anyone waiting for work that will now never be run ...
+        queue.clear();
+        for (Worker worker : workers.values()) {
+            completed(worker);
+        }
+        updateQueueSize();
     }
 
     public boolean extractionEnabled() {
@@ -79,9 +144,9 @@ public final class TextExtractors {
 
     public String extract( InMemoryBinaryValue inMemoryBinaryValue,
                            TextExtractor.Context context ) {
+        TextExtractorOutput output = newOutput();
         try {
             String mimeType = inMemoryBinaryValue.getMimeType();
-            TextExtractorOutput output = new TextExtractorOutput();
             // Run through the extractors and have them extract the text - the first one which accepts the mime-type will win
             for (TextExtractor extractor : extractors) {
                 if (!extractor.supportsMimeType(mimeType)) {
@@ -91,16 +156,67 @@ public final class TextExtractors {
                 break;
             }
 
+            recordStatistics(output);
             return output.getText();
         } catch (Exception e) {
             LOGGER.error(e, JcrI18n.errorExtractingTextFromBinary, inMemoryBinaryValue.getHexHash(), e.getLocalizedMessage());
+        } finally {
+            output.close();
         }
         return null;
     }
 
+    /**
+     * Create a new output that records at most the configured maximum number of characters, and that moves the text to a
+     * temporary file rather than holding large amounts of text in memory.
+     * 
+     * @return the new output; never null
+     */
+    protected TextExtractorOutput newOutput() {
+        return new TextExtractorOutput(" ", maxTextLength, TextExtractorOutput.DEFAULT_IN_MEMORY_LIMIT);
+    }
+
+    private void recordStatistics( TextExtractorOutput output ) {
+        if (output.isTruncated()) {
+            LOGGER.debug("The text extracted from a binary value was truncated to {0} characters", output.getMaxLength());
+            if (statistics != null) statistics.increment(ValueMetric.TEXT_EXTRACTIONS_TRUNCATED);
+        }
+        if (output.isOversized() && statistics != null) {
+            statistics.increment(ValueMetric.TEXT_EXTRACTIONS_OVERSIZED);
+        }
+    }
+
+    /**
+     * Schedule the extraction of the text of the supplied binary value in the background. This is equivalent to calling
+     * {@link #extract(AbstractBinaryStore, BinaryValue, TextExtractor.Context, boolean)} with a {@code waiting} value of false.
+     * 
+     * @param store the store in which the extracted text is to be stored; may not be null
+     * @param binaryValue the binary value; may not be null
+     * @param context the context for the extraction; may not be null
+     * @return the latch that is released when the extraction completes, or null if the text is not to be extracted
+     */
     public CountDownLatch extract( AbstractBinaryStore store,
                                    BinaryValue binaryValue,
                                    TextExtractor.Context context ) {
+        return extract(store, binaryValue, context, false);
+    }
+
+    /**
+     * Schedule the extraction of the text of the supplied binary value. If an extraction of the same binary value is already
+     * queued or running, that extraction is shared (and, if the caller is waiting, moved ahead of any background extractions).
+     * Background extractions are rejected when the queue is full, in which case the returned latch is already released.
+     * 
+     * @param store the store in which the extracted text is to be stored; may not be null
+     * @param binaryValue the binary value; may not be null
+     * @param context the context for the extraction; may not be null
+     * @param waiting true if the caller is about to wait for the extraction to complete, or false if the extraction can be done
+     *        in the background
+     * @return the latch that is released when the extraction completes, or null if the text is not to be extracted
+     */
+    public CountDownLatch extract( AbstractBinaryStore store,
+                                   BinaryValue binaryValue,
+                                   TextExtractor.Context context,
+                                   boolean waiting ) {
         if (!extractionEnabled()) {
             return null;
         }
@@ -109,19 +225,106 @@ public final class TextExtractors {
             return null;
         }
         CheckArg.isNotNull(binaryValue, "binaryValue");
-        CountDownLatch latch = getWorkerLatch(binaryValue.getKey(), true);
-        extractingQueue.execute(new Worker(store, binaryValue, context, latch));
-        return latch;
+        Worker worker = new Worker(store, binaryValue, context, waiting, sequence.incrementAndGet());
+        Worker existing = workers.putIfAbsent(binaryValue.getKey(), worker);
+        if (existing != null) {
+            if (statistics != null) statistics.increment(ValueMetric.TEXT_EXTRACTIONS_DEDUPLICATED);
+            if (waiting) {
+                promote(existing);
+            }
+            return existing.latch;
+        }
+        if (!waiting && waitingCount() >= queueCapacity) {
+            LOGGER.debug("The text extraction queue is full, so the text of binary value {0} will be extracted when needed",
+                         binaryValue.getKey());
+            if (statistics != null) statistics.increment(ValueMetric.TEXT_EXTRACTIONS_REJECTED);
+            completed(worker);
+            return worker.latch;
+        }
+        queue.add(worker);
+        updateQueueSize();
+        startRunners();
+        return worker.latch;
+    }
+
+    /**
+     * Get the latch for the extraction of the text of the binary value with the supplied key, if such an extraction is queued or
+     * running.
+     * 
+     * @param binaryKey the key of the binary value; may not be null
+     * @return the latch that is released when the extraction completes, or null if there is no such extraction
+     */
+    public CountDownLatch getWorkerLatch( BinaryKey binaryKey ) {
+        Worker worker = workers.get(binaryKey);
+        return worker != null ? worker.latch : null;
     }
 
-    public CountDownLatch getWorkerLatch( BinaryKey binaryKey,
-                                          boolean createIfMissing ) {
-        if (createIfMissing) {
-            CountDownLatch latch = new CountDownLatch(1);
-            CountDownLatch existingLatch = workerLatches.putIfAbsent(binaryKey, latch);
-            return existingLatch != null ? existingLatch : latch;
+    /**
+     * Move the supplied work ahead of all background work. This is done on a best-effort basis: work that is moved between the
+     * queue and its extractor's set-aside work while being promoted keeps its priority.
+     * 
+     * @param worker the work; may not be null
+     */
+    private void promote( Worker worker ) {
+        if (worker.waiting) return;
+        if (queue.remove(worker)) {
+            worker.waiting = true;
+            queue.add(worker);
+            startRunners();
+            return;
+        }
+        ExtractorSlots extractorSlots = worker.setAsideIn;
+        if (extractorSlots != null) {
+            extractorSlots.promote(worker);
         }
-        return workerLatches.get(binaryKey);
+    }
+
+    private void completed( Worker worker ) {
+        workers.remove(worker.binaryValue.getKey(), worker);
+        worker.latch.countDown();
+    }
+
+    /**
+     * Get the number of extractions that are waiting to be run, whether in the queue or set aside until their extractor has a
+     * free slot.
+     * 
+     * @return the number of waiting extractions
+     */
+    private int waitingCount() {
+        return queue.size() + setAsideCount.get();
+    }
+
+    private void updateQueueSize() {
+        if (statistics != null) statistics.set(ValueMetric.TEXT_EXTRACTION_QUEUE_SIZE, waitingCount());
+    }
+
+    /**
+     * Submit new runners to the executor until there are as many runners as allowed or as there is queued work.
+     */
+    private void startRunners() {
+        while (!queue.isEmpty()) {
+            int count = runnerCount.get();
+            if (count >= maxConcurrentExtractions) return;
+            if (!runnerCount.compareAndSet(count, count + 1)) continue;
+            try {
+                extractingQueue.execute(new Runner());
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down or is saturated; the runners that are active will process the queue ...
+                runnerCount.decrementAndGet();
+                LOGGER.debug("Unable to start a new text extraction runner: {0}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private ExtractorSlots slotsFor( TextExtractor extractor ) {
+        ExtractorSlots extractorSlots = slots.get(extractor);
+        if (extractorSlots == null) {
+            extractorSlots = new ExtractorSlots(maxConcurrentExtractionsPerExtractor);
+            ExtractorSlots existing = slots.putIfAbsent(extractor, extractorSlots);
+            if (existing != null) extractorSlots = existing;
+        }
+        return extractorSlots;
     }
 
     private static List<TextExtractor> getConfiguredExtractors( JcrRepository.RunningState repository,
@@ -143,55 +346,196 @@ public final class TextExtractors {
     }
 
     /**
-     * A unit of work which extracts text from a binary value, stores that text in a store and notifies a latch that the
-     * extraction operation has finished.
+     * A task in the executor that runs queued work until the queue is empty.
+     */
+    protected final class Runner implements Runnable {
+        @SuppressWarnings( "synthetic-access" )
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Worker worker = queue.poll();
+                    if (worker == null) break;
+                    updateQueueSize();
+                    runOrSetAside(worker);
+                }
+            } finally {
+                runnerCount.decrementAndGet();
+                // Work may have been queued after the queue was found empty but before the count was decremented ...
+                startRunners();
+            }
+        }
+
+        @SuppressWarnings( "synthetic-access" )
+        private void runOrSetAside( Worker worker ) {
+            TextExtractor extractor = null;
+            try {
+                extractor = worker.extractor();
+            } catch (Throwable t) {
+                LOGGER.error(t, JcrI18n.errorExtractingTextFromBinary, worker.binaryValue.getHexHash(), t.getLocalizedMessage());
+            }
+            if (extractor == null) {
+                // There's no text to extract ...
+                completed(worker);
+                return;
+            }
+            ExtractorSlots extractorSlots = slotsFor(extractor);
+            if (!extractorSlots.acquireOrSetAside(worker)) {
+                // The extractor is busy, and the work will be requeued when the extractor has a free slot ...
+                setAsideCount.incrementAndGet();
+                updateQueueSize();
+                return;
+            }
+            try {
+                worker.run();
+            } finally {
+                completed(worker);
+                Worker next = extractorSlots.release();
+                if (next != null) {
+                    // Add the work to the queue before it stops being counted as set aside, so it is never missed ...
+                    queue.add(next);
+                    setAsideCount.decrementAndGet();
+                    updateQueueSize();
+                }
+            }
+        }
+    }
+
+    /**
+     * The concurrency limit of a single {@link TextExtractor}, and the work that was set aside because the extractor was busy.
+     */
+    protected static final class ExtractorSlots {
+        private final int maxActive;
+        private final PriorityQueue<Worker> setAside = new PriorityQueue<Worker>();
+        private int active;
+
+        protected ExtractorSlots( int maxActive ) {
+            this.maxActive = maxActive;
+        }
+
+        protected synchronized boolean acquireOrSetAside( Worker worker ) {
+            if (active < maxActive) {
+                ++active;
+                return true;
+            }
+            worker.setAsideIn = this;
+            setAside.add(worker);
+            return false;
+        }
+
+        protected synchronized Worker release() {
+            --active;
+            Worker next = setAside.poll();
+            if (next != null) next.setAsideIn = null;
+            return next;
+        }
+
+        protected synchronized void promote( Worker worker ) {
+            if (setAside.remove(worker)) {
+                worker.waiting = true;
+                setAside.add(worker);
+            }
+        }
+    }
+
+    /**
+     * A unit of work which extracts text from a binary value and stores that text in a store. Work that a caller is waiting for
+     * is ordered before background work, and otherwise work is ordered by the time it was requested.
      */
-    protected final class Worker implements Runnable {
+    protected final class Worker implements Runnable, Comparable<Worker> {
         private final BinaryValue binaryValue;
         private final TextExtractor.Context context;
         private final AbstractBinaryStore store;
-        private final CountDownLatch latch;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final long sequence;
+        private final long queuedAt = System.nanoTime();
+        /** Changed only when the work is in neither the queue nor an extractor's set-aside work, or while holding its lock */
+        protected volatile boolean waiting;
+        protected volatile ExtractorSlots setAsideIn;
+        private TextExtractor extractor;
+        private boolean extractorFound;
 
         protected Worker( AbstractBinaryStore store,
                           BinaryValue binaryValue,
                           TextExtractor.Context context,
-                          CountDownLatch latch ) {
+                          boolean waiting,
+                          long sequence ) {
             this.store = store;
             this.binaryValue = binaryValue;
             this.context = context;
-            this.latch = latch;
+            this.waiting = waiting;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public int compareTo( Worker that ) {
+            if (this.waiting != that.waiting) return this.waiting ? -1 : 1;
+            return this.sequence < that.sequence ? -1 : (this.sequence == that.sequence ? 0 : 1);
+        }
+
+        /**
+         * Find the extractor that should be used for this work. Only the runner processing this work calls this method.
+         * 
+         * @return the extractor, or null if none of the extractors supports the MIME type of the binary value
+         * @throws Exception if the MIME type of the binary value cannot be determined
+         */
+        @SuppressWarnings( "synthetic-access" )
+        protected TextExtractor extractor() throws Exception {
+            if (!extractorFound) {
+                String mimeType = binaryValue.getMimeType();
+                // The first extractor which accepts the mime-type will win ...
+                for (TextExtractor candidate : extractors) {
+                    if (candidate.supportsMimeType(mimeType)) {
+                        extractor = candidate;
+                        break;
+                    }
+                }
+                extractorFound = true;
+            }
+            return extractor;
         }
 
         @SuppressWarnings( "synthetic-access" )
         @Override
         public void run() {
+            long start = System.nanoTime();
+            if (statistics != null) {
+                Map<String, String> payload = new HashMap<String, String>();
+                payload.put("binaryKey", binaryValue.getKey().toString());
+                statistics.recordDuration(DurationMetric.TEXT_EXTRACTION_WAIT_TIME, start - queuedAt, TimeUnit.NANOSECONDS,
+                                          payload);
+            }
             try {
                 // only extract text if there isn't a stored value for the binary key (note that any changes in the binary will
                 // produce a different key)
-                if (store.getExtractedText(binaryValue) != null) {
+                Reader existingText = store.getExtractedTextReader(binaryValue);
+                if (existingText != null) {
+                    IoUtil.closeQuietly(existingText);
                     return;
                 }
 
-                String mimeType = binaryValue.getMimeType();
-                TextExtractorOutput output = new TextExtractorOutput();
-                // Run through the extractors and have them extract the text - the first one which accepts the mime-type will win
-                for (TextExtractor extractor : extractors) {
-                    if (!extractor.supportsMimeType(mimeType)) {
-                        continue;
-                    }
+                TextExtractorOutput output = newOutput();
+                try {
                     extractor.extractFrom(binaryValue, output, context);
-                    break;
+                    recordStatistics(output);
+                    if (output.getLength() > 0) {
+                        // Stream the text into the store, so that large text is never held in memory ...
+                        store.storeExtractedText(binaryValue, output.getReader());
+                    }
+                } finally {
+                    output.close();
                 }
 
-                String extractedText = output.getText();
-                if (extractedText != null && !StringUtil.isBlank(extractedText)) {
-                    store.storeExtractedText(binaryValue, extractedText);
+                if (statistics != null) {
+                    Map<String, String> payload = new HashMap<String, String>();
+                    payload.put("extractorName", extractor.getClass().getName());
+                    payload.put("binaryKey", binaryValue.getKey().toString());
+                    payload.put("mimeType", binaryValue.getMimeType());
+                    statistics.recordDuration(DurationMetric.TEXT_EXTRACTION_TIME, System.nanoTime() - start,
+                                              TimeUnit.NANOSECONDS, payload);
                 }
             } catch (Exception e) {
                 LOGGER.error(e, JcrI18n.errorExtractingTextFromBinary, binaryValue.getHexHash(), e.getLocalizedMessage());
-            } finally {
-                // decrement the latch regardless of success/failure to avoid blocking, as extraction is not retried
-                latch.countDown();
             }
         }
     }
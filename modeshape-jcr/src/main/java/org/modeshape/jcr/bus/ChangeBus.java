@@ -52,4 +52,27 @@ public interface ChangeBus extends ChangeSetListener, Observable {
      * @return {@code true} if there are any registered observers, {@code false} otherwise
      */
     public boolean hasObservers();
+
+    /**
+     * Register the listener that sends the changes to the JCR event listeners registered by applications. Unlike the listeners
+     * {@link #register(ChangeSetListener) registered} by the repository itself (which must see every change set), this listener
+     * is subject to the configured {@link org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy overflow policy} when
+     * it falls behind.
+     *
+     * @param observer the observer to be added; may be null
+     * @return true if the observer was added, or false if the observer was null, if the observer was already registered, or if
+     *         the observer could not be added
+     */
+    public boolean registerObservationListener( ChangeSetListener observer );
+
+    /**
+     * Register a listener that is notified of each local change set in the thread that submits it to this bus, before the change
+     * set is sent to the other listeners and so before the save that made the changes returns. Change sets from other processes
+     * are sent to this listener in the thread that receives them. Such a listener delays the thread that made the changes, so it
+     * must do very little work, and should block only to wait for room in a bounded queue.
+     * 
+     * @param observer the observer to be added; may be null
+     * @return true if the observer was added, or false if the observer was null or was already registered
+     */
+    public boolean registerInThread( ChangeSetListener observer );
 }
@@ -0,0 +1,973 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.BinaryValueUnused;
+import org.modeshape.jcr.cache.change.BinaryValueUsed;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeChanged;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeRemoved;
+import org.modeshape.jcr.cache.change.NodeRenamed;
+import org.modeshape.jcr.cache.change.NodeReordered;
+import org.modeshape.jcr.cache.change.NodeSequenced;
+import org.modeshape.jcr.cache.change.NodeSequencingFailure;
+import org.modeshape.jcr.cache.change.PropertyAdded;
+import org.modeshape.jcr.cache.change.PropertyChanged;
+import org.modeshape.jcr.cache.change.PropertyRemoved;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.cache.change.RepositoryMetadataChanged;
+import org.modeshape.jcr.cache.change.WorkspaceAdded;
+import org.modeshape.jcr.cache.change.WorkspaceRemoved;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Path.Segment;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicEmptyProperty;
+import org.modeshape.jcr.value.basic.BasicMultiValueProperty;
+import org.modeshape.jcr.value.basic.BasicName;
+import org.modeshape.jcr.value.basic.BasicPath;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
+import org.modeshape.jcr.value.basic.BasicSingleValueProperty;
+import org.modeshape.jcr.value.basic.ChildPath;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
+
+/**
+ * The codec used by the {@link ClusteredRepositoryChangeBus} to convert {@link ChangeSet}s to and from the bytes that are sent to
+ * the other members of the cluster.
+ * <p>
+ * Each {@link RecordingChanges change set} (the only kind of change set created by the repository) is written in a compact,
+ * versioned binary format: each distinct string (such as namespace URIs, local names, time zone IDs, and the source and workspace
+ * prefixes of the {@link NodeKey}s), each distinct {@link Name}, and each distinct absolute {@link Path} is written only once and
+ * then referenced by number, and the most common property value types are written in binary form. Values of other types (e.g.,
+ * references and binary values), the causes of sequencing failures, and any other kind of change set are written using Java
+ * serialization, and the encoded change set is {@link Deflater compressed} if it is larger than a configurable threshold.
+ * </p>
+ * <p>
+ * Data that does not start with this format's marker is read using Java serialization, so change sets sent by processes that
+ * still use Java serialization can be read.
+ * </p>
+ * <p>
+ * Several change sets can also be {@link #encode(List) encoded together} into a single batch, in which case the strings, names
+ * and paths are shared by all of the change sets in the batch.
+ * </p>
+ */
+@Immutable
+public final class ChangeSetCodec {
+
+    /**
+     * The default size (in bytes) of the encoded change sets above which the change sets are compressed.
+     */
+    public static final int DEFAULT_COMPRESSION_THRESHOLD = 4096;
+
+    /**
+     * The version of the binary format written by this codec.
+     */
+    public static final int VERSION = 1;
+
+    /**
+     * The byte that marks data written in the binary format; Java serialization streams always start with 0xAC.
+     */
+    private static final byte MARKER = (byte)0x4D;
+    private static final int FLAG_COMPRESSED = 0x01;
+    private static final int FLAG_BATCH = 0x02;
+
+    private static final int BATCH_ENTRY_SERIALIZED = 0;
+    private static final int BATCH_ENTRY_ENCODED = 1;
+
+    private static final int WORKSPACE_ADDED = 1;
+    private static final int WORKSPACE_REMOVED = 2;
+    private static final int REPOSITORY_METADATA_CHANGED = 3;
+    private static final int NODE_ADDED = 4;
+    private static final int NODE_REMOVED = 5;
+    private static final int NODE_RENAMED = 6;
+    private static final int NODE_MOVED = 7;
+    private static final int NODE_REORDERED = 8;
+    private static final int NODE_CHANGED = 9;
+    private static final int NODE_SEQUENCED = 10;
+    private static final int NODE_SEQUENCING_FAILURE = 11;
+    private static final int PROPERTY_ADDED = 12;
+    private static final int PROPERTY_REMOVED = 13;
+    private static final int PROPERTY_CHANGED = 14;
+    private static final int BINARY_VALUE_USED = 15;
+    private static final int BINARY_VALUE_UNUSED = 16;
+
+    private static final int PATH_NULL = 0;
+    private static final int PATH_ROOT = 1;
+    private static final int PATH_REFERENCE = 2;
+    private static final int PATH_CHILD = 3;
+    private static final int PATH_RELATIVE = 4;
+    private static final int PATH_SERIALIZED = 5;
+
+    private static final int PROPERTY_EMPTY = 0;
+    private static final int PROPERTY_SINGLE = 1;
+    private static final int PROPERTY_MULTIPLE = 2;
+    private static final int PROPERTY_SERIALIZED = 3;
+
+    private static final int VALUE_STRING = 1;
+    private static final int VALUE_LONG = 2;
+    private static final int VALUE_DOUBLE = 3;
+    private static final int VALUE_BOOLEAN = 4;
+    private static final int VALUE_DECIMAL = 5;
+    private static final int VALUE_DATE = 6;
+    private static final int VALUE_NAME = 7;
+    private static final int VALUE_PATH = 8;
+    private static final int VALUE_URI = 9;
+    private static final int VALUE_SERIALIZED = 10;
+
+    private final int compressionThreshold;
+
+    /**
+     * Create a codec that compresses the change sets whose encoded form is larger than {@link #DEFAULT_COMPRESSION_THRESHOLD}.
+     */
+    public ChangeSetCodec() {
+        this(DEFAULT_COMPRESSION_THRESHOLD);
+    }
+
+    /**
+     * Create a codec that compresses the change sets whose encoded form is larger than the supplied threshold.
+     * 
+     * @param compressionThreshold the size in bytes above which the encoded change sets are compressed, or a negative number if
+     *        the change sets should never be compressed
+     */
+    public ChangeSetCodec( int compressionThreshold ) {
+        this.compressionThreshold = compressionThreshold;
+    }
+
+    /**
+     * Encode the supplied change set.
+     * 
+     * @param changeSet the change set; may not be null
+     * @return the encoded change set; never null
+     * @throws IOException if the change set could not be encoded
+     */
+    public byte[] encode( ChangeSet changeSet ) throws IOException {
+        if (!isEncodable(changeSet)) {
+            return serialize(changeSet);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(body);
+        new Encoder(output).write((RecordingChanges)changeSet);
+        output.flush();
+        return toBytes(body, 0);
+    }
+
+    /**
+     * Encode the supplied change sets into a single batch, which can be read with {@link #decodeAll(byte[], ClassLoader)}.
+     * 
+     * @param changeSets the change sets; may not be null or contain null values
+     * @return the encoded change sets; never null
+     * @throws IOException if the change sets could not be encoded
+     */
+    public byte[] encode( List<ChangeSet> changeSets ) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(body);
+        Encoder encoder = new Encoder(output);
+        encoder.writeInt(changeSets.size());
+        for (ChangeSet changeSet : changeSets) {
+            if (isEncodable(changeSet)) {
+                encoder.writeInt(BATCH_ENTRY_ENCODED);
+                encoder.write((RecordingChanges)changeSet);
+            } else {
+                encoder.writeInt(BATCH_ENTRY_SERIALIZED);
+                encoder.writeSerialized(changeSet);
+            }
+        }
+        output.flush();
+        return toBytes(body, FLAG_BATCH);
+    }
+
+    private byte[] toBytes( ByteArrayOutputStream body,
+                            int flags ) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + 3);
+        boolean compress = compressionThreshold >= 0 && body.size() > compressionThreshold;
+        if (compress) flags |= FLAG_COMPRESSED;
+        result.write(MARKER);
+        result.write(VERSION);
+        result.write(flags);
+        if (compress) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                DeflaterOutputStream deflated = new DeflaterOutputStream(result, deflater);
+                body.writeTo(deflated);
+                deflated.finish();
+            } finally {
+                deflater.end();
+            }
+        } else {
+            body.writeTo(result);
+        }
+        return result.toByteArray();
+    }
+
+    /**
+     * Decode the change set from the supplied bytes.
+     * 
+     * @param data the encoded change set; may not be null
+     * @param classLoader the class loader that should be used to load the classes of any serialized objects; may be null if the
+     *        default class loader should be used
+     * @return the change set; never null
+     * @throws IOException if the change set could not be decoded
+     * @throws ClassNotFoundException if the class of a serialized object could not be found
+     */
+    public ChangeSet decode( byte[] data,
+                             ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        List<ChangeSet> changeSets = decodeAll(data, classLoader);
+        if (changeSets.size() != 1) {
+            throw new IOException("Expected a single change set but found " + changeSets.size());
+        }
+        return changeSets.get(0);
+    }
+
+    /**
+     * Decode the change sets from the supplied bytes, which may contain a single change set or a batch of change sets.
+     * 
+     * @param data the encoded change set or batch of change sets; may not be null
+     * @param classLoader the class loader that should be used to load the classes of any serialized objects; may be null if the
+     *        default class loader should be used
+     * @return the change sets in the order in which they were encoded; never null
+     * @throws IOException if the change sets could not be decoded
+     * @throws ClassNotFoundException if the class of a serialized object could not be found
+     */
+    public List<ChangeSet> decodeAll( byte[] data,
+                                      ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        if (data.length == 0 || data[0] != MARKER) {
+            return Collections.singletonList((ChangeSet)deserialize(data, 0, data.length, classLoader));
+        }
+        if (data.length < 3) throw new EOFException();
+        int version = data[1];
+        if (version > VERSION) {
+            throw new IOException(BusI18n.unsupportedChangeSetFormatVersion.text(version, VERSION));
+        }
+        int flags = data[2];
+        InputStream body = new ByteArrayInputStream(data, 3, data.length - 3);
+        if ((flags & FLAG_COMPRESSED) != 0) {
+            body = new InflaterInputStream(body);
+        }
+        DataInputStream input = new DataInputStream(body);
+        try {
+            Decoder decoder = new Decoder(input, classLoader);
+            if ((flags & FLAG_BATCH) == 0) {
+                return Collections.singletonList(decoder.readChangeSet());
+            }
+            int count = decoder.readInt();
+            List<ChangeSet> changeSets = new ArrayList<ChangeSet>(count);
+            for (int i = 0; i != count; ++i) {
+                if (decoder.readInt() == BATCH_ENTRY_ENCODED) {
+                    changeSets.add(decoder.readChangeSet());
+                } else {
+                    changeSets.add((ChangeSet)decoder.readSerialized());
+                }
+            }
+            return changeSets;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static boolean isEncodable( ChangeSet changeSet ) {
+        if (changeSet.getClass() != RecordingChanges.class) return false;
+        for (Change change : changeSet) {
+            if (typeOf(change) < 0) return false;
+        }
+        return true;
+    }
+
+    private static int typeOf( Change change ) {
+        Class<?> type = change.getClass();
+        if (type == NodeChanged.class) return NODE_CHANGED;
+        if (type == PropertyChanged.class) return PROPERTY_CHANGED;
+        if (type == PropertyAdded.class) return PROPERTY_ADDED;
+        if (type == NodeAdded.class) return NODE_ADDED;
+        if (type == PropertyRemoved.class) return PROPERTY_REMOVED;
+        if (type == NodeRemoved.class) return NODE_REMOVED;
+        if (type == NodeMoved.class) return NODE_MOVED;
+        if (type == NodeRenamed.class) return NODE_RENAMED;
+        if (type == NodeReordered.class) return NODE_REORDERED;
+        if (type == BinaryValueUsed.class) return BINARY_VALUE_USED;
+        if (type == BinaryValueUnused.class) return BINARY_VALUE_UNUSED;
+        if (type == NodeSequenced.class) return NODE_SEQUENCED;
+        if (type == NodeSequencingFailure.class) return NODE_SEQUENCING_FAILURE;
+        if (type == WorkspaceAdded.class) return WORKSPACE_ADDED;
+        if (type == WorkspaceRemoved.class) return WORKSPACE_REMOVED;
+        if (type == RepositoryMetadataChanged.class) return REPOSITORY_METADATA_CHANGED;
+        return -1;
+    }
+
+    protected static byte[] serialize( Object object ) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(output);
+        stream.writeObject(object);
+        stream.close();
+        return output.toByteArray();
+    }
+
+    protected static Object deserialize( byte[] data,
+                                         int offset,
+                                         int length,
+                                         ClassLoader classLoader ) throws IOException, ClassNotFoundException {
+        ObjectInputStream input = new ObjectInputStreamWithClassLoader(new ByteArrayInputStream(data, offset, length), classLoader);
+        try {
+            return input.readObject();
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Writes a single change set. Each string, name and absolute path is assigned a number the first time it is written, and
+     * later occurrences are written as that number.
+     */
+    @NotThreadSafe
+    protected static final class Encoder {
+        private final DataOutputStream output;
+        private final Map<String, Integer> strings = new HashMap<String, Integer>();
+        private final Map<Name, Integer> names = new HashMap<Name, Integer>();
+        private final Map<Path, Integer> paths = new HashMap<Path, Integer>();
+
+        protected Encoder( DataOutputStream output ) {
+            this.output = output;
+        }
+
+        protected void write( RecordingChanges changeSet ) throws IOException {
+            writeString(changeSet.getSessionId());
+            writeString(changeSet.getProcessKey());
+            writeString(changeSet.getRepositoryKey());
+            writeString(changeSet.getWorkspaceName());
+            writeString(changeSet.getUserId());
+            writeDateTime(changeSet.getTimestamp());
+            Map<String, String> userData = changeSet.getUserData();
+            writeInt(userData.size());
+            for (Map.Entry<String, String> entry : userData.entrySet()) {
+                writeString(entry.getKey());
+                writeString(entry.getValue());
+            }
+            Set<NodeKey> changedNodes = changeSet.changedNodes();
+            writeInt(changedNodes.size());
+            for (NodeKey key : changedNodes) {
+                writeNodeKey(key);
+            }
+            // The number of changes is not known until they're all written, since the queue of changes is not constant-time ...
+            for (Change change : changeSet) {
+                write(change);
+            }
+            writeInt(0);
+        }
+
+        protected void write( Change change ) throws IOException {
+            int type = typeOf(change);
+            writeInt(type);
+            switch (type) {
+                case WORKSPACE_ADDED:
+                    writeString(((WorkspaceAdded)change).getWorkspaceName());
+                    break;
+                case WORKSPACE_REMOVED:
+                    writeString(((WorkspaceRemoved)change).getWorkspaceName());
+                    break;
+                case REPOSITORY_METADATA_CHANGED:
+                    break;
+                case NODE_ADDED:
+                    NodeAdded added = (NodeAdded)change;
+                    writeNodeKey(added.getKey());
+                    writeNodeKey(added.getParentKey());
+                    writePath(added.getPath());
+                    Map<Name, Property> properties = added.getProperties();
+                    writeInt(properties.size());
+                    for (Property property : properties.values()) {
+                        writeProperty(property);
+                    }
+                    break;
+                case NODE_REMOVED:
+                    NodeRemoved removed = (NodeRemoved)change;
+                    writeNodeKey(removed.getKey());
+                    writeNodeKey(removed.getParentKey());
+                    writePath(removed.getPath());
+                    break;
+                case NODE_RENAMED:
+                    NodeRenamed renamed = (NodeRenamed)change;
+                    writeNodeKey(renamed.getKey());
+                    writePath(renamed.getPath());
+                    writeSegment(renamed.getOldSegment());
+                    break;
+                case NODE_MOVED:
+                    NodeMoved moved = (NodeMoved)change;
+                    writeNodeKey(moved.getKey());
+                    writeNodeKey(moved.getOldParent());
+                    writeNodeKey(moved.getNewParent());
+                    writePath(moved.getNewPath());
+                    writePath(moved.getOldPath());
+                    break;
+                case NODE_REORDERED:
+                    NodeReordered reordered = (NodeReordered)change;
+                    writeNodeKey(reordered.getKey());
+                    writeNodeKey(reordered.getParent());
+                    writePath(reordered.getPath());
+                    writePath(reordered.getOldPath());
+                    writePath(reordered.getReorderedBeforePath());
+                    break;
+                case NODE_CHANGED:
+                    NodeChanged changed = (NodeChanged)change;
+                    writeNodeKey(changed.getKey());
+                    writePath(changed.getPath());
+                    break;
+                case NODE_SEQUENCED:
+                    NodeSequenced sequenced = (NodeSequenced)change;
+                    writeNodeKey(sequenced.getKey());
+                    writePath(sequenced.getPath());
+                    writeNodeKey(sequenced.getOutputNodeKey());
+                    writePath(sequenced.getOutputNodePath());
+                    writeString(sequenced.getOutputPath());
+                    writeString(sequenced.getUserId());
+                    writeString(sequenced.getSelectedPath());
+                    writeString(sequenced.getSequencerName());
+                    break;
+                case NODE_SEQUENCING_FAILURE:
+                    NodeSequencingFailure failure = (NodeSequencingFailure)change;
+                    writeNodeKey(failure.getKey());
+                    writePath(failure.getPath());
+                    writeString(failure.getOutputPath());
+                    writeString(failure.getUserId());
+                    writeString(failure.getSelectedPath());
+                    writeString(failure.getSequencerName());
+                    writeSerialized(failure.getCause());
+                    break;
+                case PROPERTY_ADDED:
+                    PropertyAdded propertyAdded = (PropertyAdded)change;
+                    writeNodeKey(propertyAdded.getKey());
+                    writePath(propertyAdded.getPathToNode());
+                    writeProperty(propertyAdded.getProperty());
+                    break;
+                case PROPERTY_REMOVED:
+                    PropertyRemoved propertyRemoved = (PropertyRemoved)change;
+                    writeNodeKey(propertyRemoved.getKey());
+                    writePath(propertyRemoved.getPathToNode());
+                    writeProperty(propertyRemoved.getProperty());
+                    break;
+                case PROPERTY_CHANGED:
+                    PropertyChanged propertyChanged = (PropertyChanged)change;
+                    writeNodeKey(propertyChanged.getKey());
+                    writePath(propertyChanged.getPathToNode());
+                    writeProperty(propertyChanged.getNewProperty());
+                    writeProperty(propertyChanged.getOldProperty());
+                    break;
+                case BINARY_VALUE_USED:
+                    writeBinaryKey(((BinaryValueUsed)change).getKey());
+                    break;
+                case BINARY_VALUE_UNUSED:
+                    writeBinaryKey(((BinaryValueUnused)change).getKey());
+                    break;
+                default:
+                    assert false : "Unexpected change type: " + change.getClass();
+            }
+        }
+
+        protected void writeInt( int value ) throws IOException {
+            // Write 7 bits at a time, with the high bit set on all but the last byte ...
+            while ((value & ~0x7F) != 0) {
+                output.writeByte((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            output.writeByte(value);
+        }
+
+        protected void writeLiteral( String value ) throws IOException {
+            byte[] bytes = value.getBytes("UTF-8");
+            writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        protected void writeString( String value ) throws IOException {
+            // 0 is null, 1 is a new string, and anything else is a reference to a previously-written string ...
+            if (value == null) {
+                writeInt(0);
+                return;
+            }
+            Integer index = strings.get(value);
+            if (index != null) {
+                writeInt(index.intValue() + 2);
+                return;
+            }
+            writeInt(1);
+            writeLiteral(value);
+            strings.put(value, strings.size());
+        }
+
+        protected void writeName( Name name ) throws IOException {
+            // 0 is a new name, and anything else is a reference to a previously-written name ...
+            Integer index = names.get(name);
+            if (index != null) {
+                writeInt(index.intValue() + 1);
+                return;
+            }
+            writeInt(0);
+            writeString(name.getNamespaceUri());
+            writeString(name.getLocalName());
+            names.put(name, names.size());
+        }
+
+        protected void writeSegment( Segment segment ) throws IOException {
+            writeName(segment.getName());
+            writeInt(segment.getIndex());
+        }
+
+        protected void writePath( Path path ) throws IOException {
+            if (path == null) {
+                writeInt(PATH_NULL);
+            } else if (path.isRoot()) {
+                writeInt(PATH_ROOT);
+            } else if (path.isIdentifier()) {
+                writeInt(PATH_SERIALIZED);
+                writeSerialized(path);
+            } else if (!path.isAbsolute()) {
+                writeInt(PATH_RELATIVE);
+                writeInt(path.size());
+                for (Segment segment : path) {
+                    writeSegment(segment);
+                }
+            } else {
+                Integer index = paths.get(path);
+                if (index != null) {
+                    writeInt(PATH_REFERENCE);
+                    writeInt(index.intValue());
+                    return;
+                }
+                // Write the parent (which is usually shared with other paths) and then the last segment ...
+                writeInt(PATH_CHILD);
+                writePath(path.getParent());
+                writeSegment(path.getLastSegment());
+                paths.put(path, paths.size());
+            }
+        }
+
+        protected void writeNodeKey( NodeKey key ) throws IOException {
+            if (key == null) {
+                writeString(null);
+                return;
+            }
+            // The source and workspace keys are shared by most of the nodes ...
+            writeString(key.getSourceKey() + key.getWorkspaceKey());
+            writeLiteral(key.getIdentifier());
+        }
+
+        protected void writeBinaryKey( BinaryKey key ) throws IOException {
+            byte[] bytes = key.toBytes();
+            writeInt(bytes.length);
+            output.write(bytes);
+        }
+
+        protected void writeDateTime( DateTime dateTime ) throws IOException {
+            if (dateTime == null) {
+                output.writeBoolean(false);
+                return;
+            }
+            output.writeBoolean(true);
+            output.writeLong(dateTime.getMilliseconds());
+            writeString(dateTime.getTimeZoneId());
+        }
+
+        protected void writeProperty( Property property ) throws IOException {
+            if (property instanceof BasicSingleValueProperty) {
+                writeInt(PROPERTY_SINGLE);
+                writeName(property.getName());
+                writeValue(property.getFirstValue());
+            } else if (property instanceof BasicMultiValueProperty) {
+                writeInt(PROPERTY_MULTIPLE);
+                writeName(property.getName());
+                writeInt(property.size());
+                for (Object value : property) {
+                    writeValue(value);
+                }
+            } else if (property instanceof BasicEmptyProperty) {
+                writeInt(PROPERTY_EMPTY);
+                writeName(property.getName());
+            } else {
+                writeInt(PROPERTY_SERIALIZED);
+                writeSerialized(property);
+            }
+        }
+
+        protected void writeValue( Object value ) throws IOException {
+            if (value instanceof String) {
+                writeInt(VALUE_STRING);
+                writeLiteral((String)value);
+            } else if (value instanceof Name) {
+                writeInt(VALUE_NAME);
+                writeName((Name)value);
+            } else if (value instanceof Long) {
+                writeInt(VALUE_LONG);
+                output.writeLong(((Long)value).longValue());
+            } else if (value instanceof Boolean) {
+                writeInt(VALUE_BOOLEAN);
+                output.writeBoolean(((Boolean)value).booleanValue());
+            } else if (value instanceof JodaDateTime) {
+                writeInt(VALUE_DATE);
+                writeDateTime((DateTime)value);
+            } else if (value instanceof Double) {
+                writeInt(VALUE_DOUBLE);
+                output.writeDouble(((Double)value).doubleValue());
+            } else if (value instanceof Path && !((Path)value).isIdentifier()) {
+                writeInt(VALUE_PATH);
+                writePath((Path)value);
+            } else if (value instanceof BigDecimal) {
+                writeInt(VALUE_DECIMAL);
+                writeLiteral(value.toString());
+            } else if (value instanceof URI) {
+                writeInt(VALUE_URI);
+                writeLiteral(value.toString());
+            } else {
+                writeInt(VALUE_SERIALIZED);
+                writeSerialized(value);
+            }
+        }
+
+        protected void writeSerialized( Object object ) throws IOException {
+            byte[] bytes = serialize(object);
+            writeInt(bytes.length);
+            output.write(bytes);
+        }
+    }
+
+    /**
+     * Reads a single change set written by an {@link Encoder}.
+     */
+    @NotThreadSafe
+    protected static final class Decoder {
+        private final DataInputStream input;
+        private final ClassLoader classLoader;
+        private final List<String> strings = new ArrayList<String>();
+        private final List<Name> names = new ArrayList<Name>();
+        private final List<Path> paths = new ArrayList<Path>();
+
+        protected Decoder( DataInputStream input,
+                           ClassLoader classLoader ) {
+            this.input = input;
+            this.classLoader = classLoader;
+        }
+
+        protected ChangeSet readChangeSet() throws IOException, ClassNotFoundException {
+            String sessionId = readString();
+            String processKey = readString();
+            String repositoryKey = readString();
+            String workspaceName = readString();
+            String userId = readString();
+            DateTime timestamp = readDateTime();
+            int userDataCount = readInt();
+            Map<String, String> userData = new HashMap<String, String>();
+            for (int i = 0; i != userDataCount; ++i) {
+                userData.put(readString(), readString());
+            }
+            int changedNodeCount = readInt();
+            Set<NodeKey> changedNodes = new HashSet<NodeKey>();
+            for (int i = 0; i != changedNodeCount; ++i) {
+                changedNodes.add(readNodeKey());
+            }
+
+            RecordingChanges changes = new RecordingChanges(sessionId, processKey, repositoryKey, workspaceName);
+            while (true) {
+                int type = readInt();
+                if (type == 0) break;
+                readChange(type, changes);
+            }
+            changes.setChangedNodes(changedNodes);
+            changes.freeze(userId, userData, timestamp);
+            return changes;
+        }
+
+        protected void readChange( int type,
+                                   RecordingChanges changes ) throws IOException, ClassNotFoundException {
+            switch (type) {
+                case WORKSPACE_ADDED:
+                    changes.workspaceAdded(readString());
+                    break;
+                case WORKSPACE_REMOVED:
+                    changes.workspaceRemoved(readString());
+                    break;
+                case REPOSITORY_METADATA_CHANGED:
+                    changes.repositoryMetadataChanged();
+                    break;
+                case NODE_ADDED:
+                    NodeKey key = readNodeKey();
+                    NodeKey parentKey = readNodeKey();
+                    Path path = readPath();
+                    int propertyCount = readInt();
+                    Map<Name, Property> properties = new HashMap<Name, Property>();
+                    for (int i = 0; i != propertyCount; ++i) {
+                        Property property = readProperty();
+                        properties.put(property.getName(), property);
+                    }
+                    changes.nodeCreated(key, parentKey, path, properties);
+                    break;
+                case NODE_REMOVED:
+                    changes.nodeRemoved(readNodeKey(), readNodeKey(), readPath());
+                    break;
+                case NODE_RENAMED:
+                    changes.nodeRenamed(readNodeKey(), readPath(), readSegment());
+                    break;
+                case NODE_MOVED:
+                    // RecordingChanges creates the NodeMoved with the second and third parameters in this order ...
+                    NodeKey movedKey = readNodeKey();
+                    NodeKey oldParent = readNodeKey();
+                    NodeKey newParent = readNodeKey();
+                    changes.nodeMoved(movedKey, oldParent, newParent, readPath(), readPath());
+                    break;
+                case NODE_REORDERED:
+                    changes.nodeReordered(readNodeKey(), readNodeKey(), readPath(), readPath(), readPath());
+                    break;
+                case NODE_CHANGED:
+                    changes.nodeChanged(readNodeKey(), readPath());
+                    break;
+                case NODE_SEQUENCED:
+                    changes.nodeSequenced(readNodeKey(), readPath(), readNodeKey(), readPath(), readString(), readString(),
+                                          readString(), readString());
+                    break;
+                case NODE_SEQUENCING_FAILURE:
+                    changes.nodeSequencingFailure(readNodeKey(), readPath(), readString(), readString(), readString(),
+                                                  readString(), (Throwable)readSerialized());
+                    break;
+                case PROPERTY_ADDED:
+                    changes.propertyAdded(readNodeKey(), readPath(), readProperty());
+                    break;
+                case PROPERTY_REMOVED:
+                    changes.propertyRemoved(readNodeKey(), readPath(), readProperty());
+                    break;
+                case PROPERTY_CHANGED:
+                    changes.propertyChanged(readNodeKey(), readPath(), readProperty(), readProperty());
+                    break;
+                case BINARY_VALUE_USED:
+                    changes.binaryValueUsed(readBinaryKey());
+                    break;
+                case BINARY_VALUE_UNUSED:
+                    changes.binaryValueNoLongerUsed(readBinaryKey());
+                    break;
+                default:
+                    throw new IOException("Unexpected type of change: " + type);
+            }
+        }
+
+        protected int readInt() throws IOException {
+            int value = 0;
+            int shift = 0;
+            while (true) {
+                int b = input.readUnsignedByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+                shift += 7;
+            }
+        }
+
+        protected byte[] readBytes() throws IOException {
+            byte[] bytes = new byte[readInt()];
+            input.readFully(bytes);
+            return bytes;
+        }
+
+        protected String readLiteral() throws IOException {
+            return new String(readBytes(), "UTF-8");
+        }
+
+        protected String readString() throws IOException {
+            int ref = readInt();
+            if (ref == 0) return null;
+            if (ref > 1) return strings.get(ref - 2);
+            String value = readLiteral();
+            strings.add(value);
+            return value;
+        }
+
+        protected Name readName() throws IOException {
+            int ref = readInt();
+            if (ref > 0) return names.get(ref - 1);
+            Name name = new BasicName(readString(), readString());
+            names.add(name);
+            return name;
+        }
+
+        protected Segment readSegment() throws IOException {
+            Name name = readName();
+            return new BasicPathSegment(name, readInt());
+        }
+
+        protected Path readPath() throws IOException, ClassNotFoundException {
+            int type = readInt();
+            switch (type) {
+                case PATH_NULL:
+                    return null;
+                case PATH_ROOT:
+                    return RootPath.INSTANCE;
+                case PATH_REFERENCE:
+                    return paths.get(readInt());
+                case PATH_CHILD:
+                    Path parent = readPath();
+                    Path path = new ChildPath(parent, readSegment());
+                    paths.add(path);
+                    return path;
+                case PATH_RELATIVE:
+                    int count = readInt();
+                    List<Segment> segments = new ArrayList<Segment>(count);
+                    for (int i = 0; i != count; ++i) {
+                        segments.add(readSegment());
+                    }
+                    return new BasicPath(segments, false);
+                case PATH_SERIALIZED:
+                    return (Path)readSerialized();
+                default:
+                    throw new IOException("Unexpected type of path: " + type);
+            }
+        }
+
+        protected NodeKey readNodeKey() throws IOException {
+            String prefix = readString();
+            if (prefix == null) return null;
+            return new NodeKey(prefix + readLiteral());
+        }
+
+        protected BinaryKey readBinaryKey() throws IOException {
+            return new BinaryKey(readBytes());
+        }
+
+        protected DateTime readDateTime() throws IOException {
+            if (!input.readBoolean()) return null;
+            long millis = input.readLong();
+            return new JodaDateTime(millis, readString());
+        }
+
+        protected Property readProperty() throws IOException, ClassNotFoundException {
+            int type = readInt();
+            switch (type) {
+                case PROPERTY_SINGLE:
+                    Name name = readName();
+                    return new BasicSingleValueProperty(name, readValue());
+                case PROPERTY_MULTIPLE:
+                    Name multiName = readName();
+                    int count = readInt();
+                    List<Object> values = new ArrayList<Object>(count);
+                    for (int i = 0; i != count; ++i) {
+                        values.add(readValue());
+                    }
+                    return new BasicMultiValueProperty(multiName, values);
+                case PROPERTY_EMPTY:
+                    return new BasicEmptyProperty(readName());
+                case PROPERTY_SERIALIZED:
+                    return (Property)readSerialized();
+                default:
+                    throw new IOException("Unexpected type of property: " + type);
+            }
+        }
+
+        protected Object readValue() throws IOException, ClassNotFoundException {
+            int type = readInt();
+            switch (type) {
+                case VALUE_STRING:
+                    return readLiteral();
+                case VALUE_NAME:
+                    return readName();
+                case VALUE_LONG:
+                    return input.readLong();
+                case VALUE_BOOLEAN:
+                    return input.readBoolean();
+                case VALUE_DATE:
+                    return readDateTime();
+                case VALUE_DOUBLE:
+                    return input.readDouble();
+                case VALUE_PATH:
+                    return readPath();
+                case VALUE_DECIMAL:
+                    return new BigDecimal(readLiteral());
+                case VALUE_URI:
+                    return URI.create(readLiteral());
+                case VALUE_SERIALIZED:
+                    return readSerialized();
+                default:
+                    throw new IOException("Unexpected type of value: " + type);
+            }
+        }
+
+        protected Object readSerialized() throws IOException, ClassNotFoundException {
+            byte[] bytes = readBytes();
+            return deserialize(bytes, 0, bytes.length, classLoader);
+        }
+    }
+
+    /**
+     * ObjectInputStream extension that allows a different class loader to be used when resolving types.
+     */
+    protected static final class ObjectInputStreamWithClassLoader extends ObjectInputStream {
+
+        private ClassLoader cl;
+
+        public ObjectInputStreamWithClassLoader( InputStream in,
+                                                 ClassLoader cl ) throws IOException {
+            super(in);
+            this.cl = cl;
+        }
+
+        @Override
+        protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+            if (cl == null) {
+                return super.resolveClass(desc);
+            }
+            try {
+                return Class.forName(desc.getName(), false, cl);
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            super.close();
+            this.cl = null;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+
+/**
+ * A bounded, array-based ring buffer of the {@link ChangeSet}s that are waiting to be sent to a single listener. Any number of
+ * threads can add change sets, while a single thread (the listener's dispatcher) removes them in the order in which they were
+ * added. What happens when a change set is added to a full buffer is determined by the {@link EventOverflowPolicy}.
+ */
+@ThreadSafe
+final class ChangeSetRingBuffer {
+
+    /**
+     * The possible outcomes of {@link ChangeSetRingBuffer#add(ChangeSet) adding} a change set.
+     */
+    static enum AddResult {
+        /** The change set was added at the end of the buffer */
+        ADDED,
+        /** The change set was merged with the last change set in the buffer */
+        COALESCED,
+        /** The change set was discarded because the buffer was full */
+        DROPPED,
+        /** The change set was discarded because the buffer is closed */
+        CLOSED;
+    }
+
+    /**
+     * The factor by which a buffer may grow beyond its capacity, to hold the change sets added by the consumer itself (which can
+     * never wait for room in its own buffer). The consumer's change sets are dropped once the buffer has grown this much; see
+     * {@link EventOverflowPolicy}.
+     */
+    static final int MAX_GROWTH_FACTOR = 4;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final int capacity;
+    private final int maxLength;
+    private final EventOverflowPolicy overflowPolicy;
+    private ChangeSet[] entries;
+    private int head;
+    /** Changed only while holding the lock, but volatile so that the size can be read without the lock */
+    private volatile int count;
+    private boolean closed;
+    private volatile Thread consumer;
+
+    ChangeSetRingBuffer( int capacity,
+                         EventOverflowPolicy overflowPolicy ) {
+        assert capacity > 0;
+        assert overflowPolicy != null;
+        this.capacity = capacity;
+        this.maxLength = (int)Math.min((long)capacity * MAX_GROWTH_FACTOR, Integer.MAX_VALUE - 8);
+        this.overflowPolicy = overflowPolicy;
+        this.entries = new ChangeSet[capacity];
+    }
+
+    /**
+     * Add the change set to the end of this buffer, applying the overflow policy if the buffer is full.
+     * 
+     * @param changeSet the change set; may not be null
+     * @return the outcome; never null
+     */
+    AddResult add( ChangeSet changeSet ) {
+        lock.lock();
+        try {
+            while (!closed && count >= capacity) {
+                if (overflowPolicy == EventOverflowPolicy.DROP) {
+                    return AddResult.DROPPED;
+                }
+                if (overflowPolicy == EventOverflowPolicy.COALESCE && coalesceWithLast(changeSet)) {
+                    return AddResult.COALESCED;
+                }
+                if (Thread.currentThread() == consumer) {
+                    // The listener itself produced the changes, so waiting for it would never end ...
+                    break;
+                }
+                notFull.awaitUninterruptibly();
+            }
+            if (closed) return AddResult.CLOSED;
+            if (count == entries.length) {
+                // Only the consumer gets here, but even its own change sets cannot be buffered without limit ...
+                if (entries.length >= maxLength) return AddResult.DROPPED;
+                grow();
+            }
+            entries[(head + count) % entries.length] = changeSet;
+            ++count;
+            notEmpty.signal();
+            return AddResult.ADDED;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the first change set in this buffer, waiting until one is available. This should only be called by the single
+     * thread that consumes the change sets.
+     * 
+     * @return the first change set, or null if the buffer was closed
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    ChangeSet take() throws InterruptedException {
+        consumer = Thread.currentThread();
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (closed) return null;
+                notEmpty.await();
+            }
+            return removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove the first change set in this buffer, if there is one.
+     * 
+     * @return the first change set, or null if the buffer is empty
+     */
+    ChangeSet poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : removeFirst();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Close this buffer, so that no more change sets are added and any threads waiting to add change sets are released.
+     */
+    void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notFull.signalAll();
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of change sets that are waiting to be sent to the listener. This never blocks, and the result may be
+     * slightly out of date when other threads are adding or removing change sets.
+     * 
+     * @return the number of change sets
+     */
+    int size() {
+        return count;
+    }
+
+    private ChangeSet removeFirst() {
+        ChangeSet first = entries[head];
+        entries[head] = null;
+        head = (head + 1) % entries.length;
+        --count;
+        if (count < capacity) notFull.signal();
+        return first;
+    }
+
+    private boolean coalesceWithLast( ChangeSet changeSet ) {
+        int lastIndex = (head + count - 1) % entries.length;
+        ChangeSet last = entries[lastIndex];
+        if (!(last instanceof RecordingChanges) || !(changeSet instanceof RecordingChanges)) return false;
+        RecordingChanges coalesced = ((RecordingChanges)last).coalesce((RecordingChanges)changeSet);
+        if (coalesced == null) return false;
+        entries[lastIndex] = coalesced;
+        return true;
+    }
+
+    private void grow() {
+        ChangeSet[] larger = new ChangeSet[(int)Math.min((long)entries.length * 2, maxLength)];
+        for (int i = 0; i != count; ++i) {
+            larger[i] = entries[(head + i) % entries.length];
+        }
+        entries = larger;
+        head = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeSetRingBuffer(" + size() + "/" + capacity + ", " + overflowPolicy + ")";
+    }
+}
@@ -24,13 +24,14 @@
 
 package org.modeshape.jcr.bus;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import org.jgroups.Address;
 import org.jgroups.Channel;
@@ -42,9 +43,11 @@ import org.modeshape.common.SystemFailureException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.NamedThreadFactory;
 import org.modeshape.jcr.RepositoryConfiguration;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
+import org.modeshape.jcr.cache.change.RecordingChanges;
 import org.modeshape.jcr.clustering.ChannelProvider;
 
 /**
@@ -78,6 +81,45 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
      */
     private final Receiver receiver = new Receiver();
 
+    /**
+     * The codec used to convert the change sets to and from the bytes sent through the channel.
+     */
+    private final ChangeSetCodec codec = new ChangeSetCodec();
+
+    /**
+     * The listeners that are notified of the local change sets before they are sent to the cluster, and of the change sets from
+     * other processes when they are received. These are not registered with the delegate, since the local change sets sent to the
+     * cluster are also received back from it.
+     */
+    private final CopyOnWriteArrayList<ChangeSetListener> inThreadListeners = new CopyOnWriteArrayList<ChangeSetListener>();
+
+    /**
+     * The time in milliseconds during which change sets are collected before being sent in a single message, or 0 if each change
+     * set is sent in its own message.
+     */
+    private final int batchWindowInMillis;
+
+    /**
+     * The maximum number of change sets sent in a single message.
+     */
+    private final int batchMaximumSize;
+
+    /**
+     * The component that collects the change sets and sends them in batches, or null if the change sets are not batched or this
+     * bus is not started.
+     */
+    private volatile Batcher batcher;
+
+    /**
+     * The marker that a {@link Batcher} adds after the last change set when it is stopped.
+     */
+    private static final ChangeSet END_OF_BATCHES = new RecordingChanges("", "", "", null);
+
+    /**
+     * The maximum number of seconds that a stopping {@link Batcher} waits for the pending batches to be sent.
+     */
+    private static final long MAX_SECONDS_TO_SEND_PENDING_BATCHES = 30L;
+
     /**
      * Flag that dictates whether this bus has connected to the cluster.
      */
@@ -121,6 +163,9 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         this.processId = processId;
         assert clusteringConfiguration.isEnabled();
         this.delegate = delegate;
+        this.batchWindowInMillis = Math.max(0, clusteringConfiguration.getBatchWindowInMillis());
+        int batchMaximumSize = clusteringConfiguration.getBatchMaximumSize();
+        this.batchMaximumSize = batchMaximumSize > 0 ? batchMaximumSize : RepositoryConfiguration.Default.BATCH_MAXIMUM_SIZE;
     }
 
     @Override
@@ -145,6 +190,12 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         // Now connect to the cluster ...
         channel.connect(clusterName);
 
+        // Start sending the changes in batches, if needed ...
+        if (batchWindowInMillis > 0 && batcher == null) {
+            batcher = new Batcher();
+            batcher.start();
+        }
+
         // start the delegate
         delegate.start();
     }
@@ -170,7 +221,7 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
 
     @Override
     public boolean hasObservers() {
-        return delegate.hasObservers();
+        return delegate.hasObservers() || !inThreadListeners.isEmpty();
     }
 
     @Override
@@ -179,12 +230,18 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
             // Mark this as not accepting any more ...
             isOpen.set(false);
             try {
+                if (batcher != null) {
+                    // Send the changes that are still waiting ...
+                    batcher.stop();
+                    batcher = null;
+                }
                 // Disconnect from the channel and close it ...
                 channel.removeChannelListener(listener);
                 channel.setReceiver(null);
                 channel.close();
             } finally {
                 channel = null;
+                inThreadListeners.clear();
                 // Now that we're not receiving any more messages, shut down the delegate
                 delegate.shutdown();
             }
@@ -200,10 +257,11 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
             // The channel is not open ...
             return;
         }
+        notifyInThreadListeners(changeSet);
         if (!multipleAddressesInCluster.get()) {
             // We are in clustered mode, but there is only one participant in the cluster (us).
             // So short-circuit the cluster and just notify the local observers ...
-            if (hasObservers()) {
+            if (delegate.hasObservers()) {
                 delegate.notify(changeSet);
                 logReceivedOperation(changeSet);
             }
@@ -212,19 +270,20 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
 
         // There are multiple participants in the cluster, so send all changes out to JGroups,
         // letting JGroups do the ordering of messages...
+        logSendOperation(changeSet);
+        Batcher batcher = this.batcher;
+        if (batcher != null && batcher.add(changeSet)) {
+            // The change set will be sent with the others in the batch ...
+            return;
+        }
+        Channel channel = this.channel;
         try {
-            logSendOperation(changeSet);
+            if (channel == null) throw new IllegalStateException();
             byte[] data = serialize(changeSet);
             Message message = new Message(null, null, data);
             channel.send(message);
         } catch (IllegalStateException e) {
-            LOGGER.warn(BusI18n.unableToNotifyChanges,
-                        clusteringConfiguration.getClusterName(),
-                        changeSet.size(),
-                        changeSet.getWorkspaceName(),
-                        changeSet.getUserId(),
-                        changeSet.getProcessKey(),
-                        changeSet.getTimestamp());
+            logUnableToNotify(changeSet);
         } catch (Exception e) {
             // Something went wrong here (this should not happen) ...
             String msg = BusI18n.errorSerializingChanges.text(clusteringConfiguration.getClusterName(),
@@ -238,6 +297,47 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         }
     }
 
+    protected final void notifyInThreadListeners( ChangeSet changeSet ) {
+        for (ChangeSetListener listener : inThreadListeners) {
+            listener.notify(changeSet);
+        }
+    }
+
+    /**
+     * Send the supplied change sets to the cluster in a single message.
+     * 
+     * @param changeSets the change sets; may not be null or empty
+     */
+    protected void send( List<ChangeSet> changeSets ) {
+        Channel channel = this.channel;
+        try {
+            if (channel == null) throw new IllegalStateException();
+            byte[] data = changeSets.size() == 1 ? serialize(changeSets.get(0)) : serialize(changeSets);
+            channel.send(new Message(null, null, data));
+        } catch (IllegalStateException e) {
+            for (ChangeSet changeSet : changeSets) {
+                logUnableToNotify(changeSet);
+            }
+        } catch (Exception e) {
+            // There is no caller to which the failure can be reported ...
+            for (ChangeSet changeSet : changeSets) {
+                LOGGER.error(e, BusI18n.errorSerializingChanges, clusteringConfiguration.getClusterName(), changeSet.size(),
+                             changeSet.getWorkspaceName(), changeSet.getUserId(), changeSet.getProcessKey(),
+                             changeSet.getTimestamp(), changeSet);
+            }
+        }
+    }
+
+    protected final void logUnableToNotify( ChangeSet changeSet ) {
+        LOGGER.warn(BusI18n.unableToNotifyChanges,
+                    clusteringConfiguration.getClusterName(),
+                    changeSet.size(),
+                    changeSet.getWorkspaceName(),
+                    changeSet.getUserId(),
+                    changeSet.getProcessKey(),
+                    changeSet.getTimestamp());
+    }
+
     protected final void logSendOperation( ChangeSet changeSet ) {
         if (LOGGER.isTraceEnabled()) {
             LOGGER.trace("Process {0} sending to cluster '{1}' {2} changes on workspace {3} made by {4} from process '{5}' at {6}",
@@ -270,25 +370,32 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         return delegate.register(observer);
     }
 
+    @Override
+    public boolean registerInThread( ChangeSetListener observer ) {
+        return observer != null && inThreadListeners.addIfAbsent(observer);
+    }
+
+    @Override
+    public boolean registerObservationListener( ChangeSetListener observer ) {
+        return delegate.registerObservationListener(observer);
+    }
+
     @Override
     public boolean unregister( ChangeSetListener observer ) {
+        if (inThreadListeners.remove(observer)) return true;
         return delegate.unregister(observer);
     }
 
     protected byte[] serialize( ChangeSet changes ) throws Exception {
-        ByteArrayOutputStream output = new ByteArrayOutputStream();
-        ObjectOutputStream stream = new ObjectOutputStream(output);
-        stream.writeObject(changes);
-        stream.close();
-        return output.toByteArray();
+        return codec.encode(changes);
+    }
+
+    protected byte[] serialize( List<ChangeSet> changes ) throws Exception {
+        return codec.encode(changes);
     }
 
-    protected ChangeSet deserialize( byte[] data ) throws Exception {
-        ObjectInputStreamWithClassLoader input = new ObjectInputStreamWithClassLoader(
-                new ByteArrayInputStream(data), getClass().getClassLoader());
-        ChangeSet toReturn = (ChangeSet) input.readObject();
-        input.close();
-        return toReturn;
+    protected List<ChangeSet> deserialize( byte[] data ) throws Exception {
+        return codec.decodeAll(data, getClass().getClassLoader());
     }
 
     protected final class Receiver extends ReceiverAdapter {
@@ -305,11 +412,14 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
             }
             // We have at least one
             try {
-                // Deserialize the changes ...
-                ChangeSet changes = deserialize(message.getBuffer());
-                // and broadcast them
-                delegate.notify(changes);
-                logReceivedOperation(changes);
+                // Deserialize the changes (which may be a batch of several change sets) ...
+                for (ChangeSet changes : deserialize(message.getBuffer())) {
+                    // The in-thread listeners were already notified of the change sets made in this process ...
+                    if (!processId.equals(changes.getProcessKey())) notifyInThreadListeners(changes);
+                    // and broadcast them in the order in which they were sent
+                    delegate.notify(changes);
+                    logReceivedOperation(changes);
+                }
             } catch (Exception e) {
                 // Something went wrong here (this should not happen) ...
                 String msg = BusI18n.errorDeserializingChanges.text(clusteringConfiguration.getClusterName());
@@ -339,51 +449,112 @@ public final class ClusteredRepositoryChangeBus implements ChangeBus {
         }
     }
 
-    protected final class Listener implements ChannelListener {
-        @Override
-        public void channelClosed( Channel channel ) {
-            isOpen.set(false);
-        }
+    /**
+     * Collects the change sets and sends them to the cluster in batches. A batch is sent when the
+     * {@link RepositoryConfiguration.Clustering#getBatchWindowInMillis() batch window} has elapsed since its first change set was
+     * added, or when it reaches the {@link RepositoryConfiguration.Clustering#getBatchMaximumSize() maximum size}. A single thread
+     * sends all of the batches, so the change sets are sent in the order in which they were added. When the batcher is stopped,
+     * that thread sends the change sets that are still pending before it ends, and any change set that is then sent directly
+     * waits for it to do so.
+     */
+    protected final class Batcher implements Runnable {
+        private final BlockingQueue<ChangeSet> pending = new LinkedBlockingQueue<ChangeSet>();
+        private final ExecutorService executor = Executors.newSingleThreadExecutor(new NamedThreadFactory("modeshape-cluster-batcher"));
+        private volatile boolean running = true;
 
-        @Override
-        public void channelConnected( Channel channel ) {
-            isOpen.set(true);
+        protected void start() {
+            executor.execute(this);
         }
 
-        @Override
-        public void channelDisconnected( Channel channel ) {
-            isOpen.set(false);
+        /**
+         * Add the change set to the next batch. If this batcher is being stopped, this waits until the pending change sets have
+         * been sent, so that the change set can then be sent directly without overtaking them.
+         * 
+         * @param changeSet the change set; may not be null
+         * @return true if the change set was added, or false if this batcher is stopped and the change set should be sent directly
+         */
+        protected boolean add( ChangeSet changeSet ) {
+            synchronized (this) {
+                if (running) {
+                    pending.add(changeSet);
+                    return true;
+                }
+            }
+            awaitPendingBatches();
+            return false;
         }
-    }
-
-    /**
-     * ObjectInputStream extension that allows a different class loader to be used when resolving types.
-     */
-    protected final class ObjectInputStreamWithClassLoader extends ObjectInputStream {
 
-        private ClassLoader cl;
+        /**
+         * Stop this batcher, and wait until the change sets that were added have been sent.
+         */
+        protected void stop() {
+            synchronized (this) {
+                if (!running) return;
+                running = false;
+                // The thread sends everything before the marker and then ends, without waiting for the batch window ...
+                pending.add(END_OF_BATCHES);
+            }
+            executor.shutdown();
+            awaitPendingBatches();
+        }
 
-        public ObjectInputStreamWithClassLoader(InputStream in, ClassLoader cl) throws IOException {
-            super(in);
-            this.cl = cl;
+        private void awaitPendingBatches() {
+            try {
+                if (!executor.awaitTermination(MAX_SECONDS_TO_SEND_PENDING_BATCHES, TimeUnit.SECONDS)) {
+                    LOGGER.debug("Timed out waiting for the pending batches to be sent to cluster '{0}'",
+                                 clusteringConfiguration.getClusterName());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
 
         @Override
-        protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
-            if (cl == null) {
-                return super.resolveClass(desc);
-            }
+        public void run() {
+            List<ChangeSet> batch = new ArrayList<ChangeSet>(batchMaximumSize);
             try {
-                return Class.forName(desc.getName(), false, cl);
-            } catch (ClassNotFoundException ex) {
-                return super.resolveClass(desc);
+                boolean stopped = false;
+                while (!stopped) {
+                    ChangeSet first = pending.take();
+                    if (first == END_OF_BATCHES) break;
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchWindowInMillis);
+                    while (batch.size() < batchMaximumSize) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0L) break;
+                        ChangeSet next = pending.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (next == null) break;
+                        if (next == END_OF_BATCHES) {
+                            stopped = true;
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                    send(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                // We're being terminated, so send the changes already taken from the queue ...
+                Thread.currentThread().interrupt();
+                if (!batch.isEmpty()) send(batch);
             }
         }
+    }
+
+    protected final class Listener implements ChannelListener {
+        @Override
+        public void channelClosed( Channel channel ) {
+            isOpen.set(false);
+        }
 
         @Override
-        public void close() throws IOException {
-            super.close();
-            this.cl = null;
+        public void channelConnected( Channel channel ) {
+            isOpen.set(true);
+        }
+
+        @Override
+        public void channelDisconnected( Channel channel ) {
+            isOpen.set(false);
         }
     }
 }
@@ -29,20 +29,30 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
-import java.util.concurrent.LinkedBlockingQueue;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
 import org.modeshape.common.util.HashCode;
+import org.modeshape.jcr.RepositoryConfiguration;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
+import org.modeshape.jcr.bus.ChangeSetRingBuffer.AddResult;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.ChangeSetListener;
 
 /**
  * A standard {@link ChangeBus} implementation.
+ * <p>
+ * Each listener has its own dispatcher with a bounded {@link ChangeSetRingBuffer buffer} of the change sets that are waiting to
+ * be sent to the listener, so that a slow listener cannot accumulate an unlimited number of change sets. What happens when the
+ * buffer of the {@link #registerObservationListener(ChangeSetListener) observation listener} is full is determined by the
+ * {@link EventOverflowPolicy}, while the repository's own listeners must see every change set and so always
+ * {@link EventOverflowPolicy#BLOCK block}.
+ * </p>
  * 
  * @author Horia Chiorean
  */
@@ -56,9 +66,13 @@ public final class RepositoryChangeBus implements ChangeBus {
 
     private final ExecutorService executor;
     private final Set<ChangeSetDispatcher> dispatchers;
+    private final CopyOnWriteArrayList<ChangeSetListener> inThreadListeners = new CopyOnWriteArrayList<ChangeSetListener>();
     private final Map<Integer, Future<?>> workers;
 
     private final String systemWorkspaceName;
+    private final int listenerQueueCapacity;
+    private final EventOverflowPolicy overflowPolicy;
+    private final DispatchMonitor monitor;
 
     /**
      * Creates new change bus
@@ -70,11 +84,38 @@ public final class RepositoryChangeBus implements ChangeBus {
      */
     public RepositoryChangeBus( ExecutorService executor,
                                 String systemWorkspaceName ) {
+        this(executor, systemWorkspaceName, RepositoryConfiguration.Default.LISTENER_QUEUE_CAPACITY,
+             RepositoryConfiguration.Default.LISTENER_OVERFLOW_POLICY, null);
+    }
+
+    /**
+     * Creates new change bus
+     * 
+     * @param executor the {@link ExecutorService} which will be used internally to submit workers to dispatching events to
+     *        listeners.
+     * @param systemWorkspaceName the name of the system workspace, needed because internal (system) events are dispatched in the
+     *        same thread; may no be null
+     * @param listenerQueueCapacity the maximum number of change sets that can be waiting to be sent to a single listener; must be
+     *        positive
+     * @param overflowPolicy what happens when a change set is sent to the observation listener when it already has the maximum
+     *        number of change sets waiting; may not be null
+     * @param monitor the component that should be notified of the activity of the dispatchers; may be null
+     */
+    public RepositoryChangeBus( ExecutorService executor,
+                                String systemWorkspaceName,
+                                int listenerQueueCapacity,
+                                EventOverflowPolicy overflowPolicy,
+                                DispatchMonitor monitor ) {
+        CheckArg.isPositive(listenerQueueCapacity, "listenerQueueCapacity");
+        CheckArg.isNotNull(overflowPolicy, "overflowPolicy");
         this.systemWorkspaceName = systemWorkspaceName;
         this.workers = new HashMap<Integer, Future<?>>();
         this.dispatchers = Collections.newSetFromMap(new ConcurrentHashMap<ChangeSetDispatcher, Boolean>());
         this.executor = executor;
         this.shutdown = false;
+        this.listenerQueueCapacity = listenerQueueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.monitor = monitor;
     }
 
     @Override
@@ -84,7 +125,12 @@ public final class RepositoryChangeBus implements ChangeBus {
     @Override
     public synchronized void shutdown() {
         shutdown = true;
+        for (ChangeSetDispatcher dispatcher : dispatchers) {
+            // release any threads waiting for room in the queues ...
+            dispatcher.close();
+        }
         dispatchers.clear();
+        inThreadListeners.clear();
         stopWork();
     }
 
@@ -100,12 +146,30 @@ public final class RepositoryChangeBus implements ChangeBus {
 
     @Override
     public boolean register( ChangeSetListener listener ) {
+        return register(listener, EventOverflowPolicy.BLOCK);
+    }
+
+    @Override
+    public boolean registerObservationListener( ChangeSetListener listener ) {
+        return register(listener, overflowPolicy);
+    }
+
+    @Override
+    public boolean registerInThread( ChangeSetListener listener ) {
+        if (listener == null) {
+            return false;
+        }
+        return inThreadListeners.addIfAbsent(listener);
+    }
+
+    private boolean register( ChangeSetListener listener,
+                              EventOverflowPolicy overflowPolicy ) {
         if (listener == null) {
             return false;
         }
         int hashCode = HashCode.compute(listener);
         if (!workers.containsKey(hashCode)) {
-            ChangeSetDispatcher dispatcher = new ChangeSetDispatcher(listener);
+            ChangeSetDispatcher dispatcher = new ChangeSetDispatcher(listener, overflowPolicy);
             dispatchers.add(dispatcher);
             workers.put(hashCode, executor.submit(dispatcher));
             return true;
@@ -118,11 +182,15 @@ public final class RepositoryChangeBus implements ChangeBus {
         if (listener == null) {
             return false;
         }
+        if (inThreadListeners.remove(listener)) {
+            return true;
+        }
         int hashCode = HashCode.compute(listener);
         if (workers.containsKey(hashCode)) {
             for (Iterator<ChangeSetDispatcher> dispatcherIterator = dispatchers.iterator(); dispatcherIterator.hasNext();) {
                 ChangeSetDispatcher dispatcher = dispatcherIterator.next();
                 if (dispatcher.listenerHashCode() == hashCode) {
+                    dispatcher.close();
                     Future<?> work = workers.remove(hashCode);
                     // cancelling the work will call shutdown on the dispatcher
                     work.cancel(true);
@@ -144,6 +212,10 @@ public final class RepositoryChangeBus implements ChangeBus {
             throw new IllegalStateException("Change bus has been already shut down, should not have any more observers");
         }
 
+        for (ChangeSetListener listener : inThreadListeners) {
+            listener.notify(changeSet);
+        }
+
         String workspaceName = changeSet.getWorkspaceName() != null ? changeSet.getWorkspaceName() : NULL_WORKSPACE_NAME;
         if (workspaceName.equalsIgnoreCase(systemWorkspaceName)) {
             // changes in the system workspace are always submitted in the same thread because they need immediate processing
@@ -162,24 +234,73 @@ public final class RepositoryChangeBus implements ChangeBus {
                 dispatcher.submit(changeSet);
             }
         }
+        if (!inThread) recordQueueSizes();
         return true;
     }
 
+    protected void recordQueueSizes() {
+        if (monitor == null) return;
+        int total = 0;
+        int maximum = 0;
+        for (ChangeSetDispatcher dispatcher : dispatchers) {
+            // This doesn't lock the queue, so it never delays the threads making changes or the listeners ...
+            int size = dispatcher.queueSize();
+            total += size;
+            if (size > maximum) maximum = size;
+        }
+        monitor.queueSizes(total, maximum);
+    }
+
     @Override
     public boolean hasObservers() {
-        return !dispatchers.isEmpty();
+        return !dispatchers.isEmpty() || !inThreadListeners.isEmpty();
+    }
+
+    /**
+     * A component that is notified of the activity of the dispatchers of a {@link RepositoryChangeBus}.
+     */
+    public static interface DispatchMonitor {
+        /**
+         * Record the number of change sets that are waiting to be sent to the listeners.
+         * 
+         * @param total the number of change sets waiting for all of the listeners
+         * @param maximum the largest number of change sets waiting for a single listener
+         */
+        void queueSizes( int total,
+                         int maximum );
+
+        /**
+         * Record that a change set was not sent to a listener because its queue was full.
+         * 
+         * @param listener the listener; never null
+         * @param changeSet the change set that was dropped; never null
+         */
+        void dropped( ChangeSetListener listener,
+                      ChangeSet changeSet );
+
+        /**
+         * Record that a change set was merged with the last change set in the queue of a listener, because the queue was full.
+         * 
+         * @param listener the listener; never null
+         * @param changeSet the change set that was merged; never null
+         */
+        void coalesced( ChangeSetListener listener,
+                        ChangeSet changeSet );
     }
 
     private class ChangeSetDispatcher implements Callable<Void> {
 
         private final int listenerHashCode;
         private ChangeSetListener listener;
-        private BlockingQueue<ChangeSet> queue;
+        private final ChangeSetRingBuffer queue;
+        private final EventOverflowPolicy overflowPolicy;
 
-        protected ChangeSetDispatcher( ChangeSetListener listener ) {
+        protected ChangeSetDispatcher( ChangeSetListener listener,
+                                       EventOverflowPolicy overflowPolicy ) {
             this.listener = listener;
+            this.overflowPolicy = overflowPolicy;
             this.listenerHashCode = HashCode.compute(listener);
-            this.queue = new LinkedBlockingQueue<ChangeSet>();
+            this.queue = new ChangeSetRingBuffer(listenerQueueCapacity, overflowPolicy);
         }
 
         @Override
@@ -187,9 +308,12 @@ public final class RepositoryChangeBus implements ChangeBus {
             while (!shutdown) {
                 try {
                     ChangeSet changeSet = queue.take();
-                    if (changeSet != null) {
-                        listener.notify(changeSet);
+                    if (changeSet == null) {
+                        // The queue was closed ...
+                        break;
                     }
+                    listener.notify(changeSet);
+                    if (queue.size() == 0) recordQueueSizes();
                 } catch (InterruptedException e) {
                     Thread.interrupted();
                     break;
@@ -200,11 +324,37 @@ public final class RepositoryChangeBus implements ChangeBus {
         }
 
         protected void submit( ChangeSet changeSet ) {
-            if (!queue.offer(changeSet)) {
-                LOGGER.debug("Cannot submit change set: {0} because the queue is full", changeSet);
+            ChangeSetListener listener = this.listener;
+            AddResult result = queue.add(changeSet);
+            switch (result) {
+                case ADDED:
+                    break;
+                case COALESCED:
+                    if (monitor != null && listener != null) monitor.coalesced(listener, changeSet);
+                    break;
+                case DROPPED:
+                    if (overflowPolicy != EventOverflowPolicy.DROP) {
+                        // The listener filled its own queue, which (unlike with the DROP policy) is never expected ...
+                        LOGGER.warn(BusI18n.listenerQueueOverflowed, changeSet, listener);
+                    } else {
+                        LOGGER.debug("Cannot submit change set: {0} because the queue is full", changeSet);
+                    }
+                    if (monitor != null && listener != null) monitor.dropped(listener, changeSet);
+                    break;
+                case CLOSED:
+                    LOGGER.debug("Cannot submit change set: {0} because the listener is no longer registered", changeSet);
+                    break;
             }
         }
 
+        protected int queueSize() {
+            return queue.size();
+        }
+
+        protected void close() {
+            queue.close();
+        }
+
         protected int listenerHashCode() {
             return listenerHashCode;
         }
@@ -214,11 +364,12 @@ public final class RepositoryChangeBus implements ChangeBus {
         }
 
         private void shutdown() {
-            while (!queue.isEmpty()) {
-                listener.notify(queue.remove());
+            queue.close();
+            ChangeSet changeSet = null;
+            while ((changeSet = queue.poll()) != null) {
+                listener.notify(changeSet);
             }
             this.listener = null;
-            this.queue = null;
         }
     }
 }
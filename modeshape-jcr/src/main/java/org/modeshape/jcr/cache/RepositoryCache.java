@@ -29,6 +29,7 @@ import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -83,6 +84,7 @@ import org.modeshape.jcr.cache.document.LocalDocumentStore;
 import org.modeshape.jcr.cache.document.LocalDocumentStore.DocumentOperation;
 import org.modeshape.jcr.cache.document.LocalDocumentStore.DocumentOperationResults;
 import org.modeshape.jcr.cache.document.ReadOnlySessionCache;
+import org.modeshape.jcr.cache.document.WeightedNodeCache;
 import org.modeshape.jcr.cache.document.WorkspaceCache;
 import org.modeshape.jcr.cache.document.WritableSessionCache;
 import org.modeshape.jcr.txn.Transactions;
@@ -138,6 +140,8 @@ public class RepositoryCache implements Observable {
     private volatile boolean upgradingRepository = false;
     private int lastUpgradeId;
     private final RepositoryFeaturesDetector repositoryFeaturesDetector;
+    private final long nodeCacheSizeInBytes;
+    private final WeightedNodeCache.Monitor nodeCacheMonitor;
 
     public RepositoryCache( ExecutionContext context,
                             DocumentStore documentStore,
@@ -147,6 +151,19 @@ public class RepositoryCache implements Observable {
                             ChangeBus changeBus,
                             CacheContainer workspaceCacheContainer,
                             Upgrades upgradeFunctions ) {
+        this(context, documentStore, configuration, initializer, sessionContext, changeBus, workspaceCacheContainer,
+             upgradeFunctions, null);
+    }
+
+    public RepositoryCache( ExecutionContext context,
+                            DocumentStore documentStore,
+                            RepositoryConfiguration configuration,
+                            ContentInitializer initializer,
+                            SessionEnvironment sessionContext,
+                            ChangeBus changeBus,
+                            CacheContainer workspaceCacheContainer,
+                            Upgrades upgradeFunctions,
+                            WeightedNodeCache.Monitor nodeCacheMonitor ) {
         this.context = context;
         this.configuration = configuration;
         this.documentStore = documentStore;
@@ -161,6 +178,8 @@ public class RepositoryCache implements Observable {
         this.workspaceCachesByName = new ConcurrentHashMap<String, WorkspaceCache>();
         this.workspaceNames = new CopyOnWriteArraySet<String>(configuration.getAllWorkspaceNames());
         this.upgrades = upgradeFunctions;
+        this.nodeCacheSizeInBytes = configuration.getWorkspaceNodeCacheSizeInBytes();
+        this.nodeCacheMonitor = nodeCacheMonitor;
 
         SchematicEntry repositoryInfo = this.documentStore.localStore().get(REPOSITORY_INFO_KEY);
         boolean upgradeRequired = false;
@@ -823,7 +842,8 @@ public class RepositoryCache implements Observable {
                                         node.getPath(workspaceCache),
                                         node.getPrimaryType(workspaceCache),
                                         node.getMixinTypes(workspaceCache),
-                                        node.getProperties(workspaceCache));
+                                        node.getProperties(workspaceCache),
+                                        workspaceCache);
                             } else if (shouldUpdateIndexes(change) && !nodesWithUpdatedIndexes.contains(nodeKey)) {
                                 nodesWithUpdatedIndexes.add(nodeKey);
                                 // since for an updated node any number of property change events can be received, we only want to
@@ -834,7 +854,8 @@ public class RepositoryCache implements Observable {
                                         node.getPath(workspaceCache),
                                         node.getPrimaryType(workspaceCache),
                                         node.getMixinTypes(workspaceCache),
-                                        node.getProperties(workspaceCache));
+                                        node.getProperties(workspaceCache),
+                                        workspaceCache);
                             }    
                         }
                     } else {
@@ -931,7 +952,7 @@ public class RepositoryCache implements Observable {
                         // Create/get the Infinispan workspaceCache that we'll use within the WorkspaceCache, using the
                         // workspaceCache manager's
                         // default configuration ...
-                        Cache<NodeKey, CachedNode> nodeCache = cacheForWorkspace(name);
+                        ConcurrentMap<NodeKey, CachedNode> nodeCache = nodeCacheForWorkspace(name);
                         ExecutionContext context = context();
 
                         // Compute the root key for this workspace ...
@@ -971,6 +992,21 @@ public class RepositoryCache implements Observable {
         return workspaceCachesByName.get(name);
     }
 
+    /**
+     * Get the map in which the workspace with the supplied name should keep its nodes. This is a weight-bounded
+     * {@link WeightedNodeCache} when the configuration specifies a node cache size, or the Infinispan cache for the workspace
+     * otherwise.
+     * 
+     * @param name the name of the workspace; may not be null
+     * @return the map of nodes; never null
+     */
+    protected ConcurrentMap<NodeKey, CachedNode> nodeCacheForWorkspace( String name ) {
+        if (nodeCacheSizeInBytes > 0L) {
+            return new WeightedNodeCache(nodeCacheSizeInBytes, nodeCacheMonitor);
+        }
+        return cacheForWorkspace(name);
+    }
+
     protected Cache<NodeKey, CachedNode> cacheForWorkspace( String name ) {
         Cache<NodeKey, CachedNode> cache = workspaceCacheManager.getCache(cacheNameForWorkspace(name));
         if (cache instanceof AdvancedCache) {
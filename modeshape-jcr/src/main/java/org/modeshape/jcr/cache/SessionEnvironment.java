@@ -57,6 +57,13 @@ public interface SessionEnvironment {
      */
     boolean indexingClustered();
 
+    /**
+     * Get the monitor that should be notified of the progress of each save.
+     * 
+     * @return the save monitor; may be null if saves are not to be monitored
+     */
+    SaveMonitor getSaveMonitor();
+
     public static interface Monitor {
         /**
          * Add to the index the information about a node.
@@ -67,13 +74,16 @@ public interface SessionEnvironment {
          * @param primaryType the primary type of the node; may not be null
          * @param mixinTypes the mixin types for the node; may not be null but may be empty
          * @param propertiesIterator an iterator over a collection of properties
+         * @param cache the cache from which the node and its ancestors can be read as they are once the changes are saved, and
+         *        that is used to determine who can read the node; may not be null
          */
         void recordAdd( String workspace,
                         NodeKey key,
                         Path path,
                         Name primaryType,
                         Set<Name> mixinTypes,
-                        Iterator<Property> propertiesIterator );
+                        Iterator<Property> propertiesIterator,
+                        NodeCache cache );
 
         /**
          * Update the index to reflect the new state of the node.
@@ -84,13 +94,16 @@ public interface SessionEnvironment {
          * @param primaryType the primary type of the node; may not be null
          * @param mixinTypes the mixin types for the node; may not be null but may be empty
          * @param properties the properties of the node; may not be null but may be empty
+         * @param cache the cache from which the node and its ancestors can be read as they are once the changes are saved, and
+         *        that is used to determine who can read the node; may not be null
          */
         void recordUpdate( String workspace,
                            NodeKey key,
                            Path path,
                            Name primaryType,
                            Set<Name> mixinTypes,
-                           Iterator<Property> properties );
+                           Iterator<Property> properties,
+                           NodeCache cache );
 
         /**
          * Remove from the index for the given workspace all of the nodes with the supplied keys.
@@ -109,6 +122,63 @@ public interface SessionEnvironment {
         void recordChanged( long changedNodesCount );
     }
 
+    /**
+     * A component that records how long the different phases of each save take and how often saves contend for locks, so
+     * that slow saves can be attributed to lock contention, to the persistent store, or to the work done before and after
+     * persisting the changes.
+     */
+    public static interface SaveMonitor {
+
+        /**
+         * The phases of a save that are timed.
+         */
+        public static enum Phase {
+            /** Running the pre-save operations on the changed nodes, before the transaction is started */
+            PRE_SAVE,
+            /** Acquiring the locks on the persisted nodes that are to be changed */
+            LOCKING,
+            /** Writing the changes to the persisted nodes, excluding the time spent updating the indexes */
+            PERSISTING,
+            /** Committing the transaction, excluding the time spent marking the binary values as used or unused */
+            COMMIT,
+            /** Marking the binary values as used or unused after the transaction is committed */
+            BINARY_USAGE,
+            /**
+             * Submitting the index updates while the changes are written. This only measures how long it takes to enqueue the
+             * updates, and not how long the indexes take to apply them.
+             */
+            INDEXING,
+            /** Updating the workspace caches and notifying the listeners of the changes */
+            NOTIFICATION;
+        }
+
+        /**
+         * Record the time spent in a phase of a save.
+         * 
+         * @param phase the phase; never null
+         * @param durationInNanos the duration of the phase in nanoseconds
+         */
+        void recordDuration( Phase phase,
+                             long durationInNanos );
+
+        /**
+         * Record that a save completed successfully.
+         * 
+         * @param nodeCount the number of changed nodes that were saved
+         */
+        void recordSaved( long nodeCount );
+
+        /**
+         * Record that a save could not acquire the locks within the timeout and will be retried.
+         */
+        void recordLockRetry();
+
+        /**
+         * Record that a save failed because it could not acquire the locks within the timeout.
+         */
+        void recordLockTimeout();
+    }
+
     /**
      * A simple interface used to construct {@link Monitor} instances.
      */
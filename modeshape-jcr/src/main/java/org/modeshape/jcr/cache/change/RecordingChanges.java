@@ -250,6 +250,36 @@ public class RecordingChanges implements Changes, ChangeSet {
         }
     }
 
+    /**
+     * Create a new change set that contains the changes in this change set followed by the changes in the supplied change set.
+     * Only change sets that were made by the same session in the same workspace and with the same user data can be coalesced.
+     * 
+     * @param later the change set that was made after this change set; may not be null
+     * @return the new change set with the timestamp of the later change set, or null if the change sets cannot be coalesced
+     */
+    public RecordingChanges coalesce( RecordingChanges later ) {
+        if (!sessionId.equals(later.sessionId) || !processKey.equals(later.processKey)
+            || !repositoryKey.equals(later.repositoryKey)) {
+            return null;
+        }
+        if (workspaceName != null ? !workspaceName.equals(later.workspaceName) : later.workspaceName != null) return null;
+        if (userId != null ? !userId.equals(later.userId) : later.userId != null) return null;
+        if (!userData.equals(later.userData)) return null;
+
+        RecordingChanges result = new RecordingChanges(sessionId, processKey, repositoryKey, workspaceName);
+        result.events.addAll(this.events);
+        result.events.addAll(later.events);
+        result.usedBinaries.addAll(this.usedBinaries);
+        result.usedBinaries.addAll(later.usedBinaries);
+        result.unusedBinaries.addAll(this.unusedBinaries);
+        result.unusedBinaries.addAll(later.unusedBinaries);
+        Set<NodeKey> keys = new HashSet<NodeKey>(this.nodeKeys);
+        keys.addAll(later.nodeKeys);
+        result.setChangedNodes(keys);
+        result.freeze(later.userId, later.userData, later.timestamp);
+        return result;
+    }
+
     public void freeze( String userId,
                         Map<String, String> userData,
                         DateTime timestamp ) {
@@ -25,6 +25,7 @@
 package org.modeshape.jcr.cache.document;
 
 import java.util.Collection;
+import java.util.Map;
 import javax.transaction.TransactionManager;
 import javax.transaction.xa.XAResource;
 import org.infinispan.schematic.SchematicEntry;
@@ -50,6 +51,17 @@ public interface DocumentStore {
      */
     public SchematicEntry get( String key );
 
+    /**
+     * Get the entries with the supplied keys. Stores should load all of the entries at once where possible, so that this is
+     * faster than calling {@link #get(String)} for each of the keys.
+     *
+     * @param keys the keys or identifiers for the documents; may not be null
+     * @return the entries keyed by their keys, in the order of the supplied keys; never null but without an entry for any key
+     *         that has no document
+     * @throws DocumentStoreException if there is a problem retrieving the documents
+     */
+    public Map<String, SchematicEntry> getAll( Collection<String> keys );
+
     /**
      * Store the supplied document at the given key.
      *
@@ -56,7 +56,7 @@ import org.modeshape.common.text.TextDecoder;
 import org.modeshape.common.text.TextEncoder;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.ExecutionContext;
-import org.modeshape.jcr.GenericCacheContainer;
+import org.modeshape.jcr.InterningCache;
 import org.modeshape.jcr.JcrLexicon;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.cache.CachedNode.ReferenceType;
@@ -83,6 +83,7 @@ import org.modeshape.jcr.value.ReferenceFactory;
 import org.modeshape.jcr.value.UuidFactory;
 import org.modeshape.jcr.value.ValueFactories;
 import org.modeshape.jcr.value.ValueFactory;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
 import org.modeshape.jcr.value.basic.NodeKeyReference;
 import org.modeshape.jcr.value.basic.StringReference;
 import org.modeshape.jcr.value.basic.UuidReference;
@@ -125,6 +126,7 @@ public class DocumentTranslator implements DocumentConstants {
     private final UuidFactory uuids;
     private final TextEncoder encoder = NoOpEncoder.getInstance();
     private final TextDecoder decoder = NoOpEncoder.getInstance();
+    private final InterningCache<String, Segment> segments;
 
     public DocumentTranslator( ExecutionContext context,
                                DocumentStore documentStore,
@@ -147,6 +149,7 @@ public class DocumentTranslator implements DocumentConstants {
         this.simplerefs = this.factories.getSimpleReferenceFactory();
         this.uuids = this.factories.getUuidFactory();
         this.strings = this.factories.getStringFactory();
+        this.segments = this.context.getSegmentCache();
         assert this.largeStringSize.get() >= 0;
     }
 
@@ -995,13 +998,12 @@ public class DocumentTranslator implements DocumentConstants {
             String keyStr = doc.getString(KEY);
             NodeKey key = new NodeKey(keyStr);
             String nameStr = doc.getString(NAME);
-            Name name = (Name) GenericCacheContainer.getInstance().get(nameStr+"_name");
-            if (name == null) {
-                name = names.create(nameStr, decoder);
-                GenericCacheContainer.getInstance().put(nameStr+"_name", name);
-            }
             // We always use 1 for the SNS index, since the SNS index is dependent upon SNS nodes before it
-            return new ChildReference(key, name, 1);
+            Segment segment = segments.get(nameStr);
+            if (segment == null) {
+                segment = segments.intern(nameStr, new BasicPathSegment(names.create(nameStr, decoder)));
+            }
+            return new ChildReference(key, segment);
         }
         return null;
     }
@@ -26,8 +26,11 @@ package org.modeshape.jcr.cache.document;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import javax.transaction.HeuristicMixedException;
 import javax.transaction.HeuristicRollbackException;
 import javax.transaction.NotSupportedException;
@@ -79,6 +82,55 @@ public class LocalDocumentStore implements DocumentStore {
         return database.get(key);
     }
 
+    @Override
+    public Map<String, SchematicEntry> getAll( Collection<String> keys ) {
+        Map<String, SchematicEntry> entries = new LinkedHashMap<String, SchematicEntry>();
+        if (keys.size() < 2 || isInTransaction()) {
+            // Asynchronous reads would not be done within the transaction, so read each entry in turn ...
+            for (String key : keys) {
+                SchematicEntry entry = database.get(key);
+                if (entry != null) entries.put(key, entry);
+            }
+            return entries;
+        }
+        // Start reading all of the entries, so that the ones not in memory are loaded from the cache store concurrently ...
+        Map<String, Future<SchematicEntry>> futures = new LinkedHashMap<String, Future<SchematicEntry>>();
+        for (String key : keys) {
+            futures.put(key, database.getAsync(key));
+        }
+        boolean interrupted = false;
+        for (Map.Entry<String, Future<SchematicEntry>> future : futures.entrySet()) {
+            String key = future.getKey();
+            SchematicEntry entry = null;
+            if (interrupted) {
+                entry = database.get(key);
+            } else {
+                try {
+                    entry = future.getValue().get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    entry = database.get(key);
+                } catch (ExecutionException e) {
+                    // Read it again, so that any problem is reported as it would be by 'get(String)' ...
+                    entry = database.get(key);
+                }
+            }
+            if (entry != null) entries.put(key, entry);
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        return entries;
+    }
+
+    private boolean isInTransaction() {
+        TransactionManager txnMgr = transactionManager();
+        if (txnMgr == null) return false;
+        try {
+            return txnMgr.getTransaction() != null;
+        } catch (SystemException e) {
+            return true;
+        }
+    }
+
     @Override
     public SchematicEntry storeDocument( String key,
                                          Document document ) {
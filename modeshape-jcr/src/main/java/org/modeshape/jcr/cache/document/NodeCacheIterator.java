@@ -23,8 +23,10 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import org.modeshape.common.util.CheckArg;
@@ -34,11 +36,22 @@ import org.modeshape.jcr.cache.NodeKey;
 
 /**
  * An iterator that returns all of the keys for the nodes in the cache that are below the specified starting node.
+ * <p>
+ * When the cache is backed by a {@link WorkspaceCache}, the iterator loads the next {@value #PREFETCH_SIZE} nodes from the store
+ * at once, rather than one at a time.
+ * </p>
  */
 public final class NodeCacheIterator implements Iterator<NodeKey> {
 
+    /**
+     * The number of nodes that are loaded together.
+     */
+    protected static final int PREFETCH_SIZE = 100;
+
     private final Queue<NodeKey> keys = new LinkedList<NodeKey>();
     private final NodeCache cache;
+    private final WorkspaceCache workspaceCache;
+    private int prefetchedCount;
     private NodeKey nextNode;
 
     public NodeCacheIterator( NodeCache cache,
@@ -46,6 +59,8 @@ public final class NodeCacheIterator implements Iterator<NodeKey> {
         CheckArg.isNotNull(cache, "cache");
         CheckArg.isNotNull(startingNode, "startingNode");
         this.cache = cache;
+        NodeCache unwrapped = cache.unwrap();
+        this.workspaceCache = unwrapped instanceof DocumentCache ? ((DocumentCache)unwrapped).workspaceCache() : null;
         this.keys.add(startingNode);
     }
 
@@ -83,6 +98,7 @@ public final class NodeCacheIterator implements Iterator<NodeKey> {
             }
 
             // Find the next node ...
+            prefetch(nextKey);
             CachedNode node = cache.getNode(nextKey);
             if (node == null) {
                 // skip this node ...
@@ -99,6 +115,27 @@ public final class NodeCacheIterator implements Iterator<NodeKey> {
         }
     }
 
+    /**
+     * Load the supplied node and the nodes next in the queue from the store, unless they were already loaded.
+     * 
+     * @param nextKey the key of the node that is to be found next; may not be null
+     */
+    protected void prefetch( NodeKey nextKey ) {
+        if (workspaceCache == null) return;
+        if (prefetchedCount > 0) {
+            --prefetchedCount;
+            return;
+        }
+        List<NodeKey> batch = new ArrayList<NodeKey>(PREFETCH_SIZE);
+        batch.add(nextKey);
+        Iterator<NodeKey> iter = keys.iterator();
+        while (batch.size() < PREFETCH_SIZE && iter.hasNext()) {
+            batch.add(iter.next());
+        }
+        if (batch.size() > 1) workspaceCache.prefetchNodes(batch);
+        prefetchedCount = batch.size() - 1;
+    }
+
     @Override
     public void remove() {
         throw new UnsupportedOperationException();
@@ -0,0 +1,512 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import org.infinispan.schematic.document.Binary;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.internal.document.LazyDocument;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+
+/**
+ * A {@link ConcurrentMap} of {@link CachedNode}s that limits the total (estimated) weight of the nodes it holds, and that can be
+ * used by a {@link WorkspaceCache} instead of an unbounded map.
+ * <p>
+ * The weight of a node is an estimate of the memory used by the node's document, so that nodes with many properties or many
+ * child references count for more than small nodes. When the total weight exceeds the maximum, the cache evicts nodes using a
+ * segmented LRU policy: newly-added nodes go into a <i>probationary</i> segment, and nodes that are read again while in the cache
+ * are moved to a <i>protected</i> segment that can hold up to {@value #PROTECTED_PERCENTAGE}% of the maximum weight. Nodes are
+ * always evicted from the least-recently-used end of the probationary segment first, so that a scan over many nodes that are
+ * read only once does not flush the frequently-used nodes out of the cache.
+ * </p>
+ * <p>
+ * Lookups never block: the recency of a node is only updated when the lock guarding the segments is available, which means that
+ * the eviction order is approximate under heavy concurrency. Modifications acquire the lock.
+ * </p>
+ */
+@ThreadSafe
+public class WeightedNodeCache extends AbstractMap<NodeKey, CachedNode> implements ConcurrentMap<NodeKey, CachedNode> {
+
+    /**
+     * An observer of the cache's activity.
+     */
+    public static interface Monitor {
+        /**
+         * Record that a node was found in the cache.
+         */
+        void hit();
+
+        /**
+         * Record that a node was not found in the cache.
+         */
+        void miss();
+
+        /**
+         * Record that a node was evicted from the cache.
+         * 
+         * @param weight the weight of the evicted node
+         */
+        void evicted( long weight );
+    }
+
+    /**
+     * The percentage of the maximum weight that can be used by the nodes in the protected segment.
+     */
+    protected static final int PROTECTED_PERCENTAGE = 80;
+
+    /**
+     * The weight of each node in addition to the weight of its document.
+     */
+    protected static final long NODE_OVERHEAD = 128L;
+
+    private static final Monitor NO_OP_MONITOR = new Monitor() {
+        @Override
+        public void hit() {
+        }
+
+        @Override
+        public void miss() {
+        }
+
+        @Override
+        public void evicted( long weight ) {
+        }
+    };
+
+    private final ConcurrentMap<NodeKey, Entry> entries = new ConcurrentHashMap<NodeKey, Entry>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Entry probation = new Entry(null, null, 0L);
+    private final Entry protectedSegment = new Entry(null, null, 0L);
+    private final long maximumWeight;
+    private final long maximumProtectedWeight;
+    private final Monitor monitor;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long probationWeight;
+    private long protectedWeight;
+    private Set<Map.Entry<NodeKey, CachedNode>> entrySet;
+
+    /**
+     * Create a new cache.
+     * 
+     * @param maximumWeight the maximum total weight of the nodes in the cache; must be positive
+     * @param monitor the monitor that should be notified of the cache's activity; may be null
+     */
+    public WeightedNodeCache( long maximumWeight,
+                              Monitor monitor ) {
+        assert maximumWeight > 0L;
+        this.maximumWeight = maximumWeight;
+        this.maximumProtectedWeight = maximumWeight / 100L * PROTECTED_PERCENTAGE;
+        this.monitor = monitor != null ? monitor : NO_OP_MONITOR;
+        probation.prev = probation.next = probation;
+        protectedSegment.prev = protectedSegment.next = protectedSegment;
+    }
+
+    /**
+     * Get the maximum total weight of the nodes in this cache.
+     * 
+     * @return the maximum weight
+     */
+    public long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    /**
+     * Get the current total weight of the nodes in this cache.
+     * 
+     * @return the weight
+     */
+    public long getWeight() {
+        lock.lock();
+        try {
+            return probationWeight + protectedWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the number of lookups that found a node in this cache.
+     * 
+     * @return the number of hits
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find a node in this cache.
+     * 
+     * @return the number of misses
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Get the number of nodes that were evicted from this cache because its maximum weight was exceeded.
+     * 
+     * @return the number of evictions
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    @Override
+    public CachedNode get( Object key ) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.incrementAndGet();
+            monitor.miss();
+            return null;
+        }
+        hits.incrementAndGet();
+        monitor.hit();
+        if (lock.tryLock()) {
+            try {
+                recordAccess(entry);
+            } finally {
+                lock.unlock();
+            }
+        }
+        return entry.value;
+    }
+
+    @Override
+    public boolean containsKey( Object key ) {
+        return entries.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return entries.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    @Override
+    public CachedNode put( NodeKey key,
+                           CachedNode value ) {
+        assert key != null;
+        assert value != null;
+        Entry entry = new Entry(key, value, weigh(value));
+        Entry previous = entries.put(key, entry);
+        added(entry, previous);
+        return previous != null ? previous.value : null;
+    }
+
+    @Override
+    public CachedNode putIfAbsent( NodeKey key,
+                                   CachedNode value ) {
+        assert key != null;
+        assert value != null;
+        Entry entry = new Entry(key, value, weigh(value));
+        Entry existing = entries.putIfAbsent(key, entry);
+        if (existing != null) return existing.value;
+        added(entry, null);
+        return null;
+    }
+
+    @Override
+    public CachedNode remove( Object key ) {
+        Entry entry = entries.remove(key);
+        if (entry == null) return null;
+        removed(entry);
+        return entry.value;
+    }
+
+    @Override
+    public boolean remove( Object key,
+                           Object value ) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.value.equals(value) || !entries.remove(key, entry)) return false;
+        removed(entry);
+        return true;
+    }
+
+    @Override
+    public boolean replace( NodeKey key,
+                            CachedNode oldValue,
+                            CachedNode newValue ) {
+        assert newValue != null;
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.value.equals(oldValue)) return false;
+        Entry replacement = new Entry(key, newValue, weigh(newValue));
+        if (!entries.replace(key, entry, replacement)) return false;
+        added(replacement, entry);
+        return true;
+    }
+
+    @Override
+    public CachedNode replace( NodeKey key,
+                               CachedNode value ) {
+        assert value != null;
+        Entry replacement = new Entry(key, value, weigh(value));
+        while (true) {
+            Entry entry = entries.get(key);
+            if (entry == null) return null;
+            if (entries.replace(key, entry, replacement)) {
+                added(replacement, entry);
+                return entry.value;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            for (Entry head : new Entry[] {probation, protectedSegment}) {
+                Entry entry = head.next;
+                while (entry != head) {
+                    Entry next = entry.next;
+                    entry.removed = true;
+                    entry.prev = null;
+                    entry.next = null;
+                    entry = next;
+                }
+                head.prev = head.next = head;
+            }
+            probationWeight = 0L;
+            protectedWeight = 0L;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Set<Map.Entry<NodeKey, CachedNode>> entrySet() {
+        if (entrySet == null) entrySet = new EntrySet();
+        return entrySet;
+    }
+
+    /**
+     * Estimate the weight of the supplied node, based upon the size of its document (including its child references).
+     * 
+     * @param node the node; may not be null
+     * @return the weight of the node; always positive
+     */
+    protected long weigh( CachedNode node ) {
+        if (node instanceof LazyCachedNode) {
+            return NODE_OVERHEAD + sizeOf(((LazyCachedNode)node).document(null));
+        }
+        return NODE_OVERHEAD;
+    }
+
+    /**
+     * Estimate the number of bytes used by the supplied document value.
+     * 
+     * @param value the value; may be null
+     * @return the estimated size in bytes
+     */
+    protected static long sizeOf( Object value ) {
+        if (value == null) return 8L;
+        if (value instanceof String) return 40L + 2L * ((String)value).length();
+        if (value instanceof List) {
+            long size = 40L;
+            for (Object element : (List<?>)value) {
+                size += 8L + sizeOf(element);
+            }
+            return size;
+        }
+        if (value instanceof LazyDocument) {
+            // Use the size of the BSON bytes, since walking the fields would decode the whole document ...
+            return 48L + ((LazyDocument)value).getLength();
+        }
+        if (value instanceof Document) {
+            long size = 48L;
+            for (Document.Field field : ((Document)value).fields()) {
+                size += 32L + sizeOf(field.getName()) + sizeOf(field.getValue());
+            }
+            return size;
+        }
+        if (value instanceof Binary) return 24L + ((Binary)value).length();
+        return 24L;
+    }
+
+    private void added( Entry entry,
+                        Entry replaced ) {
+        lock.lock();
+        try {
+            if (replaced != null) unlink(replaced);
+            if (entry.removed) return;
+            linkFirst(probation, entry);
+            probationWeight += entry.weight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removed( Entry entry ) {
+        lock.lock();
+        try {
+            unlink(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void recordAccess( Entry entry ) {
+        assert lock.isHeldByCurrentThread();
+        if (entry.removed || entry.prev == null) return;
+        if (entry.isProtected) {
+            // Just move it to the most-recently-used end ...
+            entry.remove();
+            linkFirst(protectedSegment, entry);
+            return;
+        }
+        // Promote the entry to the protected segment ...
+        entry.remove();
+        probationWeight -= entry.weight;
+        entry.isProtected = true;
+        linkFirst(protectedSegment, entry);
+        protectedWeight += entry.weight;
+        // and demote the least-recently-used protected entries if the protected segment is too large ...
+        while (protectedWeight > maximumProtectedWeight && protectedSegment.prev != entry) {
+            Entry demoted = protectedSegment.prev;
+            demoted.remove();
+            protectedWeight -= demoted.weight;
+            demoted.isProtected = false;
+            linkFirst(probation, demoted);
+            probationWeight += demoted.weight;
+        }
+    }
+
+    private void evict() {
+        assert lock.isHeldByCurrentThread();
+        while (probationWeight + protectedWeight > maximumWeight) {
+            Entry victim = probation.prev != probation ? probation.prev : protectedSegment.prev;
+            if (victim == protectedSegment) break;
+            unlink(victim);
+            entries.remove(victim.key, victim);
+            evictions.incrementAndGet();
+            monitor.evicted(victim.weight);
+        }
+    }
+
+    private void linkFirst( Entry head,
+                            Entry entry ) {
+        entry.prev = head;
+        entry.next = head.next;
+        head.next.prev = entry;
+        head.next = entry;
+    }
+
+    private void unlink( Entry entry ) {
+        assert lock.isHeldByCurrentThread();
+        // Mark the entry as removed, even if it has not yet been linked by the thread that added it ...
+        entry.removed = true;
+        if (entry.prev == null) return;
+        entry.remove();
+        if (entry.isProtected) {
+            protectedWeight -= entry.weight;
+        } else {
+            probationWeight -= entry.weight;
+        }
+    }
+
+    /**
+     * A node in the cache, which is linked into the list of either the probationary or the protected segment. All fields except
+     * for the key, value and weight are guarded by the cache's lock.
+     */
+    protected static final class Entry {
+        protected final NodeKey key;
+        protected final CachedNode value;
+        protected final long weight;
+        protected Entry prev;
+        protected Entry next;
+        protected boolean isProtected;
+        protected boolean removed;
+
+        protected Entry( NodeKey key,
+                         CachedNode value,
+                         long weight ) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        protected void remove() {
+            prev.next = next;
+            next.prev = prev;
+            prev = null;
+            next = null;
+        }
+    }
+
+    protected final class EntrySet extends AbstractSet<Map.Entry<NodeKey, CachedNode>> {
+        @Override
+        public Iterator<Map.Entry<NodeKey, CachedNode>> iterator() {
+            final Iterator<Entry> iter = entries.values().iterator();
+            return new Iterator<Map.Entry<NodeKey, CachedNode>>() {
+                private Entry last;
+
+                @Override
+                public boolean hasNext() {
+                    return iter.hasNext();
+                }
+
+                @Override
+                public Map.Entry<NodeKey, CachedNode> next() {
+                    last = iter.next();
+                    return new SimpleImmutableEntry<NodeKey, CachedNode>(last.key, last.value);
+                }
+
+                @Override
+                public void remove() {
+                    if (last == null) throw new IllegalStateException();
+                    WeightedNodeCache.this.remove(last.key, last.value);
+                    last = null;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return entries.size();
+        }
+
+        @Override
+        public void clear() {
+            WeightedNodeCache.this.clear();
+        }
+    }
+}
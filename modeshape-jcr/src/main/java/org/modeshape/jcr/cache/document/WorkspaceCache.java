@@ -23,7 +23,13 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
@@ -211,28 +217,7 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
             }
             Document doc = documentFor(key);
             if (doc != null) {
-                if (LOGGER.isTraceEnabled()) {
-                    LOGGER.trace("Materialized document '{0}' in '{1}' workspace from store: {2}", key, workspaceName, doc);
-                }
-                // Create a new node and put into this cache ...
-                CachedNode newNode = new LazyCachedNode(key, doc);
-                try {
-                    Integer cacheTtlSeconds = translator().getCacheTtlSeconds(doc);
-                    if (cacheTtlSeconds != null && nodesByKey instanceof BasicCache) {
-                        node = ((BasicCache<NodeKey, CachedNode>)nodesByKey).putIfAbsent(key,
-                                                                                         newNode,
-                                                                                         cacheTtlSeconds.longValue(),
-                                                                                         TimeUnit.SECONDS);
-                    } else {
-                        node = nodesByKey.putIfAbsent(key, newNode);
-                    }
-                } catch (TimeoutException e) {
-                    node = null;
-                }
-                if (node == null) {
-                    // Either the put timed out or there was no previous entry, so just use our new CachedNode ...
-                    node = newNode;
-                }
+                node = cacheNode(key, doc);
             }
         } else {
             if (LOGGER.isTraceEnabled()) {
@@ -243,6 +228,120 @@ public class WorkspaceCache implements DocumentCache, ChangeSetListener {
         return node;
     }
 
+    /**
+     * Get the nodes with the supplied keys. All of the nodes that are not already in this cache are loaded from the document
+     * store at once, which is much faster than calling {@link #getNode(NodeKey)} for each key when the nodes have to be read
+     * from a persistent store.
+     * 
+     * @param keys the keys of the nodes; may not be null
+     * @return the nodes keyed by their keys, in the order of the supplied keys; never null but without an entry for any node
+     *         that does not exist
+     */
+    public Map<NodeKey, CachedNode> getNodes( Collection<NodeKey> keys ) {
+        checkNotClosed();
+        Map<NodeKey, CachedNode> nodes = new LinkedHashMap<NodeKey, CachedNode>();
+        List<NodeKey> missingKeys = null;
+        for (NodeKey key : keys) {
+            CachedNode node = nodesByKey.get(key);
+            if (node != null) {
+                nodes.put(key, node);
+            } else {
+                if (missingKeys == null) missingKeys = new ArrayList<NodeKey>();
+                missingKeys.add(key);
+            }
+        }
+        if (missingKeys == null) return nodes;
+
+        Map<NodeKey, CachedNode> loaded = loadNodes(missingKeys, keys.size());
+        Map<NodeKey, CachedNode> result = new LinkedHashMap<NodeKey, CachedNode>();
+        for (NodeKey key : keys) {
+            CachedNode node = nodes.get(key);
+            if (node == null) node = loaded.get(key);
+            if (node != null) result.put(key, node);
+        }
+        return result;
+    }
+
+    /**
+     * Load into this cache all of the nodes with the supplied keys that are not already in this cache, reading them from the
+     * document store at once. Unlike {@link #getNodes(Collection)}, this method does not count as a lookup of the nodes, so it
+     * should be used by components that are about to {@link #getNode(NodeKey) get} each of the nodes.
+     * 
+     * @param keys the keys of the nodes; may not be null
+     */
+    public void prefetchNodes( Collection<NodeKey> keys ) {
+        checkNotClosed();
+        List<NodeKey> missingKeys = null;
+        for (NodeKey key : keys) {
+            if (!nodesByKey.containsKey(key)) {
+                if (missingKeys == null) missingKeys = new ArrayList<NodeKey>();
+                missingKeys.add(key);
+            }
+        }
+        if (missingKeys != null) loadNodes(missingKeys, keys.size());
+    }
+
+    private Map<NodeKey, CachedNode> loadNodes( List<NodeKey> missingKeys,
+                                                int requestedCount ) {
+        // Load all of the missing nodes from the database at once ...
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("{0} of {1} nodes are not found in the '{2}' workspace cache; looking in store", missingKeys.size(),
+                         requestedCount, workspaceName);
+        }
+        List<String> keyStrings = new ArrayList<String>(missingKeys.size());
+        for (NodeKey key : missingKeys) {
+            keyStrings.add(key.toString());
+        }
+        Map<String, SchematicEntry> entries = documentStore.getAll(keyStrings);
+        Map<NodeKey, CachedNode> nodes = new HashMap<NodeKey, CachedNode>();
+        for (NodeKey key : missingKeys) {
+            SchematicEntry entry = entries.get(key.toString());
+            if (entry == null) continue;
+            Document doc = null;
+            try {
+                doc = entry.getContentAsDocument();
+            } catch (IllegalStateException e) {
+                LOGGER.debug("The document '{0}' was concurrently removed; ignoring.", key);
+                continue;
+            }
+            nodes.put(key, cacheNode(key, doc));
+        }
+        return nodes;
+    }
+
+    /**
+     * Create a node for the supplied document that was just read from the document store, and put it into this cache unless
+     * another thread has already done so.
+     * 
+     * @param key the key of the node; may not be null
+     * @param doc the node's document; may not be null
+     * @return the node that is in this cache; never null
+     */
+    private CachedNode cacheNode( NodeKey key,
+                                  Document doc ) {
+        if (LOGGER.isTraceEnabled()) {
+            LOGGER.trace("Materialized document '{0}' in '{1}' workspace from store: {2}", key, workspaceName, doc);
+        }
+        // Create a new node and put into this cache ...
+        CachedNode newNode = new LazyCachedNode(key, doc);
+        CachedNode node = null;
+        try {
+            Integer cacheTtlSeconds = translator().getCacheTtlSeconds(doc);
+            if (cacheTtlSeconds != null && nodesByKey instanceof BasicCache) {
+                node = ((BasicCache<NodeKey, CachedNode>)nodesByKey).putIfAbsent(key,
+                                                                                 newNode,
+                                                                                 cacheTtlSeconds.longValue(),
+                                                                                 TimeUnit.SECONDS);
+            } else {
+                node = nodesByKey.putIfAbsent(key, newNode);
+            }
+        } catch (TimeoutException e) {
+            node = null;
+        }
+        // Either the put timed out or there was no previous entry, so just use our new CachedNode ...
+        return node != null ? node : newNode;
+    }
+
     @Override
     public CachedNode getNode( ChildReference reference ) {
         checkNotClosed();
@@ -25,6 +25,7 @@ package org.modeshape.jcr.cache.document;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -78,6 +79,8 @@ import org.modeshape.jcr.cache.ReferentialIntegrityException;
 import org.modeshape.jcr.cache.SessionCache;
 import org.modeshape.jcr.cache.SessionEnvironment;
 import org.modeshape.jcr.cache.SessionEnvironment.Monitor;
+import org.modeshape.jcr.cache.SessionEnvironment.SaveMonitor;
+import org.modeshape.jcr.cache.SessionEnvironment.SaveMonitor.Phase;
 import org.modeshape.jcr.cache.WrappedException;
 import org.modeshape.jcr.cache.change.ChangeSet;
 import org.modeshape.jcr.cache.change.RecordingChanges;
@@ -90,6 +93,7 @@ import org.modeshape.jcr.txn.Transactions;
 import org.modeshape.jcr.txn.Transactions.Transaction;
 import org.modeshape.jcr.txn.Transactions.TransactionFunction;
 import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.BinaryValue;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NamespaceRegistry;
 import org.modeshape.jcr.value.Path;
@@ -129,6 +133,7 @@ public class WritableSessionCache extends AbstractSessionCache {
     private LinkedHashSet<NodeKey> changedNodesInOrder;
     private Map<NodeKey, ReferrerChanges> referrerChangesForRemovedNodes;
     private final Transactions txns;
+    private final SaveMonitor saveMonitor;
 
     /**
      * Create a new SessionCache that can be used for making changes to the workspace.
@@ -145,6 +150,7 @@ public class WritableSessionCache extends AbstractSessionCache {
         this.changedNodesInOrder = new LinkedHashSet<NodeKey>();
         this.referrerChangesForRemovedNodes = new HashMap<NodeKey, ReferrerChanges>();
         this.txns = sessionContext.getTransactions();
+        this.saveMonitor = sessionContext.getSaveMonitor();
     }
 
     protected final void assertInSession( SessionNode node ) {
@@ -430,13 +436,16 @@ public class WritableSessionCache extends AbstractSessionCache {
         }
 
         ChangeSet events = null;
+        BinaryUsageUpdate binaryUsage = null;
         Lock lock = this.lock.writeLock();
         Transaction txn = null;
         try {
             lock.lock();
 
             // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
+            long phaseStart = System.nanoTime();
             runPreSaveBeforeTransaction(preSaveOperation);
+            recordSavePhase(Phase.PRE_SAVE, phaseStart);
 
             final int numNodes = this.changedNodes.size();
 
@@ -448,21 +457,31 @@ public class WritableSessionCache extends AbstractSessionCache {
                     assert txn != null;
 
                     // Get a monitor via the transaction ...
-                    final Monitor monitor = txn.createMonitor();
+                    final Monitor monitor = timeIndexing(txn.createMonitor());
 
                     // Lock the nodes in Infinispan
-                    WorkspaceCache persistedCache = lockNodes(changedNodesInOrder);
+                    phaseStart = System.nanoTime();
+                    WorkspaceCache persistedCache = null;
+                    try {
+                        persistedCache = lockNodes(changedNodesInOrder);
+                    } finally {
+                        // Record the time spent waiting for the locks, even when they could not be acquired ...
+                        recordSavePhase(Phase.LOCKING, phaseStart);
+                    }
 
                     // process after locking
                     runPreSaveAfterLocking(preSaveOperation, persistedCache);
 
                     // Now persist the changes ...
                     logChangesBeingSaved(this.changedNodesInOrder, this.changedNodes, null, null);
+                    phaseStart = System.nanoTime();
                     events = persistChanges(this.changedNodesInOrder, monitor, persistedCache);
+                    recordPersistingAndIndexing(phaseStart, monitor);
 
                     // If there are any binary changes, add a function which will update the binary store
                     if (events.hasBinaryChanges()) {
-                        txn.uponCommit(binaryUsageUpdateFunction(events.usedBinaries(), events.unusedBinaries()));
+                        binaryUsage = binaryUsageUpdateFunction(events);
+                        txn.uponCommit(binaryUsage);
                     }
 
                     // Register a handler that will execute upon successful commit of the transaction (whenever that happens) ...
@@ -479,17 +498,20 @@ public class WritableSessionCache extends AbstractSessionCache {
                     LOGGER.debug("Altered {0} node(s)", numNodes);
 
                     // Commit the transaction ...
-                    txn.commit();
+                    commit(txn, binaryUsage);
 
                     clearState();
+                    if (saveMonitor != null) saveMonitor.recordSaved(numNodes);
 
                 } catch (org.infinispan.util.concurrent.TimeoutException e) {
                     if (txn != null) {
                         txn.rollback();
                     }
                     if (repeat <= 0) {
+                        if (saveMonitor != null) saveMonitor.recordLockTimeout();
                         throw new TimeoutException(e.getMessage(), e);
                     }
+                    if (saveMonitor != null) saveMonitor.recordLockRetry();
                     --repeat;
                     Thread.sleep(PAUSE_TIME_BEFORE_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT);
                     continue;
@@ -535,7 +557,9 @@ public class WritableSessionCache extends AbstractSessionCache {
             lock.unlock();
         }
 
+        long phaseStart = System.nanoTime();
         txns.updateCache(workspaceCache(), events, txn);
+        recordSavePhase(Phase.NOTIFICATION, phaseStart);
     }
 
     private void runPreSaveBeforeTransaction( PreSave preSaveOperation ) throws Exception {
@@ -602,13 +626,17 @@ public class WritableSessionCache extends AbstractSessionCache {
 
         ChangeSet events1 = null;
         ChangeSet events2 = null;
+        BinaryUsageUpdate binaryUsage1 = null;
+        BinaryUsageUpdate binaryUsage2 = null;
         Transaction txn = null;
         try {
             thisLock.lock();
             thatLock.lock();
             
             // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
+            long phaseStart = System.nanoTime();
             runPreSaveBeforeTransaction(preSaveOperation);
+            recordSavePhase(Phase.PRE_SAVE, phaseStart);
             
             final int numNodes = this.changedNodes.size() + that.changedNodes.size();
 
@@ -620,15 +648,23 @@ public class WritableSessionCache extends AbstractSessionCache {
                     assert txn != null;
 
                     // Get a monitor via the transaction ...
-                    final Monitor monitor = txn.createMonitor();
+                    final Monitor monitor = timeIndexing(txn.createMonitor());
                     try {
                         // Lock the nodes in Infinispan
                         long lockStart = System.currentTimeMillis();
 
                         removeExternalUnfiledNodeKey(this.changedNodesInOrder);
 
-                        WorkspaceCache thisPersistedCache = lockNodes(this.changedNodesInOrder);
-                        WorkspaceCache thatPersistedCache = that.lockNodes(that.changedNodesInOrder);
+                        phaseStart = System.nanoTime();
+                        WorkspaceCache thisPersistedCache = null;
+                        WorkspaceCache thatPersistedCache = null;
+                        try {
+                            thisPersistedCache = lockNodes(this.changedNodesInOrder);
+                            thatPersistedCache = that.lockNodes(that.changedNodesInOrder);
+                        } finally {
+                            // Record the time spent waiting for the locks, even when they could not be acquired ...
+                            recordSavePhase(Phase.LOCKING, phaseStart);
+                        }
                         if (LOGGER.isDebugEnabled()){
                             LOGGER.debug("WritableSessionCache::save::Lock aquiring. Key: {0}. Time: {1} ms.", uuid, System.currentTimeMillis() - lockStart);
                         }
@@ -642,22 +678,30 @@ public class WritableSessionCache extends AbstractSessionCache {
                                              that.changedNodesInOrder,
                                              that.changedNodes);
 
+                        phaseStart = System.nanoTime();
                         events1 = persistChanges(this.changedNodesInOrder, monitor, thisPersistedCache);
                         // If there are any binary changes, add a function which will update the binary store
                         if (events1.hasBinaryChanges()) {
-                            txn.uponCommit(binaryUsageUpdateFunction(events1.usedBinaries(), events1.unusedBinaries()));
+                            binaryUsage1 = binaryUsageUpdateFunction(events1);
+                            txn.uponCommit(binaryUsage1);
                         }
                         events2 = that.persistChanges(that.changedNodesInOrder, monitor, thatPersistedCache);
                         if (events2.hasBinaryChanges()) {
-                            txn.uponCommit(binaryUsageUpdateFunction(events2.usedBinaries(), events2.unusedBinaries()));
+                            binaryUsage2 = that.binaryUsageUpdateFunction(events2);
+                            txn.uponCommit(binaryUsage2);
                         }
+                        recordPersistingAndIndexing(phaseStart, monitor);
                         if (LOGGER.isDebugEnabled()) {
                             LOGGER.debug("WritableSessionCache::save::After persistChanges. Key: {0}. Time: {1} ms.", uuid, System.currentTimeMillis() - startTime);
                         }
 
                     } catch (org.infinispan.util.concurrent.TimeoutException e) {
                         txn.rollback();
-                        if (repeat <= 0) throw new TimeoutException(e.getMessage(), e);
+                        if (repeat <= 0) {
+                            if (saveMonitor != null) saveMonitor.recordLockTimeout();
+                            throw new TimeoutException(e.getMessage(), e);
+                        }
+                        if (saveMonitor != null) saveMonitor.recordLockRetry();
                         --repeat;
                         Thread.sleep(PAUSE_TIME_BEFORE_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT);
                         continue;
@@ -694,13 +738,14 @@ public class WritableSessionCache extends AbstractSessionCache {
                     LOGGER.debug("Altered {0} node(s)", numNodes);
 
                     // Commit the transaction ...
-                    txn.commit();
+                    commit(txn, binaryUsage1, binaryUsage2);
                     if (LOGGER.isDebugEnabled()) {
                         LOGGER.debug("WritableSessionCache::save::After commit. Key: {0}. Time: {1} ms.", uuid, System.currentTimeMillis() - startTime);
                     }
 
                     this.clearState();
                     that.clearState();
+                    if (saveMonitor != null) saveMonitor.recordSaved(numNodes);
 
                 } catch (NotSupportedException err) {
                     // No nested transactions are supported ...
@@ -741,8 +786,10 @@ public class WritableSessionCache extends AbstractSessionCache {
 
         // TODO: Events ... these events should be combined, but cannot each ChangeSet only has a single workspace
         // Notify the workspaces of the changes made. This is done outside of our lock but still before the save returns ...
+        long phaseStart = System.nanoTime();
         txns.updateCache(this.workspaceCache(), events1, txn);
         txns.updateCache(that.workspaceCache(), events2, txn);
+        recordSavePhase(Phase.NOTIFICATION, phaseStart);
 
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("WritableSessionCache::save::Method finished. Key: {0}. Time: {1} ms.", uuid, System.currentTimeMillis() - startTime);
@@ -816,6 +863,8 @@ public class WritableSessionCache extends AbstractSessionCache {
 
         ChangeSet events1 = null;
         ChangeSet events2 = null;
+        BinaryUsageUpdate binaryUsage1 = null;
+        BinaryUsageUpdate binaryUsage2 = null;
         Transaction txn = null;
         try {
             thisLock.lock();
@@ -825,6 +874,7 @@ public class WritableSessionCache extends AbstractSessionCache {
             final List<NodeKey> savedNodesInOrder = new LinkedList<NodeKey>();
 
             // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
+            long phaseStart = System.nanoTime();
             if (preSaveOperation != null) {
                 SaveContext saveContext = new BasicSaveContext(context());
                 for (MutableCachedNode node : this.changedNodes.values()) {
@@ -836,6 +886,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                     savedNodesInOrder.add(node.getKey());
                 }
             }
+            recordSavePhase(Phase.PRE_SAVE, phaseStart);
 
             final int numNodes = savedNodesInOrder.size() + that.changedNodesInOrder.size();
 
@@ -847,12 +898,20 @@ public class WritableSessionCache extends AbstractSessionCache {
                     assert txn != null;
 
                     // Get a monitor via the transaction ...
-                    final Monitor monitor = txn.createMonitor();
+                    final Monitor monitor = timeIndexing(txn.createMonitor());
 
                     try {
                         // Lock the nodes in Infinispan
-                        WorkspaceCache thisPersistedCache = lockNodes(savedNodesInOrder);
-                        WorkspaceCache thatPersistedCache = that.lockNodes(that.changedNodesInOrder);
+                        phaseStart = System.nanoTime();
+                        WorkspaceCache thisPersistedCache = null;
+                        WorkspaceCache thatPersistedCache = null;
+                        try {
+                            thisPersistedCache = lockNodes(savedNodesInOrder);
+                            thatPersistedCache = that.lockNodes(that.changedNodesInOrder);
+                        } finally {
+                            // Record the time spent waiting for the locks, even when they could not be acquired ...
+                            recordSavePhase(Phase.LOCKING, phaseStart);
+                        }
 
                         // process after locking
                         // Before we start the transaction, apply the pre-save operations to the new and changed nodes ...
@@ -868,18 +927,26 @@ public class WritableSessionCache extends AbstractSessionCache {
 
                         // Now persist the changes ...
                         logChangesBeingSaved(savedNodesInOrder, this.changedNodes, that.changedNodesInOrder, that.changedNodes);
+                        phaseStart = System.nanoTime();
                         events1 = persistChanges(savedNodesInOrder, monitor, thisPersistedCache);
                         // If there are any binary changes, add a function which will update the binary store
                         if (events1.hasBinaryChanges()) {
-                            txn.uponCommit(binaryUsageUpdateFunction(events1.usedBinaries(), events1.unusedBinaries()));
+                            binaryUsage1 = binaryUsageUpdateFunction(events1);
+                            txn.uponCommit(binaryUsage1);
                         }
                         events2 = that.persistChanges(that.changedNodesInOrder, monitor, thatPersistedCache);
                         if (events2.hasBinaryChanges()) {
-                            txn.uponCommit(binaryUsageUpdateFunction(events2.usedBinaries(), events2.unusedBinaries()));
+                            binaryUsage2 = that.binaryUsageUpdateFunction(events2);
+                            txn.uponCommit(binaryUsage2);
                         }
+                        recordPersistingAndIndexing(phaseStart, monitor);
                     } catch (org.infinispan.util.concurrent.TimeoutException e) {
                         txn.rollback();
-                        if (repeat <= 0) throw new TimeoutException(e.getMessage(), e);
+                        if (repeat <= 0) {
+                            if (saveMonitor != null) saveMonitor.recordLockTimeout();
+                            throw new TimeoutException(e.getMessage(), e);
+                        }
+                        if (saveMonitor != null) saveMonitor.recordLockRetry();
                         --repeat;
                         Thread.sleep(PAUSE_TIME_BEFORE_REPEAT_FOR_LOCK_ACQUISITION_TIMEOUT);
                         continue;
@@ -915,10 +982,11 @@ public class WritableSessionCache extends AbstractSessionCache {
                     LOGGER.debug("Altered {0} node(s)", numNodes);
                     
                     // Commit the transaction ...
-                    txn.commit();
+                    commit(txn, binaryUsage1, binaryUsage2);
                     
                     clearState(savedNodesInOrder);
                     that.clearState();
+                    if (saveMonitor != null) saveMonitor.recordSaved(numNodes);
 
                 } catch (NotSupportedException err) {
                     // No nested transactions are supported ...
@@ -958,8 +1026,10 @@ public class WritableSessionCache extends AbstractSessionCache {
         }
 
         // TODO: Events ... these events should be combined, but cannot each ChangeSet only has a single workspace
+        long phaseStart = System.nanoTime();
         txns.updateCache(this.workspaceCache(), events1, txn);
         txns.updateCache(that.workspaceCache(), events2, txn);
+        recordSavePhase(Phase.NOTIFICATION, phaseStart);
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("WritableSessionCache::save::Method finished. Key: {0}. Time: {1} ms.", uuid, System.currentTimeMillis() - startTime);
         }
@@ -1306,7 +1376,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                         Set<Name> mixinTypes = node.getMixinTypes(this);
                         monitor.recordAdd(workspaceName, key, newPath, primaryType, mixinTypes, node.changedProperties()
                                                                                                     .values()
-                                                                                                    .iterator());
+                                                                                                    .iterator(), this);
                     }
                 } else {
                     boolean externalNodeChanged = isExternal
@@ -1332,7 +1402,8 @@ public class WritableSessionCache extends AbstractSessionCache {
                         // should be there and shouldn't require a looking in the cache...
                         Name primaryType = node.getPrimaryType(this);
                         Set<Name> mixinTypes = node.getMixinTypes(this);
-                        monitor.recordUpdate(workspaceName, key, newNodePath, primaryType, mixinTypes, node.getProperties(this));
+                        monitor.recordUpdate(workspaceName, key, newNodePath, primaryType, mixinTypes, node.getProperties(this),
+                                             this);
 
                         if (pathChanged) {
                             // we're dealing with a path change, so in case there is a PERSISTED node at "new path" we need to
@@ -1473,7 +1544,7 @@ public class WritableSessionCache extends AbstractSessionCache {
                 continue;
             }
             indexingMonitor.recordUpdate(workspaceName, childKey, newChildPath, child.getPrimaryType(this),
-                                         child.getMixinTypes(this), child.getProperties(this));
+                                         child.getMixinTypes(this), child.getProperties(this), this);
             updateIndexesForAllChildren(child, sessionPaths, workspaceName, indexingMonitor);
         }
     }
@@ -1518,41 +1589,169 @@ public class WritableSessionCache extends AbstractSessionCache {
         return workspaceCache().persistedCache(changedNodesInOrder);
     }
 
-    private Transactions.TransactionFunction binaryUsageUpdateFunction(final Set<BinaryKey> usedBinaries,
-                                                                       final Set<BinaryKey> unusedBinaries) {
-        final BinaryStore binaryStore = getContext().getBinaryStore();
-        return new Transactions.TransactionFunction() {
-            @Override
-            public void execute() {
-                if (!usedBinaries.isEmpty()) {
+    private BinaryUsageUpdate binaryUsageUpdateFunction( ChangeSet changes ) {
+        // Find the values now, since the changes will have been cleared from this session by the time the transaction commits ...
+        return new BinaryUsageUpdate(changes.usedBinaries(), changes.unusedBinaries(), binaryValues(changes.usedBinaries()),
+                                     getContext().getBinaryStore());
+    }
+
+    /**
+     * The function that marks the binary values as used or unused when the transaction is committed. It remembers how long this
+     * took, so that this time can be excluded from the time recorded for the {@link Phase#COMMIT commit}.
+     */
+    protected final class BinaryUsageUpdate implements TransactionFunction {
+        private final Set<BinaryKey> usedBinaries;
+        private final Set<BinaryKey> unusedBinaries;
+        private final List<BinaryValue> usedBinaryValues;
+        private final BinaryStore binaryStore;
+        private volatile long durationInNanos;
+
+        protected BinaryUsageUpdate( Set<BinaryKey> usedBinaries,
+                                     Set<BinaryKey> unusedBinaries,
+                                     List<BinaryValue> usedBinaryValues,
+                                     BinaryStore binaryStore ) {
+            this.usedBinaries = usedBinaries;
+            this.unusedBinaries = unusedBinaries;
+            this.usedBinaryValues = usedBinaryValues;
+            this.binaryStore = binaryStore;
+        }
+
+        /**
+         * Get how long this function took to run.
+         * 
+         * @return the duration in nanoseconds, or 0 if this function has not run
+         */
+        protected long getDurationInNanos() {
+            return durationInNanos;
+        }
+
+        @Override
+        public void execute() {
+            long startTime = System.nanoTime();
+            if (!usedBinaries.isEmpty()) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Marking binary values as used: {0}", usedBinaries);
+                }
+                try {
+                    binaryStore.markAsUsed(usedBinaries);
                     if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Marking binary values as used: {0}", usedBinaries);
+                        LOGGER.debug("Finished marking binary values as used: {0}", usedBinaries);
                     }
-                    try {
-                        binaryStore.markAsUsed(usedBinaries);
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Finished marking binary values as used: {0}", usedBinaries);
-                        }
-                    } catch (BinaryStoreException e) {
-                        LOGGER.error(e, JcrI18n.errorMarkingBinaryValuesUsed, e.getMessage());
+                    // Start extracting the text of the newly-referenced values, before the nodes using them are indexed ...
+                    for (BinaryValue value : usedBinaryValues) {
+                        binaryStore.scheduleTextExtraction(value);
                     }
+                } catch (BinaryStoreException e) {
+                    LOGGER.error(e, JcrI18n.errorMarkingBinaryValuesUsed, e.getMessage());
                 }
+            }
 
-                if (!unusedBinaries.isEmpty()) {
+            if (!unusedBinaries.isEmpty()) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Marking binary values as unused: {0}", unusedBinaries);
+                }
+                try {
+                    binaryStore.markAsUnused(unusedBinaries);
                     if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("Marking binary values as unused: {0}", unusedBinaries);
-                    }
-                    try {
-                        binaryStore.markAsUnused(unusedBinaries);
-                        if (LOGGER.isDebugEnabled()) {
-                            LOGGER.debug("Finished marking binary values as unused: {0}", unusedBinaries);
-                        }
-                    } catch (BinaryStoreException e) {
-                        LOGGER.error(e, JcrI18n.errorMarkingBinaryValuesUnused, e.getMessage());
+                        LOGGER.debug("Finished marking binary values as unused: {0}", unusedBinaries);
                     }
+                } catch (BinaryStoreException e) {
+                    LOGGER.error(e, JcrI18n.errorMarkingBinaryValuesUnused, e.getMessage());
                 }
             }
-        };
+            durationInNanos = System.nanoTime() - startTime;
+            if (saveMonitor != null) saveMonitor.recordDuration(Phase.BINARY_USAGE, durationInNanos);
+        }
+    }
+
+    /**
+     * Find the binary values with the supplied keys in the properties changed in this session.
+     * 
+     * @param keys the keys of the binary values; may not be null
+     * @return the binary values; never null but possibly empty
+     */
+    private List<BinaryValue> binaryValues( Set<BinaryKey> keys ) {
+        if (keys.isEmpty()) return Collections.emptyList();
+        List<BinaryValue> values = new ArrayList<BinaryValue>();
+        Set<BinaryKey> found = new HashSet<BinaryKey>();
+        for (SessionNode node : changedNodes.values()) {
+            if (node == REMOVED) continue;
+            for (Property property : node.changedProperties().values()) {
+                if (!property.isBinary()) continue;
+                for (Object value : property) {
+                    if (!(value instanceof BinaryValue)) continue;
+                    BinaryValue binary = (BinaryValue)value;
+                    if (keys.contains(binary.getKey()) && found.add(binary.getKey())) values.add(binary);
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Record in the {@link SaveMonitor save monitor} the time spent in a phase of a save.
+     * 
+     * @param phase the phase of the save; may not be null
+     * @param startTime the {@link System#nanoTime() time} at which the phase started
+     */
+    protected final void recordSavePhase( Phase phase,
+                                          long startTime ) {
+        if (saveMonitor != null) saveMonitor.recordDuration(phase, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Commit the transaction, and record in the {@link SaveMonitor save monitor} the time spent doing so. The binary values are
+     * marked as used or unused during the commit, but that time is recorded separately and so is excluded.
+     * 
+     * @param txn the transaction; may not be null
+     * @param binaryUsageUpdates the functions that mark the binary values as used or unused upon commit; any may be null
+     * @throws RollbackException if the transaction was marked for rollback only and was rolled back
+     * @throws HeuristicMixedException if some parts of the transaction were committed while others were rolled back
+     * @throws HeuristicRollbackException if a heuristic decision to roll back the transaction was made
+     * @throws SystemException if the transaction service fails in an unexpected way
+     */
+    private void commit( Transaction txn,
+                         BinaryUsageUpdate... binaryUsageUpdates )
+        throws RollbackException, HeuristicMixedException, HeuristicRollbackException, SystemException {
+        long startTime = System.nanoTime();
+        txn.commit();
+        if (saveMonitor == null) return;
+        long duration = System.nanoTime() - startTime;
+        for (BinaryUsageUpdate binaryUsageUpdate : binaryUsageUpdates) {
+            if (binaryUsageUpdate != null) duration -= binaryUsageUpdate.getDurationInNanos();
+        }
+        saveMonitor.recordDuration(Phase.COMMIT, Math.max(duration, 0L));
+    }
+
+    /**
+     * Wrap the supplied monitor so that the time spent updating the indexes can be separated from the time spent persisting
+     * the changes.
+     * 
+     * @param monitor the monitor obtained from the transaction; may be null
+     * @return the monitor that should be used while persisting the changes; null only if the supplied monitor is null
+     */
+    private Monitor timeIndexing( Monitor monitor ) {
+        if (monitor == null || saveMonitor == null) return monitor;
+        return new IndexTimingMonitor(monitor);
+    }
+
+    /**
+     * Record in the {@link SaveMonitor save monitor} the time spent persisting the changes and, separately, the time spent
+     * updating the indexes while doing so.
+     * 
+     * @param startTime the {@link System#nanoTime() time} at which the changes started to be persisted
+     * @param monitor the monitor used while persisting the changes; may be null
+     */
+    private void recordPersistingAndIndexing( long startTime,
+                                              Monitor monitor ) {
+        if (saveMonitor == null) return;
+        long duration = System.nanoTime() - startTime;
+        if (monitor instanceof IndexTimingMonitor) {
+            long indexing = ((IndexTimingMonitor)monitor).getIndexingTime();
+            saveMonitor.recordDuration(Phase.INDEXING, indexing);
+            duration -= indexing;
+        }
+        saveMonitor.recordDuration(Phase.PERSISTING, duration);
     }
 
     protected SessionNode add( SessionNode newNode ) {
@@ -1698,4 +1897,69 @@ public class WritableSessionCache extends AbstractSessionCache {
         }
         return sb.toString();
     }
+
+    /**
+     * A {@link Monitor} that forwards to another monitor and measures the time spent updating the indexes. Each instance is
+     * used by a single save.
+     */
+    protected static final class IndexTimingMonitor implements Monitor {
+        private final Monitor delegate;
+        private long indexingTime;
+
+        protected IndexTimingMonitor( Monitor delegate ) {
+            this.delegate = delegate;
+        }
+
+        protected long getIndexingTime() {
+            return indexingTime;
+        }
+
+        @Override
+        public void recordAdd( String workspace,
+                               NodeKey key,
+                               Path path,
+                               Name primaryType,
+                               Set<Name> mixinTypes,
+                               Iterator<Property> propertiesIterator,
+                               NodeCache cache ) {
+            long start = System.nanoTime();
+            try {
+                delegate.recordAdd(workspace, key, path, primaryType, mixinTypes, propertiesIterator, cache);
+            } finally {
+                indexingTime += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void recordUpdate( String workspace,
+                                  NodeKey key,
+                                  Path path,
+                                  Name primaryType,
+                                  Set<Name> mixinTypes,
+                                  Iterator<Property> properties,
+                                  NodeCache cache ) {
+            long start = System.nanoTime();
+            try {
+                delegate.recordUpdate(workspace, key, path, primaryType, mixinTypes, properties, cache);
+            } finally {
+                indexingTime += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void recordRemove( String workspace,
+                                  Iterable<NodeKey> keys ) {
+            long start = System.nanoTime();
+            try {
+                delegate.recordRemove(workspace, keys);
+            } finally {
+                indexingTime += System.nanoTime() - start;
+            }
+        }
+
+        @Override
+        public void recordChanged( long changedNodesCount ) {
+            delegate.recordChanged(changedNodesCount);
+        }
+    }
 }
@@ -324,6 +324,26 @@ public class FederatedDocumentStore implements DocumentStore {
         return null;
     }
 
+    @Override
+    public Map<String, SchematicEntry> getAll( Collection<String> keys ) {
+        // Read all of the local documents at once ...
+        List<String> localKeys = new ArrayList<String>(keys.size());
+        for (String key : keys) {
+            if (isLocalSource(key)) localKeys.add(key);
+        }
+        Map<String, SchematicEntry> localEntries = Collections.emptyMap();
+        if (!localKeys.isEmpty()) localEntries = localStore().getAll(localKeys);
+        if (localKeys.size() == keys.size()) return localEntries;
+
+        // The connectors can only read one document at a time, so read the external documents one by one ...
+        Map<String, SchematicEntry> entries = new LinkedHashMap<String, SchematicEntry>();
+        for (String key : keys) {
+            SchematicEntry entry = isLocalSource(key) ? localEntries.get(key) : get(key);
+            if (entry != null) entries.put(key, entry);
+        }
+        return entries;
+    }
+
     private EditableDocument updateCachingTtl(Connector connector,
                                               EditableDocument editableDocument) {
         DocumentReader reader = new FederatedDocumentReader(translator(), editableDocument);
@@ -0,0 +1,621 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.journal;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.JcrI18n;
+import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.bus.ChangeSetCodec;
+import org.modeshape.jcr.cache.change.AbstractNodeChange;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.ChangeSetListener;
+
+/**
+ * An append-only, on-disk journal of the {@link ChangeSet}s made in a repository, which is registered as a listener on the
+ * repository's change bus and from which the change sets can later be read again (e.g., by a client that needs to catch up with
+ * the changes made while it was not running).
+ * <p>
+ * The journal is stored in a directory as a sequence of segment files, each of which is memory-mapped and contains a series of
+ * records. Each record contains the length, the checksum and the timestamp of a change set {@link ChangeSetCodec encoded} in
+ * the same form that is sent to the other members of a cluster. The timestamps of the records never decrease (a change set that
+ * is older than the previous record is recorded with the timestamp of that record), so that each segment keeps a sparse
+ * in-memory index of the timestamps of some of its records, and a {@link Cursor#skipTo(long) cursor} can find the first record
+ * at or after a given time with a binary search of the segments and of the index of a single segment, rather than reading all
+ * of the records.
+ * </p>
+ * <p>
+ * Records are written to the memory-mapped segments, and are flushed to disk when a segment is full and when the journal is
+ * {@link #shutdown() shut down}. When the journal is started, the existing segments are read to rebuild their indexes, and any
+ * incomplete or corrupt record at the end of the last segment (e.g., after a crash) is discarded. Segments whose records are
+ * all older than the {@link #removeExpiredRecords() retention period} are deleted.
+ * </p>
+ */
+@ThreadSafe
+public final class ChangeJournal implements ChangeSetListener {
+
+    /**
+     * The default size of each segment file, in bytes.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE_IN_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * The default number of bytes between two consecutive records in the sparse timestamp index of a segment.
+     */
+    public static final int DEFAULT_INDEX_INTERVAL_IN_BYTES = 64 * 1024;
+
+    protected static final Logger LOGGER = Logger.getLogger(ChangeJournal.class);
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    /**
+     * The size of the header of each record: the length of the encoded change set, its checksum, and the timestamp.
+     */
+    protected static final int HEADER_SIZE = 4 + 4 + 8;
+
+    private final File directory;
+    private final int segmentSize;
+    private final int indexInterval;
+    private final long maxAgeInMillis;
+    private final ChangeSetCodec codec;
+    private final ClassLoader classLoader;
+
+    /** The segments in order; this list is never modified but is replaced when segments are added or removed */
+    private volatile List<Segment> segments = Collections.emptyList();
+    private Segment active;
+    private long lastTimestamp;
+    private boolean running;
+
+    /**
+     * Create a journal.
+     * 
+     * @param directory the directory in which the segments are stored; may not be null
+     * @param segmentSize the size of each segment file in bytes; must be positive
+     * @param indexInterval the number of bytes between two consecutive records in the index of a segment; must be positive
+     * @param maxAgeInMillis the time after which records can be removed, or a negative number if records are never removed
+     * @param classLoader the class loader used to read any serialized objects in the change sets; may be null
+     */
+    public ChangeJournal( File directory,
+                          int segmentSize,
+                          int indexInterval,
+                          long maxAgeInMillis,
+                          ClassLoader classLoader ) {
+        CheckArg.isNotNull(directory, "directory");
+        CheckArg.isPositive(segmentSize, "segmentSize");
+        CheckArg.isPositive(indexInterval, "indexInterval");
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.indexInterval = indexInterval;
+        this.maxAgeInMillis = maxAgeInMillis;
+        this.codec = new ChangeSetCodec();
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Open the existing segments, or create the directory if needed.
+     * 
+     * @throws IOException if the existing segments could not be read
+     */
+    public synchronized void start() throws IOException {
+        if (running) return;
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException(JcrI18n.unableToCreateJournalDirectory.text(directory.getAbsolutePath()));
+        }
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept( File dir,
+                                   String name ) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        List<Segment> existing = new ArrayList<Segment>();
+        if (files != null) {
+            Arrays.sort(files);
+            for (int i = 0; i != files.length; ++i) {
+                boolean last = i == files.length - 1;
+                Segment segment = Segment.open(files[i], numberOf(files[i]), indexInterval, last);
+                existing.add(segment);
+                if (segment.lastTimestamp > lastTimestamp) lastTimestamp = segment.lastTimestamp;
+                if (last) active = segment;
+            }
+        }
+        segments = Collections.unmodifiableList(existing);
+        running = true;
+    }
+
+    /**
+     * Flush the records to disk and close the journal. Any {@link Cursor cursors} can still read the records that were written.
+     */
+    public synchronized void shutdown() {
+        if (!running) return;
+        running = false;
+        if (active != null) {
+            active.close();
+            active = null;
+        }
+    }
+
+    @Override
+    public void notify( ChangeSet changeSet ) {
+        if (changeSet == null || !hasNodeChanges(changeSet)) return;
+        byte[] data = null;
+        try {
+            data = codec.encode(changeSet);
+        } catch (IOException e) {
+            LOGGER.error(e, JcrI18n.errorWritingToJournal, directory, e.getMessage());
+            return;
+        }
+        DateTime changeTime = changeSet.getTimestamp();
+        long timestamp = changeTime != null ? changeTime.getMilliseconds() : System.currentTimeMillis();
+        try {
+            append(data, timestamp);
+        } catch (IOException e) {
+            LOGGER.error(e, JcrI18n.errorWritingToJournal, directory, e.getMessage());
+        }
+    }
+
+    private static boolean hasNodeChanges( ChangeSet changeSet ) {
+        // Only the changes to nodes produce events ...
+        for (Change change : changeSet) {
+            if (change instanceof AbstractNodeChange) return true;
+        }
+        return false;
+    }
+
+    protected synchronized void append( byte[] data,
+                                        long timestamp ) throws IOException {
+        if (!running) return;
+        // Keep the timestamps in order, so that the records can be found with a binary search ...
+        if (timestamp < lastTimestamp) timestamp = lastTimestamp;
+        int recordSize = HEADER_SIZE + data.length;
+        if (active == null || !active.hasRoomFor(recordSize)) {
+            roll(recordSize);
+        }
+        active.append(data, timestamp);
+        lastTimestamp = timestamp;
+    }
+
+    private void roll( int recordSize ) throws IOException {
+        long number = 0L;
+        if (active != null) {
+            number = active.number + 1;
+            active.close();
+        }
+        // A record that is larger than a segment is written in a segment of its own ...
+        int size = Math.max(segmentSize, recordSize + 4);
+        File file = new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+        active = Segment.create(file, number, size, indexInterval);
+        List<Segment> newSegments = new ArrayList<Segment>(segments);
+        newSegments.add(active);
+        segments = Collections.unmodifiableList(newSegments);
+    }
+
+    /**
+     * Remove the segments whose records are all older than the retention period. The segment that is being written is never
+     * removed.
+     * 
+     * @return the number of segments that were removed
+     */
+    public synchronized int removeExpiredRecords() {
+        if (maxAgeInMillis < 0L) return 0;
+        long oldest = System.currentTimeMillis() - maxAgeInMillis;
+        List<Segment> remaining = new ArrayList<Segment>(segments.size());
+        int removed = 0;
+        for (Segment segment : segments) {
+            if (segment != active && segment.lastTimestamp < oldest) {
+                // Cursors that are reading the segment can continue to use the mapped buffer ...
+                if (!segment.file.delete()) {
+                    LOGGER.warn(JcrI18n.unableToDeleteJournalSegment, segment.file.getAbsolutePath());
+                    segment.file.deleteOnExit();
+                }
+                ++removed;
+            } else {
+                remaining.add(segment);
+            }
+        }
+        if (removed != 0) segments = Collections.unmodifiableList(remaining);
+        return removed;
+    }
+
+    /**
+     * Create a cursor that reads the change sets from the oldest record in this journal.
+     * 
+     * @return the cursor; never null
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Get the number of segments in this journal.
+     * 
+     * @return the number of segments
+     */
+    public int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Get the directory in which the segments are stored.
+     * 
+     * @return the directory; never null
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    protected Segment segmentAfter( Segment segment ) {
+        List<Segment> segments = this.segments;
+        for (Segment candidate : segments) {
+            if (segment == null || candidate.number > segment.number) return candidate;
+        }
+        return null;
+    }
+
+    protected Segment segmentContaining( long timestamp ) {
+        // Find the last segment whose first record is earlier than the timestamp ...
+        List<Segment> segments = this.segments;
+        int low = 0;
+        int high = segments.size() - 1;
+        Segment result = null;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            Segment segment = segments.get(mid);
+            if (segment.firstTimestamp() < timestamp) {
+                result = segment;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    private static long numberOf( File file ) {
+        String name = file.getName();
+        return Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeJournal(" + directory + ")";
+    }
+
+    /**
+     * A cursor over the change sets in the journal, in the order in which they were recorded. A cursor sees the records that
+     * are appended after it was created.
+     */
+    @NotThreadSafe
+    public final class Cursor {
+        private Segment segment;
+        private ByteBuffer buffer;
+        private int offset;
+        private ChangeSet next;
+        private long nextTimestamp;
+        private int nextSize;
+
+        protected Cursor() {
+        }
+
+        /**
+         * Determine whether there is another change set in the journal.
+         * 
+         * @return true if there is another change set, or false otherwise
+         */
+        public boolean hasNext() {
+            while (next == null) {
+                if (segment == null) {
+                    Segment first = segmentAfter(null);
+                    if (first == null) return false;
+                    moveTo(first, 0);
+                    continue;
+                }
+                if (offset < segment.end()) {
+                    readRecord();
+                    continue;
+                }
+                Segment following = segmentAfter(segment);
+                if (following == null) return false;
+                // The segment may have been given more records just before the following segment was created ...
+                if (offset < segment.end()) continue;
+                moveTo(following, 0);
+            }
+            return true;
+        }
+
+        /**
+         * Get the next change set.
+         * 
+         * @return the next change set; never null
+         * @throws NoSuchElementException if there are no more change sets
+         */
+        public ChangeSet next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            ChangeSet result = next;
+            next = null;
+            offset += nextSize;
+            return result;
+        }
+
+        /**
+         * Get the time at which the next change set was recorded.
+         * 
+         * @return the timestamp of the next change set in milliseconds
+         * @throws NoSuchElementException if there are no more change sets
+         */
+        public long nextTimestamp() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return nextTimestamp;
+        }
+
+        /**
+         * Skip all of the change sets that were recorded before the supplied time. This cursor never moves backwards.
+         * 
+         * @param timestamp the time in milliseconds
+         */
+        public void skipTo( long timestamp ) {
+            if (next != null && nextTimestamp >= timestamp) return;
+            Segment start = segmentContaining(timestamp);
+            if (start != null) {
+                if (segment == null || start.number > segment.number) {
+                    moveTo(start, start.offsetBefore(timestamp));
+                } else if (start.number == segment.number) {
+                    int startOffset = start.offsetBefore(timestamp);
+                    if (startOffset > offset) moveTo(start, startOffset);
+                }
+            }
+            while (hasNext() && nextTimestamp < timestamp) {
+                next();
+            }
+        }
+
+        private void moveTo( Segment segment,
+                             int offset ) {
+            this.segment = segment;
+            this.buffer = segment.reader();
+            this.offset = offset;
+            this.next = null;
+        }
+
+        private void readRecord() {
+            int length = buffer.getInt(offset);
+            nextTimestamp = buffer.getLong(offset + 8);
+            nextSize = HEADER_SIZE + length;
+            byte[] data = new byte[length];
+            buffer.position(offset + HEADER_SIZE);
+            buffer.get(data);
+            try {
+                next = codec.decode(data, classLoader);
+            } catch (Exception e) {
+                // Skip the record ...
+                LOGGER.error(e, JcrI18n.errorReadingFromJournal, segment.file, offset, e.getMessage());
+                offset += nextSize;
+            }
+        }
+    }
+
+    /**
+     * A single memory-mapped segment file.
+     */
+    protected static final class Segment {
+        protected final File file;
+        protected final long number;
+        private final int indexInterval;
+        private final MappedByteBuffer buffer;
+        private FileChannel channel;
+        /** The offset after the last complete record; written only by the journal's writer after the record is written */
+        private volatile int end;
+        private volatile long firstTimestamp = Long.MAX_VALUE;
+        protected volatile long lastTimestamp = Long.MIN_VALUE;
+        private long[] indexTimestamps = new long[16];
+        private int[] indexOffsets = new int[16];
+        private int indexSize;
+        private int lastIndexedOffset;
+
+        private Segment( File file,
+                         long number,
+                         int indexInterval,
+                         FileChannel channel,
+                         MappedByteBuffer buffer ) {
+            this.file = file;
+            this.number = number;
+            this.indexInterval = indexInterval;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        protected static Segment create( File file,
+                                         long number,
+                                         int size,
+                                         int indexInterval ) throws IOException {
+            FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+            try {
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+                return new Segment(file, number, indexInterval, channel, buffer);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        protected static Segment open( File file,
+                                       long number,
+                                       int indexInterval,
+                                       boolean writable ) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+            FileChannel channel = raf.getChannel();
+            Segment segment = null;
+            try {
+                FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+                MappedByteBuffer buffer = channel.map(mode, 0, channel.size());
+                segment = new Segment(file, number, indexInterval, writable ? channel : null, buffer);
+                segment.recover(writable);
+                return segment;
+            } finally {
+                if (segment == null || !writable) channel.close();
+            }
+        }
+
+        /**
+         * Read the existing records to rebuild the index, and find the end of the last complete record.
+         * 
+         * @param writable true if this segment is to be appended to
+         */
+        private void recover( boolean writable ) {
+            int offset = 0;
+            int capacity = buffer.capacity();
+            ByteBuffer reader = buffer.duplicate();
+            CRC32 checksum = new CRC32();
+            while (offset + HEADER_SIZE <= capacity) {
+                int length = reader.getInt(offset);
+                if (length <= 0 || offset + HEADER_SIZE + length > capacity) break;
+                byte[] data = new byte[length];
+                reader.position(offset + HEADER_SIZE);
+                reader.get(data);
+                checksum.reset();
+                checksum.update(data);
+                if ((int)checksum.getValue() != reader.getInt(offset + 4)) break;
+                index(offset, reader.getLong(offset + 8));
+                offset += HEADER_SIZE + length;
+            }
+            end = offset;
+            if (offset + 4 <= capacity && reader.getInt(offset) != 0) {
+                // There is an incomplete or corrupt record ...
+                LOGGER.warn(JcrI18n.journalSegmentTruncated, file.getAbsolutePath(), offset);
+                if (writable) {
+                    // Clear the rest of the segment so that records appended later are not followed by stale data ...
+                    for (int i = offset; i != capacity; ++i) {
+                        buffer.put(i, (byte)0);
+                    }
+                }
+            }
+        }
+
+        protected boolean hasRoomFor( int recordSize ) {
+            // Always leave room for the zero length that marks the end of the records ...
+            return channel != null && end + recordSize + 4 <= buffer.capacity();
+        }
+
+        protected void append( byte[] data,
+                               long timestamp ) {
+            CRC32 checksum = new CRC32();
+            checksum.update(data);
+            int offset = end;
+            buffer.position(offset + 4);
+            buffer.putInt((int)checksum.getValue());
+            buffer.putLong(timestamp);
+            buffer.put(data);
+            // Write the length last, so that a partially-written record is never seen as complete ...
+            buffer.putInt(offset, data.length);
+            index(offset, timestamp);
+            end = offset + HEADER_SIZE + data.length;
+        }
+
+        private synchronized void index( int offset,
+                                         long timestamp ) {
+            if (indexSize == 0) {
+                firstTimestamp = timestamp;
+            } else if (offset - lastIndexedOffset < indexInterval) {
+                lastTimestamp = timestamp;
+                return;
+            }
+            if (indexSize == indexOffsets.length) {
+                indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+                indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+            }
+            indexOffsets[indexSize] = offset;
+            indexTimestamps[indexSize] = timestamp;
+            ++indexSize;
+            lastIndexedOffset = offset;
+            lastTimestamp = timestamp;
+        }
+
+        /**
+         * Find the offset of the last indexed record that is earlier than the supplied time.
+         * 
+         * @param timestamp the time in milliseconds
+         * @return the offset of the record, or 0 if there is no such record
+         */
+        protected synchronized int offsetBefore( long timestamp ) {
+            int low = 0;
+            int high = indexSize - 1;
+            int result = 0;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (indexTimestamps[mid] < timestamp) {
+                    result = indexOffsets[mid];
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        protected long firstTimestamp() {
+            return firstTimestamp;
+        }
+
+        protected int end() {
+            return end;
+        }
+
+        protected ByteBuffer reader() {
+            return buffer.duplicate();
+        }
+
+        protected void close() {
+            if (channel == null) return;
+            buffer.force();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                LOGGER.debug(e, "Error while closing the journal segment {0}", file);
+            }
+            channel = null;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName() + "(" + end + "/" + buffer.capacity() + ")";
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.journal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.jcr.JcrI18n;
+
+/**
+ * A small on-disk journal of the work items that have been accepted but not yet completed, so that the work that was pending
+ * when a process stopped (or crashed) can be resumed when the process is started again.
+ * <p>
+ * The journal is a single append-only file of records. A record is written (and forced to disk) for each {@link #add(List)
+ * added} work item and contains the serialized item, and another record is written for each {@link #complete(long) completed}
+ * item. Each record contains the length of its payload, a checksum, the type of the record and the identifier of the item. When
+ * the journal is {@link #start() started}, the file is read to find the items that were added but not completed, any
+ * incomplete or corrupt record at the end of the file (e.g., after a crash) is discarded, and the file is rewritten with only
+ * the pending items. The file is also rewritten with only the pending items whenever it has grown larger than the compaction
+ * threshold and most of it is made of the records of completed items.
+ * </p>
+ * <p>
+ * The records of completed items are not forced to disk, so after a crash an item may be returned by {@link #start()} even
+ * though it was completed. The work must therefore be safe to do more than once.
+ * </p>
+ * 
+ * @param <T> the type of work item
+ */
+@ThreadSafe
+public final class WorkJournal<T extends Serializable> {
+
+    /**
+     * The default size of the file, in bytes, above which the file is rewritten with only the pending items.
+     */
+    public static final long DEFAULT_COMPACTION_THRESHOLD_IN_BYTES = 1024 * 1024;
+
+    protected static final Logger LOGGER = Logger.getLogger(WorkJournal.class);
+
+    /**
+     * The size of the header of each record: the length of the payload, its checksum, the type, and the identifier of the item.
+     */
+    protected static final int HEADER_SIZE = 4 + 4 + 1 + 8;
+
+    private static final byte ADDED = 1;
+    private static final byte COMPLETED = 2;
+
+    private final File file;
+    private final Class<T> itemType;
+    private final long compactionThreshold;
+    private final ClassLoader classLoader;
+    /** The serialized pending items keyed by their identifiers */
+    private final SortedMap<Long, byte[]> pending = new TreeMap<Long, byte[]>();
+    /** The size of the records of the pending items */
+    private long pendingSize;
+    private RandomAccessFile output;
+    private FileChannel channel;
+    private long nextId = 1L;
+    private boolean running;
+
+    /**
+     * Create a journal.
+     * 
+     * @param file the file in which the journal is stored; may not be null
+     * @param itemType the type of work item; may not be null
+     * @param compactionThreshold the size in bytes above which the file is rewritten with only the pending items
+     * @param classLoader the class loader used to read the work items; may be null
+     */
+    public WorkJournal( File file,
+                        Class<T> itemType,
+                        long compactionThreshold,
+                        ClassLoader classLoader ) {
+        CheckArg.isNotNull(file, "file");
+        CheckArg.isNotNull(itemType, "itemType");
+        this.file = file;
+        this.itemType = itemType;
+        this.compactionThreshold = compactionThreshold;
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * Open the journal, creating the file if needed, and find the items that were added but not completed.
+     * 
+     * @return the pending items keyed by their identifiers, in the order in which they were added; never null but possibly empty
+     * @throws IOException if the file could not be read or written
+     */
+    public synchronized SortedMap<Long, T> start() throws IOException {
+        SortedMap<Long, T> items = new TreeMap<Long, T>();
+        if (running) return items;
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (directory != null && !directory.exists() && !directory.mkdirs()) {
+            throw new IOException(JcrI18n.unableToCreateWorkJournalDirectory.text(directory.getAbsolutePath()));
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        if (!file.exists() && temp.exists()) {
+            // The process stopped after the file was deleted but before it was replaced with the (complete) rewritten file ...
+            replace(temp);
+        }
+        if (file.exists()) recover(items);
+
+        for (Map.Entry<Long, T> entry : items.entrySet()) {
+            byte[] payload = serialize(entry.getValue());
+            pending.put(entry.getKey(), payload);
+            pendingSize += HEADER_SIZE + payload.length;
+        }
+        // Rewrite the file with only the pending items ...
+        try {
+            rewrite();
+        } catch (IOException e) {
+            pending.clear();
+            pendingSize = 0L;
+            throw e;
+        }
+        running = true;
+        return items;
+    }
+
+    /**
+     * Replace the file with one that contains only the pending items, and open it for appending.
+     * 
+     * @throws IOException if the file could not be rewritten
+     */
+    private void rewrite() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile rewritten = new RandomAccessFile(temp, "rw");
+        try {
+            rewritten.setLength(0L);
+            for (Map.Entry<Long, byte[]> entry : pending.entrySet()) {
+                write(rewritten.getChannel(), ADDED, entry.getKey(), entry.getValue());
+            }
+            rewritten.getChannel().force(true);
+        } finally {
+            rewritten.close();
+        }
+        replace(temp);
+        output = new RandomAccessFile(file, "rw");
+        channel = output.getChannel();
+        channel.position(channel.size());
+    }
+
+    /**
+     * Replace the file with the supplied file, which must be complete and forced to disk.
+     * 
+     * @param temp the file that replaces the journal's file; may not be null
+     * @throws IOException if the file could not be replaced
+     */
+    private void replace( File temp ) throws IOException {
+        // Renaming over the existing file replaces it atomically on most platforms ...
+        if (temp.renameTo(file)) return;
+        // but not on all of them, so the file must first be deleted. If the process stops before the rename, the next start will
+        // find only the rewritten file and use it ...
+        if (file.exists() && !file.delete()) {
+            throw new IOException(JcrI18n.unableToReplaceWorkJournal.text(file.getAbsolutePath()));
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException(JcrI18n.unableToReplaceWorkJournal.text(file.getAbsolutePath()));
+        }
+    }
+
+    private void recover( SortedMap<Long, T> items ) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        long offset = 0L;
+        try {
+            while (true) {
+                int length = 0;
+                try {
+                    length = input.readInt();
+                } catch (EOFException e) {
+                    // The end of the file ...
+                    return;
+                }
+                if (length < 0 || offset + HEADER_SIZE + length > file.length()) break;
+                int checksum = input.readInt();
+                byte type = input.readByte();
+                long id = input.readLong();
+                byte[] payload = new byte[length];
+                input.readFully(payload);
+                if (checksum != checksum(type, id, payload)) break;
+                offset += HEADER_SIZE + length;
+                if (id >= nextId) nextId = id + 1;
+                if (type == ADDED) {
+                    try {
+                        items.put(id, deserialize(payload));
+                    } catch (Exception e) {
+                        LOGGER.error(e, JcrI18n.errorReadingWorkJournalItem, file.getAbsolutePath(), id, e.getMessage());
+                    }
+                } else if (type == COMPLETED) {
+                    items.remove(id);
+                }
+            }
+            LOGGER.warn(JcrI18n.workJournalTruncated, file.getAbsolutePath(), offset);
+        } catch (EOFException e) {
+            LOGGER.warn(JcrI18n.workJournalTruncated, file.getAbsolutePath(), offset);
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Record the supplied items, and force the records to disk before returning.
+     * 
+     * @param items the items; may not be null
+     * @return the identifiers of the items, in the same order as the items; never null
+     * @throws IOException if the items could not be recorded
+     */
+    public synchronized List<Long> add( List<T> items ) throws IOException {
+        checkRunning();
+        List<Long> ids = new ArrayList<Long>(items.size());
+        if (items.isEmpty()) return ids;
+        List<byte[]> payloads = new ArrayList<byte[]>(items.size());
+        for (T item : items) {
+            long id = nextId++;
+            byte[] payload = serialize(item);
+            write(channel, ADDED, id, payload);
+            ids.add(id);
+            payloads.add(payload);
+        }
+        channel.force(false);
+        for (int i = 0; i != ids.size(); ++i) {
+            byte[] payload = payloads.get(i);
+            pending.put(ids.get(i), payload);
+            pendingSize += HEADER_SIZE + payload.length;
+        }
+        return ids;
+    }
+
+    /**
+     * Record that the item with the supplied identifier has been completed, so that it is not returned by {@link #start()}. This
+     * method does nothing if the journal is not running.
+     * 
+     * @param id the identifier of the item
+     * @throws IOException if the completion could not be recorded
+     */
+    public synchronized void complete( long id ) throws IOException {
+        // Work that completes while the journal is shut down will simply be done again ...
+        if (!running) return;
+        byte[] payload = pending.remove(id);
+        if (payload == null) return;
+        pendingSize -= HEADER_SIZE + payload.length;
+        write(channel, COMPLETED, id, new byte[0]);
+        long size = channel.size();
+        if (size > compactionThreshold && size > 2 * pendingSize) {
+            // Most of the file is made of completed items, so rewrite it with only the pending items ...
+            output.close();
+            try {
+                rewrite();
+            } catch (IOException e) {
+                // Continue appending to the file, whether or not it was replaced ...
+                output = new RandomAccessFile(file, "rw");
+                channel = output.getChannel();
+                channel.position(channel.size());
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Get the number of items that were added but not yet completed.
+     * 
+     * @return the number of pending items
+     */
+    public synchronized int pendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Get the file in which this journal is stored.
+     * 
+     * @return the file; never null
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Flush the records to disk and close the journal. The pending items will be returned when the journal is started again.
+     */
+    public synchronized void shutdown() {
+        if (!running) return;
+        running = false;
+        try {
+            channel.force(true);
+            output.close();
+        } catch (IOException e) {
+            LOGGER.error(e, JcrI18n.errorWritingToWorkJournal, file.getAbsolutePath(), e.getMessage());
+        } finally {
+            output = null;
+            channel = null;
+            pending.clear();
+            pendingSize = 0L;
+        }
+    }
+
+    private void checkRunning() throws IOException {
+        if (!running) throw new IOException(JcrI18n.workJournalIsNotRunning.text(file.getAbsolutePath()));
+    }
+
+    private static void write( FileChannel channel,
+                               byte type,
+                               long id,
+                               byte[] payload ) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length);
+        buffer.putInt(checksum(type, id, payload));
+        buffer.put(type);
+        buffer.putLong(id);
+        buffer.put(payload);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static int checksum( byte type,
+                                 long id,
+                                 byte[] payload ) {
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            crc.update((int)(id >>> shift));
+        }
+        crc.update(payload, 0, payload.length);
+        return (int)crc.getValue();
+    }
+
+    private byte[] serialize( T item ) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(bytes);
+        try {
+            stream.writeObject(item);
+        } finally {
+            stream.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private T deserialize( byte[] payload ) throws IOException, ClassNotFoundException {
+        ObjectInputStream stream = new ObjectInputStreamWithClassLoader(new ByteArrayInputStream(payload), classLoader);
+        try {
+            return itemType.cast(stream.readObject());
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "WorkJournal " + file.getAbsolutePath();
+    }
+
+    /**
+     * An {@link ObjectInputStream} that resolves classes with the supplied class loader.
+     */
+    protected static final class ObjectInputStreamWithClassLoader extends ObjectInputStream {
+        private final ClassLoader cl;
+
+        public ObjectInputStreamWithClassLoader( InputStream in,
+                                                 ClassLoader cl ) throws IOException {
+            super(in);
+            this.cl = cl;
+        }
+
+        @Override
+        protected Class<?> resolveClass( ObjectStreamClass desc ) throws IOException, ClassNotFoundException {
+            if (cl == null) {
+                return super.resolveClass(desc);
+            }
+            try {
+                return Class.forName(desc.getName(), false, cl);
+            } catch (ClassNotFoundException ex) {
+                return super.resolveClass(desc);
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import java.util.Set;
 import org.hibernate.search.backend.TransactionContext;
 import org.modeshape.jcr.NodeTypeSchemata;
 import org.modeshape.jcr.api.Binary;
+import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.Path;
@@ -47,6 +48,8 @@ public interface QueryIndexing {
      * @param primaryType the primary type of the node; may not be null
      * @param mixinTypes the mixin types for the node; may not be null but may be empty
      * @param propertiesIterator the iterator over the properties of a node; may not be null but may be empty
+     * @param cache the cache from which the node and its ancestors can be read, and that is used to determine who can read the
+     *        node; may not be null
      * @param schemata the node type schemata that should be used to determine how the node is to be indexed; may not be null
      * @param txnCtx the transaction context in which the index updates should be made; may not be null
      */
@@ -56,6 +59,7 @@ public interface QueryIndexing {
                      Name primaryType,
                      Set<Name> mixinTypes,
                      Iterator<Property> propertiesIterator,
+                     NodeCache cache,
                      NodeTypeSchemata schemata,
                      TransactionContext txnCtx );
 
@@ -68,6 +72,8 @@ public interface QueryIndexing {
      * @param primaryType the primary type of the node; may not be null
      * @param mixinTypes the mixin types for the node; may not be null but may be empty
      * @param properties the properties of the node; may not be null but may be empty
+     * @param cache the cache from which the node and its ancestors can be read, and that is used to determine who can read the
+     *        node; may not be null
      * @param schemata the node type schemata that should be used to determine how the node is to be indexed; may not be null
      * @param txnCtx the transaction context in which the index updates should be made; may not be null
      */
@@ -77,6 +83,7 @@ public interface QueryIndexing {
                       Name primaryType,
                       Set<Name> mixinTypes,
                       Iterator<Property> properties,
+                      NodeCache cache,
                       NodeTypeSchemata schemata,
                       TransactionContext txnCtx );
 
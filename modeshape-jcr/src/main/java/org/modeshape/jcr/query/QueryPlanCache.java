@@ -0,0 +1,309 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.ThreadSafe;
+import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.HashCode;
+import org.modeshape.jcr.NodeTypeSchemata;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.validate.Schemata;
+
+/**
+ * A bounded cache of the {@link QueryCommand}s parsed from query statements and of the optimized {@link PlanNode plans} of query
+ * commands, so that queries that are issued over and over are parsed, planned and optimized only once. The least-recently used
+ * entries are discarded once the cache is full.
+ * <p>
+ * The values of the bind variables are not part of the cached information, so a cached plan is reused for all values of the
+ * query's variables. Plans that were optimized using the values of variables (see {@link PlanHints#dependsOnVariableValues}) are
+ * never cached, and neither are plans whose planning or optimization reported problems. Only parsed queries and plans that use the
+ * repository's {@link NodeTypeSchemata} (rather than a session-specific schemata) are cached; the schemata is part of each key,
+ * and the whole cache should be {@link #invalidate() invalidated} whenever the node types (and thus the schemata) change.
+ * </p>
+ * <p>
+ * The cached plans are shared by all queries that use them, so they must not be modified once they are cached.
+ * </p>
+ */
+@ThreadSafe
+public class QueryPlanCache {
+
+    /**
+     * The default maximum number of parsed queries and optimized plans that are cached.
+     */
+    public static final int DEFAULT_MAXIMUM_SIZE = 1000;
+
+    private final Map<Object, Object> entries;
+
+    /**
+     * Create a cache that holds at most {@link #DEFAULT_MAXIMUM_SIZE} parsed queries and optimized plans.
+     */
+    public QueryPlanCache() {
+        this(DEFAULT_MAXIMUM_SIZE);
+    }
+
+    /**
+     * Create a cache that holds at most the supplied number of parsed queries and optimized plans.
+     * 
+     * @param maximumSize the maximum number of entries; must be positive
+     */
+    public QueryPlanCache( final int maximumSize ) {
+        CheckArg.isPositive(maximumSize, "maximumSize");
+        this.entries = new LinkedHashMap<Object, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<Object, Object> eldest ) {
+                return size() > maximumSize;
+            }
+        };
+    }
+
+    /**
+     * Find the query command that was previously parsed from the supplied statement.
+     * 
+     * @param language the query language of the statement; may not be null
+     * @param statement the query statement; may not be null
+     * @param schemata the schemata used by the session that is creating the query; may not be null
+     * @return the cached query command, or null if there is no such command or if queries using the schemata are not cached
+     */
+    public QueryCommand getCommand( String language,
+                                    String statement,
+                                    Schemata schemata ) {
+        if (!isCacheable(schemata)) return null;
+        QueryCommand command = (QueryCommand)lookup(new StatementKey(language, statement, schemata));
+        if (command != null) {
+            hit();
+        } else {
+            missed();
+        }
+        return command;
+    }
+
+    /**
+     * Cache the query command that was parsed from the supplied statement.
+     * 
+     * @param language the query language of the statement; may not be null
+     * @param statement the query statement; may not be null
+     * @param schemata the schemata used by the session that is creating the query; may not be null
+     * @param command the query command that was parsed from the statement; may not be null
+     */
+    public void putCommand( String language,
+                            String statement,
+                            Schemata schemata,
+                            QueryCommand command ) {
+        if (!isCacheable(schemata)) return;
+        store(new StatementKey(language, statement, schemata), command);
+    }
+
+    /**
+     * Find the optimized plan that was previously created for the supplied query with the hints of the supplied context. If
+     * there is such a plan, the hints and variables of the supplied context are updated as if the query were planned and
+     * optimized again.
+     * 
+     * @param context the context in which the query is to be executed; may not be null
+     * @param query the query; may not be null
+     * @return the cached optimized plan, which must not be modified; or null if there is no such plan or if plans using the
+     *         context's schemata are not cached
+     */
+    public PlanNode getPlan( QueryContext context,
+                             QueryCommand query ) {
+        if (!isCacheable(context.getSchemata())) return null;
+        CachedPlan cached = (CachedPlan)lookup(new PlanKey(query, context.getHints(), context.getSchemata()));
+        if (cached == null) {
+            missed();
+            return null;
+        }
+        hit();
+        context.getHints().copyFrom(cached.hints);
+        Map<String, Object> variables = context.getVariables();
+        for (String variableName : cached.addedVariableNames) {
+            if (!variables.containsKey(variableName)) variables.put(variableName, null);
+        }
+        return cached.plan;
+    }
+
+    /**
+     * Cache the optimized plan for the supplied query, unless the planning or optimization reported problems or used the values
+     * of the query's variables.
+     * 
+     * @param context the context in which the query was planned and optimized; may not be null
+     * @param query the query; may not be null
+     * @param originalHints a copy of the context's hints before the query was planned; may not be null
+     * @param originalVariableNames the names of the context's variables before the query was planned; may not be null
+     * @param optimizedPlan the optimized plan, which must not be modified after it is cached; may not be null
+     */
+    public void putPlan( QueryContext context,
+                         QueryCommand query,
+                         PlanHints originalHints,
+                         Set<String> originalVariableNames,
+                         PlanNode optimizedPlan ) {
+        if (!isCacheable(context.getSchemata())) return;
+        if (context.getProblems().hasProblems() || context.getHints().dependsOnVariableValues) return;
+        // The planner and optimizer may have added variables (e.g., for subqueries) ...
+        Set<String> addedVariableNames = new HashSet<String>(context.getVariables().keySet());
+        addedVariableNames.removeAll(originalVariableNames);
+        CachedPlan cached = new CachedPlan(optimizedPlan, context.getHints().clone(), addedVariableNames);
+        store(new PlanKey(query, originalHints, context.getSchemata()), cached);
+    }
+
+    /**
+     * Remove all of the parsed queries and optimized plans from this cache. This should be called whenever the node types change.
+     */
+    public void invalidate() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Get the number of parsed queries and optimized plans in this cache.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Called whenever a parsed query or optimized plan was found in this cache. This method does nothing by default.
+     */
+    protected void hit() {
+        // do nothing by default
+    }
+
+    /**
+     * Called whenever a cacheable parsed query or optimized plan was not found in this cache. This method does nothing by
+     * default.
+     */
+    protected void missed() {
+        // do nothing by default
+    }
+
+    protected boolean isCacheable( Schemata schemata ) {
+        // Session-specific schemata have their own namespace mappings, so only the repository's schemata can be shared ...
+        return schemata instanceof NodeTypeSchemata;
+    }
+
+    private Object lookup( Object key ) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private void store( Object key,
+                        Object value ) {
+        synchronized (entries) {
+            entries.put(key, value);
+        }
+    }
+
+    @Immutable
+    protected static final class StatementKey {
+        private final String language;
+        private final String statement;
+        private final Schemata schemata;
+        private final int hc;
+
+        protected StatementKey( String language,
+                                String statement,
+                                Schemata schemata ) {
+            this.language = language;
+            this.statement = statement;
+            this.schemata = schemata;
+            this.hc = HashCode.compute(language, statement, System.identityHashCode(schemata));
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof StatementKey) {
+                StatementKey that = (StatementKey)obj;
+                return this.schemata == that.schemata && this.language.equals(that.language)
+                       && this.statement.equals(that.statement);
+            }
+            return false;
+        }
+    }
+
+    @Immutable
+    protected static final class PlanKey {
+        private final QueryCommand query;
+        private final PlanHints hints;
+        private final Schemata schemata;
+        private final int hc;
+
+        protected PlanKey( QueryCommand query,
+                           PlanHints hints,
+                           Schemata schemata ) {
+            this.query = query;
+            this.hints = hints;
+            this.schemata = schemata;
+            this.hc = HashCode.compute(query, hints, System.identityHashCode(schemata));
+        }
+
+        @Override
+        public int hashCode() {
+            return hc;
+        }
+
+        @Override
+        public boolean equals( Object obj ) {
+            if (obj == this) return true;
+            if (obj instanceof PlanKey) {
+                PlanKey that = (PlanKey)obj;
+                return this.schemata == that.schemata && this.query.equals(that.query) && this.hints.equals(that.hints);
+            }
+            return false;
+        }
+    }
+
+    @Immutable
+    protected static final class CachedPlan {
+        protected final PlanNode plan;
+        protected final PlanHints hints;
+        protected final Set<String> addedVariableNames;
+
+        protected CachedPlan( PlanNode plan,
+                              PlanHints hints,
+                              Set<String> addedVariableNames ) {
+            this.plan = plan;
+            this.hints = hints;
+            this.addedVariableNames = addedVariableNames;
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.hibernate.search.SearchFactory;
+import org.modeshape.common.logging.Logger;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.optimize.CardinalityEstimator;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * A {@link CardinalityEstimator} that estimates the number of tuples returned by each ACCESS node from the statistics of the
+ * Lucene indexes. The constraints of each ACCESS node are converted into the same Lucene query that will be used to execute the
+ * access query, and the number of matching documents is then estimated (without executing the query) from the
+ * {@link IndexReader#docFreq(org.apache.lucene.index.Term) document frequencies} of the terms used in that query:
+ * <ul>
+ * <li>a {@link TermQuery} matches as many documents as the term's document frequency;</li>
+ * <li>a {@link BooleanQuery} with required clauses matches no more documents than its most selective required clause, while a
+ * {@link BooleanQuery} with only optional clauses matches no more documents than all of its clauses together; and</li>
+ * <li>any other query (e.g., ranges, wildcards or path queries) may match all of the documents in the index.</li>
+ * </ul>
+ * Since the node type of a selector is represented as a constraint on the 'jcr:primaryType' and 'jcr:mixinTypes' fields, the
+ * estimates include the number of nodes of each type. Constraints that cannot be pushed down to Lucene are ignored, so the
+ * estimates are upper bounds.
+ */
+public class LuceneCardinalityEstimator implements CardinalityEstimator {
+
+    private static final Logger LOGGER = Logger.getLogger(LuceneCardinalityEstimator.class);
+
+    private final String repositoryName;
+    private final SearchFactory searchFactory;
+    private final LuceneSchema schema;
+
+    public LuceneCardinalityEstimator( String repositoryName,
+                                       SearchFactory searchFactory,
+                                       LuceneSchema schema ) {
+        assert repositoryName != null;
+        assert searchFactory != null;
+        assert schema != null;
+        this.repositoryName = repositoryName;
+        this.searchFactory = searchFactory;
+        this.schema = schema;
+    }
+
+    @Override
+    public void estimateCardinalities( QueryContext context,
+                                       List<PlanNode> accessNodes ) {
+        if (accessNodes.isEmpty()) return;
+        LuceneProcessingContext processingContext = new LuceneProcessingContext(context, repositoryName, searchFactory, schema);
+        try {
+            for (PlanNode accessNode : accessNodes) {
+                try {
+                    long estimate = estimateCardinality(accessNode, processingContext);
+                    if (estimate >= 0L) {
+                        accessNode.setProperty(Property.ESTIMATED_CARDINALITY, estimate);
+                    }
+                } catch (RuntimeException e) {
+                    // The estimates are only hints, so don't fail the query ...
+                    LOGGER.debug(e, "Unable to estimate the cardinality of the access query in repository '{0}': {1}",
+                                 repositoryName, accessNode);
+                }
+            }
+        } finally {
+            processingContext.close();
+        }
+    }
+
+    /**
+     * Estimate the number of tuples that the supplied ACCESS node will return.
+     * 
+     * @param accessNode the ACCESS node; never null
+     * @param processingContext the processing context; never null
+     * @return the estimated cardinality, or -1 if no estimate can be made
+     */
+    protected long estimateCardinality( PlanNode accessNode,
+                                        LuceneProcessingContext processingContext ) {
+        if (accessNode.hasProperty(Property.ACCESS_NO_RESULTS)) return 0L;
+        PlanNode source = accessNode.findAtOrBelow(Type.SOURCE);
+        if (source == null) return -1L;
+        SelectorName sourceName = source.getProperty(Property.SOURCE_NAME, SelectorName.class);
+        if (sourceName == null) return -1L;
+
+        // Find the criteria, just like the access query will ...
+        List<Constraint> andedConstraints = new ArrayList<Constraint>();
+        for (PlanNode select : accessNode.findAllAtOrBelow(Type.SELECT)) {
+            Constraint constraint = select.getProperty(Property.SELECT_CRITERIA, Constraint.class);
+            if (constraint != null) andedConstraints.add(constraint);
+        }
+        LuceneQuery queries = schema.createQuery(sourceName, andedConstraints, processingContext);
+        if (queries.matchesNone()) return 0L;
+
+        IndexReader reader = processingContext.getReader(queries.getPushDownIndexName());
+        Query pushDownQuery = queries.getPushDownQuery();
+        long estimate = 0L;
+        try {
+            estimate = pushDownQuery != null ? estimate(pushDownQuery, reader) : reader.numDocs();
+        } catch (IOException e) {
+            throw new LuceneException(e);
+        }
+
+        // Apply any limit ...
+        PlanNode limit = accessNode.findAtOrBelow(Type.LIMIT);
+        if (limit != null) {
+            Integer count = limit.getProperty(Property.LIMIT_COUNT, Integer.class);
+            if (count != null) estimate = Math.min(estimate, count.longValue());
+        }
+        return estimate;
+    }
+
+    /**
+     * Estimate the number of documents that match the supplied query.
+     * 
+     * @param query the query; never null
+     * @param reader the reader for the index; never null
+     * @return the estimated number of matching documents, which is never more than the number of documents in the index
+     * @throws IOException if there is a problem reading the index
+     */
+    protected long estimate( Query query,
+                             IndexReader reader ) throws IOException {
+        long numDocs = reader.numDocs();
+        if (query instanceof MatchNoneQuery) return 0L;
+        if (query instanceof MatchAllDocsQuery) return numDocs;
+        if (query instanceof TermQuery) {
+            return Math.min(numDocs, reader.docFreq(((TermQuery)query).getTerm()));
+        }
+        if (query instanceof BooleanQuery) {
+            long required = numDocs;
+            long optional = 0L;
+            boolean hasRequired = false;
+            boolean hasOptional = false;
+            for (BooleanClause clause : ((BooleanQuery)query).getClauses()) {
+                switch (clause.getOccur()) {
+                    case MUST:
+                        hasRequired = true;
+                        required = Math.min(required, estimate(clause.getQuery(), reader));
+                        break;
+                    case SHOULD:
+                        hasOptional = true;
+                        optional = Math.min(numDocs, optional + estimate(clause.getQuery(), reader));
+                        break;
+                    case MUST_NOT:
+                        break;
+                }
+            }
+            if (hasRequired) return required;
+            if (hasOptional) return optional;
+        }
+        return numDocs;
+    }
+}
@@ -24,7 +24,9 @@
 package org.modeshape.jcr.query.lucene;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,10 +34,17 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import javax.jcr.RepositoryException;
 import javax.jcr.query.InvalidQueryException;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.search.FilteredQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.ReaderUtil;
 import org.apache.lucene.util.Version;
 import org.hibernate.search.SearchFactory;
 import org.hibernate.search.engine.spi.SearchFactoryImplementor;
@@ -48,6 +57,7 @@ import org.modeshape.jcr.cache.RepositoryCache;
 import org.modeshape.jcr.query.CancellableQuery;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryIndexing;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.QueryResults.Columns;
 import org.modeshape.jcr.query.lucene.basic.BasicLuceneSchema;
@@ -56,10 +66,13 @@ import org.modeshape.jcr.query.model.Constraint;
 import org.modeshape.jcr.query.model.FullTextSearchScore;
 import org.modeshape.jcr.query.model.QueryCommand;
 import org.modeshape.jcr.query.optimize.Optimizer;
+import org.modeshape.jcr.query.optimize.RuleBasedOptimizer;
 import org.modeshape.jcr.query.plan.PlanHints;
 import org.modeshape.jcr.query.plan.PlanNode;
 import org.modeshape.jcr.query.plan.Planner;
 import org.modeshape.jcr.query.process.AbstractAccessComponent;
+import org.modeshape.jcr.query.process.LazyTupleIterator;
+import org.modeshape.jcr.query.process.LimitComponent;
 import org.modeshape.jcr.query.process.ProcessingComponent;
 import org.modeshape.jcr.query.process.QueryEngine;
 import org.modeshape.jcr.query.process.QueryProcessor;
@@ -84,7 +97,9 @@ public class LuceneQueryEngine extends QueryEngine {
      * @param context the execution context for the repository
      * @param repositoryName the name of the repository
      * @param planner the planner that should be used
-     * @param optimizer the optimizer that should be used
+     * @param optimizer the optimizer that should be used, or null if a {@link RuleBasedOptimizer} that uses the
+     *        {@link LuceneCardinalityEstimator statistics of the indexes} should be used
+     * @param planCache the cache of optimized plans, or null if the plans should not be cached
      * @param searchFactory the search factory for accessing the indexes
      * @param version the Lucene version used by the indexes
      * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
@@ -93,13 +108,55 @@ public class LuceneQueryEngine extends QueryEngine {
                               String repositoryName,
                               Planner planner,
                               Optimizer optimizer,
+                              QueryPlanCache planCache,
                               SearchFactoryImplementor searchFactory,
                               Version version,
                               boolean enableFullTextSearch ) {
-        super(planner, optimizer, new LuceneQueryProcessor(repositoryName, searchFactory));
+        this(context, repositoryName, planner, optimizer, planCache, searchFactory, version, enableFullTextSearch, null);
+    }
+
+    /**
+     * @param context the execution context for the repository
+     * @param repositoryName the name of the repository
+     * @param planner the planner that should be used
+     * @param optimizer the optimizer that should be used, or null if a {@link RuleBasedOptimizer} that uses the
+     *        {@link LuceneCardinalityEstimator statistics of the indexes} should be used
+     * @param planCache the cache of optimized plans, or null if the plans should not be cached
+     * @param searchFactory the search factory for accessing the indexes
+     * @param version the Lucene version used by the indexes
+     * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
+     * @param readPermissions the component that determines which principals can read each node, or null if queries should not
+     *        exclude the nodes that cannot be read before the results are materialized
+     */
+    public LuceneQueryEngine( ExecutionContext context,
+                              String repositoryName,
+                              Planner planner,
+                              Optimizer optimizer,
+                              QueryPlanCache planCache,
+                              SearchFactoryImplementor searchFactory,
+                              Version version,
+                              boolean enableFullTextSearch,
+                              ReadPermissions readPermissions ) {
+        this(context, repositoryName, planner, optimizer, planCache, searchFactory, new BasicLuceneSchema(context, searchFactory,
+                                                                                                          version,
+                                                                                                          enableFullTextSearch,
+                                                                                                          readPermissions));
+    }
+
+    private LuceneQueryEngine( ExecutionContext context,
+                               String repositoryName,
+                               Planner planner,
+                               Optimizer optimizer,
+                               QueryPlanCache planCache,
+                               SearchFactoryImplementor searchFactory,
+                               BasicLuceneSchema schema ) {
+        super(planner, optimizer != null ? optimizer : new RuleBasedOptimizer(new LuceneCardinalityEstimator(repositoryName,
+                                                                                                             searchFactory,
+                                                                                                             schema)),
+              new LuceneQueryProcessor(repositoryName, searchFactory), planCache);
         this.repositoryContext = context;
         // this.repositoryName = repositoryName;
-        this.schema = new BasicLuceneSchema(this.repositoryContext, searchFactory, version, enableFullTextSearch);
+        this.schema = schema;
         ((LuceneQueryProcessor)this.processor).initialize(schema);
     }
 
@@ -279,107 +336,256 @@ public class LuceneQueryEngine extends QueryEngine {
             assert limit != null;
 
             // Create the Lucene queries ...
+            LuceneQuery queries = createQueries();
+            Query pushDownQuery = pushDownQueryFor(queries);
+            if (pushDownQuery == null) {
+                // There are no results ...
+                return Collections.emptyList();
+            }
+
+            // Get the results from Lucene ...
+            QueryContext queryContext = getContext();
+            List<Object[]> tuples = null;
+            final Columns columns = getColumns();
+            try {
+                // Execute the query against the content indexes ...
+                IndexSearcher searcher = searcherFor(queries, pushDownQuery);
+                TupleCollector collector = schema.createTupleCollector(queryContext, columns);
+                if (getContext().getHints().isExistsQuery) {
+                    // We only are looking for the existance of a tuple, so we want to stop as soon as we find one.
+                    // So wrap the collector with an ExistsTupleCollector that will throw an exception as soon as one tuple
+                    // is found.
+                    collector = new ExistsTupleCollector(collector);
+                    try {
+                        searcher.search(pushDownQuery, collector);
+                    } catch (ExistsTupleCollector.CompletedException e) {
+                        // This only happens when the query has a row limit of 1, and we've found a tuple.
+                        // So we should eat this exception and just continue ...
+                    }
+                } else {
+                    searcher.search(pushDownQuery, collector);
+                }
+                tuples = collector.getTuples();
+            } catch (QueryCancelledIOException e) {
+                assert queryContext.isCancelled();
+                return Collections.emptyList();
+            } catch (IOException e) {
+                throw new LuceneException(e);
+            }
+
+            if (tuples.isEmpty() || queryContext.isCancelled()) return tuples;
+
+            // Create a delegate processing component that will return the tuples we've already found ...
+            final List<Object[]> allTuples = tuples;
+            ProcessingComponent tuplesProcessor = new ProcessingComponent(queryContext, columns) {
+                @Override
+                public List<Object[]> execute() {
+                    return allTuples;
+                }
+            };
+            ProcessingComponent component = postProcess(tuplesProcessor, queries);
+            return component == tuplesProcessor ? tuples : component.execute();
+        }
+
+        /**
+         * Create the Lucene queries for the AND-ed constraints of this access query.
+         * 
+         * @return the Lucene queries; never null
+         */
+        protected LuceneQuery createQueries() {
             LuceneQuery queries = schema.createQuery(sourceName, andedConstraints, processingContext);
             if (LOGGER.isDebugEnabled()) {
                 LOGGER.debug("Executing the lucene query: {0}", queries.toString());
             }
-            // Check whether the constraints were such that no results should be returned ...
-            if (queries.matchesNone()) {
-                // There are no results ...
-                return Collections.emptyList();
-            }
+            return queries;
+        }
 
-            // Otherwise, there are queries that should be executed ...
+        /**
+         * Determine the query that is to be pushed down to Lucene, restricted to the nodes that can be read by the user.
+         * 
+         * @param queries the Lucene queries; may not be null
+         * @return the query to be executed by Lucene, or null if the constraints are such that there can be no results
+         */
+        protected Query pushDownQueryFor( LuceneQuery queries ) {
+            // Check whether the constraints were such that no results should be returned ...
+            if (queries.matchesNone()) return null;
             Query pushDownQuery = queries.getPushDownQuery();
             if (pushDownQuery == null) {
                 // There are no constraints that can be pushed down, so return _all_ the nodes ...
                 pushDownQuery = new MatchAllDocsQuery();
             }
+            if (pushDownQuery instanceof MatchNoneQuery) return null;
+            return restrictToReadableNodes(pushDownQuery);
+        }
 
-            // Get the results from Lucene ...
+        /**
+         * Obtain the searcher for the index against which the push-down query is to be executed.
+         * 
+         * @param queries the Lucene queries; may not be null
+         * @param pushDownQuery the query that is to be executed; may not be null
+         * @return the searcher; never null
+         * @throws IOException if there is a problem obtaining the searcher
+         */
+        protected IndexSearcher searcherFor( LuceneQuery queries,
+                                             Query pushDownQuery ) throws IOException {
+            IndexSearcher searcher = processingContext.getSearcher(queries.getPushDownIndexName());
+            Logger logger = Logger.getLogger(getClass());
+            if (logger.isTraceEnabled()) {
+                Set<String> workspaceNames = processingContext.getWorkspaceNames();
+                String repoName = processingContext.getRepositoryName();
+                logger.trace("query \"{0}\" workspace(s) in \"{1}\" repository: {2}", repoName, workspaceNames, pushDownQuery);
+            }
+            return searcher;
+        }
+
+        /**
+         * Apply to the supplied tuples the constraints that could not be pushed down to Lucene, and then the limit.
+         * 
+         * @param tuples the component that supplies the tuples found by Lucene; may not be null
+         * @param queries the Lucene queries; may not be null
+         * @return the component that supplies the post-processed tuples, or the supplied component if there is nothing to apply
+         */
+        protected ProcessingComponent postProcess( ProcessingComponent tuples,
+                                                   LuceneQuery queries ) {
+            ProcessingComponent component = tuples;
+            Constraint postProcessingConstraints = queries.getPostProcessingConstraints();
+            if (postProcessingConstraints != null) {
+                component = new SelectComponent(component, postProcessingConstraints, getContext().getVariables());
+            }
+            if (!limit.isUnlimited()) {
+                component = new LimitComponent(component, limit);
+            }
+            return component;
+        }
+
+        /**
+         * Restrict the supplied query to the nodes that can be read by the user of the query, if the query's
+         * {@link PlanHints#restrictToReadableNodes hints} ask for it and the schema is able to do so.
+         * 
+         * @param pushDownQuery the query; may not be null
+         * @return the restricted query, or the supplied query if it is not to be restricted
+         */
+        protected Query restrictToReadableNodes( Query pushDownQuery ) {
+            if (pushDownQuery instanceof MatchNoneQuery) return pushDownQuery;
             QueryContext queryContext = getContext();
-            List<Object[]> tuples = null;
+            if (!queryContext.getHints().restrictToReadableNodes) return pushDownQuery;
+            Filter filter = schema.createReadableNodesFilter(queryContext);
+            return filter != null ? new FilteredQuery(pushDownQuery, filter) : pushDownQuery;
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p>
+         * Rather than having Lucene push all of the matching documents into a {@link TupleCollector}, this method pulls the
+         * matching documents from Lucene's {@link Scorer}s one at a time as the tuples are requested from the iterator. Any
+         * post-processing constraints and the limit are applied to the stream of tuples, so that (for example) a query with a
+         * limit of 10 rows only reads as many documents as needed to produce those 10 rows.
+         * </p>
+         * 
+         * @see #execute()
+         */
+        @Override
+        public Iterator<Object[]> iterate() {
+            assert andedConstraints != null;
+            assert limit != null;
+
+            // Create the Lucene queries ...
+            LuceneQuery queries = createQueries();
+            Query pushDownQuery = pushDownQueryFor(queries);
+            if (pushDownQuery == null) {
+                return emptyTuples().iterator();
+            }
+
+            // Create the iterator that pulls the tuples from Lucene ...
+            final QueryContext queryContext = getContext();
             final Columns columns = getColumns();
-            if (pushDownQuery instanceof MatchNoneQuery) {
-                // There are no results ...
-                tuples = Collections.emptyList();
-            } else {
-                try {
-                    // Execute the query against the content indexes ...
-                    String indexName = queries.getPushDownIndexName();
-                    IndexSearcher searcher = processingContext.getSearcher(indexName);
-                    Logger logger = Logger.getLogger(getClass());
-                    if (logger.isTraceEnabled()) {
-                        Set<String> workspaceNames = processingContext.getWorkspaceNames();
-                        String repoName = processingContext.getRepositoryName();
-                        logger.trace("query \"{0}\" workspace(s) in \"{1}\" repository: {2}",
-                                     repoName,
-                                     workspaceNames,
-                                     pushDownQuery);
-                    }
-                    TupleCollector collector = schema.createTupleCollector(queryContext, columns);
-                    if (getContext().getHints().isExistsQuery) {
-                        // We only are looking for the existance of a tuple, so we want to stop as soon as we find one.
-                        // So wrap the collector with an ExistsTupleCollector that will throw an exception as soon as one tuple
-                        // is found.
-                        collector = new ExistsTupleCollector(collector);
-                        try {
-                            searcher.search(pushDownQuery, collector);
-                        } catch (ExistsTupleCollector.CompletedException e) {
-                            // This only happens when the query has a row limit of 1, and we've found a tuple.
-                            // So we should eat this exception and just continue ...
-                        }
-                    } else {
-                        searcher.search(pushDownQuery, collector);
+            final Iterator<Object[]> tuples;
+            try {
+                IndexSearcher searcher = searcherFor(queries, pushDownQuery);
+                TupleCollector collector = schema.createTupleCollector(queryContext, columns);
+                tuples = new LuceneTupleIterator(searcher, pushDownQuery, collector, queryContext);
+            } catch (IOException e) {
+                throw new LuceneException(e);
+            }
+            ProcessingComponent component = new ProcessingComponent(queryContext, columns) {
+                @Override
+                public List<Object[]> execute() {
+                    List<Object[]> results = new ArrayList<Object[]>();
+                    while (tuples.hasNext()) {
+                        results.add(tuples.next());
                     }
-                    tuples = collector.getTuples();
-                } catch (QueryCancelledIOException e) {
-                    assert queryContext.isCancelled();
-                    return Collections.emptyList();
-                } catch (IOException e) {
-                    throw new LuceneException(e);
+                    return results;
                 }
-            }
 
-            if (!tuples.isEmpty() && !queryContext.isCancelled()) {
-                Constraint postProcessingConstraints = queries.getPostProcessingConstraints();
-                if (postProcessingConstraints != null) {
-                    // Create a delegate processing component that will return the tuples we've already found ...
-                    final List<Object[]> allTuples = tuples;
-                    ProcessingComponent tuplesProcessor = new ProcessingComponent(queryContext, columns) {
-                        @Override
-                        public List<Object[]> execute() {
-                            return allTuples;
-                        }
-                    };
-                    if (queryContext.isCancelled()) return Collections.emptyList();
-
-                    // Create a processing component that will apply these constraints to the tuples we already found ...
-                    SelectComponent selector = new SelectComponent(tuplesProcessor, postProcessingConstraints,
-                                                                   queryContext.getVariables());
-                    tuples = selector.execute();
+                @Override
+                public Iterator<Object[]> iterate() {
+                    return tuples;
                 }
+            };
+
+            // Apply the constraints that could not be pushed down, and then the limit ...
+            return postProcess(component, queries).iterate();
+        }
+    }
+
+    /**
+     * An iterator that obtains the tuples by pulling the matching documents from the {@link Scorer} of each index segment, and
+     * passing each document to a {@link TupleCollector}. The documents are visited in the same order as they would be by
+     * {@link IndexSearcher#search(Query, Collector)}.
+     */
+    protected static class LuceneTupleIterator extends LazyTupleIterator {
+        private final Weight weight;
+        private final TupleCollector collector;
+        private final QueryContext queryContext;
+        private final Iterator<IndexReader> segmentReaders;
+        private int nextDocBase = 0;
+        private Scorer scorer;
+
+        protected LuceneTupleIterator( IndexSearcher searcher,
+                                       Query query,
+                                       TupleCollector collector,
+                                       QueryContext queryContext ) throws IOException {
+            this.weight = searcher.createNormalizedWeight(query);
+            this.collector = collector;
+            this.queryContext = queryContext;
+            List<IndexReader> readers = new ArrayList<IndexReader>();
+            ReaderUtil.gatherSubReaders(readers, searcher.getIndexReader());
+            this.segmentReaders = readers.iterator();
+        }
 
-                // Limit the tuples ...
-                if (!limit.isUnlimited()) {
-                    int firstIndex = limit.getOffset();
-                    int maxRows = Math.min(tuples.size(), limit.getRowLimit());
-                    if (firstIndex > 0) {
-                        // There is an offset and we're limiting the number of rows ...
-                        if (firstIndex > tuples.size()) {
-                            tuples.clear(); // not enough rows, so return no tuples
-                        } else {
-                            // Find the tuples for the range of rows we're interested in ...
-                            tuples = tuples.subList(firstIndex, maxRows);
-                        }
-                    } else {
-                        // We're limiting the number of rows but there is no offset ...
-                        tuples = tuples.subList(0, maxRows);
+        @Override
+        protected Object[] findNext() {
+            try {
+                while (true) {
+                    // Return any tuple the collector produced for the previous document ...
+                    List<Object[]> collected = collector.getTuples();
+                    if (!collected.isEmpty()) return collected.remove(0);
+                    if (queryContext.isCancelled()) return null;
+
+                    if (scorer == null) {
+                        // Move to the next segment ...
+                        if (!segmentReaders.hasNext()) return null;
+                        IndexReader reader = segmentReaders.next();
+                        int docBase = nextDocBase;
+                        nextDocBase += reader.maxDoc();
+                        collector.setNextReader(reader, docBase);
+                        scorer = weight.scorer(reader, true, false);
+                        if (scorer == null) continue; // nothing matches in this segment
+                        collector.setScorer(scorer);
+                    }
+                    int doc = scorer.nextDoc();
+                    if (doc == DocIdSetIterator.NO_MORE_DOCS) {
+                        scorer = null;
+                        continue;
                     }
+                    collector.collect(doc);
                 }
+            } catch (QueryCancelledIOException e) {
+                assert queryContext.isCancelled();
+                return null;
+            } catch (IOException e) {
+                throw new LuceneException(e);
             }
-
-            return tuples;
         }
     }
 
@@ -24,6 +24,7 @@
 package org.modeshape.jcr.query.lucene;
 
 import java.util.List;
+import org.apache.lucene.search.Filter;
 import org.hibernate.search.SearchFactory;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryIndexing;
@@ -57,4 +58,12 @@ public interface LuceneSchema extends QueryIndexing {
     public LuceneQueryFactory createLuceneQueryFactory( QueryContext context,
                                                         SearchFactory searchFactory );
 
+    /**
+     * Create a {@link Filter} that excludes the nodes that the user of the supplied query context is not allowed to read.
+     * 
+     * @param context the query context; never null
+     * @return the filter, or null if the nodes cannot be filtered (e.g., because access control lists are not used)
+     */
+    public Filter createReadableNodesFilter( QueryContext context );
+
 }
@@ -0,0 +1,62 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene;
+
+import org.modeshape.jcr.cache.NodeCache;
+import org.modeshape.jcr.cache.NodeKey;
+
+/**
+ * A component that knows which principals are allowed to read the nodes, so that the indexes can record them and queries can
+ * exclude the nodes that the user cannot read before any of the results are materialized.
+ */
+public interface ReadPermissions {
+
+    /**
+     * Determine whether access control lists are being used in the repository.
+     * 
+     * @return true if read access may be restricted to some principals, or false if every node can be read by everyone
+     */
+    boolean isAccessControlEnabled();
+
+    /**
+     * Determine whether the principals in the indexes reflect the current access control lists, so that they can be used to
+     * exclude nodes from the results of queries.
+     * 
+     * @return true if the indexed principals are current, or false if nodes are being re-indexed after access control lists were
+     *         changed
+     */
+    boolean isIndexCurrent();
+
+    /**
+     * Get the names of the principals that are allowed to read the node with the supplied key.
+     * 
+     * @param key the key of the node; may not be null
+     * @param cache the cache from which the node and its ancestors are read, which when the node is being saved includes the
+     *        changes being saved; may not be null
+     * @return the names of the principals, which is empty if no principal can read the node; or null if everyone can read the
+     *         node or the principals could not be determined
+     */
+    String[] getReadPrincipals( NodeKey key,
+                                NodeCache cache );
+}
@@ -35,6 +35,7 @@ import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldSelector;
 import org.apache.lucene.document.FieldSelectorResult;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.Filter;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.util.Version;
 import org.hibernate.search.SearchFactory;
@@ -52,6 +53,7 @@ import org.modeshape.jcr.JcrI18n;
 import org.modeshape.jcr.NodeTypeSchemata;
 import org.modeshape.jcr.api.query.qom.Operator;
 import org.modeshape.jcr.api.value.DateTime;
+import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.query.IndexRules;
 import org.modeshape.jcr.query.QueryContext;
@@ -63,6 +65,7 @@ import org.modeshape.jcr.query.lucene.LuceneQuery;
 import org.modeshape.jcr.query.lucene.LuceneQueryEngine.TupleCollector;
 import org.modeshape.jcr.query.lucene.LuceneQueryFactory;
 import org.modeshape.jcr.query.lucene.LuceneSchema;
+import org.modeshape.jcr.query.lucene.ReadPermissions;
 import org.modeshape.jcr.query.lucene.basic.NodeInfoIndex.FieldName;
 import org.modeshape.jcr.query.model.Comparison;
 import org.modeshape.jcr.query.model.Constraint;
@@ -71,6 +74,7 @@ import org.modeshape.jcr.query.model.Literal;
 import org.modeshape.jcr.query.model.PropertyValue;
 import org.modeshape.jcr.query.model.SelectorName;
 import org.modeshape.jcr.query.model.SetCriteria;
+import org.modeshape.jcr.security.SecurityContext;
 import org.modeshape.jcr.value.BinaryValue;
 import org.modeshape.jcr.value.Name;
 import org.modeshape.jcr.value.NamespaceRegistry;
@@ -95,6 +99,7 @@ public class BasicLuceneSchema implements LuceneSchema {
     private final ValueFactory<String> stringFactory;
     private final boolean enableFullTextSearch;
     private final boolean indexesWereEmpty;
+    private final ReadPermissions readPermissions;
 
     /**
      * @param context the execution context for the repository
@@ -106,7 +111,24 @@ public class BasicLuceneSchema implements LuceneSchema {
                               SearchFactoryImplementor searchFactory,
                               Version version,
                               boolean enableFullTextSearch ) {
+        this(context, searchFactory, version, enableFullTextSearch, null);
+    }
+
+    /**
+     * @param context the execution context for the repository
+     * @param searchFactory the search factory for accessing the indexes
+     * @param version the Lucene version
+     * @param enableFullTextSearch true if full-text searching is enabled, or false otherwise
+     * @param readPermissions the component that determines which principals can read each node, or null if the principals
+     *        should not be indexed
+     */
+    public BasicLuceneSchema( ExecutionContext context,
+                              SearchFactoryImplementor searchFactory,
+                              Version version,
+                              boolean enableFullTextSearch,
+                              ReadPermissions readPermissions ) {
         this.searchFactory = searchFactory;
+        this.readPermissions = readPermissions;
         this.context = context;
         this.stringFactory = this.context.getValueFactories().getStringFactory();
         this.binaryStore = this.context.getBinaryStore();
@@ -138,6 +160,14 @@ public class BasicLuceneSchema implements LuceneSchema {
         return new BasicLuceneQueryFactory(context, searchFactory, version);
     }
 
+    @Override
+    public Filter createReadableNodesFilter( QueryContext context ) {
+        if (readPermissions == null || !readPermissions.isAccessControlEnabled()) return null;
+        if (!readPermissions.isIndexCurrent()) return null;
+        SecurityContext securityContext = context.getExecutionContext().getSecurityContext();
+        return securityContext != null ? new ReadableNodesFilter(securityContext) : null;
+    }
+
     protected final String stringFrom( Path path ) {
         if (path.isRoot()) return "/";
         StringBuilder sb = new StringBuilder();
@@ -170,7 +200,8 @@ public class BasicLuceneSchema implements LuceneSchema {
                                        Name primaryType,
                                        Set<Name> mixinTypes,
                                        Iterator<Property> propertyIterator,
-                                       NodeTypeSchemata schemata ) {
+                                       NodeTypeSchemata schemata,
+                                       String[] readPrincipals ) {
         String pathStr = null;
         String name = null;
         String localName = null;
@@ -232,6 +263,12 @@ public class BasicLuceneSchema implements LuceneSchema {
             dynamicField = new DynamicField(dynamicField, NodeInfoIndex.FieldName.FULL_TEXT, fullText.toString(), true, false);
         }
 
+        // Add the principals that can read the node ...
+        if (readPrincipals != null) {
+            Object[] principals = readPrincipals.length != 0 ? readPrincipals : new Object[] {NodeInfoIndex.NO_READ_PRINCIPALS};
+            dynamicField = new DynamicField(dynamicField, FieldName.READ_PRINCIPALS, principals, false, true);
+        }
+
         // Return the node information object ...
         return new NodeInfo(id, workspace, pathStr, localName, name, snsIndex, depth, dynamicField);
     }
@@ -411,10 +448,12 @@ public class BasicLuceneSchema implements LuceneSchema {
                             Name primaryType,
                             Set<Name> mixinTypes,
                             Iterator<Property> propertiesIterator,
+                            NodeCache cache,
                             NodeTypeSchemata schemata,
                             TransactionContext txnCtx ) {
         String id = key.toString();
-        NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, propertiesIterator, schemata);
+        NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, propertiesIterator, schemata,
+                                     readPrincipals(key, cache));
         logger.trace("index for \"{0}\" workspace: ADD    {1} ", workspace, nodeInfo);
         Work<NodeInfo> work = new Work<NodeInfo>(nodeInfo, id, WorkType.ADD);
         searchFactory.getWorker().performWork(work, txnCtx);
@@ -427,15 +466,23 @@ public class BasicLuceneSchema implements LuceneSchema {
                              Name primaryType,
                              Set<Name> mixinTypes,
                              Iterator<Property> properties,
+                             NodeCache cache,
                              NodeTypeSchemata schemata,
                              TransactionContext txnCtx ) {
         String id = key.toString();
-        NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, properties, schemata);
+        NodeInfo nodeInfo = nodeInfo(id, workspace, path, primaryType, mixinTypes, properties, schemata,
+                                     readPrincipals(key, cache));
         logger.trace("index for \"{0}\" workspace: UPDATE {1} ", workspace, nodeInfo);
         Work<NodeInfo> work = new Work<NodeInfo>(nodeInfo, id, WorkType.UPDATE);
         searchFactory.getWorker().performWork(work, txnCtx);
     }
 
+    protected final String[] readPrincipals( NodeKey key,
+                                             NodeCache cache ) {
+        if (readPermissions == null || !readPermissions.isAccessControlEnabled()) return null;
+        return readPermissions.getReadPrincipals(key, cache);
+    }
+
     @Override
     public void removeFromIndex( String workspace,
                                  Iterable<NodeKey> keys,
@@ -155,5 +155,20 @@ public class NodeInfoIndex {
          * node.
          */
         public static final String STRONG_REFERENCES = "::sref";
+
+        /**
+         * The name of the {@link Field string field} used to store the names of the principals that are granted read access to
+         * the node by the node's effective access control list. The field is not added when everyone can read the node, and
+         * contains only {@link NodeInfoIndex#NO_READ_PRINCIPALS} when nobody can.
+         * 
+         * @see ReadableNodesFilter
+         */
+        public static final String READ_PRINCIPALS = "::acl";
     }
+
+    /**
+     * The value of the {@link FieldName#READ_PRINCIPALS} field for nodes that no principal is granted read access to. Note that
+     * the value uses a leading '::', which is never used in the names of principals.
+     */
+    public static final String NO_READ_PRINCIPALS = "::none";
 }
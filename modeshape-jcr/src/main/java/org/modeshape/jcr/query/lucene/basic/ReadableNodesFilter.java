@@ -0,0 +1,129 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene.basic;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TermDocs;
+import org.apache.lucene.index.TermEnum;
+import org.apache.lucene.search.DocIdSet;
+import org.apache.lucene.search.Filter;
+import org.apache.lucene.util.OpenBitSet;
+import org.modeshape.jcr.query.lucene.basic.NodeInfoIndex.FieldName;
+import org.modeshape.jcr.security.SecurityContext;
+import org.modeshape.jcr.security.SimplePrincipal;
+
+/**
+ * A Lucene {@link Filter} that excludes the documents of the nodes that the user of a {@link SecurityContext} is not allowed to
+ * read, based upon the {@link FieldName#READ_PRINCIPALS principals} that were recorded when the nodes were indexed. A document is
+ * excluded only when none of its read principals applies to the user, using the same rules as the access control lists: the
+ * principal is "everyone", is the name of the user, or is one of the user's roles.
+ * <p>
+ * Since the security context cannot enumerate the roles of the user, the filter instead enumerates the (relatively few) distinct
+ * principals in each index segment and asks the security context about each of them. Documents that have no read principals
+ * (because everyone can read them, or because they were indexed before access control lists were used) are never excluded.
+ * </p>
+ * <p>
+ * This filter only reduces the number of documents that have to be materialized; each node in the results is still checked
+ * against the permissions of the session.
+ * </p>
+ */
+public class ReadableNodesFilter extends Filter {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient SecurityContext securityContext;
+    private final transient Map<String, Boolean> readableByPrincipal = new HashMap<String, Boolean>();
+    private final String username;
+
+    /**
+     * Create a filter for the nodes that are readable by the user of the supplied security context.
+     * 
+     * @param securityContext the security context of the user; may not be null
+     */
+    public ReadableNodesFilter( SecurityContext securityContext ) {
+        assert securityContext != null;
+        this.securityContext = securityContext;
+        this.username = username(securityContext.getUserName());
+    }
+
+    private static String username( String username ) {
+        if (username == null) return "";
+        return (username.startsWith("<") && username.endsWith(">")) ? username.substring(1, username.length() - 1) : username;
+    }
+
+    @Override
+    public DocIdSet getDocIdSet( IndexReader reader ) throws IOException {
+        int maxDoc = reader.maxDoc();
+        OpenBitSet readable = new OpenBitSet(maxDoc);
+        OpenBitSet restricted = new OpenBitSet(maxDoc);
+        TermEnum terms = reader.terms(new Term(FieldName.READ_PRINCIPALS, ""));
+        TermDocs termDocs = reader.termDocs();
+        try {
+            do {
+                Term term = terms.term();
+                if (term == null || !FieldName.READ_PRINCIPALS.equals(term.field())) break;
+                OpenBitSet docs = isReadableBy(term.text()) ? readable : restricted;
+                termDocs.seek(terms);
+                while (termDocs.next()) {
+                    docs.fastSet(termDocs.doc());
+                }
+            } while (terms.next());
+        } finally {
+            try {
+                termDocs.close();
+            } finally {
+                terms.close();
+            }
+        }
+        // Include all documents except those with only principals that don't apply to the user ...
+        restricted.andNot(readable);
+        OpenBitSet result = new OpenBitSet(maxDoc);
+        result.set(0, maxDoc);
+        result.andNot(restricted);
+        return result;
+    }
+
+    protected synchronized boolean isReadableBy( String principal ) {
+        Boolean readable = readableByPrincipal.get(principal);
+        if (readable == null) {
+            if (NodeInfoIndex.NO_READ_PRINCIPALS.equals(principal)) {
+                readable = Boolean.FALSE;
+            } else {
+                readable = SimplePrincipal.EVERYONE.getName().equals(principal) || principal.equals(username)
+                           || securityContext.hasRole(principal);
+            }
+            readableByPrincipal.put(principal, readable);
+        }
+        return readable.booleanValue();
+    }
+
+    @Override
+    public String toString() {
+        return "ReadableNodesFilter(" + username + ")";
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.List;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * Interface for a component that is able to estimate the number of tuples that will be returned by the {@link Type#ACCESS ACCESS}
+ * nodes in a plan, usually by looking at statistics kept by the indexes. These estimates are used by the
+ * {@link EstimateCardinalities} and {@link ReorderJoins} rules.
+ */
+public interface CardinalityEstimator {
+
+    /**
+     * Estimate the number of tuples that each of the supplied ACCESS nodes will return, and record each estimate in the
+     * {@link Property#ESTIMATED_CARDINALITY} property of the ACCESS node. The property is not set on those nodes for which no
+     * estimate can be made.
+     * 
+     * @param context the context in which the query is being optimized; never null
+     * @param accessNodes the ACCESS nodes; never null
+     */
+    void estimateCardinalities( QueryContext context,
+                                List<PlanNode> accessNodes );
+}
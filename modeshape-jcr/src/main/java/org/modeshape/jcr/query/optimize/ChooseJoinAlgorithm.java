@@ -33,6 +33,7 @@ import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
 import org.modeshape.jcr.query.model.DynamicOperand;
 import org.modeshape.jcr.query.model.EquiJoinCondition;
 import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.model.Order;
 import org.modeshape.jcr.query.model.Ordering;
 import org.modeshape.jcr.query.model.PropertyValue;
@@ -47,10 +48,10 @@ import org.modeshape.jcr.query.plan.PlanNode.Type;
  * An {@link OptimizerRule optimizer rule} that choose the appropriate join algorithm and sets up any prerequisites, based upon
  * the {@link JoinCondition}.
  * <p>
- * There are two static instances that can be used (or the equivalent can be instantiated or subclassed using the constructor):
- * one that only uses {@link JoinAlgorithm#NESTED_LOOP nested-loop}, and another that will attempt to use
- * {@link JoinAlgorithm#MERGE merge} where possible. Both instances ignore any existing {@link Property#JOIN_ALGORITHM} property
- * value set on the JOIN node.
+ * There are three static instances that can be used (or the equivalent can be instantiated or subclassed using the
+ * constructor): one that only uses {@link JoinAlgorithm#NESTED_LOOP nested-loop}, another that will attempt to use
+ * {@link JoinAlgorithm#MERGE merge} where possible, and a third that will attempt to use {@link JoinAlgorithm#HASH hash} where
+ * possible. All instances ignore any existing {@link Property#JOIN_ALGORITHM} property value set on the JOIN node.
  * </p>
  * <p>
  * For example, the {@link #USE_ONLY_NESTED_JOIN_ALGORITHM} instance will convert this simple tree:
@@ -106,17 +107,39 @@ import org.modeshape.jcr.query.plan.PlanNode.Type;
  * </li>
  * </ol>
  * </p>
+ * <p>
+ * The {@link #USE_HASH_JOIN_ALGORITHM} instance does not need sorted inputs, and so never changes the structure of the plan. It
+ * uses the {@link JoinAlgorithm#HASH} algorithm for inner and outer joins with an {@link EquiJoinCondition}, a
+ * {@link ChildNodeJoinCondition}, or a {@link SameNodeJoinCondition} without a relative path, and uses the
+ * {@link JoinAlgorithm#NESTED_LOOP} algorithm for all other joins. However, when the {@link Property#ESTIMATED_CARDINALITY
+ * estimated cardinalities} of both sides of the join are known and are so small that building the hash table is not worth it,
+ * the nested-loop algorithm is used instead.
+ * </p>
  */
 @Immutable
 public class ChooseJoinAlgorithm implements OptimizerRule {
 
     public static final ChooseJoinAlgorithm USE_ONLY_NESTED_JOIN_ALGORITHM = new ChooseJoinAlgorithm(true);
     public static final ChooseJoinAlgorithm USE_BEST_JOIN_ALGORITHM = new ChooseJoinAlgorithm(false);
+    public static final ChooseJoinAlgorithm USE_HASH_JOIN_ALGORITHM = new ChooseJoinAlgorithm(false, true);
+
+    /**
+     * The largest number of tuple comparisons (the product of the estimated cardinalities of both sides) for which the
+     * nested-loop algorithm is preferred over the hash algorithm.
+     */
+    protected static final long MAXIMUM_NESTED_LOOP_COMPARISONS = 1000L;
 
     private final boolean useOnlyNested;
+    private final boolean useHash;
 
     protected ChooseJoinAlgorithm( boolean useOnlyNested ) {
+        this(useOnlyNested, false);
+    }
+
+    protected ChooseJoinAlgorithm( boolean useOnlyNested,
+                                   boolean useHash ) {
         this.useOnlyNested = useOnlyNested;
+        this.useHash = useHash;
     }
 
     @Override
@@ -130,6 +153,15 @@ public class ChooseJoinAlgorithm implements OptimizerRule {
                 joinNode.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
                 break;
             }
+            if (useHash) {
+                JoinType joinType = joinNode.getProperty(Property.JOIN_TYPE, JoinType.class);
+                if (canUseHashJoin(condition, joinType) && !isSmallerThanHashThreshold(joinNode)) {
+                    joinNode.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.HASH);
+                } else {
+                    joinNode.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+                }
+                continue;
+            }
 
             if (condition instanceof DescendantNodeJoinCondition) {
                 // It has to be a nest-loop join ...
@@ -169,6 +201,50 @@ public class ChooseJoinAlgorithm implements OptimizerRule {
         return plan;
     }
 
+    /**
+     * Determine whether the {@link JoinAlgorithm#HASH hash} algorithm can be used for the supplied join.
+     * 
+     * @param condition the join condition; may not be null
+     * @param joinType the type of join; may not be null
+     * @return true if the hash algorithm can be used, or false otherwise
+     */
+    protected boolean canUseHashJoin( JoinCondition condition,
+                                      JoinType joinType ) {
+        switch (joinType) {
+            case INNER:
+            case LEFT_OUTER:
+            case RIGHT_OUTER:
+                break;
+            case FULL_OUTER:
+            case CROSS:
+                return false;
+        }
+        if (condition instanceof EquiJoinCondition) return true;
+        if (condition instanceof ChildNodeJoinCondition) return true;
+        if (condition instanceof SameNodeJoinCondition) {
+            // The nodes can only be hashed by their own path, not by a path relative to them ...
+            String relPath = ((SameNodeJoinCondition)condition).getSelector2Path();
+            return relPath == null || ".".equals(relPath.trim());
+        }
+        return false;
+    }
+
+    /**
+     * Determine whether both sides of the supplied join are estimated to return so few tuples that the
+     * {@link JoinAlgorithm#NESTED_LOOP nested-loop} algorithm is cheaper than building a hash table.
+     * 
+     * @param joinNode the JOIN node; may not be null
+     * @return true if both sides have an {@link Property#ESTIMATED_CARDINALITY estimated cardinality} and the join is small, or
+     *         false otherwise
+     */
+    protected boolean isSmallerThanHashThreshold( PlanNode joinNode ) {
+        Long left = EstimateCardinalities.estimatedCardinalityOf(joinNode.getFirstChild());
+        Long right = EstimateCardinalities.estimatedCardinalityOf(joinNode.getLastChild());
+        if (left == null || right == null) return false;
+        if (left.longValue() == 0L || right.longValue() == 0L) return true;
+        return left.longValue() <= MAXIMUM_NESTED_LOOP_COMPARISONS / right.longValue();
+    }
+
     protected void createOrderBysForJoinCondition( JoinCondition condition,
                                                    Set<SelectorName> leftSelectors,
                                                    List<Object> leftSortBy,
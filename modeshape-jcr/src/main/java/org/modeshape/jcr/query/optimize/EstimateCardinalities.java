@@ -0,0 +1,184 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.LinkedList;
+import java.util.List;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that uses a {@link CardinalityEstimator} to set the
+ * {@link Property#ESTIMATED_CARDINALITY estimated cardinality} of each ACCESS node, and then derives the estimated cardinality of
+ * each JOIN node from the estimates of its children. Since these estimates are properties of the plan nodes, they also appear in
+ * the query plan.
+ * <p>
+ * The estimate of a JOIN node depends upon the join condition:
+ * <ul>
+ * <li>a {@link SameNodeJoinCondition same-node join} returns at most as many tuples as the smaller side;</li>
+ * <li>a {@link ChildNodeJoinCondition child-node join} returns at most as many tuples as there are children;</li>
+ * <li>an {@link EquiJoinCondition equi-join} is assumed to join on (mostly) unique values such as identifiers or references, and
+ * so returns about as many tuples as the larger side; and</li>
+ * <li>a {@link DescendantNodeJoinCondition descendant-node join} is assumed to return about as many tuples as there are
+ * descendants.</li>
+ * </ul>
+ * Outer joins always return at least as many tuples as their outer side.
+ * </p>
+ */
+@Immutable
+public class EstimateCardinalities implements OptimizerRule {
+
+    private final CardinalityEstimator estimator;
+
+    public EstimateCardinalities( CardinalityEstimator estimator ) {
+        assert estimator != null;
+        this.estimator = estimator;
+    }
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        // Estimate the cardinalities of the ACCESS nodes ...
+        estimator.estimateCardinalities(context, plan.findAllAtOrBelow(Type.ACCESS));
+
+        // And then for each of the JOIN nodes, starting with the lowest ...
+        List<PlanNode> joinNodes = plan.findAllAtOrBelow(Type.JOIN);
+        for (int i = joinNodes.size() - 1; i >= 0; --i) {
+            estimateJoinCardinality(joinNodes.get(i));
+        }
+        return plan;
+    }
+
+    /**
+     * Get the estimated cardinality of the supplied node. Nodes that are not ACCESS or JOIN nodes but that have a single child
+     * (for example, SELECT or PROJECT nodes above a JOIN) are assumed to return as many tuples as their child.
+     * 
+     * @param node the plan node; may not be null
+     * @return the estimated cardinality, or null if there is no estimate for the node
+     */
+    public static Long estimatedCardinalityOf( PlanNode node ) {
+        while (true) {
+            Long estimate = node.getProperty(Property.ESTIMATED_CARDINALITY, Long.class);
+            if (estimate != null || node.is(Type.ACCESS) || node.is(Type.JOIN) || node.getChildCount() != 1) return estimate;
+            node = node.getFirstChild();
+        }
+    }
+
+    /**
+     * Estimate the cardinality of the supplied JOIN node from the estimates of its children, and record it in the
+     * {@link Property#ESTIMATED_CARDINALITY} property. The property is removed if either child has no estimate.
+     * 
+     * @param joinNode the JOIN node; may not be null
+     * @return the estimated cardinality, or null if there is no estimate for the join
+     */
+    public static Long estimateJoinCardinality( PlanNode joinNode ) {
+        assert joinNode.is(Type.JOIN);
+        PlanNode left = joinNode.getFirstChild();
+        PlanNode right = joinNode.getLastChild();
+        Long leftEstimate = estimatedCardinalityOf(left);
+        Long rightEstimate = estimatedCardinalityOf(right);
+        if (leftEstimate == null || rightEstimate == null) {
+            joinNode.removeProperty(Property.ESTIMATED_CARDINALITY);
+            return null;
+        }
+        JoinCondition condition = joinNode.getProperty(Property.JOIN_CONDITION, JoinCondition.class);
+        JoinType joinType = joinNode.getProperty(Property.JOIN_TYPE, JoinType.class);
+        long estimate = estimateJoinCardinality(condition, joinType, left, leftEstimate.longValue(), rightEstimate.longValue());
+        joinNode.setProperty(Property.ESTIMATED_CARDINALITY, estimate);
+        return estimate;
+    }
+
+    /**
+     * Estimate the number of tuples that a join of the two sides will return.
+     * 
+     * @param condition the join condition; may be null
+     * @param joinType the type of join; may be null if it is an inner join
+     * @param left the left side of the join; may not be null
+     * @param leftEstimate the estimated cardinality of the left side
+     * @param rightEstimate the estimated cardinality of the right side
+     * @return the estimated cardinality of the join
+     */
+    public static long estimateJoinCardinality( JoinCondition condition,
+                                                JoinType joinType,
+                                                PlanNode left,
+                                                long leftEstimate,
+                                                long rightEstimate ) {
+        long estimate = 0L;
+        if (condition instanceof SameNodeJoinCondition) {
+            estimate = Math.min(leftEstimate, rightEstimate);
+        } else if (condition instanceof ChildNodeJoinCondition) {
+            SelectorName child = ((ChildNodeJoinCondition)condition).childSelectorName();
+            estimate = left.getSelectors().contains(child) ? leftEstimate : rightEstimate;
+        } else if (condition instanceof DescendantNodeJoinCondition) {
+            SelectorName descendant = ((DescendantNodeJoinCondition)condition).descendantSelectorName();
+            estimate = left.getSelectors().contains(descendant) ? leftEstimate : rightEstimate;
+        } else if (condition instanceof EquiJoinCondition) {
+            estimate = Math.max(leftEstimate, rightEstimate);
+        } else {
+            // Assume every tuple on the left is joined with every tuple on the right ...
+            estimate = multiply(leftEstimate, rightEstimate);
+        }
+        if (joinType != null) {
+            switch (joinType) {
+                case LEFT_OUTER:
+                    estimate = Math.max(estimate, leftEstimate);
+                    break;
+                case RIGHT_OUTER:
+                    estimate = Math.max(estimate, rightEstimate);
+                    break;
+                case FULL_OUTER:
+                    estimate = Math.max(estimate, Math.max(leftEstimate, rightEstimate));
+                    break;
+                case CROSS:
+                    estimate = multiply(leftEstimate, rightEstimate);
+                    break;
+                case INNER:
+                    break;
+            }
+        }
+        return estimate;
+    }
+
+    private static long multiply( long a,
+                                  long b ) {
+        if (a == 0L || b == 0L) return 0L;
+        return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
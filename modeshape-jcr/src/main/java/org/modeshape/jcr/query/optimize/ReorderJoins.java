@@ -0,0 +1,309 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.Constraint;
+import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.model.SelectorName;
+import org.modeshape.jcr.query.plan.JoinAlgorithm;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+
+/**
+ * An {@link OptimizerRule optimizer rule} that uses the {@link Property#ESTIMATED_CARDINALITY estimated cardinalities} (set by
+ * the {@link EstimateCardinalities} rule) to reorder adjacent {@link JoinType#INNER inner joins}, so that the joins that are
+ * expected to produce the fewest tuples are performed first.
+ * <p>
+ * Each tree of adjacent inner JOIN nodes is flattened into the inputs of those joins (the nodes below the joins) and the join
+ * conditions connecting them. The rule then greedily rebuilds the tree: it starts with the smallest input, and then repeatedly
+ * joins the input (connected by one of the join conditions) that produces the smallest estimated result. For example, consider
+ * the following plan where 'A' is estimated to return 100000 tuples, 'B' 50000 tuples, and 'C' only 10 tuples, and where 'C' is
+ * joined to 'B':
+ * 
+ * <pre>
+ *              JOIN (B-C)
+ *             /     \
+ *        JOIN (A-B)  C
+ *        /     \
+ *       A       B
+ * </pre>
+ * 
+ * This rule will convert this into:
+ * 
+ * <pre>
+ *              JOIN (A-B)
+ *             /     \
+ *            A    JOIN (B-C)
+ *                 /     \
+ *                B       C
+ * </pre>
+ * 
+ * In each of the JOIN nodes, the larger input drives the join and is placed on the left, while the smaller input is placed on
+ * the right (where the {@link JoinAlgorithm#HASH hash join} builds its table). The exception are the joins with an
+ * {@link EquiJoinCondition}, which always keep the orientation of the original join: a multi-valued column (such as a
+ * multi-valued REFERENCE property) matches when any of its values match only when it is on the left side of the join.
+ * </p>
+ * <p>
+ * Outer joins, dependent joins, and any inputs without estimates are left unchanged. The trees are also left unchanged when the
+ * join conditions do not connect every input exactly once (for example, when a condition refers to two selectors on the same
+ * side of a join). Any {@link Property#JOIN_CONSTRAINTS join constraints} are moved to the top of the rebuilt tree, which is
+ * correct since all the joins are inner joins.
+ * </p>
+ */
+@Immutable
+public class ReorderJoins implements OptimizerRule {
+
+    public static final ReorderJoins INSTANCE = new ReorderJoins();
+
+    @Override
+    public PlanNode execute( QueryContext context,
+                             PlanNode plan,
+                             LinkedList<OptimizerRule> ruleStack ) {
+        Set<PlanNode> processed = new HashSet<PlanNode>();
+        // The JOIN nodes are found in pre-order, so the top of each tree of inner joins is found first ...
+        for (PlanNode joinNode : plan.findAllAtOrBelow(Type.JOIN)) {
+            if (processed.contains(joinNode) || !isReorderable(joinNode)) continue;
+            List<PlanNode> joins = new ArrayList<PlanNode>();
+            List<PlanNode> inputs = new ArrayList<PlanNode>();
+            collect(joinNode, joins, inputs);
+            processed.addAll(joins);
+
+            PlanNode parent = joinNode.getParent();
+            PlanNode newJoinNode = reorder(joins, inputs);
+            if (newJoinNode == null) continue;
+            if (parent == null) {
+                plan = newJoinNode;
+            } else {
+                parent.replaceChild(joinNode, newJoinNode);
+            }
+        }
+        return plan;
+    }
+
+    protected boolean isReorderable( PlanNode node ) {
+        if (node.isNot(Type.JOIN) || node.getChildCount() != 2) return false;
+        if (JoinType.INNER != node.getProperty(Property.JOIN_TYPE, JoinType.class)) return false;
+        if (node.hasBooleanProperty(Property.IS_DEPENDENT)) return false;
+        return node.getProperty(Property.JOIN_CONDITION, JoinCondition.class) != null;
+    }
+
+    protected void collect( PlanNode node,
+                            List<PlanNode> joins,
+                            List<PlanNode> inputs ) {
+        if (isReorderable(node)) {
+            joins.add(node);
+            collect(node.getFirstChild(), joins, inputs);
+            collect(node.getLastChild(), joins, inputs);
+        } else {
+            inputs.add(node);
+        }
+    }
+
+    /**
+     * Build a new tree of JOIN nodes for the supplied inputs.
+     * 
+     * @param joins the existing JOIN nodes; never null and never empty
+     * @param inputs the nodes below the existing JOIN nodes; never null and always one more than the number of joins
+     * @return the top of the new tree of JOIN nodes, or null if the existing JOIN nodes should not be changed
+     */
+    protected PlanNode reorder( List<PlanNode> joins,
+                                List<PlanNode> inputs ) {
+        int count = inputs.size();
+        assert count == joins.size() + 1;
+
+        // Get the estimates of each input ...
+        long[] estimates = new long[count];
+        for (int i = 0; i != count; ++i) {
+            Long estimate = EstimateCardinalities.estimatedCardinalityOf(inputs.get(i));
+            if (estimate == null) return null;
+            estimates[i] = estimate.longValue();
+        }
+
+        // Find which inputs each join condition connects, and make sure every input is connected exactly once ...
+        List<Edge> edges = new ArrayList<Edge>(joins.size());
+        List<Constraint> joinConstraints = new ArrayList<Constraint>();
+        int[] components = new int[count];
+        for (int i = 0; i != count; ++i) {
+            components[i] = i;
+        }
+        for (PlanNode join : joins) {
+            JoinCondition condition = join.getProperty(Property.JOIN_CONDITION, JoinCondition.class);
+            SelectorName[] selectors = selectorsOf(condition);
+            if (selectors == null) return null;
+            int first = indexOfInputWith(selectors[0], inputs);
+            int second = indexOfInputWith(selectors[1], inputs);
+            if (first < 0 || second < 0) return null;
+            int firstComponent = components[first];
+            int secondComponent = components[second];
+            if (firstComponent == secondComponent) return null;
+            for (int i = 0; i != count; ++i) {
+                if (components[i] == secondComponent) components[i] = firstComponent;
+            }
+            // Equi-joins are not symmetric, so remember which of the selectors was on the left ...
+            SelectorName leftSelector = null;
+            if (condition instanceof EquiJoinCondition) {
+                leftSelector = join.getFirstChild().getSelectors().contains(selectors[0]) ? selectors[0] : selectors[1];
+            }
+            edges.add(new Edge(condition, first, second, leftSelector));
+            List<Constraint> constraints = join.getPropertyAsList(Property.JOIN_CONSTRAINTS, Constraint.class);
+            if (constraints != null) joinConstraints.addAll(constraints);
+        }
+
+        // Start with the smallest input ...
+        int start = 0;
+        for (int i = 1; i != count; ++i) {
+            if (estimates[i] < estimates[start]) start = i;
+        }
+        boolean[] joined = new boolean[count];
+        joined[start] = true;
+        PlanNode result = inputs.get(start);
+        long resultEstimate = estimates[start];
+
+        // And then repeatedly join the input that produces the fewest tuples ...
+        while (!edges.isEmpty()) {
+            Edge best = null;
+            int bestInput = -1;
+            long bestEstimate = Long.MAX_VALUE;
+            for (Edge edge : edges) {
+                int input = edge.other(joined);
+                if (input < 0) continue;
+                long estimate = EstimateCardinalities.estimateJoinCardinality(edge.condition, JoinType.INNER, result,
+                                                                               resultEstimate, estimates[input]);
+                if (best == null || estimate < bestEstimate
+                    || (estimate == bestEstimate && estimates[input] < estimates[bestInput])) {
+                    best = edge;
+                    bestInput = input;
+                    bestEstimate = estimate;
+                }
+            }
+            assert best != null;
+            edges.remove(best);
+            joined[bestInput] = true;
+
+            // The larger side drives the join, unless the join must keep its original orientation ...
+            PlanNode input = inputs.get(bestInput);
+            PlanNode join = new PlanNode(Type.JOIN);
+            boolean resultOnLeft = resultEstimate >= estimates[bestInput];
+            if (best.leftSelector != null) resultOnLeft = !input.getSelectors().contains(best.leftSelector);
+            if (resultOnLeft) {
+                join.addLastChild(result);
+                join.addLastChild(input);
+            } else {
+                join.addLastChild(input);
+                join.addLastChild(result);
+            }
+            join.addSelectors(result.getSelectors());
+            join.addSelectors(input.getSelectors());
+            join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+            join.setProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.NESTED_LOOP);
+            join.setProperty(Property.JOIN_CONDITION, best.condition);
+            join.setProperty(Property.ESTIMATED_CARDINALITY, bestEstimate);
+            result = join;
+            resultEstimate = bestEstimate;
+        }
+        if (!joinConstraints.isEmpty()) {
+            result.setProperty(Property.JOIN_CONSTRAINTS, joinConstraints);
+        }
+        return result;
+    }
+
+    protected static int indexOfInputWith( SelectorName selector,
+                                           List<PlanNode> inputs ) {
+        for (int i = 0; i != inputs.size(); ++i) {
+            if (inputs.get(i).getSelectors().contains(selector)) return i;
+        }
+        return -1;
+    }
+
+    protected static SelectorName[] selectorsOf( JoinCondition condition ) {
+        if (condition instanceof EquiJoinCondition) {
+            EquiJoinCondition equiJoin = (EquiJoinCondition)condition;
+            return new SelectorName[] {equiJoin.selector1Name(), equiJoin.selector2Name()};
+        }
+        if (condition instanceof SameNodeJoinCondition) {
+            SameNodeJoinCondition sameNodeJoin = (SameNodeJoinCondition)condition;
+            return new SelectorName[] {sameNodeJoin.selector1Name(), sameNodeJoin.selector2Name()};
+        }
+        if (condition instanceof ChildNodeJoinCondition) {
+            ChildNodeJoinCondition childNodeJoin = (ChildNodeJoinCondition)condition;
+            return new SelectorName[] {childNodeJoin.parentSelectorName(), childNodeJoin.childSelectorName()};
+        }
+        if (condition instanceof DescendantNodeJoinCondition) {
+            DescendantNodeJoinCondition descendantNodeJoin = (DescendantNodeJoinCondition)condition;
+            return new SelectorName[] {descendantNodeJoin.ancestorSelectorName(), descendantNodeJoin.descendantSelectorName()};
+        }
+        return null;
+    }
+
+    /**
+     * A join condition and the two inputs that it connects.
+     */
+    protected static final class Edge {
+        protected final JoinCondition condition;
+        protected final int first;
+        protected final int second;
+        /** The selector that must be on the left side of the join, or null if either side can be on the left */
+        protected final SelectorName leftSelector;
+
+        protected Edge( JoinCondition condition,
+                        int first,
+                        int second,
+                        SelectorName leftSelector ) {
+            this.condition = condition;
+            this.first = first;
+            this.second = second;
+            this.leftSelector = leftSelector;
+        }
+
+        /**
+         * Get the input connected by this edge that has not yet been joined, if the other input has already been joined.
+         * 
+         * @param joined the flags for the inputs that have been joined
+         * @return the index of the input that can be joined next using this edge, or -1 if this edge cannot be used yet
+         */
+        protected int other( boolean[] joined ) {
+            if (joined[first] && !joined[second]) return second;
+            if (joined[second] && !joined[first]) return first;
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName();
+    }
+}
@@ -333,6 +333,8 @@ public class RewriteAsRangeCriteria implements OptimizerRule {
             return literal.value();
         }
         BindVariableName variable = (BindVariableName)operand;
+        // The plan now depends upon the variable's value and cannot be reused for other values ...
+        context.getHints().dependsOnVariableValues = true;
         return context.getVariables().get(variable.getBindVariableName());
     }
 }
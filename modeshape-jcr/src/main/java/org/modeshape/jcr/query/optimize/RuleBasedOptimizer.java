@@ -35,12 +35,35 @@ import org.modeshape.jcr.query.plan.PlanNode;
  * Optimizer implementation that optimizes a query using a stack of rules. Subclasses can override the
  * {@link #populateRuleStack(LinkedList, PlanHints)} method to define the stack of rules they'd like to use, including the use of
  * custom rules.
+ * <p>
+ * When the optimizer is created with a {@link CardinalityEstimator}, queries with joins are also optimized using the estimated
+ * cardinalities of each of the selectors, so that (for example) the joins are {@link ReorderJoins reordered} to process the most
+ * selective joins first.
+ * </p>
  */
 @Immutable
 public class RuleBasedOptimizer implements Optimizer {
 
     private static final Logger LOGGER = Logger.getLogger(RuleBasedOptimizer.class);
 
+    private final CardinalityEstimator estimator;
+
+    /**
+     * Create an optimizer that does not use any cardinality estimates.
+     */
+    public RuleBasedOptimizer() {
+        this(null);
+    }
+
+    /**
+     * Create an optimizer that uses the supplied estimator to obtain cardinality estimates.
+     * 
+     * @param estimator the estimator; may be null if no cardinality estimates are to be used
+     */
+    public RuleBasedOptimizer( CardinalityEstimator estimator ) {
+        this.estimator = estimator;
+    }
+
     @Override
     public PlanNode optimize( QueryContext context,
                               PlanNode plan ) {
@@ -72,7 +95,11 @@ public class RuleBasedOptimizer implements Optimizer {
         ruleStack.addFirst(RewriteAsRangeCriteria.INSTANCE);
         if (hints.hasJoin) {
             ruleStack.addFirst(AddJoinConditionColumnsToSources.INSTANCE);
-            ruleStack.addFirst(ChooseJoinAlgorithm.USE_ONLY_NESTED_JOIN_ALGORITHM);
+            ruleStack.addFirst(ChooseJoinAlgorithm.USE_HASH_JOIN_ALGORITHM);
+            if (estimator != null) {
+                ruleStack.addFirst(ReorderJoins.INSTANCE);
+                ruleStack.addFirst(new EstimateCardinalities(estimator));
+            }
             ruleStack.addFirst(RewriteIdentityJoins.INSTANCE);
         }
         ruleStack.addFirst(AddOrderingColumnsToSources.INSTANCE);
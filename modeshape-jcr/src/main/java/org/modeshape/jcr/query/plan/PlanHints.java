@@ -25,6 +25,7 @@ package org.modeshape.jcr.query.plan;
 
 import java.io.Serializable;
 import org.modeshape.common.annotation.NotThreadSafe;
+import org.modeshape.common.util.HashCode;
 import org.modeshape.jcr.query.QueryResults;
 
 @NotThreadSafe
@@ -94,6 +95,19 @@ public final class PlanHints implements Serializable, Cloneable {
      */
     public boolean qualifyExpandedColumnNames = false;
 
+    /**
+     * Flag indicates that the plan was optimized using the values of one or more bind variables, and therefore cannot be reused
+     * for other values of those variables.
+     */
+    public boolean dependsOnVariableValues = false;
+
+    /**
+     * Flag indicates whether the query should exclude, before the results are materialized, the nodes that the user is not
+     * allowed to read. The permissions of each node in the results are still checked, so this only avoids materializing nodes
+     * that would be discarded anyway.
+     */
+    public boolean restrictToReadableNodes = false;
+
     public PlanHints() {
     }
 
@@ -116,6 +130,8 @@ public final class PlanHints implements Serializable, Cloneable {
         sb.append(", includeSystemContent=").append(includeSystemContent);
         sb.append(", useSessionContent=").append(useSessionContent);
         sb.append(", qualifyExpandedColumnNames=").append(qualifyExpandedColumnNames);
+        sb.append(", dependsOnVariableValues=").append(dependsOnVariableValues);
+        sb.append(", restrictToReadableNodes=").append(restrictToReadableNodes);
         sb.append('}');
         return sb.toString();
     }
@@ -139,6 +155,61 @@ public final class PlanHints implements Serializable, Cloneable {
         clone.includeSystemContent = this.includeSystemContent;
         clone.useSessionContent = this.useSessionContent;
         clone.qualifyExpandedColumnNames = this.qualifyExpandedColumnNames;
+        clone.dependsOnVariableValues = this.dependsOnVariableValues;
+        clone.restrictToReadableNodes = this.restrictToReadableNodes;
         return clone;
     }
+
+    /**
+     * Set all of the flags in this object to the values of the corresponding flags in the supplied hints.
+     * 
+     * @param other the hints whose flags are to be copied; may not be null
+     */
+    public void copyFrom( PlanHints other ) {
+        this.hasCriteria = other.hasCriteria;
+        this.hasView = other.hasView;
+        this.hasJoin = other.hasJoin;
+        this.hasSort = other.hasSort;
+        this.hasSetQuery = other.hasSetQuery;
+        this.hasLimit = other.hasLimit;
+        this.hasOptionalJoin = other.hasOptionalJoin;
+        this.hasFullTextSearch = other.hasFullTextSearch;
+        this.hasSubqueries = other.hasSubqueries;
+        this.isExistsQuery = other.isExistsQuery;
+        this.showPlan = other.showPlan;
+        this.planOnly = other.planOnly;
+        this.validateColumnExistance = other.validateColumnExistance;
+        this.includeSystemContent = other.includeSystemContent;
+        this.useSessionContent = other.useSessionContent;
+        this.qualifyExpandedColumnNames = other.qualifyExpandedColumnNames;
+        this.dependsOnVariableValues = other.dependsOnVariableValues;
+        this.restrictToReadableNodes = other.restrictToReadableNodes;
+    }
+
+    @Override
+    public int hashCode() {
+        return HashCode.compute(hasCriteria, hasView, hasJoin, hasSort, hasSetQuery, hasLimit, hasOptionalJoin, hasFullTextSearch,
+                                hasSubqueries, isExistsQuery, showPlan, planOnly, validateColumnExistance, includeSystemContent,
+                                useSessionContent, qualifyExpandedColumnNames, dependsOnVariableValues, restrictToReadableNodes);
+    }
+
+    @Override
+    public boolean equals( Object obj ) {
+        if (obj == this) return true;
+        if (obj instanceof PlanHints) {
+            PlanHints that = (PlanHints)obj;
+            return this.hasCriteria == that.hasCriteria && this.hasView == that.hasView && this.hasJoin == that.hasJoin
+                   && this.hasSort == that.hasSort && this.hasSetQuery == that.hasSetQuery && this.hasLimit == that.hasLimit
+                   && this.hasOptionalJoin == that.hasOptionalJoin && this.hasFullTextSearch == that.hasFullTextSearch
+                   && this.hasSubqueries == that.hasSubqueries && this.isExistsQuery == that.isExistsQuery
+                   && this.showPlan == that.showPlan && this.planOnly == that.planOnly
+                   && this.validateColumnExistance == that.validateColumnExistance
+                   && this.includeSystemContent == that.includeSystemContent
+                   && this.useSessionContent == that.useSessionContent
+                   && this.qualifyExpandedColumnNames == that.qualifyExpandedColumnNames
+                   && this.dependsOnVariableValues == that.dependsOnVariableValues
+                   && this.restrictToReadableNodes == that.restrictToReadableNodes;
+        }
+        return false;
+    }
 }
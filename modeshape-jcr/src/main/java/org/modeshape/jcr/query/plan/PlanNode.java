@@ -201,6 +201,12 @@ public final class PlanNode implements Iterable<PlanNode>, Readable, Cloneable,
          */
         ACCESS_NO_RESULTS,
 
+        /**
+         * For any node, the estimated number of tuples that the node will return. Value is a {@link Long} object, and the property
+         * is not set when no estimate is available.
+         */
+        ESTIMATED_CARDINALITY,
+
         /** For dependenty queries, defines the variable where the results will be placed. */
         VARIABLE_NAME
     }
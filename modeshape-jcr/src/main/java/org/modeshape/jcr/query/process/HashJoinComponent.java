@@ -0,0 +1,302 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Location;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.value.Path;
+
+/**
+ * Create a processing component that performs a hash-join algorithm. This algorithm only makes sense for
+ * {@link EquiJoinCondition equi-joins}, {@link ChildNodeJoinCondition child-node joins}, and {@link SameNodeJoinCondition
+ * same-node joins} (without a relative path), and only for {@link JoinType#INNER inner}, {@link JoinType#LEFT_OUTER left outer}
+ * and {@link JoinType#RIGHT_OUTER right outer} joins.
+ * <p>
+ * The component builds a hash table of the tuples on one side of the join, keyed by the value used in the join condition, and
+ * then probes that table with each of the tuples on the other side. Unlike the {@link MergeJoinComponent merge-join}, neither side
+ * needs to be sorted, and unlike the {@link NestedLoopJoinComponent nested-loop join} each tuple is examined only once. The
+ * tuples are returned in the same order as the nested-loop join would return them.
+ * </p>
+ * <p>
+ * The hash table only references the tuples that were already obtained from the left and right components, so it requires
+ * little memory beyond that needed for the tuples themselves.
+ * </p>
+ */
+public class HashJoinComponent extends JoinComponent {
+
+    public HashJoinComponent( QueryContext context,
+                              ProcessingComponent left,
+                              ProcessingComponent right,
+                              JoinCondition condition,
+                              JoinType joinType ) {
+        super(context, left, right, condition, joinType);
+        assert joinType == JoinType.INNER || joinType == JoinType.LEFT_OUTER || joinType == JoinType.RIGHT_OUTER;
+        assert condition instanceof EquiJoinCondition || condition instanceof ChildNodeJoinCondition
+               || condition instanceof SameNodeJoinCondition;
+    }
+
+    @Override
+    public List<Object[]> execute() {
+        // Construct the necessary components ...
+        final KeySelector leftKeys = keySelectorFor(left(), true);
+        final KeySelector rightKeys = keySelectorFor(right(), false);
+        final TupleMerger merger = createMerger(getColumns(), left().getColumns(), right().getColumns());
+
+        // Get the left and right results ...
+        List<Object[]> leftTuples = left().execute();
+        List<Object[]> rightTuples = right().execute();
+        List<Object[]> tuples = null;
+        switch (getJoinType()) {
+            case INNER:
+                // Note that in SQL joins, a NULL value on one side of the join criteria is not considered equal to
+                // a NULL value on the other side, so tuples without a key are never added to or found in the hash table ...
+                tuples = new ArrayList<Object[]>(Math.min(leftTuples.size(), rightTuples.size()));
+                if (rightTuples.size() <= leftTuples.size()) {
+                    // Build the table on the right and probe it with each of the tuples on the left ...
+                    Map<Object, List<Integer>> table = buildTable(rightTuples, rightKeys);
+                    for (Object[] leftTuple : leftTuples) {
+                        Collection<Integer> matches = probe(table, leftKeys.keysFor(leftTuple));
+                        if (matches == null) continue;
+                        for (Integer index : matches) {
+                            tuples.add(merger.merge(leftTuple, rightTuples.get(index)));
+                        }
+                    }
+                } else {
+                    // Build the table on the left and probe it with each of the tuples on the right, but record the matches
+                    // so that the results are still ordered by the tuples on the left ...
+                    Map<Object, List<Integer>> table = buildTable(leftTuples, leftKeys);
+                    List<List<Object[]>> matchesByLeft = new ArrayList<List<Object[]>>(leftTuples.size());
+                    for (int i = 0; i != leftTuples.size(); ++i) {
+                        matchesByLeft.add(null);
+                    }
+                    for (Object[] rightTuple : rightTuples) {
+                        Collection<Integer> matches = probe(table, rightKeys.keysFor(rightTuple));
+                        if (matches == null) continue;
+                        for (Integer index : matches) {
+                            List<Object[]> rightMatches = matchesByLeft.get(index);
+                            if (rightMatches == null) {
+                                rightMatches = new ArrayList<Object[]>();
+                                matchesByLeft.set(index, rightMatches);
+                            }
+                            rightMatches.add(rightTuple);
+                        }
+                    }
+                    for (int i = 0; i != leftTuples.size(); ++i) {
+                        List<Object[]> rightMatches = matchesByLeft.get(i);
+                        if (rightMatches == null) continue;
+                        Object[] leftTuple = leftTuples.get(i);
+                        for (Object[] rightTuple : rightMatches) {
+                            tuples.add(merger.merge(leftTuple, rightTuple));
+                        }
+                    }
+                }
+                break;
+            case LEFT_OUTER:
+                // We'll have all the tuples on the left, with any of those on the right that match ...
+                tuples = new ArrayList<Object[]>(leftTuples.size());
+                Map<Object, List<Integer>> rightTable = buildTable(rightTuples, rightKeys);
+                for (Object[] leftTuple : leftTuples) {
+                    Collection<Integer> matches = probe(rightTable, leftKeys.keysFor(leftTuple));
+                    if (matches == null) {
+                        tuples.add(merger.merge(leftTuple, null));
+                        continue;
+                    }
+                    for (Integer index : matches) {
+                        tuples.add(merger.merge(leftTuple, rightTuples.get(index)));
+                    }
+                }
+                break;
+            case RIGHT_OUTER:
+                // We'll have all the tuples on the right, with any of those on the left that match ...
+                tuples = new ArrayList<Object[]>(rightTuples.size());
+                Map<Object, List<Integer>> leftTable = buildTable(leftTuples, leftKeys);
+                for (Object[] rightTuple : rightTuples) {
+                    Collection<Integer> matches = probe(leftTable, rightKeys.keysFor(rightTuple));
+                    if (matches == null) {
+                        tuples.add(merger.merge(null, rightTuple));
+                        continue;
+                    }
+                    for (Integer index : matches) {
+                        tuples.add(merger.merge(leftTuples.get(index), rightTuple));
+                    }
+                }
+                break;
+            case FULL_OUTER:
+            case CROSS:
+                assert false : "Unable to use hash algorithm with " + getJoinType() + " joins";
+                throw new UnsupportedOperationException();
+        }
+        return tuples;
+    }
+
+    /**
+     * Build a hash table of the positions of the supplied tuples, keyed by each of the tuples' keys. The positions in each list
+     * are in increasing order.
+     * 
+     * @param tuples the tuples; may not be null
+     * @param keySelector the selector of the keys for each tuple; may not be null
+     * @return the hash table; never null
+     */
+    protected static Map<Object, List<Integer>> buildTable( List<Object[]> tuples,
+                                                            KeySelector keySelector ) {
+        Map<Object, List<Integer>> table = new HashMap<Object, List<Integer>>(Math.max(16, tuples.size() * 2));
+        int index = 0;
+        for (Object[] tuple : tuples) {
+            for (Object key : keySelector.keysFor(tuple)) {
+                List<Integer> positions = table.get(key);
+                if (positions == null) {
+                    positions = new ArrayList<Integer>(1);
+                    table.put(key, positions);
+                }
+                positions.add(index);
+            }
+            ++index;
+        }
+        return table;
+    }
+
+    /**
+     * Find the positions of the tuples in the hash table that match any of the supplied keys.
+     * 
+     * @param table the hash table; may not be null
+     * @param keys the keys of the tuple used to probe the table; may not be null
+     * @return the positions of the matching tuples in increasing order and without duplicates, or null if there are no matches
+     */
+    protected static Collection<Integer> probe( Map<Object, List<Integer>> table,
+                                                Collection<?> keys ) {
+        switch (keys.size()) {
+            case 0:
+                return null;
+            case 1:
+                return table.get(keys.iterator().next());
+        }
+        // Multiple keys may match the same tuple, which must only be returned once ...
+        Set<Integer> positions = null;
+        for (Object key : keys) {
+            List<Integer> matches = table.get(key);
+            if (matches == null) continue;
+            if (positions == null) positions = new TreeSet<Integer>();
+            positions.addAll(matches);
+        }
+        return positions;
+    }
+
+    /**
+     * Interface defining the keys of a tuple that are used in the hash table.
+     */
+    protected static interface KeySelector {
+        /**
+         * Obtain the keys of the tuple that are to be used in the join condition.
+         * 
+         * @param tuple the tuple
+         * @return the keys; never null but empty if the tuple can never be joined
+         */
+        Collection<?> keysFor( Object[] tuple );
+    }
+
+    /**
+     * Create a {@link KeySelector} that obtains the keys for the tuples from the supplied source. The keys obtained for the left
+     * and right sides will be equal exactly when the {@link JoinComponent#joinableFor Joinable} for the join condition would
+     * consider the tuples joinable.
+     * 
+     * @param source the source component; may not be null
+     * @param isLeft true if the source is the left side of the join, or false if it is the right side
+     * @return the key selector; never null
+     */
+    protected KeySelector keySelectorFor( ProcessingComponent source,
+                                          boolean isLeft ) {
+        JoinCondition condition = getJoinCondition();
+        final ValueSelector valueSelector = valueSelectorFor(source, condition);
+        if (condition instanceof EquiJoinCondition) {
+            if (isLeft) {
+                // A multi-valued property on the left matches when any of its values match ...
+                return new KeySelector() {
+                    @Override
+                    public Collection<?> keysFor( Object[] tuple ) {
+                        Object value = valueSelector.evaluate(tuple);
+                        if (value == null) return Collections.emptyList();
+                        if (value instanceof Object[]) {
+                            Set<Object> keys = new LinkedHashSet<Object>();
+                            for (Object v : (Object[])value) {
+                                if (v != null) keys.add(v);
+                            }
+                            return keys;
+                        }
+                        return Collections.singletonList(value);
+                    }
+                };
+            }
+            // A multi-valued property on the right never matches ...
+            return new KeySelector() {
+                @Override
+                public Collection<?> keysFor( Object[] tuple ) {
+                    Object value = valueSelector.evaluate(tuple);
+                    if (value == null || value instanceof Object[]) return Collections.emptyList();
+                    return Collections.singletonList(value);
+                }
+            };
+        }
+        if (condition instanceof ChildNodeJoinCondition) {
+            String childSelectorName = ((ChildNodeJoinCondition)condition).childSelectorName().name();
+            if (source.getColumns().hasSelector(childSelectorName)) {
+                // The child's key is the path of its parent ...
+                return new KeySelector() {
+                    @Override
+                    public Collection<?> keysFor( Object[] tuple ) {
+                        Path path = pathOf(valueSelector.evaluate(tuple));
+                        if (path == null || path.isRoot()) return Collections.emptyList();
+                        return Collections.singletonList(path.getParent());
+                    }
+                };
+            }
+        }
+        // Otherwise the key is simply the path of the node ...
+        return new KeySelector() {
+            @Override
+            public Collection<?> keysFor( Object[] tuple ) {
+                Path path = pathOf(valueSelector.evaluate(tuple));
+                if (path == null) return Collections.emptyList();
+                return Collections.singletonList(path);
+            }
+        };
+    }
+
+    protected static Path pathOf( Object location ) {
+        return location != null ? ((Location)location).getPath() : null;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * An {@link Iterator} over tuples that computes each tuple only when it is needed. Subclasses simply implement
+ * {@link #findNext()} to compute the next tuple, or return null when there are no more tuples.
+ */
+@NotThreadSafe
+public abstract class LazyTupleIterator implements Iterator<Object[]> {
+
+    private Object[] next;
+    private boolean done = false;
+
+    @Override
+    public final boolean hasNext() {
+        if (next == null && !done) {
+            next = findNext();
+            if (next == null) done = true;
+        }
+        return next != null;
+    }
+
+    @Override
+    public final Object[] next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        Object[] result = next;
+        next = null;
+        return result;
+    }
+
+    @Override
+    public final void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Compute the next tuple. This method is not called again once it returns null.
+     * 
+     * @return the next tuple, or null if there are no more tuples
+     */
+    protected abstract Object[] findNext();
+}
@@ -23,6 +23,8 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import org.modeshape.jcr.query.model.Limit;
 
@@ -44,27 +46,39 @@ public class LimitComponent extends DelegatingComponent {
         if (limit.getRowLimit() == 0) {
             return emptyTuples();
         }
-        List<Object[]> tuples = delegate().execute();
-        if (limit.isOffset()) {
-            if (limit.getOffset() >= tuples.size()) {
-                // There aren't enough results, so return an empty list ...
-                return emptyTuples();
-            }
-            if (limit.hasRowLimited()) {
-                // Both an offset AND a row limit (which may be more than the number of rows available)...
-                int toIndex = Math.min(tuples.size(), Math.max(0, limit.getOffset() + limit.getRowLimit()));
-                tuples = tuples.subList(limit.getOffset(), toIndex);
-            } else {
-                // An offset, but no row limit ...
-                tuples = tuples.subList(limit.getOffset(), tuples.size());
-            }
-        } else {
-            // No offset, but perhaps there's a row limit ...
-            if (limit.hasRowLimited()) {
-                int toIndex = Math.min(limit.getRowLimit(), tuples.size());
-                tuples = tuples.subList(0, toIndex);
-            }
+        // Pull only as many tuples from the delegate as are needed ...
+        List<Object[]> tuples = new ArrayList<Object[]>();
+        Iterator<Object[]> iter = iterate();
+        while (iter.hasNext()) {
+            tuples.add(iter.next());
         }
         return tuples;
     }
+
+    @Override
+    public Iterator<Object[]> iterate() {
+        if (limit.getRowLimit() == 0) {
+            return emptyTuples().iterator();
+        }
+        final Iterator<Object[]> tuples = delegate().iterate();
+        return new LazyTupleIterator() {
+            private int skipped = 0;
+            private int returned = 0;
+
+            @Override
+            protected Object[] findNext() {
+                // Skip the tuples before the offset ...
+                while (skipped < limit.getOffset()) {
+                    if (!tuples.hasNext()) return null;
+                    tuples.next();
+                    ++skipped;
+                }
+                // And stop once the row limit is reached (without asking the delegate for another tuple) ...
+                if (limit.hasRowLimited() && returned >= limit.getRowLimit()) return null;
+                if (!tuples.hasNext()) return null;
+                ++returned;
+                return tuples.next();
+            }
+        };
+    }
 }
@@ -23,6 +23,8 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.QueryResults.Columns;
@@ -41,4 +43,9 @@ public class NoResultsComponent extends ProcessingComponent {
         return emptyTuples();
 
     }
+
+    @Override
+    public Iterator<Object[]> iterate() {
+        return Collections.<Object[]>emptyList().iterator();
+    }
 }
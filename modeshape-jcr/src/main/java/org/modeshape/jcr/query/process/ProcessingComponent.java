@@ -25,6 +25,7 @@ package org.modeshape.jcr.query.process;
 
 import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import org.modeshape.common.annotation.NotThreadSafe;
 import org.modeshape.common.collection.Problems;
@@ -101,6 +102,20 @@ public abstract class ProcessingComponent {
      */
     public abstract List<Object[]> execute();
 
+    /**
+     * Execute this stage of processing and return an iterator over the resulting tuples. Components that are able to do so
+     * compute each tuple only when it is requested from the iterator, so that a consumer needing only the first few tuples (such
+     * as a {@link LimitComponent}) does not cause all of the tuples to be computed and held in memory.
+     * <p>
+     * By default, this method simply iterates over the tuples returned by {@link #execute()}.
+     * </p>
+     * 
+     * @return the iterator over the tuples, where each tuple corresonds to the {@link #getColumns() columns}; never null
+     */
+    public Iterator<Object[]> iterate() {
+        return execute().iterator();
+    }
+
     /**
      * Close these results, allowing any resources to be released.
      */
@@ -23,6 +23,7 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.Iterator;
 import java.util.List;
 import org.modeshape.jcr.query.model.Column;
 import org.modeshape.jcr.query.plan.PlanNode.Type;
@@ -42,4 +43,9 @@ public class ProjectComponent extends DelegatingComponent {
     public List<Object[]> execute() {
         return delegate().execute();
     }
+
+    @Override
+    public Iterator<Object[]> iterate() {
+        return delegate().iterate();
+    }
 }
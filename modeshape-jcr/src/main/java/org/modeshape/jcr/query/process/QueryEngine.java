@@ -23,13 +23,16 @@
  */
 package org.modeshape.jcr.query.process;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.util.CheckArg;
 import org.modeshape.jcr.GraphI18n;
 import org.modeshape.jcr.api.query.QueryCancelledException;
 import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryPlanCache;
 import org.modeshape.jcr.query.QueryResults;
 import org.modeshape.jcr.query.QueryResults.Statistics;
 import org.modeshape.jcr.query.model.BindVariableName;
@@ -57,6 +60,7 @@ public class QueryEngine {
     protected final Planner planner;
     protected final Optimizer optimizer;
     protected final Processor processor;
+    protected final QueryPlanCache planCache;
 
     /**
      * Create a new query engine given the {@link Planner planner}, {@link Optimizer optimizer}, {@link Processor processor}, and
@@ -72,10 +76,31 @@ public class QueryEngine {
     public QueryEngine( Planner planner,
                         Optimizer optimizer,
                         Processor processor ) {
+        this(planner, optimizer, processor, null);
+    }
+
+    /**
+     * Create a new query engine given the {@link Planner planner}, {@link Optimizer optimizer}, {@link Processor processor}, and
+     * the cache of optimized plans.
+     * 
+     * @param planner the planner that should be used to generate canonical query plans for the queries; may be null if the
+     *        {@link CanonicalPlanner} should be used
+     * @param optimizer the optimizer that should be used to optimize the canonical query plan; may be null if the
+     *        {@link RuleBasedOptimizer} should be used
+     * @param processor the processor implementation that should be used to process the planned query and return the results
+     * @param planCache the cache in which the optimized plans are kept so they can be reused by later executions of the same
+     *        queries; may be null if every query is to be planned and optimized when it is executed
+     * @throws IllegalArgumentException if the processor reference is null
+     */
+    public QueryEngine( Planner planner,
+                        Optimizer optimizer,
+                        Processor processor,
+                        QueryPlanCache planCache ) {
         CheckArg.isNotNull(processor, "processor");
         this.planner = planner != null ? planner : new CanonicalPlanner();
         this.optimizer = optimizer != null ? optimizer : new RuleBasedOptimizer();
         this.processor = processor;
+        this.planCache = planCache;
     }
 
     private void checkCancelled( QueryContext context ) throws QueryCancelledException {
@@ -111,20 +136,36 @@ public class QueryEngine {
             }
         });
 
-        // Create the canonical plan ...
+        // Create the canonical plan, unless the optimized plan for this query is already cached ...
         long start = System.nanoTime();
-        PlanNode plan = planner.createPlan(context, query);
+        PlanHints originalHints = null;
+        Set<String> originalVariableNames = null;
+        PlanNode plan = null;
+        PlanNode optimizedPlan = null;
+        if (planCache != null) {
+            optimizedPlan = planCache.getPlan(context, query);
+            if (optimizedPlan == null) {
+                originalHints = context.getHints().clone();
+                originalVariableNames = new HashSet<String>(context.getVariables().keySet());
+            }
+        }
+        if (optimizedPlan == null) plan = planner.createPlan(context, query);
         long duration = Math.abs(System.nanoTime() - start);
         Statistics stats = new Statistics(duration);
 
         checkCancelled(context);
         QueryResultColumns resultColumns = QueryResultColumns.empty();
         if (!context.getProblems().hasErrors()) {
-            // Optimize the plan ...
-            start = System.nanoTime();
-            PlanNode optimizedPlan = optimizer.optimize(context, plan);
-            duration = Math.abs(System.nanoTime() - start);
-            stats = stats.withOptimizationTime(duration);
+            if (optimizedPlan == null) {
+                // Optimize the plan ...
+                start = System.nanoTime();
+                optimizedPlan = optimizer.optimize(context, plan);
+                duration = Math.abs(System.nanoTime() - start);
+                stats = stats.withOptimizationTime(duration);
+                if (planCache != null) {
+                    planCache.putPlan(context, query, originalHints, originalVariableNames, optimizedPlan);
+                }
+            }
 
             // Find the query result columns ...
             start = System.nanoTime();
@@ -256,6 +256,9 @@ public abstract class QueryProcessor<ProcessingContextType> implements Processor
                             throw new UnsupportedOperationException();
                         }
                         break;
+                    case HASH:
+                        component = new HashJoinComponent(context, left, right, joinCondition, joinType);
+                        break;
                     case NESTED_LOOP:
                         component = new NestedLoopJoinComponent(context, left, right, joinCondition, joinType);
                         break;
@@ -64,4 +64,30 @@ public class UnionComponent extends SetOperationComponent {
         }
         return tuples;
     }
+
+    @Override
+    public Iterator<Object[]> iterate() {
+        if (removeDuplicatesComparator != null) {
+            // All of the tuples are needed to remove the duplicates ...
+            return execute().iterator();
+        }
+        // Otherwise, simply concatenate the tuples from each source, executing each source only when it is reached ...
+        final Iterator<ProcessingComponent> sources = sources().iterator();
+        final Iterator<TupleReformatter> reformatters = sourceReformatters.iterator();
+        return new LazyTupleIterator() {
+            private Iterator<Object[]> current;
+            private TupleReformatter reformatter;
+
+            @Override
+            protected Object[] findNext() {
+                while (current == null || !current.hasNext()) {
+                    if (!sources.hasNext()) return null;
+                    current = sources.next().iterate();
+                    reformatter = reformatters.next();
+                }
+                Object[] tuple = current.next();
+                return reformatter != null ? reformatter.reformat(tuple) : tuple;
+            }
+        };
+    }
 }
@@ -390,6 +390,15 @@ public class PathExpression implements Serializable {
         return expression;
     }
 
+    /**
+     * Get the regular expression that determines whether a path matches this expression.
+     * 
+     * @return the regular expression; never null
+     */
+    String getMatchPattern() {
+        return this.matchPattern.pattern();
+    }
+
     /**
      * @return the expression
      */
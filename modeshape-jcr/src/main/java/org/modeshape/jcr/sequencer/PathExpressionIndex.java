@@ -0,0 +1,473 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.sequencer;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import org.modeshape.common.annotation.Immutable;
+import org.modeshape.common.annotation.NotThreadSafe;
+
+/**
+ * An index of {@link SequencerPathExpression}s that, in a single pass over the segments of a path, finds the expressions that
+ * might match that path. The index is built from the regular expressions that the path expressions use for matching, with each
+ * regular expression broken into patterns for the individual path segments: a literal name, a pattern matching any one segment,
+ * a pattern that may match one or more segments (e.g., any pattern containing '.'), or any sequence of segments (from '//'). All
+ * of these patterns are combined into a single trie, and a path is matched against all of the expressions at once by walking the
+ * trie one segment at a time.
+ * <p>
+ * The index is conservative: it never omits an expression that matches a path, but it may include expressions that don't (since
+ * the segment patterns ignore the details of wildcards and same-name-sibling indexes), and expressions whose regular expression
+ * cannot be broken into segment patterns are always included. The candidates should therefore still be checked with
+ * {@link SequencerPathExpression#matcher(String)}, which remains the sole arbiter of whether (and how) an expression matches.
+ * </p>
+ * 
+ * @param <T> the type of value associated with each expression
+ */
+@Immutable
+public final class PathExpressionIndex<T> {
+
+    /**
+     * The regular expression fragment that {@link PathExpression} uses for '//', which matches any sequence of segments.
+     */
+    private static final String ANY_SEQUENCE = "(?:/[^/]*)*";
+    private static final String ANY_CHARACTER_BUT_DELIMITER = "[^/]";
+
+    /**
+     * Create a builder for an index.
+     * 
+     * @return the new builder; never null
+     */
+    public static <T> Builder<T> create() {
+        return new Builder<T>();
+    }
+
+    private final List<T> values;
+    private final Node root;
+    /** The positions of the values whose expressions could not be indexed and that are therefore always candidates */
+    private final BitSet alwaysCandidates;
+
+    protected PathExpressionIndex( List<T> values,
+                                   Node root,
+                                   BitSet alwaysCandidates ) {
+        this.values = values;
+        this.root = root;
+        this.alwaysCandidates = alwaysCandidates;
+    }
+
+    /**
+     * Get all of the values in this index, in the order they were added.
+     * 
+     * @return the values; never null
+     */
+    public List<T> values() {
+        return values;
+    }
+
+    /**
+     * Determine whether there are no values in this index.
+     * 
+     * @return true if there are no values, or false otherwise
+     */
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Find the values whose expressions might match the supplied absolute path.
+     * 
+     * @param absolutePath the absolute path, which may end with a property segment (e.g., "<code>/a/b/@c</code>"); may not be
+     *        null
+     * @return the candidate values, in the order they were added; never null
+     */
+    public List<T> candidates( String absolutePath ) {
+        // Remove all trailing '/' as the path expressions do ...
+        int end = absolutePath.length();
+        while (end > 0 && absolutePath.charAt(end - 1) == '/') {
+            --end;
+        }
+        if (end == 0 || absolutePath.charAt(0) != '/') {
+            // Not an absolute path, so let the expressions decide ...
+            return values;
+        }
+
+        Set<Node> active = new LinkedHashSet<Node>();
+        root.addTo(active);
+        int start = 1;
+        while (!active.isEmpty()) {
+            int delim = absolutePath.indexOf('/', start);
+            if (delim == -1 || delim > end) delim = end;
+            String segmentName = nameOf(absolutePath.substring(start, delim));
+            Set<Node> next = new LinkedHashSet<Node>();
+            for (Node node : active) {
+                node.advance(segmentName, next);
+            }
+            active = next;
+            if (delim == end) break;
+            start = delim + 1;
+        }
+
+        BitSet matches = (BitSet)alwaysCandidates.clone();
+        for (Node node : active) {
+            for (Integer position : node.terminals) {
+                matches.set(position);
+            }
+        }
+        if (matches.isEmpty()) return Collections.emptyList();
+        List<T> candidates = new ArrayList<T>(matches.cardinality());
+        for (int i = matches.nextSetBit(0); i >= 0; i = matches.nextSetBit(i + 1)) {
+            candidates.add(values.get(i));
+        }
+        return candidates;
+    }
+
+    /**
+     * Get the lowercase name of the supplied path segment, without any same-name-sibling index.
+     * 
+     * @param segment the path segment; may not be null
+     * @return the name; never null
+     */
+    protected static String nameOf( String segment ) {
+        int index = segment.indexOf('[');
+        if (index != -1) segment = segment.substring(0, index);
+        return segment.toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Break the supplied regular expression into the patterns for the individual segments.
+     * 
+     * @param regex the regular expression used by a {@link PathExpression}; may not be null
+     * @return the segment patterns, or null if the regular expression could not be broken into segments
+     */
+    protected static List<SegmentPattern> segmentPatterns( String regex ) {
+        regex = removePlainGroups(regex);
+        List<SegmentPattern> patterns = new ArrayList<SegmentPattern>();
+        int i = 0;
+        int length = regex.length();
+        if (regex.startsWith(ANY_SEQUENCE)) {
+            patterns.add(SegmentPattern.ANY_SEQUENCE);
+            i = ANY_SEQUENCE.length();
+            if (i == length) return patterns;
+        }
+        if (i >= length || regex.charAt(i) != '/') return null;
+        ++i;
+        StringBuilder token = new StringBuilder();
+        int depth = 0;
+        boolean inClass = false;
+        while (i < length) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 >= length) return null;
+                token.append(c).append(regex.charAt(i + 1));
+                i += 2;
+                continue;
+            }
+            if (inClass) {
+                if (c == ']') inClass = false;
+                token.append(c);
+                ++i;
+                continue;
+            }
+            if (c == '[') {
+                inClass = true;
+            } else if (depth == 0 && regex.startsWith(ANY_SEQUENCE, i)) {
+                patterns.add(SegmentPattern.forToken(token.toString()));
+                patterns.add(SegmentPattern.ANY_SEQUENCE);
+                token = null;
+                i += ANY_SEQUENCE.length();
+                if (i == length) break;
+                if (regex.charAt(i) != '/') return null;
+                token = new StringBuilder();
+                ++i;
+                continue;
+            } else if (c == '(') {
+                ++depth;
+            } else if (c == ')') {
+                --depth;
+            } else if (c == '|' && depth == 0) {
+                // An alternative for the whole path ...
+                return null;
+            } else if (c == '/') {
+                // A group that spans several segments ...
+                if (depth != 0) return null;
+                patterns.add(SegmentPattern.forToken(token.toString()));
+                token = new StringBuilder();
+                ++i;
+                continue;
+            }
+            token.append(c);
+            ++i;
+        }
+        if (inClass || depth != 0) return null;
+        if (token != null) patterns.add(SegmentPattern.forToken(token.toString()));
+        return patterns;
+    }
+
+    /**
+     * Remove the parentheses of capturing groups that have no quantifier and no alternatives of their own, since these groups
+     * only capture and do not change what the regular expression matches.
+     * 
+     * @param regex the regular expression; may not be null
+     * @return the regular expression without such groups; never null
+     */
+    protected static String removePlainGroups( String regex ) {
+        int length = regex.length();
+        BitSet removed = new BitSet(length);
+        List<int[]> openGroups = new ArrayList<int[]>(); // each is { position of '(', 1 if it has alternatives }
+        boolean inClass = false;
+        for (int i = 0; i < length; ++i) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                ++i;
+            } else if (inClass) {
+                if (c == ']') inClass = false;
+            } else if (c == '[') {
+                inClass = true;
+            } else if (c == '(') {
+                openGroups.add(new int[] {i, 0});
+            } else if (c == '|' && !openGroups.isEmpty()) {
+                openGroups.get(openGroups.size() - 1)[1] = 1;
+            } else if (c == ')' && !openGroups.isEmpty()) {
+                int[] group = openGroups.remove(openGroups.size() - 1);
+                int open = group[0];
+                boolean capturing = open + 1 < length && regex.charAt(open + 1) != '?';
+                char next = i + 1 < length ? regex.charAt(i + 1) : '\0';
+                boolean quantified = next == '?' || next == '*' || next == '+' || next == '{';
+                if (capturing && group[1] == 0 && !quantified) {
+                    removed.set(open);
+                    removed.set(i);
+                }
+            }
+        }
+        if (removed.isEmpty()) return regex;
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; ++i) {
+            if (!removed.get(i)) sb.append(regex.charAt(i));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The pattern for one or more segments of a path.
+     */
+    @Immutable
+    protected static final class SegmentPattern {
+        protected static final SegmentPattern ANY_SEQUENCE = new SegmentPattern(Kind.ANY_SEQUENCE, null);
+        protected static final SegmentPattern ANY_SEGMENT = new SegmentPattern(Kind.ANY_SEGMENT, null);
+        protected static final SegmentPattern ANY_SEGMENTS = new SegmentPattern(Kind.ANY_SEGMENTS, null);
+
+        protected static enum Kind {
+            /** Matches the segment with a given name */
+            NAME,
+            /** Matches any single segment */
+            ANY_SEGMENT,
+            /** Matches one or more segments */
+            ANY_SEGMENTS,
+            /** Matches zero or more segments */
+            ANY_SEQUENCE;
+        }
+
+        protected final Kind kind;
+        protected final String name;
+
+        private SegmentPattern( Kind kind,
+                                String name ) {
+            this.kind = kind;
+            this.name = name;
+        }
+
+        /**
+         * Classify the regular expression for a single segment.
+         * 
+         * @param token the regular expression between two delimiters; may not be null
+         * @return the pattern; never null
+         */
+        protected static SegmentPattern forToken( String token ) {
+            if (mayMatchDelimiter(token)) return ANY_SEGMENTS;
+            // Look for a literal name followed by an optional same-name-sibling index ...
+            int nameEnd = token.length();
+            int index = token.indexOf("\\[");
+            if (index != -1) {
+                int optionalIndex = token.indexOf("(?:\\[");
+                nameEnd = optionalIndex != -1 && optionalIndex < index ? optionalIndex : index;
+                for (int i = nameEnd; i < token.length(); ++i) {
+                    if ("\\[]()?:|d+0123456789".indexOf(token.charAt(i)) == -1) return ANY_SEGMENT;
+                }
+            }
+            for (int i = 0; i < nameEnd; ++i) {
+                char c = token.charAt(i);
+                if (c > 127 || "\\[](){}|*+?.^$".indexOf(c) != -1) return ANY_SEGMENT;
+            }
+            return new SegmentPattern(Kind.NAME, token.substring(0, nameEnd).toLowerCase(Locale.ENGLISH));
+        }
+
+        /**
+         * Determine whether the regular expression for a segment may match a '/' character (and therefore more than one
+         * segment).
+         * 
+         * @param token the regular expression between two delimiters; may not be null
+         * @return true if the expression may match a delimiter, or false if it cannot
+         */
+        private static boolean mayMatchDelimiter( String token ) {
+            int length = token.length();
+            for (int i = 0; i < length; ++i) {
+                char c = token.charAt(i);
+                if (c == '\\') {
+                    // Escaped characters are literals, except for character classes like '\S' or '\W' ...
+                    if (i + 1 < length && Character.isLetter(token.charAt(i + 1)) && token.charAt(i + 1) != 'd') return true;
+                    ++i;
+                } else if (c == '.') {
+                    return true;
+                } else if (c == '[') {
+                    if (!token.startsWith(ANY_CHARACTER_BUT_DELIMITER, i)) return true;
+                    i += ANY_CHARACTER_BUT_DELIMITER.length() - 1;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return kind == Kind.NAME ? name : kind.toString();
+        }
+    }
+
+    /**
+     * A state in the trie. The node for a pattern that matches several segments loops on any segment.
+     */
+    protected static final class Node {
+        private final boolean loops;
+        private final Map<String, Node> named = new HashMap<String, Node>();
+        private Node anySegment;
+        private Node anySegments;
+        private Node anySequence;
+        protected final List<Integer> terminals = new ArrayList<Integer>(1);
+
+        protected Node( boolean loops ) {
+            this.loops = loops;
+        }
+
+        protected Node child( SegmentPattern pattern ) {
+            switch (pattern.kind) {
+                case NAME:
+                    Node child = named.get(pattern.name);
+                    if (child == null) {
+                        child = new Node(false);
+                        named.put(pattern.name, child);
+                    }
+                    return child;
+                case ANY_SEGMENT:
+                    if (anySegment == null) anySegment = new Node(false);
+                    return anySegment;
+                case ANY_SEGMENTS:
+                    if (anySegments == null) anySegments = new Node(true);
+                    return anySegments;
+                case ANY_SEQUENCE:
+                    if (anySequence == null) anySequence = new Node(true);
+                    return anySequence;
+            }
+            throw new IllegalStateException();
+        }
+
+        /**
+         * Add this node and the nodes that can be reached from it without consuming a segment.
+         * 
+         * @param nodes the set of nodes; may not be null
+         */
+        protected void addTo( Set<Node> nodes ) {
+            if (nodes.add(this) && anySequence != null) {
+                anySequence.addTo(nodes);
+            }
+        }
+
+        /**
+         * Add the nodes that are reached from this node by consuming the segment with the supplied name.
+         * 
+         * @param segmentName the lowercase name of the segment; may not be null
+         * @param nodes the set of nodes; may not be null
+         */
+        protected void advance( String segmentName,
+                                Set<Node> nodes ) {
+            if (loops) addTo(nodes);
+            Node child = named.get(segmentName);
+            if (child != null) child.addTo(nodes);
+            if (anySegment != null) anySegment.addTo(nodes);
+            if (anySegments != null) anySegments.addTo(nodes);
+        }
+    }
+
+    /**
+     * A builder of {@link PathExpressionIndex} instances.
+     * 
+     * @param <T> the type of value associated with each expression
+     */
+    @NotThreadSafe
+    public static final class Builder<T> {
+        private final List<T> values = new ArrayList<T>();
+        private final Node root = new Node(false);
+        private final BitSet alwaysCandidates = new BitSet();
+
+        protected Builder() {
+        }
+
+        /**
+         * Add the supplied expression and its value.
+         * 
+         * @param expression the expression; may not be null
+         * @param value the value that is a candidate for paths that the expression might match
+         * @return this builder, for method chaining; never null
+         */
+        public Builder<T> add( SequencerPathExpression expression,
+                               T value ) {
+            int position = values.size();
+            values.add(value);
+            List<SegmentPattern> patterns = segmentPatterns(expression.getSelectPathExpression().getMatchPattern());
+            if (patterns == null) {
+                alwaysCandidates.set(position);
+            } else {
+                Node node = root;
+                for (SegmentPattern pattern : patterns) {
+                    node = node.child(pattern);
+                }
+                node.terminals.add(position);
+            }
+            return this;
+        }
+
+        /**
+         * Build the index. This builder should not be used afterward.
+         * 
+         * @return the index; never null
+         */
+        public PathExpressionIndex<T> build() {
+            return new PathExpressionIndex<T>(Collections.unmodifiableList(values), root, alwaysCandidates);
+        }
+    }
+}
@@ -113,6 +113,13 @@ public class SequencerPathExpression implements Serializable {
         return this.selectExpression.getSelectExpression();
     }
 
+    /**
+     * @return the path expression that selects the changes to be sequenced; never null
+     */
+    PathExpression getSelectPathExpression() {
+        return this.selectExpression;
+    }
+
     /**
      * @return outputExpression
      */
@@ -21,42 +21,214 @@
  * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
  * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
  */
-
 package org.modeshape.jcr.text;
 
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.Writer;
+import org.modeshape.common.SystemFailureException;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.jcr.api.text.TextExtractor;
 
 
 /**
  * A {@link org.modeshape.jcr.api.text.TextExtractor.Output} implementation which appends each incoming text into a buffer,
  * separating the content via the configured separator.
+ * <p>
+ * The output can be bounded: any text beyond the {@link #getMaxLength() maximum length} is discarded (and the output is marked as
+ * {@link #isTruncated() truncated}), and once the buffer holds more than the in-memory limit its content is moved to a temporary
+ * file (and the output is marked as {@link #isOversized() oversized}). The text can then be streamed via {@link #getReader()}
+ * without ever being held in memory in its entirety. Callers should always {@link #close() close} a bounded output so that any
+ * temporary file is removed.
+ * </p>
  *
  * @author Horia Chiorean
  */
 public final class TextExtractorOutput implements TextExtractor.Output {
 
     private static final String DEFAULT_SEPARATOR = " ";
+    private static final String CHARSET = "UTF-8";
+    private static final int COPY_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The default number of characters that are kept in memory before the text is moved to a temporary file.
+     */
+    public static final int DEFAULT_IN_MEMORY_LIMIT = 1 << 20;
 
     private final StringBuilder buffer = new StringBuilder("");
     private final String separator;
+    private final long maxLength;
+    private final int inMemoryLimit;
+    private long length;
+    private boolean truncated;
+    private boolean oversized;
+    private File file;
+    private Writer fileWriter;
 
     public TextExtractorOutput() {
         this(DEFAULT_SEPARATOR);
     }
 
     public TextExtractorOutput( String separator ) {
+        this(separator, -1L, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Create a bounded output.
+     *
+     * @param separator the separator placed between consecutive pieces of text; may not be null
+     * @param maxLength the maximum number of characters that are recorded, or a negative number if there is no limit
+     * @param inMemoryLimit the number of characters that are kept in memory before the text is moved to a temporary file
+     */
+    public TextExtractorOutput( String separator,
+                                long maxLength,
+                                int inMemoryLimit ) {
+        assert separator != null;
+        assert inMemoryLimit > 0;
         this.separator = separator;
+        this.maxLength = maxLength;
+        this.inMemoryLimit = inMemoryLimit;
     }
 
     @Override
     public void recordText( String text ) {
-        if (buffer.length() > 0) {
-            buffer.append(separator);
+        if (text == null || truncated) {
+            return;
+        }
+        if (length > 0) {
+            append(separator);
+        }
+        append(text);
+    }
+
+    private void append( String text ) {
+        int count = text.length();
+        if (maxLength >= 0 && length + count > maxLength) {
+            truncated = true;
+            count = (int)(maxLength - length);
+            if (count > 0 && Character.isHighSurrogate(text.charAt(count - 1))) {
+                // Don't split a surrogate pair ...
+                --count;
+            }
+            if (count <= 0) {
+                return;
+            }
         }
-        buffer.append(text);
+        buffer.append(text, 0, count);
+        length += count;
+        if (buffer.length() >= inMemoryLimit) {
+            try {
+                moveBufferToFile();
+            } catch (IOException e) {
+                throw new SystemFailureException(e);
+            }
+        }
+    }
+
+    private void moveBufferToFile() throws IOException {
+        if (fileWriter == null) {
+            file = File.createTempFile("modeshape-text", ".txt");
+            oversized = true;
+            fileWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), CHARSET), COPY_BUFFER_SIZE);
+        }
+        char[] chars = new char[Math.min(COPY_BUFFER_SIZE, buffer.length())];
+        for (int start = 0; start < buffer.length(); start += chars.length) {
+            int end = Math.min(start + chars.length, buffer.length());
+            buffer.getChars(start, end, chars, 0);
+            fileWriter.write(chars, 0, end - start);
+        }
+        buffer.setLength(0);
+    }
+
+    /**
+     * Get the maximum number of characters that this output records.
+     *
+     * @return the maximum number of characters, or a negative number if there is no limit
+     */
+    public long getMaxLength() {
+        return maxLength;
     }
 
+    /**
+     * Get the number of characters that have been recorded.
+     *
+     * @return the number of characters
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Determine whether some of the text was discarded because it would have exceeded the maximum length.
+     *
+     * @return true if the text was truncated, or false otherwise
+     */
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    /**
+     * Determine whether the text exceeded the in-memory limit and was moved to a temporary file.
+     *
+     * @return true if the text is held in a temporary file, or false if it is held in memory
+     */
+    public boolean isOversized() {
+        return oversized;
+    }
+
+    /**
+     * Get the recorded text as a single string. Callers that can process the text as a stream should use {@link #getReader()}.
+     *
+     * @return the text; never null
+     */
     public String getText() {
-        return buffer.toString();
+        if (file == null) {
+            return buffer.toString();
+        }
+        try {
+            return IoUtil.read(getReader());
+        } catch (IOException e) {
+            throw new SystemFailureException(e);
+        }
+    }
+
+    /**
+     * Get a reader for the recorded text. No more text should be recorded once this method is called.
+     *
+     * @return the reader; never null
+     * @throws IOException if the text could not be read from the temporary file
+     */
+    public Reader getReader() throws IOException {
+        if (file == null) {
+            return new StringReader(buffer.toString());
+        }
+        if (fileWriter != null) {
+            moveBufferToFile();
+            fileWriter.close();
+            fileWriter = null;
+        }
+        return new InputStreamReader(new FileInputStream(file), CHARSET);
+    }
+
+    /**
+     * Release the resources held by this output, including any temporary file.
+     */
+    public void close() {
+        buffer.setLength(0);
+        if (fileWriter != null) {
+            IoUtil.closeQuietly(fileWriter);
+            fileWriter = null;
+        }
+        if (file != null) {
+            file.delete();
+            file = null;
+        }
     }
 }
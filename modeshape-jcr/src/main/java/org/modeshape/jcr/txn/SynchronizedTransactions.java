@@ -37,6 +37,7 @@ import org.infinispan.Cache;
 import org.infinispan.notifications.Listener;
 import org.infinispan.notifications.cachelistener.annotation.TransactionCompleted;
 import org.infinispan.notifications.cachelistener.event.TransactionCompletedEvent;
+import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.SessionEnvironment;
 import org.modeshape.jcr.cache.change.ChangeSet;
@@ -264,8 +265,9 @@ public final class SynchronizedTransactions extends Transactions {
                                Path path,
                                Name primaryType,
                                Set<Name> mixinTypes,
-                               Iterator<Property> propertiesIterator ) {
-            delegate.recordAdd(workspace, key, path, primaryType, mixinTypes, propertiesIterator);
+                               Iterator<Property> propertiesIterator,
+                               NodeCache cache ) {
+            delegate.recordAdd(workspace, key, path, primaryType, mixinTypes, propertiesIterator, cache);
         }
 
         @Override
@@ -274,8 +276,9 @@ public final class SynchronizedTransactions extends Transactions {
                                   Path path,
                                   Name primaryType,
                                   Set<Name> mixinTypes,
-                                  Iterator<Property> properties ) {
-            delegate.recordUpdate(workspace, key, path, primaryType, mixinTypes, properties);
+                                  Iterator<Property> properties,
+                                  NodeCache cache ) {
+            delegate.recordUpdate(workspace, key, path, primaryType, mixinTypes, properties, cache);
         }
 
         @Override
@@ -25,6 +25,8 @@ package org.modeshape.jcr.value.binary;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -32,6 +34,7 @@ import javax.jcr.RepositoryException;
 import org.modeshape.common.annotation.ThreadSafe;
 import org.modeshape.common.logging.Logger;
 import org.modeshape.common.util.CheckArg;
+import org.modeshape.common.util.IoUtil;
 import org.modeshape.common.util.StringUtil;
 import org.modeshape.jcr.TextExtractors;
 import org.modeshape.jcr.mimetype.MimeTypeDetector;
@@ -138,12 +141,9 @@ public abstract class AbstractBinaryStore implements BinaryStore {
 
         // there isn't any text available, so wait for a job to finish and then return the result
         try {
-            CountDownLatch latch = extractors.getWorkerLatch(binary.getKey(), false);
-            if (latch == null) {
-                // There is no latch, so just compute the text here ...
-                latch = extractors.extract(this, binary, new TextExtractorContext(detector()));
-            }
-            // There was a latch, so wait till the work is done ...
+            // Schedule the extraction ahead of any background work (or join the extraction that is already scheduled) ...
+            CountDownLatch latch = extractors.extract(this, binary, new TextExtractorContext(detector()), true);
+            // Wait till the work is done ...
             if (latch != null && latch.await(DEFAULT_LATCH_WAIT_IN_SECONDS, TimeUnit.SECONDS)) {
                 return getExtractedText(binary);
             }
@@ -154,6 +154,15 @@ public abstract class AbstractBinaryStore implements BinaryStore {
         }
     }
 
+    @Override
+    public final void scheduleTextExtraction( BinaryValue binary ) {
+        if (extractors == null || !extractors.extractionEnabled() || !(binary instanceof StoredBinaryValue)) {
+            return;
+        }
+        // The extraction is done in the background, and is rejected when the extraction queue is full ...
+        extractors.extract(this, binary, new TextExtractorContext(detector()));
+    }
+
     @Override
     public String getMimeType( BinaryValue binary,
                                String name ) throws IOException, RepositoryException {
@@ -233,6 +242,49 @@ public abstract class AbstractBinaryStore implements BinaryStore {
      */
     public abstract String getExtractedText( BinaryValue source ) throws BinaryStoreException;
 
+    /**
+     * Stores the extracted text of a binary value into this store, reading the text from the supplied reader. The reader is always
+     * closed by this method.
+     * <p>
+     * By default this method reads the whole text into memory and calls {@link #storeExtractedText(BinaryValue, String)}; stores
+     * that can write the text incrementally should override it.
+     * </p>
+     *
+     * @param source a {@code non-null} {@link BinaryValue} instance from which the text was extracted
+     * @param extractedText a {@code non-null} reader of the extracted text
+     * @throws BinaryStoreException if the operation fails or if the extracted text cannot be stored for the given binary value
+     * (regardless of the reason)
+     */
+    public void storeExtractedText( BinaryValue source,
+                                    Reader extractedText ) throws BinaryStoreException {
+        String text = null;
+        try {
+            text = IoUtil.read(extractedText);
+        } catch (IOException e) {
+            throw new BinaryStoreException(e);
+        }
+        if (!StringUtil.isBlank(text)) {
+            storeExtractedText(source, text);
+        }
+    }
+
+    /**
+     * Returns a reader of the extracted text of a binary value, or {@code null} if such text hasn't been stored previously (but the
+     * binary value can be found in the store). The caller is responsible for closing the reader.
+     * <p>
+     * By default this method calls {@link #getExtractedText(BinaryValue)}; stores that can read the text incrementally should
+     * override it.
+     * </p>
+     *
+     * @param source a {@code non-null} {@link BinaryValue} instance from which the text was extracted
+     * @return a reader of the extracted text, or {@code null} if such text hasn't been stored in this store previously.
+     * @throws BinaryStoreException if the binary value cannot be found in the store.
+     */
+    public Reader getExtractedTextReader( BinaryValue source ) throws BinaryStoreException {
+        String text = getExtractedText(source);
+        return text != null ? new StringReader(text) : null;
+    }
+
     /**
      * Get the text extractor that can be used to extract text by this store.
      *
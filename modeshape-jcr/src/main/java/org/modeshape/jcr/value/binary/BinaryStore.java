@@ -172,6 +172,20 @@ public interface BinaryStore {
      */
     String getText( BinaryValue binary ) throws BinaryStoreException;
 
+    /**
+     * Schedule the extraction of the text of this binary content in the background, so that the text is likely to be available
+     * by the time it is {@link #getText(BinaryValue) needed} (for example, when the node that uses the binary value is indexed).
+     * This method never blocks, and the extraction is skipped when text extraction isn't enabled, when the text has already been
+     * extracted, or when there is too much other extraction work waiting.
+     * <p>
+     * In general, the implementation from {@link AbstractBinaryStore} should be enough and any custom {@link BinaryStore}
+     * implementations aren't expected to implement this.
+     * </p>
+     * 
+     * @param binary the binary content; may not be null
+     */
+    void scheduleTextExtraction( BinaryValue binary );
+
     /**
      * Get the MIME type for this binary value, never {@code null}.
      * <p>
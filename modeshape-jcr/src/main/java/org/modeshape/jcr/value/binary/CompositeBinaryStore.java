@@ -314,6 +314,21 @@ public class CompositeBinaryStore implements BinaryStore {
         throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(binary.getKey(), this));
     }
 
+    @Override
+    public void scheduleTextExtraction( BinaryValue binary ) {
+        if (binary instanceof InMemoryBinaryValue) return;
+
+        Iterator<Map.Entry<String, BinaryStore>> it = getNamedStoreIterator();
+
+        while (it.hasNext()) {
+            BinaryStore bs = it.next().getValue();
+            if (bs.hasBinary(binary.getKey())) {
+                bs.scheduleTextExtraction(binary);
+                return;
+            }
+        }
+    }
+
     @Override
     public String getMimeType( BinaryValue binary,
                                String name ) throws IOException, RepositoryException {
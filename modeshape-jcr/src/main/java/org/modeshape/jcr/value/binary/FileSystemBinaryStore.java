@@ -29,8 +29,11 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.RandomAccessFile;
+import java.io.Reader;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
 import java.security.NoSuchAlgorithmException;
@@ -544,6 +547,20 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         return storedStringAtKey(extractedTextKey);
     }
 
+    @Override
+    public Reader getExtractedTextReader( BinaryValue source ) throws BinaryStoreException {
+        if (!binaryValueExists(source)) {
+            throw new BinaryStoreException(JcrI18n.unableToFindBinaryValue.text(source.getKey(), directory));
+        }
+        BinaryKey extractedTextKey = createKeyFromSourceWithSuffix(source.getKey(), EXTRACTED_TEXT_SUFFIX);
+        try {
+            return new InputStreamReader(getInputStream(extractedTextKey));
+        } catch (BinaryStoreException e) {
+            // means the file wasn't found (isn't available yet) in the store
+            return null;
+        }
+    }
+
     private String storedStringAtKey( BinaryKey key ) throws BinaryStoreException {
         InputStream is = null;
         try {
@@ -571,6 +588,35 @@ public class FileSystemBinaryStore extends AbstractBinaryStore {
         storeStringAtKey(extractedText, extractedTextKey);
     }
 
+    @Override
+    public void storeExtractedText( BinaryValue source,
+                                    Reader extractedText ) throws BinaryStoreException {
+        try {
+            // Look for an existing file ...
+            if (!binaryValueExists(source)) {
+                return;
+            }
+            BinaryKey extractedTextKey = createKeyFromSourceWithSuffix(source.getKey(), EXTRACTED_TEXT_SUFFIX);
+            File tmpFile = null;
+            try {
+                tmpFile = File.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX + EXTRACTED_TEXT_SUFFIX);
+                // Copy the text in chunks rather than reading it all into memory ...
+                IoUtil.write(extractedText, new OutputStreamWriter(new BufferedOutputStream(new FileOutputStream(tmpFile))));
+                if (tmpFile.length() > 0) {
+                    saveTempFileToStore(tmpFile, extractedTextKey, tmpFile.length());
+                }
+            } catch (IOException e) {
+                throw new BinaryStoreException(e);
+            } finally {
+                if (tmpFile != null) {
+                    tmpFile.delete();
+                }
+            }
+        } finally {
+            IoUtil.closeQuietly(extractedText);
+        }
+    }
+
     private void storeStringAtKey( String string,
                                    BinaryKey key) throws BinaryStoreException {
         File tmpFile = null;
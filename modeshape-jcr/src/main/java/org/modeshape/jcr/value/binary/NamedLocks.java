@@ -23,24 +23,27 @@
  */
 package org.modeshape.jcr.value.binary;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A utility class that represents a set of named locks, allowing callers to atomically obtain a lock with a given name. Locks are
  * released as normal. This class uses reference counts to remove locks only when a named lock is no longer being used.
+ * <p>
+ * The named locks are kept in a {@link ConcurrentMap}, so threads obtaining locks with different names do not contend with each
+ * other. A named lock whose reference count has dropped to zero can never be obtained again; it is removed from the map by the
+ * thread that released it, and any thread that finds it before then simply removes it and creates a new named lock.
+ * </p>
  */
 public class NamedLocks {
 
-    private final Lock masterLock = new ReentrantLock();
-    private final Map<String, NamedLock> locks = new HashMap<String, NamedLock>();
+    private final ConcurrentMap<String, NamedLock> locks = new ConcurrentHashMap<String, NamedLock>();
 
     /**
      * Obtain a write lock for the supplied name. When this method returns, the current thread will have obtained the lock.
@@ -68,45 +71,39 @@ public class NamedLocks {
 
     protected final Lock lock( String name,
                                boolean writeLock ) {
-        NamedLock lock = null;
-        try {
-            masterLock.lock();
+        while (true) {
             // Look for a lock with the supplied name ...
-            lock = locks.get(name);
+            NamedLock lock = locks.get(name);
             if (lock == null) {
-                // Create a new named lock, which wraps and obtains the actual lock ...
-                lock = new NamedLock(name);
-                // Now store the wrapper in the map ...
-                locks.put(name, lock);
-                // Obtain and return the read or write lock (which we just created and nobody else can use yet) ...
+                // Create a new named lock (which already has a reference) and try to store it in the map ...
+                NamedLock newLock = new NamedLock(name);
+                lock = locks.putIfAbsent(name, newLock);
+                if (lock == null) {
+                    // Obtain and return the read or write lock (which we just created and nobody else can use yet) ...
+                    return newLock.lock(writeLock);
+                }
+            }
+            // Otherwise we found the lock and just need to increment the counter, unless it's no longer used ...
+            if (lock.incrementReferenceCount()) {
+                // Now be sure to obtain the lock ...
                 return lock.lock(writeLock);
             }
-            // Otherwise we found the lock and just need to increment the counter within the 'masterLock' scope ...
-            lock.incrementReferenceCount();
-        } finally {
-            masterLock.unlock();
+            // The lock was released by its last holder, so make sure it's removed and then try again ...
+            locks.remove(name, lock);
         }
-
-        // Now be sure to obtain the lock (outside of the 'masterLock' scope) ...
-        return lock.lock(writeLock);
     }
 
     protected void unlock( NamedLock namedLock,
                            Lock rawLock ) {
         try {
-            masterLock.lock();
-            try {
-                // Decrement the counter ...
-                if (namedLock.decrementReferenceCount() == 0) {
-                    // This was the last lock holder, so remove it from the map ...
-                    locks.remove(namedLock.name);
-                }
-            } finally {
-                // And always unlock the 'raw' (not wrapped) lock ...
-                rawLock.unlock();
+            // Decrement the counter ...
+            if (namedLock.decrementReferenceCount() == 0) {
+                // This was the last lock holder, so remove it from the map (unless it was already replaced) ...
+                locks.remove(namedLock.name, namedLock);
             }
         } finally {
-            masterLock.unlock();
+            // And always unlock the 'raw' (not wrapped) lock ...
+            rawLock.unlock();
         }
     }
 
@@ -116,12 +113,7 @@ public class NamedLocks {
      * @return the number of named locks; never negative
      */
     public int size() {
-        try {
-            masterLock.lock();
-            return locks.size();
-        } finally {
-            masterLock.unlock();
-        }
+        return locks.size();
     }
 
     protected static class WrappedLock implements Lock {
@@ -183,8 +175,18 @@ public class NamedLocks {
             this.writeLock = new WrappedLock(this, lock.writeLock());
         }
 
-        protected void incrementReferenceCount() {
-            referenceCount.incrementAndGet();
+        /**
+         * Add a reference to this lock, unless the lock is no longer used (that is, its reference count has already dropped to
+         * zero), in which case it must not be used again.
+         * 
+         * @return true if the reference was added, or false if this lock is no longer used
+         */
+        protected boolean incrementReferenceCount() {
+            while (true) {
+                int count = referenceCount.get();
+                if (count == 0) return false;
+                if (referenceCount.compareAndSet(count, count + 1)) return true;
+            }
         }
 
         protected int decrementReferenceCount() {
@@ -137,7 +137,9 @@ public class RepositoryStatisticsBean implements RepositoryStatisticsMXBean {
         for (Statistics statistics : history.getStats()) {
             if (statistics != null) {
                 statisticalData.add(new StatisticalData(statistics.getCount(), statistics.getMaximum(), statistics.getMinimum(),
-                                                        statistics.getMean(), statistics.getVariance()));
+                                                        statistics.getMean(), statistics.getVariance(), statistics.getMedian(),
+                                                        statistics.get95thPercentile(), statistics.get99thPercentile(),
+                                                        statistics.get999thPercentile()));
             }
         }
         return new HistoricalData(history.getWindow().getLiteral(),
@@ -14,6 +14,10 @@ public class StatisticalData implements Statistics {
     private final long minimum;
     private final double mean;
     private final double variance;
+    private final long median;
+    private final long percentile95;
+    private final long percentile99;
+    private final long percentile999;
 
 
     /**
@@ -23,17 +27,45 @@ public class StatisticalData implements Statistics {
      * @param mean sample mean
      * @param variance sample variance
      */
-    @ConstructorProperties({"count", "maximum", "minimum", "mean", "variance"})
     public StatisticalData( int count,
                             long maximum,
                             long minimum,
                             double mean,
                             double variance ) {
+        this(count, maximum, minimum, mean, variance, 0L, 0L, 0L, 0L);
+    }
+
+    /**
+     * @param count number of elements in the sample
+     * @param maximum max value from the sample
+     * @param minimum min value from the sample
+     * @param mean sample mean
+     * @param variance sample variance
+     * @param median the median of the sample
+     * @param percentile95 the 95th percentile of the sample
+     * @param percentile99 the 99th percentile of the sample
+     * @param percentile999 the 99.9th percentile of the sample
+     */
+    @ConstructorProperties( {"count", "maximum", "minimum", "mean", "variance", "median", "95thPercentile", "99thPercentile",
+        "999thPercentile"} )
+    public StatisticalData( int count,
+                            long maximum,
+                            long minimum,
+                            double mean,
+                            double variance,
+                            long median,
+                            long percentile95,
+                            long percentile99,
+                            long percentile999 ) {
         this.count = count;
         this.maximum = maximum;
         this.minimum = minimum;
         this.mean = mean;
         this.variance = variance;
+        this.median = median;
+        this.percentile95 = percentile95;
+        this.percentile99 = percentile99;
+        this.percentile999 = percentile999;
     }
 
     @Override
@@ -65,4 +97,24 @@ public class StatisticalData implements Statistics {
     public double getStandardDeviation() {
         return variance <= 0.0d ? 0.0d : Math.sqrt(variance);
     }
+
+    @Override
+    public long getMedian() {
+        return median;
+    }
+
+    @Override
+    public long get95thPercentile() {
+        return percentile95;
+    }
+
+    @Override
+    public long get99thPercentile() {
+        return percentile99;
+    }
+
+    @Override
+    public long get999thPercentile() {
+        return percentile999;
+    }
 }
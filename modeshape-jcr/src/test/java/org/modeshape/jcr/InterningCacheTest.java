@@ -0,0 +1,125 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link InterningCache}
+ */
+public class InterningCacheTest {
+
+    @Test
+    public void shouldReturnNullForUnknownKey() {
+        InterningCache<String, Object> cache = new InterningCache<String, Object>(100, 4);
+        assertThat(cache.get("missing"), is(nullValue()));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitCount(), is(0L));
+    }
+
+    @Test
+    public void shouldReturnFirstInternedValue() {
+        InterningCache<String, Object> cache = new InterningCache<String, Object>(100, 4);
+        Object first = new Object();
+        assertThat(cache.intern("key", first), is(sameInstance(first)));
+        assertThat(cache.intern("key", new Object()), is(sameInstance(first)));
+        assertThat(cache.get("key"), is(sameInstance(first)));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getHitRate(), is(1.0d));
+    }
+
+    @Test
+    public void shouldEvictValuesWhenCapacityIsExceeded() {
+        InterningCache<String, Object> cache = new InterningCache<String, Object>(100, 1);
+        for (int i = 0; i != 1000; ++i) {
+            cache.intern("key" + i, new Object());
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.getEvictionCount() >= 900L);
+    }
+
+    @Test
+    public void shouldPreferEvictingValuesThatWereNotReadAgain() {
+        InterningCache<String, Object> cache = new InterningCache<String, Object>(100, 1);
+        Object popular = new Object();
+        cache.intern("popular", popular);
+        for (int i = 0; i != 1000; ++i) {
+            cache.get("popular");
+            cache.intern("key" + i, new Object());
+        }
+        assertThat(cache.get("popular"), is(sameInstance(popular)));
+    }
+
+    @Test
+    public void shouldRemoveAllValuesWhenCleared() {
+        InterningCache<String, Object> cache = new InterningCache<String, Object>(100, 4);
+        for (int i = 0; i != 50; ++i) {
+            cache.intern("key" + i, new Object());
+        }
+        cache.clear();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.get("key1"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReturnSameValueToConcurrentThreads() throws Exception {
+        final InterningCache<String, Object> cache = new InterningCache<String, Object>(1000, 8);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i != 8; ++i) {
+                results.add(executor.submit(new Callable<Object>() {
+                    @Override
+                    public Object call() {
+                        Object value = null;
+                        for (int j = 0; j != 1000; ++j) {
+                            value = cache.get("key");
+                            if (value == null) value = cache.intern("key", new Object());
+                        }
+                        return value;
+                    }
+                }));
+            }
+            Object expected = results.get(0).get();
+            assertThat(cache.get("key"), is(sameInstance(expected)));
+            for (Future<Object> result : results) {
+                assertThat(result.get(), is(sameInstance(expected)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
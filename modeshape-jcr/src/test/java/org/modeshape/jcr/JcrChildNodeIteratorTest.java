@@ -51,6 +51,7 @@ public class JcrChildNodeIteratorTest {
     private Map<ChildReference, AbstractJcrNode> childNodesByRef;
     private List<AbstractJcrNode> children;
     private List<ChildReference> refs;
+    private List<List<ChildReference>> prefetched;
     private NodeIterator iter;
     private NodeKey keyTemplate;
 
@@ -61,6 +62,7 @@ public class JcrChildNodeIteratorTest {
         children = new ArrayList<AbstractJcrNode>();
         refs = new ArrayList<ChildReference>();
         childNodesByRef = new HashMap<ChildReference, AbstractJcrNode>();
+        prefetched = new ArrayList<List<ChildReference>>();
         for (int i = 0; i != 10; ++i) {
             // Create a child reference ...
             String name = "node" + (i + 1);
@@ -78,10 +80,28 @@ public class JcrChildNodeIteratorTest {
             public Node nodeFrom( ChildReference ref ) {
                 return childNodesByRef.get(ref);
             }
+
+            @SuppressWarnings( "synthetic-access" )
+            @Override
+            public void prefetch( List<ChildReference> refs ) {
+                prefetched.add(new ArrayList<ChildReference>(refs));
+            }
         };
         iter = new JcrChildNodeIterator(resolver, refs.iterator());
     }
 
+    @Test
+    public void shouldPrefetchChildrenBeforeResolvingThem() {
+        assertThat(prefetched.isEmpty(), is(true));
+        iter.nextNode();
+        assertThat(prefetched.size(), is(1));
+        assertThat(prefetched.get(0), is(refs));
+        while (iter.hasNext()) {
+            iter.nextNode();
+        }
+        assertThat(prefetched.size(), is(1));
+    }
+
     @Test
     public void shouldProperlyDetermineHasNext() {
         Iterator<AbstractJcrNode> nodeIter = children.iterator();
@@ -48,6 +48,7 @@ import javax.jcr.SimpleCredentials;
 import javax.jcr.Workspace;
 import javax.jcr.observation.Event;
 import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventJournal;
 import javax.jcr.observation.EventListener;
 import javax.jcr.observation.ObservationManager;
 import javax.jcr.version.Version;
@@ -76,6 +77,7 @@ import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.modeshape.common.FixFor;
+import org.modeshape.common.util.FileUtil;
 import org.modeshape.jcr.JcrObservationManager.JcrEventBundle;
 import org.modeshape.jcr.RepositoryConfiguration.FieldName;
 import org.modeshape.jcr.api.observation.PropertyEvent;
@@ -2244,6 +2246,50 @@ public final class JcrObservationManagerTest extends SingleUseAbstractTest {
         listenerSession.logout();
     }
 
+    @Test
+    public void shouldCountSkippedEventsInEventJournalPosition() throws Exception {
+        String journalLocation = "target/observation_journal";
+        FileUtil.delete(journalLocation);
+        stopRepository();
+        EditableDocument config = (EditableDocument)createRepositoryConfiguration();
+        config.getOrCreateDocument("journaling").setString("location", journalLocation);
+        startRepositoryWithConfiguration(config);
+        session = login(WORKSPACE);
+        Node parent = session.getRootNode().addNode("journalTest");
+        session.save();
+        parent.addNode("node1");
+        parent.addNode("node2");
+        session.save();
+        Thread.sleep(10L);
+        long afterFirstNodes = System.currentTimeMillis();
+        Thread.sleep(10L);
+        parent.addNode("node3");
+        session.save();
+
+        // The journal records the changes asynchronously ...
+        for (int i = 0; i != 50 && countJournalEvents() < 3; ++i) {
+            Thread.sleep(100L);
+        }
+        assertThat(countJournalEvents(), is(3));
+
+        EventJournal journal = getObservationManager().getEventJournal(Event.NODE_ADDED, "/journalTest", true, null, null);
+        journal.skipTo(afterFirstNodes);
+        assertThat(journal.getPosition(), is(2L));
+        assertThat(journal.nextEvent().getPath(), is("/journalTest/node3"));
+        assertThat(journal.getPosition(), is(3L));
+        assertThat(journal.hasNext(), is(false));
+    }
+
+    private int countJournalEvents() throws RepositoryException {
+        EventJournal journal = getObservationManager().getEventJournal(Event.NODE_ADDED, "/journalTest", true, null, null);
+        int count = 0;
+        while (journal.hasNext()) {
+            journal.nextEvent();
+            ++count;
+        }
+        return count;
+    }
+
     protected void assertNoRepositoryNamespace( String uri,
                                                 String prefix ) throws RepositoryException {
         NamespaceRegistry registry = session.getWorkspace().getNamespaceRegistry();
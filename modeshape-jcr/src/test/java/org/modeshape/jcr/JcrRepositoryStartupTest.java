@@ -852,6 +852,66 @@ public class JcrRepositoryStartupTest extends MultiPassAbstractTest {
         }, config);
     }
 
+    @Test
+    public void shouldResumePendingSequencingWorkAfterRestart() throws Exception {
+        FileUtil.delete("target/persistent_repository");
+        TestSequencersHolder.FaultyUntilEnabled.ENABLED.set(false);
+        TestSequencersHolder.FaultyUntilEnabled.EXECUTE_CALL_COUNTER.set(0);
+
+        URL configUrl = getClass().getClassLoader().getResource("config/repo-config-persistent-cache.json");
+        Editor editor = RepositoryConfiguration.read(configUrl).edit();
+        EditableDocument sequencing = editor.getOrCreateDocument(RepositoryConfiguration.FieldName.SEQUENCING);
+        sequencing.set(RepositoryConfiguration.FieldName.SEQUENCING_QUEUE_LOCATION, "target/persistent_repository/sequencing");
+        sequencing.set(RepositoryConfiguration.FieldName.SEQUENCING_MAX_RETRIES, 1);
+        // Retry long after the repository has been stopped, so that the work is still pending ...
+        sequencing.set(RepositoryConfiguration.FieldName.SEQUENCING_RETRY_DELAY_IN_MILLIS, 600000L);
+        EditableDocument sequencer = sequencing.getOrCreateDocument(RepositoryConfiguration.FieldName.SEQUENCERS)
+                                               .getOrCreateDocument("seq1");
+        sequencer.set(RepositoryConfiguration.FieldName.NAME, "seq1");
+        sequencer.set(RepositoryConfiguration.FieldName.CLASSNAME, TestSequencersHolder.FaultyUntilEnabled.class.getName());
+        sequencer.setArray(RepositoryConfiguration.FieldName.PATH_EXPRESSIONS, "/foo[@bar] => /output");
+        final RepositoryConfiguration config = new RepositoryConfiguration(editor, "Persistent Repository");
+
+        startRunStop(new RepositoryOperation() {
+            @Override
+            public Void call() throws Exception {
+                Session session = repository.login();
+                session.getRootNode().addNode("foo").setProperty("bar", "value of bar");
+                session.save();
+                session.logout();
+
+                // Wait for the first (failed) attempt ...
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+                while (TestSequencersHolder.FaultyUntilEnabled.EXECUTE_CALL_COUNTER.get() == 0
+                       && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50L);
+                }
+                assertEquals(1, TestSequencersHolder.FaultyUntilEnabled.EXECUTE_CALL_COUNTER.get());
+                return null;
+            }
+        }, config);
+
+        // The sequencer gets a new identifier after the restart, but the pending work must still be resumed ...
+        TestSequencersHolder.FaultyUntilEnabled.ENABLED.set(true);
+        startRunStop(new RepositoryOperation() {
+            @Override
+            public Void call() throws Exception {
+                String derivedPath = "/output/foo/" + TestSequencersHolder.DERIVED_NODE_NAME;
+                long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+                boolean sequenced = false;
+                while (!sequenced && System.currentTimeMillis() < deadline) {
+                    Session session = repository.login();
+                    sequenced = session.nodeExists(derivedPath);
+                    session.logout();
+                    if (!sequenced) Thread.sleep(50L);
+                }
+                assertTrue("The pending sequencing work was not resumed", sequenced);
+                assertEquals(2, TestSequencersHolder.FaultyUntilEnabled.EXECUTE_CALL_COUNTER.get());
+                return null;
+            }
+        }, config);
+    }
+
     private void changeLastUpgradeId( JcrRepository repository, int value ) {
         //modify the repository-info document to force an upgrade on the next restart
         DocumentStore documentStore =  repository.documentStore();
@@ -329,6 +329,58 @@ public class JcrRepositoryTest extends AbstractTransactionalTest {
         System.out.println(history);
     }
 
+    @Test
+    public void shouldRecordSegmentCacheStatistics() throws Exception {
+        JcrSession session = repository.login();
+        session.getRootNode().addNode("cachedParent").addNode("cachedChild");
+        session.save();
+        session.logout();
+
+        session = repository.login();
+        assertThat(session.getNode("/cachedParent/cachedChild"), is(notNullValue()));
+        session.logout();
+
+        repository.runningState().recordCacheStatistics();
+        RepositoryStatistics statistics = repository.getRepositoryStatistics();
+        statistics.rollup();
+        long lookups = total(statistics.getHistory(ValueMetric.SEGMENT_CACHE_HITS, Window.PREVIOUS_60_SECONDS))
+                       + total(statistics.getHistory(ValueMetric.SEGMENT_CACHE_MISSES, Window.PREVIOUS_60_SECONDS));
+        assertThat(lookups > 0L, is(true));
+    }
+
+    @Test
+    public void shouldRecordSaveStatistics() throws Exception {
+        JcrSession session = repository.login();
+        session.getRootNode().addNode("savedParent").addNode("savedChild");
+        session.save();
+        session.logout();
+
+        RepositoryStatistics statistics = repository.getRepositoryStatistics();
+        statistics.rollup();
+        assertThat(total(statistics.getHistory(ValueMetric.SAVED_NODES, Window.PREVIOUS_60_SECONDS)) > 0L, is(true));
+        for (DurationMetric metric : new DurationMetric[] {DurationMetric.SAVE_PRE_SAVE_TIME, DurationMetric.SAVE_LOCK_TIME,
+            DurationMetric.SAVE_PERSIST_TIME, DurationMetric.SAVE_COMMIT_TIME, DurationMetric.SAVE_NOTIFICATION_TIME}) {
+            History history = statistics.getHistory(metric, Window.PREVIOUS_60_SECONDS);
+            assertThat("No durations recorded for " + metric, count(history) > 0, is(true));
+        }
+    }
+
+    protected int count( History history ) {
+        int count = 0;
+        for (Statistics stats : history.getStats()) {
+            if (stats != null) count += stats.getCount();
+        }
+        return count;
+    }
+
+    protected long total( History history ) {
+        long total = 0L;
+        for (Statistics stats : history.getStats()) {
+            if (stats != null) total += stats.getMaximum();
+        }
+        return total;
+    }
+
     /**
      * Skipping this test because it purposefully runs over 60 minutes (!!!), mostly just waiting for the statistics thread to
      * wake up once every 5 seconds.
@@ -828,6 +880,40 @@ public class JcrRepositoryTest extends AbstractTransactionalTest {
         assertThat(future.get(), is(true)); // get() blocks until done
     }
 
+    @Test
+    public void shouldAllowReindexingEntireWorkspaceInParallel() throws Exception {
+        shutdownDefaultRepository();
+
+        RepositoryConfiguration config = RepositoryConfiguration.read(getClass().getClassLoader()
+                                                                                .getResourceAsStream("config/repo-config-parallel-reindexing.json"),
+                                                                      "Parallel reindexing");
+        repository = new JcrRepository(config);
+        repository.start();
+
+        session = repository.login();
+        Node root = session.getRootNode();
+        for (int i = 0; i != 5; ++i) {
+            Node folder = root.addNode("folder" + i);
+            for (int j = 0; j != 20; ++j) {
+                folder.addNode("child" + j).addNode("grandchild");
+            }
+        }
+        session.save();
+
+        String sql = "SELECT * FROM [nt:unstructured] WHERE ISDESCENDANTNODE('/folder0') OR ISDESCENDANTNODE('/folder4')";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        assertThat(query.execute().getNodes().getSize(), is(80L));
+
+        session.getWorkspace().reindex();
+        query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        assertThat(query.execute().getNodes().getSize(), is(80L));
+
+        Future<Boolean> future = session.getWorkspace().reindexAsync();
+        assertThat(future.get(), is(true)); // get() blocks until done
+        query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        assertThat(query.execute().getNodes().getSize(), is(80L));
+    }
+
     @FixFor( {"MODE-1498", "MODE-2202"} )
     @Test
     public void shouldWorkWithUserDefinedTransactionsInSeparateThreads() throws Exception {
@@ -0,0 +1,322 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.jcr.RepositoryException;
+import javax.jcr.observation.Event;
+import javax.jcr.observation.EventIterator;
+import javax.jcr.observation.EventListener;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ObservationDispatcher.PathIndex;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.PathFactory;
+
+/**
+ * Unit test for the {@link ObservationDispatcher}, and for the {@link PathIndex} it uses to route the changes to the listeners.
+ */
+public class ObservationDispatcherTest extends SingleUseAbstractTest {
+
+    private PathFactory pathFactory;
+    private PathIndex<String> index;
+    private ExecutorService executor;
+
+    @Override
+    @Before
+    public void beforeEach() throws Exception {
+        super.beforeEach();
+        pathFactory = new ExecutionContext().getValueFactories().getPathFactory();
+        index = new PathIndex<String>();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    @After
+    public void afterEach() throws Exception {
+        try {
+            executor.shutdownNow();
+        } finally {
+            super.afterEach();
+        }
+    }
+
+    protected Path path( String path ) {
+        return pathFactory.create(path);
+    }
+
+    protected List<String> valuesFor( String path ) {
+        List<String> values = new ArrayList<String>();
+        index.collect(path(path), values);
+        Collections.sort(values);
+        return values;
+    }
+
+    @Test
+    public void shouldFindNothingInEmptyIndex() {
+        assertThat(valuesFor("/"), is(Collections.<String>emptyList()));
+        assertThat(valuesFor("/a/b"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shouldFindValuesWithoutPathForAllPaths() {
+        index.add(null, false, "all");
+        assertThat(valuesFor("/"), is(Arrays.asList("all")));
+        assertThat(valuesFor("/a/b/c"), is(Arrays.asList("all")));
+    }
+
+    @Test
+    public void shouldFindDeepValuesAtAndBelowTheirPath() {
+        index.add(path("/a/b"), true, "deep");
+        assertThat(valuesFor("/a"), is(Collections.<String>emptyList()));
+        assertThat(valuesFor("/a/b"), is(Arrays.asList("deep")));
+        assertThat(valuesFor("/a/b/c/d"), is(Arrays.asList("deep")));
+        assertThat(valuesFor("/a/c"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shouldFindShallowValuesOnlyAtTheirPath() {
+        index.add(path("/a/b"), false, "shallow");
+        assertThat(valuesFor("/a"), is(Collections.<String>emptyList()));
+        assertThat(valuesFor("/a/b"), is(Arrays.asList("shallow")));
+        assertThat(valuesFor("/a/b/c"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shouldFindRootValues() {
+        index.add(path("/"), false, "root");
+        index.add(path("/"), true, "everything");
+        assertThat(valuesFor("/"), is(Arrays.asList("everything", "root")));
+        assertThat(valuesFor("/a"), is(Arrays.asList("everything")));
+    }
+
+    @Test
+    public void shouldFindAllValuesAlongPath() {
+        index.add(path("/a"), true, "a-deep");
+        index.add(path("/a"), false, "a-shallow");
+        index.add(path("/a/b"), true, "b-deep");
+        index.add(path("/a/b/c"), false, "c-shallow");
+        index.add(path("/x"), true, "x-deep");
+        assertThat(valuesFor("/a"), is(Arrays.asList("a-deep", "a-shallow")));
+        assertThat(valuesFor("/a/b"), is(Arrays.asList("a-deep", "b-deep")));
+        assertThat(valuesFor("/a/b/c"), is(Arrays.asList("a-deep", "b-deep", "c-shallow")));
+        assertThat(valuesFor("/x/y"), is(Arrays.asList("x-deep")));
+    }
+
+    @Test
+    public void shouldTreatSameNameSiblingIndexesAsDistinctSegments() {
+        index.add(path("/a[2]"), true, "second");
+        index.add(path("/a"), true, "first");
+        assertThat(valuesFor("/a[1]/b"), is(Arrays.asList("first")));
+        assertThat(valuesFor("/a[2]/b"), is(Arrays.asList("second")));
+    }
+
+    @Test
+    public void shouldDeliverChangesOnlyToListenersOfMatchingPaths() throws Exception {
+        ObservationDispatcher dispatcher = dispatcher(10, EventOverflowPolicy.BLOCK);
+        JcrObservationManager manager = new JcrObservationManager(session, dispatcher);
+        RecordingListener underA = new RecordingListener(1);
+        RecordingListener underB = new RecordingListener(1);
+        manager.addEventListener(underA, Event.NODE_ADDED, "/a", true, null, null, false);
+        manager.addEventListener(underB, Event.NODE_ADDED, "/b", true, null, null, false);
+        assertThat(dispatcher.listenerCount(), is(2));
+
+        dispatcher.notify(nodesAdded("/a/x"));
+        dispatcher.notify(nodesAdded("/b/y", "/c/z"));
+
+        underA.await();
+        underB.await();
+        assertThat(underA.paths(), is(Arrays.asList("/a/x")));
+        assertThat(underB.paths(), is(Arrays.asList("/b/y")));
+    }
+
+    @Test
+    public void shouldDeliverChangeSetsToEachListenerInOrder() throws Exception {
+        ObservationDispatcher dispatcher = dispatcher(5, EventOverflowPolicy.BLOCK);
+        JcrObservationManager manager = new JcrObservationManager(session, dispatcher);
+        int count = 50;
+        RecordingListener listener = new RecordingListener(count);
+        manager.addEventListener(listener, Event.NODE_ADDED, "/", true, null, null, false);
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i != count; ++i) {
+            expected.add("/node" + i);
+            dispatcher.notify(nodesAdded("/node" + i));
+        }
+
+        listener.await();
+        assertThat(listener.paths(), is(expected));
+    }
+
+    @Test
+    public void shouldNotDelayOtherListenersWhileOneListenerIsBusy() throws Exception {
+        ObservationDispatcher dispatcher = dispatcher(10, EventOverflowPolicy.BLOCK);
+        JcrObservationManager manager = new JcrObservationManager(session, dispatcher);
+        BlockingListener slow = new BlockingListener(2);
+        RecordingListener fast = new RecordingListener(2);
+        manager.addEventListener(slow, Event.NODE_ADDED, "/", true, null, null, false);
+        manager.addEventListener(fast, Event.NODE_ADDED, "/", true, null, null, false);
+
+        dispatcher.notify(nodesAdded("/first"));
+        dispatcher.notify(nodesAdded("/second"));
+
+        // The fast listener sees both change sets while the slow listener is still busy with the first ...
+        fast.await();
+        slow.awaitEntered();
+        assertThat(fast.paths(), is(Arrays.asList("/first", "/second")));
+        assertThat(slow.paths(), is(Arrays.asList("/first")));
+        assertThat(dispatcher.queueSizes()[1], is(1));
+
+        slow.release();
+        slow.await();
+        assertThat(slow.paths(), is(Arrays.asList("/first", "/second")));
+    }
+
+    @Test
+    public void shouldDropChangeSetsForListenerWithFullQueueWhenUsingDropPolicy() throws Exception {
+        ObservationDispatcher dispatcher = dispatcher(1, EventOverflowPolicy.DROP);
+        JcrObservationManager manager = new JcrObservationManager(session, dispatcher);
+        BlockingListener slow = new BlockingListener(2);
+        manager.addEventListener(slow, Event.NODE_ADDED, "/", true, null, null, false);
+
+        dispatcher.notify(nodesAdded("/first"));
+        slow.awaitEntered();
+        // The listener is busy, so the second change set fills its queue and the third is dropped ...
+        dispatcher.notify(nodesAdded("/second"));
+        dispatcher.notify(nodesAdded("/third"));
+
+        slow.release();
+        slow.await();
+        assertThat(slow.paths(), is(Arrays.asList("/first", "/second")));
+        assertThat(dispatcher.queueSizes()[0], is(0));
+    }
+
+    @Test
+    public void shouldNotDeliverChangesToUnregisteredListener() throws Exception {
+        ObservationDispatcher dispatcher = dispatcher(10, EventOverflowPolicy.BLOCK);
+        JcrObservationManager manager = new JcrObservationManager(session, dispatcher);
+        RecordingListener removed = new RecordingListener(1);
+        RecordingListener remaining = new RecordingListener(1);
+        manager.addEventListener(removed, Event.NODE_ADDED, "/", true, null, null, false);
+        manager.addEventListener(remaining, Event.NODE_ADDED, "/", true, null, null, false);
+        manager.removeEventListener(removed);
+        assertThat(dispatcher.listenerCount(), is(1));
+
+        dispatcher.notify(nodesAdded("/node"));
+
+        remaining.await();
+        assertThat(remaining.paths(), is(Arrays.asList("/node")));
+        assertThat(removed.paths(), is(Collections.<String>emptyList()));
+    }
+
+    protected ObservationDispatcher dispatcher( int queueCapacity,
+                                                EventOverflowPolicy overflowPolicy ) {
+        return new ObservationDispatcher(session.repository().systemWorkspaceName(), executor, queueCapacity, overflowPolicy,
+                                         null);
+    }
+
+    protected RecordingChanges nodesAdded( String... paths ) throws RepositoryException {
+        NodeKey rootKey = session.getRootNode().key();
+        RecordingChanges changes = new RecordingChanges("other-session", "process", "repository", session.getWorkspace()
+                                                                                                       .getName());
+        for (String path : paths) {
+            Path nodePath = path(path);
+            changes.nodeCreated(rootKey.withRandomId(), rootKey, nodePath, null);
+        }
+        changes.freeze("user", null, session.context().getValueFactories().getDateFactory().create());
+        return changes;
+    }
+
+    protected static class RecordingListener implements EventListener {
+        private final List<String> paths = Collections.synchronizedList(new ArrayList<String>());
+        private final CountDownLatch latch;
+
+        protected RecordingListener( int expectedEventCount ) {
+            this.latch = new CountDownLatch(expectedEventCount);
+        }
+
+        @Override
+        public void onEvent( EventIterator events ) {
+            while (events.hasNext()) {
+                try {
+                    paths.add(events.nextEvent().getPath());
+                } catch (RepositoryException e) {
+                    throw new RuntimeException(e);
+                }
+                latch.countDown();
+            }
+        }
+
+        protected void await() throws InterruptedException {
+            assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+        }
+
+        protected List<String> paths() {
+            synchronized (paths) {
+                return new ArrayList<String>(paths);
+            }
+        }
+    }
+
+    protected static class BlockingListener extends RecordingListener {
+        private final CountDownLatch entered = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+
+        protected BlockingListener( int expectedEventCount ) {
+            super(expectedEventCount);
+        }
+
+        @Override
+        public void onEvent( EventIterator events ) {
+            super.onEvent(events);
+            entered.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected void awaitEntered() throws InterruptedException {
+            assertThat(entered.await(10, TimeUnit.SECONDS), is(true));
+        }
+
+        protected void release() {
+            released.countDown();
+        }
+    }
+}
@@ -42,6 +42,7 @@ import org.modeshape.jcr.RepositoryConfiguration.Default;
 import org.modeshape.jcr.RepositoryConfiguration.DocumentOptimization;
 import org.modeshape.jcr.RepositoryConfiguration.FieldName;
 import org.modeshape.jcr.RepositoryConfiguration.JaasSecurity;
+import org.modeshape.jcr.RepositoryConfiguration.ReindexingOptions;
 import org.modeshape.jcr.RepositoryConfiguration.Security;
 import org.modeshape.jcr.RepositoryConfiguration.TransactionMode;
 
@@ -419,6 +420,27 @@ public class RepositoryConfigurationTest {
         assertThat(opt.isEnabled(), is(false));
     }
 
+    @Test
+    public void shouldCrawlSequentiallyByDefaultWhenReindexing() {
+        RepositoryConfiguration config = assertValid("{ 'name' : 'Repo' }");
+        ReindexingOptions options = config.getQuery().getReindexingOptions();
+        assertThat(options.isParallel(), is(false));
+        assertThat(options.getThreadCount(), is(Default.INDEXING_REINDEXING_THREADS));
+        assertThat(options.getBatchSize(), is(Default.INDEXING_REINDEXING_BATCH_SIZE));
+    }
+
+    @Test
+    public void shouldReadParallelReindexingOptions() {
+        RepositoryConfiguration config = assertValid("config/repo-config-parallel-reindexing.json");
+        ReindexingOptions options = config.getQuery().getReindexingOptions();
+        assertThat(options.isParallel(), is(true));
+        assertThat(options.getThreadCount(), is(3));
+        assertThat(options.getBatchSize(), is(10));
+        // The reindexing options are not Hibernate Search properties ...
+        assertThat(config.getQuery().getIndexingProperties().containsKey(FieldName.INDEXING_REINDEXING_THREADS), is(false));
+        assertThat(config.getQuery().getIndexingProperties().containsKey(FieldName.INDEXING_REINDEXING_BATCH_SIZE), is(false));
+    }
+
     protected RepositoryConfiguration assertValid( RepositoryConfiguration config ) {
         Problems results = config.validate();
         assertThat(results.toString(), results.hasProblems(), is(false));
@@ -0,0 +1,102 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+import org.modeshape.jcr.RepositoryStatistics.DurationHistory;
+import org.modeshape.jcr.RepositoryStatistics.MetricHistory;
+import org.modeshape.jcr.api.monitor.DurationActivity;
+import org.modeshape.jcr.api.monitor.Statistics;
+import org.modeshape.jcr.api.monitor.Window;
+
+public class RepositoryStatisticsTest {
+
+    private DurationHistory history = new DurationHistory(TimeUnit.MILLISECONDS, 3);
+
+    @Test
+    public void shouldComputePercentilesOfDurations() {
+        recordDurations(1000);
+        assertThat(history.rollup(), is(Window.PREVIOUS_60_SECONDS));
+        Statistics stats = latest(Window.PREVIOUS_60_SECONDS);
+        assertThat(stats.getCount(), is(1000));
+        assertThat(stats.getMinimum(), is(1L));
+        assertThat(stats.getMaximum(), is(1000L));
+        assertThat(stats.getMean(), is(500.5d));
+        assertWithinError(stats.getMedian(), 500L);
+        assertWithinError(stats.get95thPercentile(), 950L);
+        assertWithinError(stats.get99thPercentile(), 990L);
+        assertWithinError(stats.get999thPercentile(), 999L);
+    }
+
+    @Test
+    public void shouldComputePercentilesFromAllDurationsWhenRolledUp() {
+        recordDurations(1000);
+        history.rollup();
+        for (int i = 1; i < MetricHistory.MAX_SECONDS; ++i) {
+            history.recordDuration(2000L, TimeUnit.MILLISECONDS, null);
+            history.rollup();
+        }
+        Statistics stats = latest(Window.PREVIOUS_60_MINUTES);
+        int count = 1000 + MetricHistory.MAX_SECONDS - 1;
+        assertThat(stats.getCount(), is(count));
+        assertThat(stats.getMaximum(), is(2000L));
+        assertWithinError(stats.getMedian(), (count / 2));
+        assertThat(stats.get999thPercentile(), is(2000L));
+    }
+
+    @Test
+    public void shouldRetainLongestRunningActivities() {
+        recordDurations(1000);
+        history.rollup();
+        history.recordDuration(5L, TimeUnit.SECONDS, null);
+        history.rollup();
+        DurationActivity[] longest = history.getLongestRunning();
+        assertThat(longest.length, is(3));
+        long total = 0L;
+        for (DurationActivity activity : longest) {
+            total += activity.getDuration(TimeUnit.MILLISECONDS);
+        }
+        assertThat(total, is(5000L + 1000L + 999L));
+    }
+
+    protected void recordDurations( int count ) {
+        for (int i = 1; i <= count; ++i) {
+            history.recordDuration(i, TimeUnit.MILLISECONDS, null);
+        }
+    }
+
+    protected Statistics latest( Window window ) {
+        Statistics[] stats = history.getHistory(window);
+        return stats[stats.length - 1];
+    }
+
+    protected void assertWithinError( long actual,
+                                      long expected ) {
+        assertTrue("Expected " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertNotNull;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.jcr.NamespaceRegistry;
 import javax.jcr.Node;
@@ -72,6 +73,25 @@ public class TestSequencersHolder {
         }
     }
 
+    /**
+     * A sequencer that fails until it is {@link #ENABLED enabled}, and that records the number of times all instances are
+     * {@link #execute executed}.
+     */
+    public static class FaultyUntilEnabled extends Sequencer {
+        public static final AtomicBoolean ENABLED = new AtomicBoolean();
+        public static final AtomicInteger EXECUTE_CALL_COUNTER = new AtomicInteger();
+
+        @Override
+        public boolean execute( Property inputProperty,
+                                Node outputNode,
+                                Context context ) throws Exception {
+            EXECUTE_CALL_COUNTER.incrementAndGet();
+            if (!ENABLED.get()) throw new IllegalStateException("We're expecting to get this exception");
+            outputNode.addNode(DERIVED_NODE_NAME);
+            return true;
+        }
+    }
+
     /**
      * A simple sequencer that records the number of times all instances are {@link #execute executed}.
      */
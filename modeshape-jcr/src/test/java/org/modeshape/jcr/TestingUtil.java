@@ -32,6 +32,7 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import javax.jcr.Repository;
+import javax.transaction.TransactionManager;
 import org.infinispan.Cache;
 import org.infinispan.manager.CacheContainer;
 import org.modeshape.common.SystemFailureException;
@@ -137,6 +138,10 @@ public class TestingUtil {
         }
     }
 
+    public static TransactionManager transactionManager( JcrRepository repository ) {
+        return repository.runningState().txnManager();
+    }
+
     public static JcrRepository startRepositoryWithConfig( String configFile ) throws Exception {
         URL configUrl = TestingUtil.class.getClassLoader().getResource(configFile);
         RepositoryConfiguration config = RepositoryConfiguration.read(configUrl);
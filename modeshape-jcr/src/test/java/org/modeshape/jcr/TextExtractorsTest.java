@@ -0,0 +1,299 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.common.util.IoUtil;
+import org.modeshape.jcr.api.Binary;
+import org.modeshape.jcr.api.text.TextExtractor;
+import org.modeshape.jcr.mimetype.NullMimeTypeDetector;
+import org.modeshape.jcr.text.TextExtractorContext;
+import org.modeshape.jcr.value.BinaryValue;
+import org.modeshape.jcr.value.binary.FileSystemBinaryStore;
+
+/**
+ * Unit test for the scheduling of work by {@link TextExtractors}
+ */
+public class TextExtractorsTest {
+
+    private File directory;
+    private FileSystemBinaryStore store;
+    private ExecutorService executor;
+    private TextExtractor.Context context;
+    private GatedTextExtractor extractor;
+
+    @Before
+    public void beforeEach() {
+        directory = new File("target/TextExtractorsTest");
+        FileUtil.delete(directory);
+        directory.mkdirs();
+        store = FileSystemBinaryStore.create(directory);
+        store.setMinimumBinarySizeInBytes(1);
+        executor = Executors.newCachedThreadPool();
+        context = new TextExtractorContext(NullMimeTypeDetector.INSTANCE);
+        extractor = new GatedTextExtractor();
+    }
+
+    @After
+    public void afterEach() {
+        extractor.open();
+        executor.shutdownNow();
+        FileUtil.delete(directory);
+    }
+
+    protected TextExtractors extractors( int maxConcurrentExtractions,
+                                         int maxConcurrentExtractionsPerExtractor,
+                                         int queueCapacity ) {
+        List<TextExtractor> list = new ArrayList<TextExtractor>(Arrays.<TextExtractor>asList(extractor));
+        return new TextExtractors(executor, true, list, -1L, maxConcurrentExtractions, maxConcurrentExtractionsPerExtractor,
+                                  queueCapacity, null);
+    }
+
+    protected BinaryValue binary( String content ) throws Exception {
+        return store.storeValue(new ByteArrayInputStream(content.getBytes("UTF-8")), false);
+    }
+
+    protected void await( CountDownLatch latch ) throws Exception {
+        assertThat(latch, is(notNullValue()));
+        assertThat(latch.await(10, TimeUnit.SECONDS), is(true));
+    }
+
+    @Test
+    public void shouldExtractAndStoreText() throws Exception {
+        TextExtractors extractors = extractors(2, 2, 10);
+        BinaryValue value = binary("first");
+        extractor.open();
+        await(extractors.extract(store, value, context));
+        assertThat(store.getExtractedText(value), is("text of first"));
+        assertThat(extractors.getWorkerLatch(value.getKey()), is((CountDownLatch)null));
+    }
+
+    @Test
+    public void shouldRunWaitingExtractionsBeforeBackgroundExtractions() throws Exception {
+        TextExtractors extractors = extractors(1, 1, 10);
+        BinaryValue first = binary("first");
+        BinaryValue second = binary("second");
+        BinaryValue third = binary("third");
+        CountDownLatch firstLatch = extractors.extract(store, first, context);
+        extractor.awaitStarted(1);
+        CountDownLatch secondLatch = extractors.extract(store, second, context);
+        CountDownLatch thirdLatch = extractors.extract(store, third, context, true);
+        extractor.open();
+        await(firstLatch);
+        await(secondLatch);
+        await(thirdLatch);
+        assertThat(extractor.extracted(), is(Arrays.asList("first", "third", "second")));
+    }
+
+    @Test
+    public void shouldShareAndPromoteQueuedExtractionOfSameBinaryValue() throws Exception {
+        TextExtractors extractors = extractors(1, 1, 10);
+        BinaryValue first = binary("first");
+        BinaryValue second = binary("second");
+        BinaryValue third = binary("third");
+        CountDownLatch firstLatch = extractors.extract(store, first, context);
+        extractor.awaitStarted(1);
+        CountDownLatch secondLatch = extractors.extract(store, second, context);
+        CountDownLatch thirdLatch = extractors.extract(store, third, context);
+        assertThat(extractors.extract(store, third, context, true), is(sameInstance(thirdLatch)));
+        assertThat(extractors.extract(store, first, context), is(sameInstance(firstLatch)));
+        extractor.open();
+        await(firstLatch);
+        await(secondLatch);
+        await(thirdLatch);
+        assertThat(extractor.extracted(), is(Arrays.asList("first", "third", "second")));
+        assertThat(store.getExtractedText(third), is("text of third"));
+    }
+
+    @Test
+    public void shouldRejectBackgroundExtractionsWhenQueueIsFull() throws Exception {
+        TextExtractors extractors = extractors(1, 1, 1);
+        BinaryValue first = binary("first");
+        CountDownLatch firstLatch = extractors.extract(store, first, context);
+        extractor.awaitStarted(1);
+        CountDownLatch secondLatch = extractors.extract(store, binary("second"), context);
+        CountDownLatch thirdLatch = extractors.extract(store, binary("third"), context);
+        assertThat(thirdLatch.getCount(), is(0L));
+        // But extractions that callers are waiting for are always accepted ...
+        CountDownLatch fourthLatch = extractors.extract(store, binary("fourth"), context, true);
+        assertThat(fourthLatch.getCount(), is(1L));
+        extractor.open();
+        await(firstLatch);
+        await(secondLatch);
+        await(fourthLatch);
+        assertThat(extractor.extracted(), is(Arrays.asList("first", "fourth", "second")));
+    }
+
+    @Test
+    public void shouldLimitConcurrentExtractionsOfEachExtractor() throws Exception {
+        TextExtractors extractors = extractors(3, 1, 10);
+        List<CountDownLatch> latches = new ArrayList<CountDownLatch>();
+        latches.add(extractors.extract(store, binary("first"), context));
+        extractor.awaitStarted(1);
+        latches.add(extractors.extract(store, binary("second"), context));
+        latches.add(extractors.extract(store, binary("third"), context));
+        Thread.sleep(100L);
+        assertThat(extractor.extracted().size(), is(1));
+        extractor.open();
+        for (CountDownLatch latch : latches) {
+            await(latch);
+        }
+        assertThat(extractor.extracted().size(), is(3));
+        assertThat(extractor.maxActive.get(), is(1));
+    }
+
+    @Test
+    public void shouldCountExtractionsSetAsideForBusyExtractorAgainstQueueCapacity() throws Exception {
+        TextExtractors extractors = extractors(3, 1, 2);
+        List<CountDownLatch> latches = new ArrayList<CountDownLatch>();
+        latches.add(extractors.extract(store, binary("first"), context));
+        extractor.awaitStarted(1);
+        latches.add(extractors.extract(store, binary("second"), context));
+        latches.add(extractors.extract(store, binary("third"), context));
+        // Let the idle runners take the work from the queue and set it aside ...
+        Thread.sleep(100L);
+        CountDownLatch fourthLatch = extractors.extract(store, binary("fourth"), context);
+        assertThat(fourthLatch.getCount(), is(0L));
+        extractor.open();
+        for (CountDownLatch latch : latches) {
+            await(latch);
+        }
+        assertThat(extractor.extracted(), is(Arrays.asList("first", "second", "third")));
+    }
+
+    @Test
+    public void shouldExtractStoredBinaryValuesInBackgroundAndPromoteExtractionWhenTextIsNeeded() throws Exception {
+        store.setTextExtractors(extractors(1, 1, 10));
+        BinaryValue first = binary("first");
+        BinaryValue second = binary("second");
+        final BinaryValue third = binary("third");
+        store.scheduleTextExtraction(first);
+        extractor.awaitStarted(1);
+        store.scheduleTextExtraction(second);
+        store.scheduleTextExtraction(third);
+
+        // Indexing a node that uses the third value needs its text, which moves its extraction ahead of the second ...
+        final AtomicReference<String> text = new AtomicReference<String>();
+        Thread indexer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    text.set(store.getText(third));
+                } catch (Exception e) {
+                    text.set(e.getMessage());
+                }
+            }
+        });
+        indexer.start();
+        Thread.sleep(100L);
+        extractor.open();
+        indexer.join(TimeUnit.SECONDS.toMillis(10));
+        assertThat(text.get(), is("text of third"));
+        assertThat(extractor.extracted(), is(Arrays.asList("first", "third", "second")));
+    }
+
+    @Test
+    public void shouldExtractTextWhenNeededAfterBackgroundExtractionWasRejected() throws Exception {
+        store.setTextExtractors(extractors(1, 1, 1));
+        BinaryValue first = binary("first");
+        store.scheduleTextExtraction(first);
+        extractor.awaitStarted(1);
+        store.scheduleTextExtraction(binary("second"));
+        BinaryValue third = binary("third");
+        store.scheduleTextExtraction(third);
+        extractor.open();
+        assertThat(store.getText(third), is("text of third"));
+    }
+
+    /**
+     * A text extractor that records the content of each binary value it is asked to extract, and that blocks until it is opened.
+     */
+    protected static final class GatedTextExtractor extends TextExtractor {
+        private final CountDownLatch gate = new CountDownLatch(1);
+        private final List<String> extracted = Collections.synchronizedList(new ArrayList<String>());
+        private final AtomicInteger active = new AtomicInteger();
+        protected final AtomicInteger maxActive = new AtomicInteger();
+
+        @Override
+        public boolean supportsMimeType( String mimeType ) {
+            return true;
+        }
+
+        @Override
+        public void extractFrom( Binary binary,
+                                 Output output,
+                                 Context context ) throws Exception {
+            String content = IoUtil.read(binary.getStream(), "UTF-8");
+            int count = active.incrementAndGet();
+            try {
+                while (true) {
+                    int max = maxActive.get();
+                    if (count <= max || maxActive.compareAndSet(max, count)) break;
+                }
+                extracted.add(content);
+                gate.await(10, TimeUnit.SECONDS);
+                output.recordText("text of " + content);
+            } finally {
+                active.decrementAndGet();
+            }
+        }
+
+        protected void open() {
+            gate.countDown();
+        }
+
+        protected void awaitStarted( int count ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (extracted.size() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10L);
+            }
+            assertThat(extracted.size() >= count, is(true));
+        }
+
+        protected List<String> extracted() {
+            synchronized (extracted) {
+                return new ArrayList<String>(extracted);
+            }
+        }
+    }
+}
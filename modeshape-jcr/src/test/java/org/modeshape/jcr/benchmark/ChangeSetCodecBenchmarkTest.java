@@ -0,0 +1,138 @@
+package org.modeshape.jcr.benchmark;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.modeshape.jcr.bus.ChangeSetCodec;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicName;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
+import org.modeshape.jcr.value.basic.BasicSingleValueProperty;
+import org.modeshape.jcr.value.basic.ChildPath;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Test to compare the time needed to write and read the change sets sent through a cluster using the
+ * {@link ChangeSetCodec} and using Java serialization.
+ * Report will be generated to <a href="../modeshape-jcr/target/benchmark-change-set-codec/report.html">file</a>
+ */
+@Ignore
+@BenchmarkMethodChart(filePrefix = "../modeshape-jcr/target/benchmark-change-set-codec/report")
+public class ChangeSetCodecBenchmarkTest {
+
+    /**
+     * Count of nodes added in the change set.
+     */
+    private static final int NODE_COUNT = 500;
+
+    /**
+     * Count of times the change set is written or read in each round.
+     */
+    private static final int REPEAT_COUNT = 100;
+
+    private static final String NAMESPACE = "http://www.modeshape.org/benchmark/1.0";
+
+    private static ChangeSet changes;
+    private static byte[] encoded;
+    private static byte[] serialized;
+
+    private final ChangeSetCodec codec = new ChangeSetCodec();
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        RecordingChanges recording = new RecordingChanges("session", "process", "repository", "default");
+        Set<NodeKey> changedNodes = new HashSet<NodeKey>();
+        Path parentPath = new ChildPath(new ChildPath(RootPath.INSTANCE, segment("content")), segment("documents"));
+        NodeKey parentKey = new NodeKey("source1work123parent");
+        for (int i = 0; i != NODE_COUNT; ++i) {
+            NodeKey key = new NodeKey("source1work123node" + i);
+            Path path = new ChildPath(parentPath, segment("document" + i));
+            Map<Name, Property> properties = new HashMap<Name, Property>();
+            properties.put(name("title"), new BasicSingleValueProperty(name("title"), "Document " + i));
+            properties.put(name("size"), new BasicSingleValueProperty(name("size"), (long)i));
+            recording.nodeCreated(key, parentKey, path, properties);
+            for (Property property : properties.values()) {
+                recording.propertyAdded(key, path, property);
+            }
+            changedNodes.add(key);
+        }
+        recording.setChangedNodes(changedNodes);
+        recording.freeze("admin", null, new JodaDateTime());
+        changes = recording;
+        encoded = new ChangeSetCodec().encode(changes);
+        serialized = serialize(changes);
+        System.out.println("Encoded change set size: " + encoded.length + " bytes; serialized change set size: "
+                           + serialized.length + " bytes");
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 5)
+    public void encodeWithCodec() throws Exception {
+        for (int i = 0; i != REPEAT_COUNT; ++i) {
+            codec.encode(changes);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 5)
+    public void encodeWithJavaSerialization() throws Exception {
+        for (int i = 0; i != REPEAT_COUNT; ++i) {
+            serialize(changes);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 5)
+    public void decodeWithCodec() throws Exception {
+        for (int i = 0; i != REPEAT_COUNT; ++i) {
+            codec.decode(encoded, null);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 10, warmupRounds = 5)
+    public void decodeWithJavaSerialization() throws Exception {
+        for (int i = 0; i != REPEAT_COUNT; ++i) {
+            new ObjectInputStream(new ByteArrayInputStream(serialized)).readObject();
+        }
+    }
+
+    private static Name name( String localName ) {
+        return new BasicName(NAMESPACE, localName);
+    }
+
+    private static BasicPathSegment segment( String localName ) {
+        return new BasicPathSegment(name(localName));
+    }
+
+    private static byte[] serialize( Object object ) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(output);
+        stream.writeObject(object);
+        stream.close();
+        return output.toByteArray();
+    }
+}
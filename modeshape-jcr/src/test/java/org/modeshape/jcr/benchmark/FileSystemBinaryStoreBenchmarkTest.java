@@ -0,0 +1,145 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.value.binary.BinaryStoreException;
+import org.modeshape.jcr.value.binary.FileSystemBinaryStore;
+import org.modeshape.jcr.value.binary.NamedLocks;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+
+/**
+ * Test to measure the contention when many threads concurrently store binary values in a {@link FileSystemBinaryStore}, which
+ * obtains a {@link NamedLocks named lock} for the SHA-1 of every value it stores, and when many threads concurrently obtain
+ * named locks.
+ * Report will be generated to <a href="../modeshape-jcr/target/benchmark-file-system-binary-store/report.html">file</a>
+ */
+@Ignore
+@BenchmarkMethodChart(filePrefix = "../modeshape-jcr/target/benchmark-file-system-binary-store/report")
+public class FileSystemBinaryStoreBenchmarkTest {
+
+    /**
+     * Size of each stored binary value, which is larger than the minimum size of values kept in the store.
+     */
+    private static final int VALUE_SIZE = 8 * 1024;
+
+    /**
+     * Count of values stored by each thread in each round.
+     */
+    private static final int STORE_COUNT = 50;
+
+    /**
+     * Count of distinct values that are shared by all threads.
+     */
+    private static final int SHARED_VALUE_COUNT = 4;
+
+    /**
+     * Count of locks obtained by each thread in each round.
+     */
+    private static final int LOCK_COUNT = 100000;
+
+    private static final String[] NAMES = new String[5000];
+
+    static {
+        for (int i = 0; i != NAMES.length; ++i) {
+            NAMES[i] = Integer.toHexString(i * 7919);
+        }
+    }
+
+    private static final AtomicInteger valueCounter = new AtomicInteger();
+    private static final NamedLocks namedLocks = new NamedLocks();
+    private static byte[][] sharedValues;
+    private static File directory;
+    private static FileSystemBinaryStore store;
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static void beforeClass() {
+        directory = new File("target/benchmark-fsbs");
+        FileUtil.delete(directory);
+        directory.mkdirs();
+        store = FileSystemBinaryStore.create(directory);
+        Random random = new Random(42);
+        sharedValues = new byte[SHARED_VALUE_COUNT][];
+        for (int i = 0; i != SHARED_VALUE_COUNT; ++i) {
+            sharedValues[i] = new byte[VALUE_SIZE];
+            random.nextBytes(sharedValues[i]);
+        }
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        FileUtil.delete(directory);
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 16, warmupRounds = 4, concurrency = 16)
+    public void storeDistinctValuesWith16Threads() throws BinaryStoreException {
+        byte[] content = new byte[VALUE_SIZE];
+        for (int i = 0; i != STORE_COUNT; ++i) {
+            // Make every value unique ...
+            int id = valueCounter.incrementAndGet();
+            content[0] = (byte)id;
+            content[1] = (byte)(id >>> 8);
+            content[2] = (byte)(id >>> 16);
+            content[3] = (byte)(id >>> 24);
+            store.storeValue(new ByteArrayInputStream(content), false);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 16, warmupRounds = 4, concurrency = 16)
+    public void storeSharedValuesWith16Threads() throws BinaryStoreException {
+        int start = (int)(Thread.currentThread().getId() % SHARED_VALUE_COUNT);
+        for (int i = 0; i != STORE_COUNT; ++i) {
+            byte[] content = sharedValues[(start + i) % SHARED_VALUE_COUNT];
+            store.storeValue(new ByteArrayInputStream(content), false);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 64, warmupRounds = 32, concurrency = 32)
+    public void obtainNamedLocksWith32Threads() {
+        int start = (int)(Thread.currentThread().getId() % NAMES.length);
+        for (int i = 0; i != LOCK_COUNT; ++i) {
+            Lock lock = namedLocks.writeLock(NAMES[(start + i) % NAMES.length]);
+            lock.unlock();
+        }
+    }
+}
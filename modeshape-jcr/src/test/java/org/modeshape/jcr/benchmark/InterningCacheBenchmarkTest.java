@@ -0,0 +1,67 @@
+package org.modeshape.jcr.benchmark;
+
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.modeshape.jcr.InterningCache;
+import org.modeshape.jcr.MapCacheService;
+
+/**
+ * Test to compare the throughput of the {@link InterningCache} and of a synchronized {@link MapCacheService} when many threads
+ * look up the same set of names, as they do when reading the child references of large folders.
+ * Report will be generated to <a href="../modeshape-jcr/target/benchmark-interning-cache/report.html">file</a>
+ */
+@Ignore
+@BenchmarkMethodChart(filePrefix = "../modeshape-jcr/target/benchmark-interning-cache/report")
+public class InterningCacheBenchmarkTest {
+
+    /**
+     * Count of distinct names that are looked up.
+     */
+    private static final int NAME_COUNT = 5000;
+
+    /**
+     * Count of lookups done by each thread in each round.
+     */
+    private static final int LOOKUP_COUNT = 100000;
+
+    private static final String[] NAMES = new String[NAME_COUNT];
+
+    static {
+        for (int i = 0; i != NAME_COUNT; ++i) {
+            NAMES[i] = "{http://www.modeshape.org/benchmark/1.0}document" + i;
+        }
+    }
+
+    private static final InterningCache<String, Object> interningCache = new InterningCache<String, Object>();
+    private static final MapCacheService<String, Object> mapCache = new MapCacheService<String, Object>(100, 10000);
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 64, warmupRounds = 32, concurrency = 32)
+    public void lookUpNamesInInterningCacheWith32Threads() {
+        int start = (int)(Thread.currentThread().getId() % NAME_COUNT);
+        for (int i = 0; i != LOOKUP_COUNT; ++i) {
+            String name = NAMES[(start + i) % NAME_COUNT];
+            Object value = interningCache.get(name);
+            if (value == null) interningCache.intern(name, name);
+        }
+    }
+
+    @Test
+    @BenchmarkOptions(benchmarkRounds = 64, warmupRounds = 32, concurrency = 32)
+    public void lookUpNamesInMapCacheServiceWith32Threads() {
+        int start = (int)(Thread.currentThread().getId() % NAME_COUNT);
+        for (int i = 0; i != LOOKUP_COUNT; ++i) {
+            String name = NAMES[(start + i) % NAME_COUNT];
+            Object value = mapCache.get(name + "_name");
+            if (value == null) mapCache.put(name + "_name", name);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.benchmark;
+
+import javax.jcr.Node;
+import javax.jcr.NodeIterator;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
+import javax.jcr.security.AccessControlList;
+import javax.jcr.security.AccessControlManager;
+import javax.jcr.security.AccessControlPolicyIterator;
+import javax.jcr.security.Privilege;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.modeshape.jcr.MultiUseAbstractTest;
+import org.modeshape.jcr.security.SimplePrincipal;
+import com.carrotsearch.junitbenchmarks.BenchmarkOptions;
+import com.carrotsearch.junitbenchmarks.BenchmarkRule;
+import com.carrotsearch.junitbenchmarks.annotation.BenchmarkMethodChart;
+
+/**
+ * Benchmarks for queries and navigation whose results have to be filtered by the access control lists, where every other folder
+ * has an access list that denies access to the session's user and the remaining folders inherit the access list of their
+ * parent.
+ */
+@Ignore
+@BenchmarkMethodChart( filePrefix = "../modeshape-jcr/target/benchmark-secured-query/report" )
+public class SecuredQueryBenchmarkTest extends MultiUseAbstractTest {
+
+    /**
+     * Count of folders below the secured node.
+     */
+    private static final int FOLDER_COUNT = 20;
+
+    /**
+     * Count of documents in each folder.
+     */
+    private static final int DOCUMENT_COUNT = 100;
+
+    private static final String QUERY = "SELECT [jcr:path] FROM [nt:unstructured] AS node "
+                                        + "WHERE ISDESCENDANTNODE(node, '/secured')";
+
+    @Rule
+    public TestRule benchmarkRun = new BenchmarkRule();
+
+    @BeforeClass
+    public static final void beforeAll() throws Exception {
+        MultiUseAbstractTest.beforeAll();
+
+        Node secured = session.getRootNode().addNode("secured");
+        for (int i = 0; i != FOLDER_COUNT; ++i) {
+            Node folder = secured.addNode("folder" + i);
+            for (int j = 0; j != DOCUMENT_COUNT; ++j) {
+                folder.addNode("document" + j).setProperty("index", j);
+            }
+        }
+        session.save();
+
+        setPolicy("/secured", "anonymous", Privilege.JCR_ALL);
+        for (int i = 1; i < FOLDER_COUNT; i += 2) {
+            setPolicy("/secured/folder" + i, "Admin", Privilege.JCR_ALL);
+        }
+        session.save();
+    }
+
+    @AfterClass
+    public static final void afterAll() throws Exception {
+        MultiUseAbstractTest.afterAll();
+    }
+
+    @Test
+    @BenchmarkOptions( benchmarkRounds = 50, warmupRounds = 10, concurrency = 1 )
+    public void queryNodesInSecuredFolders() throws Exception {
+        Query query = session.getWorkspace().getQueryManager().createQuery(QUERY, Query.JCR_SQL2);
+        NodeIterator nodes = query.execute().getNodes();
+        while (nodes.hasNext()) {
+            nodes.nextNode();
+        }
+    }
+
+    @Test
+    @BenchmarkOptions( benchmarkRounds = 50, warmupRounds = 10, concurrency = 1 )
+    public void queryRowsInSecuredFolders() throws Exception {
+        Query query = session.getWorkspace().getQueryManager().createQuery(QUERY, Query.JCR_SQL2);
+        RowIterator rows = query.execute().getRows();
+        while (rows.hasNext()) {
+            rows.nextRow().getNode();
+        }
+    }
+
+    @Test
+    @BenchmarkOptions( benchmarkRounds = 50, warmupRounds = 10, concurrency = 1 )
+    public void navigateSecuredFolders() throws Exception {
+        NodeIterator folders = session.getNode("/secured").getNodes();
+        while (folders.hasNext()) {
+            NodeIterator documents = folders.nextNode().getNodes();
+            while (documents.hasNext()) {
+                documents.nextNode();
+            }
+        }
+    }
+
+    private static void setPolicy( String path,
+                                   String principal,
+                                   String privilege ) throws Exception {
+        AccessControlManager acm = session.getAccessControlManager();
+        AccessControlPolicyIterator it = acm.getApplicablePolicies(path);
+        AccessControlList acl;
+        if (it.hasNext()) {
+            acl = (AccessControlList)it.nextAccessControlPolicy();
+        } else {
+            acl = (AccessControlList)acm.getPolicies(path)[0];
+        }
+        acl.addAccessControlEntry(SimplePrincipal.newInstance(principal), new Privilege[] {acm.privilegeFromName(privilege)});
+        acm.setPolicy(path, acl);
+    }
+}
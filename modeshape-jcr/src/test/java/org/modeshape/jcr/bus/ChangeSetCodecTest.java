@@ -0,0 +1,316 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.math.BigDecimal;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.NodeMoved;
+import org.modeshape.jcr.cache.change.NodeSequencingFailure;
+import org.modeshape.jcr.cache.change.PropertyAdded;
+import org.modeshape.jcr.cache.change.PropertyChanged;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.BinaryKey;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Path;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicEmptyProperty;
+import org.modeshape.jcr.value.basic.BasicMultiValueProperty;
+import org.modeshape.jcr.value.basic.BasicName;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
+import org.modeshape.jcr.value.basic.BasicSingleValueProperty;
+import org.modeshape.jcr.value.basic.ChildPath;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
+
+/**
+ * Unit test for {@link ChangeSetCodec}
+ */
+public class ChangeSetCodecTest {
+
+    private static final String NAMESPACE = "http://www.modeshape.org/test/1.0";
+    private static final String PREFIX = "source1work123";
+
+    private ChangeSetCodec codec;
+
+    @Before
+    public void beforeEach() {
+        codec = new ChangeSetCodec();
+    }
+
+    protected Name name( String localName ) {
+        return new BasicName(NAMESPACE, localName);
+    }
+
+    protected Path path( String... names ) {
+        Path path = RootPath.INSTANCE;
+        for (String name : names) {
+            path = new ChildPath(path, new BasicPathSegment(name(name)));
+        }
+        return path;
+    }
+
+    protected NodeKey key( String identifier ) {
+        return new NodeKey(PREFIX + identifier);
+    }
+
+    protected RecordingChanges newChanges() {
+        return new RecordingChanges("session1", "process1", "repository1", "default");
+    }
+
+    protected RecordingChanges allKindsOfChanges() {
+        RecordingChanges changes = newChanges();
+        Map<Name, Property> properties = new HashMap<Name, Property>();
+        properties.put(name("title"), new BasicSingleValueProperty(name("title"), "The Title"));
+        properties.put(name("count"), new BasicSingleValueProperty(name("count"), 42L));
+        properties.put(name("tags"), new BasicMultiValueProperty(name("tags"), "a", "b", "c"));
+        properties.put(name("empty"), new BasicEmptyProperty(name("empty")));
+        changes.workspaceAdded("other");
+        changes.workspaceRemoved("another");
+        changes.repositoryMetadataChanged();
+        changes.nodeCreated(key("node1"), key("parent"), path("a", "b", "node1"), properties);
+        changes.nodeRemoved(key("node2"), key("parent"), path("a", "b", "node2"));
+        changes.nodeRenamed(key("node3"), path("a", "b", "node3"), new BasicPathSegment(name("old"), 2));
+        changes.nodeMoved(key("node4"), key("parent"), key("newParent"), path("a", "c", "node4"), path("a", "b", "node4"));
+        changes.nodeReordered(key("node5"), key("parent"), path("a", "b", "node5"), path("a", "b", "node5"), null);
+        changes.nodeChanged(key("node6"), RootPath.INSTANCE);
+        changes.nodeSequenced(key("node7"), path("a", "node7"), key("output"), path("out", "node7"), "/out", "admin",
+                              "/a/node7", "sequencer");
+        changes.nodeSequencingFailure(key("node8"), path("a", "node8"), "/out", "admin", "/a/node8", "sequencer",
+                                      new IllegalStateException("Failed"));
+        changes.propertyAdded(key("node9"), path("a", "b"), new BasicSingleValueProperty(name("modified"),
+                                                                                          new JodaDateTime(1000L, "UTC")));
+        changes.propertyRemoved(key("node9"), path("a", "b"), new BasicSingleValueProperty(name("flag"), Boolean.TRUE));
+        changes.propertyChanged(key("node9"), path("a", "b"), new BasicSingleValueProperty(name("ref"), path("a", "c")),
+                                new BasicSingleValueProperty(name("ref"), name("other")));
+        changes.binaryValueUsed(new BinaryKey("0123456789abcdef0123456789abcdef01234567"));
+        changes.binaryValueNoLongerUsed(new BinaryKey("fedcba9876543210fedcba9876543210fedcba98"));
+
+        Set<NodeKey> changedNodes = new HashSet<NodeKey>();
+        for (int i = 1; i != 10; ++i) {
+            changedNodes.add(key("node" + i));
+        }
+        changes.setChangedNodes(changedNodes);
+        Map<String, String> userData = new HashMap<String, String>();
+        userData.put("key", "value");
+        changes.freeze("admin", userData, new JodaDateTime(123456789L, "Europe/Paris"));
+        return changes;
+    }
+
+    protected ChangeSet roundTrip( ChangeSet changes ) throws Exception {
+        return codec.decode(codec.encode(changes), getClass().getClassLoader());
+    }
+
+    protected void assertSameChanges( ChangeSet actual,
+                                      ChangeSet expected ) {
+        assertThat(actual.getSessionId(), is(expected.getSessionId()));
+        assertThat(actual.getProcessKey(), is(expected.getProcessKey()));
+        assertThat(actual.getRepositoryKey(), is(expected.getRepositoryKey()));
+        assertThat(actual.getWorkspaceName(), is(expected.getWorkspaceName()));
+        assertThat(actual.getUserId(), is(expected.getUserId()));
+        assertThat(actual.getUserData(), is(expected.getUserData()));
+        assertThat(actual.getTimestamp(), is(expected.getTimestamp()));
+        assertThat(actual.changedNodes(), is(expected.changedNodes()));
+        assertThat(actual.usedBinaries(), is(expected.usedBinaries()));
+        assertThat(actual.unusedBinaries(), is(expected.unusedBinaries()));
+        assertThat(actual.size(), is(expected.size()));
+        Iterator<Change> actualIter = actual.iterator();
+        for (Change change : expected) {
+            Change actualChange = actualIter.next();
+            assertThat(actualChange.getClass().getName(), is(change.getClass().getName()));
+            assertThat(actualChange.toString(), is(change.toString()));
+        }
+    }
+
+    @Test
+    public void shouldRoundTripAllKindsOfChanges() throws Exception {
+        RecordingChanges changes = allKindsOfChanges();
+        ChangeSet decoded = roundTrip(changes);
+        assertThat(decoded, instanceOf(RecordingChanges.class));
+        assertSameChanges(decoded, changes);
+    }
+
+    @Test
+    public void shouldRoundTripChangeDetails() throws Exception {
+        RecordingChanges changes = allKindsOfChanges();
+        Iterator<Change> iter = roundTrip(changes).iterator();
+        for (Change expected : changes) {
+            Change actual = iter.next();
+            if (expected instanceof NodeAdded) {
+                assertThat(((NodeAdded)actual).getKey(), is(((NodeAdded)expected).getKey()));
+                assertThat(((NodeAdded)actual).getParentKey(), is(((NodeAdded)expected).getParentKey()));
+                assertThat(((NodeAdded)actual).getPath(), is(((NodeAdded)expected).getPath()));
+                assertThat(((NodeAdded)actual).getProperties(), is(((NodeAdded)expected).getProperties()));
+            } else if (expected instanceof NodeMoved) {
+                assertThat(((NodeMoved)actual).getOldParent(), is(((NodeMoved)expected).getOldParent()));
+                assertThat(((NodeMoved)actual).getNewParent(), is(((NodeMoved)expected).getNewParent()));
+                assertThat(((NodeMoved)actual).getNewPath(), is(((NodeMoved)expected).getNewPath()));
+                assertThat(((NodeMoved)actual).getOldPath(), is(((NodeMoved)expected).getOldPath()));
+            } else if (expected instanceof PropertyChanged) {
+                assertThat(((PropertyChanged)actual).getNewProperty(), is(((PropertyChanged)expected).getNewProperty()));
+                assertThat(((PropertyChanged)actual).getOldProperty(), is(((PropertyChanged)expected).getOldProperty()));
+            } else if (expected instanceof NodeSequencingFailure) {
+                assertThat(((NodeSequencingFailure)actual).getCause().getMessage(), is("Failed"));
+            }
+        }
+    }
+
+    @Test
+    public void shouldRoundTripValuesOfAllTypes() throws Exception {
+        List<Object> values = new ArrayList<Object>();
+        values.add("string");
+        values.add(1L);
+        values.add(1.5d);
+        values.add(Boolean.FALSE);
+        values.add(new BigDecimal("12.345"));
+        values.add(new JodaDateTime(5000L, "America/Chicago"));
+        values.add(name("name"));
+        values.add(path("a", "b"));
+        values.add(URI.create("http://www.modeshape.org"));
+        values.add(UUID.randomUUID());
+        Property property = new BasicMultiValueProperty(name("values"), values);
+        RecordingChanges changes = newChanges();
+        changes.propertyAdded(key("node"), path("a"), property);
+        changes.freeze("admin", null, new JodaDateTime());
+
+        ChangeSet decoded = roundTrip(changes);
+        assertSameChanges(decoded, changes);
+        assertThat(((PropertyAdded)decoded.iterator().next()).getProperty(), is(property));
+    }
+
+    @Test
+    public void shouldCompressLargeChangeSets() throws Exception {
+        RecordingChanges changes = newChanges();
+        for (int i = 0; i != 1000; ++i) {
+            changes.nodeChanged(key("node" + i), path("a", "b", "node" + i));
+        }
+        changes.freeze("admin", null, new JodaDateTime());
+        byte[] uncompressed = new ChangeSetCodec(-1).encode(changes);
+        byte[] compressed = new ChangeSetCodec(0).encode(changes);
+        assertTrue(compressed.length < uncompressed.length);
+        assertSameChanges(codec.decode(compressed, null), changes);
+        assertSameChanges(codec.decode(uncompressed, null), changes);
+    }
+
+    @Test
+    public void shouldBeSmallerThanJavaSerialization() throws Exception {
+        RecordingChanges changes = allKindsOfChanges();
+        assertTrue(new ChangeSetCodec(-1).encode(changes).length < serialize(changes).length);
+    }
+
+    @Test
+    public void shouldDecodeJavaSerializedChangeSets() throws Exception {
+        RecordingChanges changes = allKindsOfChanges();
+        assertSameChanges(codec.decode(serialize(changes), getClass().getClassLoader()), changes);
+    }
+
+    @Test
+    public void shouldUseJavaSerializationForOtherKindsOfChangeSets() throws Exception {
+        CustomChanges changes = new CustomChanges();
+        changes.nodeChanged(key("node"), path("a"));
+        changes.freeze("admin", null, new JodaDateTime());
+        ChangeSet decoded = roundTrip(changes);
+        assertThat(decoded, instanceOf(CustomChanges.class));
+        assertSameChanges(decoded, changes);
+    }
+
+    @Test
+    public void shouldRoundTripBatchOfChangeSets() throws Exception {
+        List<ChangeSet> batch = new ArrayList<ChangeSet>();
+        batch.add(allKindsOfChanges());
+        CustomChanges custom = new CustomChanges();
+        custom.nodeChanged(key("node"), path("a"));
+        custom.freeze("admin", null, new JodaDateTime());
+        batch.add(custom);
+        batch.add(allKindsOfChanges());
+
+        List<ChangeSet> decoded = codec.decodeAll(codec.encode(batch), getClass().getClassLoader());
+        assertThat(decoded.size(), is(3));
+        for (int i = 0; i != batch.size(); ++i) {
+            assertThat(decoded.get(i).getClass().getName(), is(batch.get(i).getClass().getName()));
+            assertSameChanges(decoded.get(i), batch.get(i));
+        }
+    }
+
+    @Test
+    public void shouldShareStringsAndPathsAcrossChangeSetsInBatch() throws Exception {
+        List<ChangeSet> batch = new ArrayList<ChangeSet>();
+        batch.add(allKindsOfChanges());
+        batch.add(allKindsOfChanges());
+        ChangeSetCodec uncompressed = new ChangeSetCodec(-1);
+        int singleSize = uncompressed.encode(batch.get(0)).length;
+        assertTrue(uncompressed.encode(batch).length < 2 * singleSize);
+    }
+
+    @Test
+    public void shouldDecodeSingleChangeSetAsBatch() throws Exception {
+        RecordingChanges changes = allKindsOfChanges();
+        List<ChangeSet> decoded = codec.decodeAll(codec.encode(changes), null);
+        assertThat(decoded.size(), is(1));
+        assertSameChanges(decoded.get(0), changes);
+    }
+
+    @Test( expected = IOException.class )
+    public void shouldFailToDecodeNewerVersions() throws Exception {
+        byte[] data = codec.encode(allKindsOfChanges());
+        data[1] = (byte)(ChangeSetCodec.VERSION + 1);
+        codec.decode(data, null);
+    }
+
+    protected byte[] serialize( Object object ) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ObjectOutputStream stream = new ObjectOutputStream(output);
+        stream.writeObject(object);
+        stream.close();
+        return output.toByteArray();
+    }
+
+    protected static class CustomChanges extends RecordingChanges {
+        private static final long serialVersionUID = 1L;
+
+        protected CustomChanges() {
+            super("session1", "process1", "repository1", "default");
+        }
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.bus;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
+import org.modeshape.jcr.bus.ChangeSetRingBuffer.AddResult;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.Change;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeChanged;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
+
+/**
+ * Unit test for {@link ChangeSetRingBuffer}
+ */
+public class ChangeSetRingBufferTest {
+
+    private ExecutorService executor;
+
+    @Before
+    public void beforeEach() {
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void afterEach() {
+        executor.shutdownNow();
+    }
+
+    protected RecordingChanges changes( String sessionId,
+                                        String nodeId ) {
+        RecordingChanges changes = new RecordingChanges(sessionId, "process1", "repository1", "default");
+        changes.nodeChanged(new NodeKey("source1work123" + nodeId), RootPath.INSTANCE);
+        changes.freeze("admin", null, new JodaDateTime());
+        return changes;
+    }
+
+    protected Future<AddResult> addInBackground( final ChangeSetRingBuffer buffer,
+                                                 final ChangeSet changeSet ) {
+        return executor.submit(new Callable<AddResult>() {
+            @Override
+            public AddResult call() {
+                return buffer.add(changeSet);
+            }
+        });
+    }
+
+    @Test
+    public void shouldReturnChangeSetsInOrderAdded() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(3, EventOverflowPolicy.BLOCK);
+        ChangeSet first = changes("s1", "a");
+        ChangeSet second = changes("s1", "b");
+        ChangeSet third = changes("s1", "c");
+        ChangeSet fourth = changes("s1", "d");
+        assertThat(buffer.add(first), is(AddResult.ADDED));
+        assertThat(buffer.add(second), is(AddResult.ADDED));
+        assertThat(buffer.take(), is(sameInstance(first)));
+        // Wrap around the end of the array ...
+        assertThat(buffer.add(third), is(AddResult.ADDED));
+        assertThat(buffer.add(fourth), is(AddResult.ADDED));
+        assertThat(buffer.size(), is(3));
+        assertThat(buffer.take(), is(sameInstance(second)));
+        assertThat(buffer.take(), is(sameInstance(third)));
+        assertThat(buffer.poll(), is(sameInstance(fourth)));
+        assertThat(buffer.poll(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldDropChangeSetsWhenFull() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(2, EventOverflowPolicy.DROP);
+        ChangeSet first = changes("s1", "a");
+        assertThat(buffer.add(first), is(AddResult.ADDED));
+        assertThat(buffer.add(changes("s1", "b")), is(AddResult.ADDED));
+        assertThat(buffer.add(changes("s1", "c")), is(AddResult.DROPPED));
+        assertThat(buffer.size(), is(2));
+        assertThat(buffer.take(), is(sameInstance(first)));
+        assertThat(buffer.add(changes("s1", "d")), is(AddResult.ADDED));
+    }
+
+    @Test
+    public void shouldCoalesceChangeSetsFromSameSessionWhenFull() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.COALESCE);
+        assertThat(buffer.add(changes("s1", "a")), is(AddResult.ADDED));
+        assertThat(buffer.add(changes("s1", "b")), is(AddResult.COALESCED));
+        assertThat(buffer.size(), is(1));
+
+        ChangeSet coalesced = buffer.take();
+        assertThat(coalesced.size(), is(2));
+        assertThat(coalesced.changedNodes().size(), is(2));
+        Iterator<Change> iter = coalesced.iterator();
+        assertThat(((NodeChanged)iter.next()).getKey(), is(new NodeKey("source1work123a")));
+        assertThat(((NodeChanged)iter.next()).getKey(), is(new NodeKey("source1work123b")));
+    }
+
+    @Test
+    public void shouldBlockWhenFullAndChangeSetsCannotBeCoalesced() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.COALESCE);
+        ChangeSet first = changes("s1", "a");
+        ChangeSet second = changes("s2", "b");
+        assertThat(buffer.add(first), is(AddResult.ADDED));
+        Future<AddResult> result = addInBackground(buffer, second);
+        assertBlocked(result);
+        assertThat(buffer.take(), is(sameInstance(first)));
+        assertThat(result.get(5, TimeUnit.SECONDS), is(AddResult.ADDED));
+        assertThat(buffer.take(), is(sameInstance(second)));
+    }
+
+    @Test
+    public void shouldBlockWhenFullUntilChangeSetIsTaken() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.BLOCK);
+        assertThat(buffer.add(changes("s1", "a")), is(AddResult.ADDED));
+        Future<AddResult> result = addInBackground(buffer, changes("s1", "b"));
+        assertBlocked(result);
+        buffer.take();
+        assertThat(result.get(5, TimeUnit.SECONDS), is(AddResult.ADDED));
+    }
+
+    @Test
+    public void shouldReleaseBlockedThreadsWhenClosed() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.BLOCK);
+        assertThat(buffer.add(changes("s1", "a")), is(AddResult.ADDED));
+        Future<AddResult> result = addInBackground(buffer, changes("s1", "b"));
+        assertBlocked(result);
+        buffer.close();
+        assertThat(result.get(5, TimeUnit.SECONDS), is(AddResult.CLOSED));
+        assertThat(buffer.add(changes("s1", "c")), is(AddResult.CLOSED));
+        assertThat(buffer.size(), is(1));
+    }
+
+    @Test
+    public void shouldNotBlockConsumerThreadAddingToFullBuffer() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.BLOCK);
+        assertThat(buffer.add(changes("s1", "a")), is(AddResult.ADDED));
+        // This thread is the consumer once it has taken a change set ...
+        buffer.take();
+        assertThat(buffer.add(changes("s1", "b")), is(AddResult.ADDED));
+        assertThat(buffer.add(changes("s1", "c")), is(AddResult.ADDED));
+        assertThat(buffer.add(changes("s1", "d")), is(AddResult.ADDED));
+        assertThat(buffer.size(), is(3));
+    }
+
+    @Test
+    public void shouldLimitGrowthOfBufferForConsumerThread() throws Exception {
+        ChangeSetRingBuffer buffer = new ChangeSetRingBuffer(1, EventOverflowPolicy.BLOCK);
+        assertThat(buffer.add(changes("s1", "a")), is(AddResult.ADDED));
+        // This thread is the consumer once it has taken a change set ...
+        buffer.take();
+        for (int i = 0; i != ChangeSetRingBuffer.MAX_GROWTH_FACTOR; ++i) {
+            assertThat(buffer.add(changes("s1", "b" + i)), is(AddResult.ADDED));
+        }
+        assertThat(buffer.add(changes("s1", "c")), is(AddResult.DROPPED));
+        assertThat(buffer.size(), is(ChangeSetRingBuffer.MAX_GROWTH_FACTOR));
+    }
+
+    protected void assertBlocked( Future<AddResult> result ) throws Exception {
+        try {
+            result.get(100, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            return;
+        }
+        assertTrue("Expected the thread adding the change set to be blocked", false);
+    }
+}
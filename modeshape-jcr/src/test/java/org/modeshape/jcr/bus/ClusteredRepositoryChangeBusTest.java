@@ -335,20 +335,82 @@ public class ClusteredRepositoryChangeBusTest extends RepositoryChangeBusTest {
         assertThat(listener1.getObservedChangeSet().get(0), is(changeSet));
     }
 
+    @Test
+    public void shouldSendBatchesOfChangeSetsThroughRealJGroupsClusterInOrder() throws Exception {
+        TestListener listener1 = new TestListener();
+        TestListener listener2 = new TestListener();
+
+        ClusteredRepositoryChangeBus bus1 = startNewBus(CLUSTER_NAME, 50);
+        bus1.register(listener1);
+        ClusteredRepositoryChangeBus bus2 = startNewBus(CLUSTER_NAME, 50);
+        bus2.register(listener2);
+
+        // Send more change sets than fit in a single batch ...
+        int count = 8;
+        listener1.expectChangeSet(count);
+        listener2.expectChangeSet(count);
+        List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+        for (int i = 0; i != count; ++i) {
+            ChangeSet changeSet = new TestChangeSet("ws" + i);
+            changeSets.add(changeSet);
+            bus1.notify(changeSet);
+        }
+
+        listener1.await();
+        listener2.await();
+
+        assertThat(listener1.getObservedChangeSet(), is((List<?>)changeSets));
+        assertThat(listener2.getObservedChangeSet(), is((List<?>)changeSets));
+    }
+
+    @Test
+    public void shouldSendPendingBatchesInOrderWhenBusIsShutDown() throws Exception {
+        TestListener listener2 = new TestListener();
+
+        // The batch window is long enough that nothing is sent before the bus is shut down ...
+        ClusteredRepositoryChangeBus bus1 = startNewBus(CLUSTER_NAME, 10000);
+        bus1.register(new TestListener());
+        ClusteredRepositoryChangeBus bus2 = startNewBus(CLUSTER_NAME, 50);
+        bus2.register(listener2);
+
+        int count = 8;
+        listener2.expectChangeSet(count);
+        List<ChangeSet> changeSets = new ArrayList<ChangeSet>();
+        for (int i = 0; i != count; ++i) {
+            ChangeSet changeSet = new TestChangeSet("ws" + i);
+            changeSets.add(changeSet);
+            bus1.notify(changeSet);
+        }
+        bus1.shutdown();
+
+        listener2.await();
+
+        assertThat(listener2.getObservedChangeSet(), is((List<?>)changeSets));
+    }
+
     private ClusteredRepositoryChangeBus startNewBus( String name) throws Exception {
-        ClusteredRepositoryChangeBus bus = new ClusteredRepositoryChangeBus(createClusteringConfiguration(name),
+        return startNewBus(name, 0);
+    }
+
+    private ClusteredRepositoryChangeBus startNewBus( String name,
+                                                      int batchWindowInMillis ) throws Exception {
+        ClusteredRepositoryChangeBus bus = new ClusteredRepositoryChangeBus(createClusteringConfiguration(name,
+                                                                                                          batchWindowInMillis),
                                                                             super.createRepositoryChangeBus(), "test-bus-process");
         bus.start();
         buses.add(bus);
         return bus;
     }
     
-    private RepositoryConfiguration.Clustering createClusteringConfiguration(String clusterName) {
+    private RepositoryConfiguration.Clustering createClusteringConfiguration(String clusterName,
+                                                                             int batchWindowInMillis) {
         RepositoryConfiguration.Clustering repositoryConfiguration = mock(RepositoryConfiguration.Clustering.class);
         when(repositoryConfiguration.isEnabled()).thenReturn(true);
         when(repositoryConfiguration.getClusterName()).thenReturn(clusterName);
         when(repositoryConfiguration.getChannelProviderClassName()).thenReturn(DefaultChannelProvider.class.getName());
         when(repositoryConfiguration.getChannelConfiguration()).thenReturn("config/jgroups-test-config.xml");
+        when(repositoryConfiguration.getBatchWindowInMillis()).thenReturn(batchWindowInMillis);
+        when(repositoryConfiguration.getBatchMaximumSize()).thenReturn(3);
         return repositoryConfiguration;
     }
 }
@@ -24,8 +24,11 @@
 
 package org.modeshape.jcr.bus;
 
+import static org.hamcrest.core.Is.is;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,12 +36,17 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.modeshape.jcr.RepositoryConfiguration.EventOverflowPolicy;
 import org.modeshape.jcr.api.value.DateTime;
 import org.modeshape.jcr.cache.NodeKey;
 import org.modeshape.jcr.cache.change.Change;
@@ -180,6 +188,132 @@ public class RepositoryChangeBusTest {
         assertChangesDispatched(listener);
     }
 
+    @Test
+    public void shouldNotifyInThreadListenerBeforeNotifyReturns() throws Exception {
+        final List<Thread> threads = new ArrayList<Thread>();
+        ChangeSetListener listener = new ChangeSetListener() {
+            @Override
+            public void notify( ChangeSet changeSet ) {
+                threads.add(Thread.currentThread());
+            }
+        };
+        assertTrue(getChangeBus().registerInThread(listener));
+        assertFalse(getChangeBus().registerInThread(listener));
+        assertTrue(getChangeBus().hasObservers());
+
+        getChangeBus().notify(new TestChangeSet(WORKSPACE1));
+        assertThat(threads, is(Collections.singletonList(Thread.currentThread())));
+
+        assertTrue(getChangeBus().unregister(listener));
+        getChangeBus().notify(new TestChangeSet(WORKSPACE1));
+        assertThat(threads.size(), is(1));
+    }
+
+    @Test
+    public void shouldApplyOverflowPolicyToObservationListener() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        RepositoryChangeBus bus = new RepositoryChangeBus(executor, null, 1, EventOverflowPolicy.DROP, null);
+        try {
+            CountDownLatch gate = new CountDownLatch(1);
+            GatedListener observation = new GatedListener(gate, new CountDownLatch(1));
+            bus.registerObservationListener(observation);
+
+            // The listener is busy with the first change set, the second fills its queue, and the third is dropped ...
+            bus.notify(new TestChangeSet(WORKSPACE1));
+            assertTrue(observation.started.await(5, TimeUnit.SECONDS));
+            bus.notify(new TestChangeSet(WORKSPACE1));
+            bus.notify(new TestChangeSet(WORKSPACE1));
+            gate.countDown();
+            assertTrue(observation.await(2));
+            Thread.sleep(100L);
+            assertThat(observation.count(), is(2));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldAlwaysBlockForRepositoryListener() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final RepositoryChangeBus bus = new RepositoryChangeBus(executor, null, 1, EventOverflowPolicy.DROP, null);
+        try {
+            CountDownLatch gate = new CountDownLatch(1);
+            GatedListener internal = new GatedListener(gate, new CountDownLatch(1));
+            bus.register(internal);
+
+            // The listener is busy with the first change set and the second fills its queue ...
+            bus.notify(new TestChangeSet(WORKSPACE1));
+            assertTrue(internal.started.await(5, TimeUnit.SECONDS));
+            Future<Void> notifier = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    bus.notify(new TestChangeSet(WORKSPACE1));
+                    bus.notify(new TestChangeSet(WORKSPACE1));
+                    return null;
+                }
+            });
+
+            // The third change set is not dropped, so the notifying thread must wait ...
+            try {
+                notifier.get(100, TimeUnit.MILLISECONDS);
+                fail("Expected the notifying thread to be blocked");
+            } catch (TimeoutException e) {
+                // expected
+            }
+            gate.countDown();
+            notifier.get(5, TimeUnit.SECONDS);
+            assertTrue(internal.await(3));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldCountChangeSetsDroppedWhenBlockingListenerFillsItsOwnQueue() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        final List<ChangeSet> dropped = Collections.synchronizedList(new ArrayList<ChangeSet>());
+        RepositoryChangeBus.DispatchMonitor monitor = new RepositoryChangeBus.DispatchMonitor() {
+            @Override
+            public void queueSizes( int total,
+                                    int maximum ) {
+            }
+
+            @Override
+            public void dropped( ChangeSetListener listener,
+                                 ChangeSet changeSet ) {
+                dropped.add(changeSet);
+            }
+
+            @Override
+            public void coalesced( ChangeSetListener listener,
+                                   ChangeSet changeSet ) {
+            }
+        };
+        final RepositoryChangeBus bus = new RepositoryChangeBus(executor, null, 1, EventOverflowPolicy.BLOCK, monitor);
+        try {
+            final CountDownLatch done = new CountDownLatch(1);
+            bus.register(new ChangeSetListener() {
+                private boolean first = true;
+
+                @Override
+                public void notify( ChangeSet changeSet ) {
+                    if (!first) return;
+                    first = false;
+                    // The listener's own change sets can fill its queue up to the growth limit, and the rest are dropped ...
+                    for (int i = 0; i <= ChangeSetRingBuffer.MAX_GROWTH_FACTOR; ++i) {
+                        bus.notify(new TestChangeSet(WORKSPACE1));
+                    }
+                    done.countDown();
+                }
+            });
+            bus.notify(new TestChangeSet(WORKSPACE1));
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertThat(dropped.size(), is(1));
+        } finally {
+            bus.shutdown();
+        }
+    }
+
     protected ChangeBus getChangeBus() throws Exception {
         return changeBus;
     }
@@ -307,6 +441,49 @@ public class RepositoryChangeBusTest {
         }
     }
 
+    /**
+     * A listener that counts the change sets it receives, and that blocks until the gate is opened.
+     */
+    protected static class GatedListener implements ChangeSetListener {
+        private final CountDownLatch gate;
+        protected final CountDownLatch started;
+        private int count;
+
+        protected GatedListener( CountDownLatch gate,
+                                 CountDownLatch started ) {
+            this.gate = gate;
+            this.started = started;
+        }
+
+        @Override
+        public void notify( ChangeSet changeSet ) {
+            synchronized (this) {
+                ++count;
+                notifyAll();
+            }
+            started.countDown();
+            try {
+                gate.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.interrupted();
+            }
+        }
+
+        protected synchronized int count() {
+            return count;
+        }
+
+        protected synchronized boolean await( int expectedCount ) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(5);
+            while (count < expectedCount) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                wait(remaining);
+            }
+            return true;
+        }
+    }
+
     protected static class TestListener implements ChangeSetListener {
         private final List<TestChangeSet> receivedChangeSet;
         private CountDownLatch latch;
@@ -94,6 +94,11 @@ public abstract class AbstractSessionCacheTest extends AbstractNodeCacheTest {
             public boolean indexingClustered() {
                 return false;
             }
+
+            @Override
+            public SaveMonitor getSaveMonitor() {
+                return null;
+            }
         };
     }
 
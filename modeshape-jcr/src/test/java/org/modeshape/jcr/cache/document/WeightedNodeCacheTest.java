@@ -0,0 +1,177 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.cache.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.infinispan.schematic.Schematic;
+import org.infinispan.schematic.document.EditableDocument;
+import org.infinispan.schematic.internal.document.BsonWriter;
+import org.infinispan.schematic.internal.document.LazyDocument;
+import org.junit.Test;
+import org.modeshape.jcr.cache.CachedNode;
+import org.modeshape.jcr.cache.NodeKey;
+
+/**
+ * Unit test for {@link WeightedNodeCache}
+ */
+public class WeightedNodeCacheTest {
+
+    protected NodeKey key( int id ) {
+        return new NodeKey("source1", "workspc", "node" + id);
+    }
+
+    protected CachedNode node( int id ) {
+        EditableDocument doc = Schematic.newDocument();
+        doc.setString("name", "node");
+        return new LazyCachedNode(key(id), doc);
+    }
+
+    protected long weightOfNode() {
+        return new WeightedNodeCache(Long.MAX_VALUE, null).weigh(node(0));
+    }
+
+    @Test
+    public void shouldWeighLargerDocumentsMoreThanSmallerDocuments() {
+        WeightedNodeCache cache = new WeightedNodeCache(Long.MAX_VALUE, null);
+        EditableDocument doc = Schematic.newDocument();
+        doc.setString("name", "node1");
+        List<Object> children = new ArrayList<Object>();
+        for (int i = 0; i != 100; ++i) {
+            children.add(Schematic.newDocument("key", key(i).toString(), "name", "child" + i));
+        }
+        doc.setArray("children", children.toArray());
+        long large = cache.weigh(new LazyCachedNode(key(1), doc));
+        long small = cache.weigh(node(1));
+        assertTrue(large > small * 10);
+    }
+
+    @Test
+    public void shouldWeighLazyDocumentsByTheirBsonBytes() throws Exception {
+        EditableDocument doc = Schematic.newDocument();
+        doc.setString("name", "node");
+        doc.setDocument("nested", Schematic.newDocument("value", 1, "other", "nested value"));
+        LazyDocument lazy = new LazyDocument(new BsonWriter().write(doc));
+        WeightedNodeCache cache = new WeightedNodeCache(Long.MAX_VALUE, null);
+        assertThat(cache.weigh(new LazyCachedNode(key(1), lazy)), is(WeightedNodeCache.NODE_OVERHEAD + 48L + lazy.getLength()));
+    }
+
+    @Test
+    public void shouldRecordHitsAndMisses() {
+        CountingMonitor monitor = new CountingMonitor();
+        WeightedNodeCache cache = new WeightedNodeCache(Long.MAX_VALUE, monitor);
+        CachedNode node = node(1);
+        assertThat(cache.get(key(1)), is(nullValue()));
+        assertThat(cache.putIfAbsent(key(1), node), is(nullValue()));
+        assertThat(cache.get(key(1)), is(sameInstance(node)));
+        assertThat(cache.get(key(1)), is(sameInstance(node)));
+        assertThat(cache.getHitCount(), is(2L));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(monitor.hits.get(), is(2));
+        assertThat(monitor.misses.get(), is(1));
+    }
+
+    @Test
+    public void shouldNotReplaceExistingNodeWithPutIfAbsent() {
+        WeightedNodeCache cache = new WeightedNodeCache(Long.MAX_VALUE, null);
+        CachedNode node = node(1);
+        cache.putIfAbsent(key(1), node);
+        assertThat(cache.putIfAbsent(key(1), node(1)), is(sameInstance(node)));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getWeight(), is(weightOfNode()));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyAddedNodesWhenMaximumWeightIsExceeded() {
+        CountingMonitor monitor = new CountingMonitor();
+        WeightedNodeCache cache = new WeightedNodeCache(weightOfNode() * 3 + 1, monitor);
+        for (int i = 0; i != 4; ++i) {
+            cache.put(key(i), node(i));
+        }
+        assertThat(cache.size(), is(3));
+        assertThat(cache.containsKey(key(0)), is(false));
+        assertThat(cache.containsKey(key(3)), is(true));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertThat(monitor.evictions.get(), is(1));
+        assertTrue(cache.getWeight() <= cache.getMaximumWeight());
+    }
+
+    @Test
+    public void shouldKeepNodesThatAreReadAgainWhenScanningManyOtherNodes() {
+        WeightedNodeCache cache = new WeightedNodeCache(weightOfNode() * 5, null);
+        cache.put(key(0), node(0));
+        cache.get(key(0));
+        for (int i = 1; i != 100; ++i) {
+            cache.put(key(i), node(i));
+        }
+        assertThat(cache.containsKey(key(0)), is(true));
+        assertThat(cache.containsKey(key(1)), is(false));
+        assertThat(cache.containsKey(key(99)), is(true));
+        assertThat(cache.size(), is(5));
+    }
+
+    @Test
+    public void shouldReleaseWeightOfRemovedAndReplacedNodes() {
+        WeightedNodeCache cache = new WeightedNodeCache(Long.MAX_VALUE, null);
+        CachedNode node = node(1);
+        cache.put(key(1), node);
+        cache.put(key(2), node(2));
+        cache.put(key(2), node(2));
+        assertThat(cache.getWeight(), is(weightOfNode() * 2));
+        assertThat(cache.remove(key(1)), is(sameInstance(node)));
+        assertThat(cache.getWeight(), is(weightOfNode()));
+        cache.clear();
+        assertThat(cache.getWeight(), is(0L));
+        assertThat(cache.isEmpty(), is(true));
+        cache.put(key(3), node(3));
+        assertThat(cache.getWeight(), is(weightOfNode()));
+    }
+
+    protected static class CountingMonitor implements WeightedNodeCache.Monitor {
+        protected final AtomicInteger hits = new AtomicInteger();
+        protected final AtomicInteger misses = new AtomicInteger();
+        protected final AtomicInteger evictions = new AtomicInteger();
+
+        @Override
+        public void hit() {
+            hits.incrementAndGet();
+        }
+
+        @Override
+        public void miss() {
+            misses.incrementAndGet();
+        }
+
+        @Override
+        public void evicted( long weight ) {
+            evictions.incrementAndGet();
+        }
+    }
+}
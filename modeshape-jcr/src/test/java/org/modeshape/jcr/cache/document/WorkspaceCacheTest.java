@@ -23,8 +23,15 @@
  */
 package org.modeshape.jcr.cache.document;
 
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import org.junit.Test;
 import org.modeshape.jcr.cache.CachedNode;
 import org.modeshape.jcr.cache.NodeCache;
 import org.modeshape.jcr.cache.NodeKey;
@@ -42,4 +49,43 @@ public class WorkspaceCacheTest extends AbstractNodeCacheTest {
         return workspaceCache;
     }
 
+    @Test
+    public void shouldGetExistingNodesInOrderOfKeys() {
+        WorkspaceCache workspaceCache = (WorkspaceCache)cache;
+        NodeKey childA = new NodeKey("source1works1-childA");
+        NodeKey missing = new NodeKey("source1works1-missing");
+        CachedNode root = workspaceCache.getNode(ROOT_KEY_WS1);
+        Map<NodeKey, CachedNode> nodes = workspaceCache.getNodes(Arrays.asList(childA, missing, ROOT_KEY_WS1));
+        assertThat(nodes.size(), is(2));
+        Iterator<NodeKey> keys = nodes.keySet().iterator();
+        assertThat(keys.next(), is(childA));
+        assertThat(keys.next(), is(ROOT_KEY_WS1));
+        assertThat(nodes.get(ROOT_KEY_WS1), is(sameInstance(root)));
+        assertThat(workspaceCache.getNode(childA), is(sameInstance(nodes.get(childA))));
+    }
+
+    @Test
+    public void shouldNotCountPrefetchedNodesAsLookups() {
+        WeightedNodeCache nodeCache = new WeightedNodeCache(1024L * 1024L, null);
+        DocumentStore documentStore = new LocalDocumentStore(schematicDb);
+        DocumentTranslator translator = new DocumentTranslator(context, documentStore, 100L);
+        WorkspaceCache workspaceCache = new WorkspaceCache(context, "repo", "ws", documentStore, translator, ROOT_KEY_WS1,
+                                                           nodeCache, null);
+        NodeKey childA = new NodeKey("source1works1-childA");
+        NodeKey childB = new NodeKey("source1works1-childB");
+        workspaceCache.prefetchNodes(Arrays.asList(childA, childB));
+        assertThat(nodeCache.size(), is(2));
+        assertThat(nodeCache.getHitCount(), is(0L));
+        assertThat(nodeCache.getMissCount(), is(0L));
+
+        workspaceCache.getNode(childA);
+        workspaceCache.getNode(childB);
+        assertThat(nodeCache.getHitCount(), is(2L));
+        assertThat(nodeCache.getMissCount(), is(0L));
+
+        workspaceCache.getNodes(Arrays.asList(childA, ROOT_KEY_WS1));
+        assertThat(nodeCache.getHitCount(), is(3L));
+        assertThat(nodeCache.getMissCount(), is(1L));
+    }
+
 }
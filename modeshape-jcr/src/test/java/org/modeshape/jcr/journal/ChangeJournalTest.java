@@ -0,0 +1,236 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.journal;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+import org.modeshape.jcr.cache.NodeKey;
+import org.modeshape.jcr.cache.change.ChangeSet;
+import org.modeshape.jcr.cache.change.NodeAdded;
+import org.modeshape.jcr.cache.change.RecordingChanges;
+import org.modeshape.jcr.value.Name;
+import org.modeshape.jcr.value.Property;
+import org.modeshape.jcr.value.basic.BasicName;
+import org.modeshape.jcr.value.basic.BasicPathSegment;
+import org.modeshape.jcr.value.basic.ChildPath;
+import org.modeshape.jcr.value.basic.JodaDateTime;
+import org.modeshape.jcr.value.basic.RootPath;
+
+/**
+ * Unit test for {@link ChangeJournal}
+ */
+public class ChangeJournalTest {
+
+    private static final String NAMESPACE = "http://www.modeshape.org/test/1.0";
+    private static final long START = 1000000L;
+
+    private File directory;
+    private ChangeJournal journal;
+
+    @Before
+    public void beforeEach() throws Exception {
+        directory = new File("target/journal/ChangeJournalTest");
+        FileUtil.delete(directory);
+        journal = newJournal(4096, 256, -1L);
+    }
+
+    @After
+    public void afterEach() {
+        journal.shutdown();
+        FileUtil.delete(directory);
+    }
+
+    protected ChangeJournal newJournal( int segmentSize,
+                                        int indexInterval,
+                                        long maxAgeInMillis ) throws Exception {
+        ChangeJournal journal = new ChangeJournal(directory, segmentSize, indexInterval, maxAgeInMillis, null);
+        journal.start();
+        return journal;
+    }
+
+    protected ChangeSet changeSet( int number,
+                                   long timestamp ) {
+        RecordingChanges changes = new RecordingChanges("session1", "process1", "repository1", "default");
+        Name name = new BasicName(NAMESPACE, "node" + number);
+        changes.nodeCreated(new NodeKey("source1work123node" + number), new NodeKey("source1work123parent"),
+                            new ChildPath(RootPath.INSTANCE, new BasicPathSegment(name)),
+                            Collections.<Name, Property>emptyMap());
+        changes.freeze("admin", null, new JodaDateTime(timestamp));
+        return changes;
+    }
+
+    protected void record( int count ) {
+        for (int i = 0; i != count; ++i) {
+            journal.notify(changeSet(i, START + i * 10L));
+        }
+    }
+
+    protected int numberOf( ChangeSet changeSet ) {
+        NodeAdded added = (NodeAdded)changeSet.iterator().next();
+        return Integer.parseInt(added.getKey().getIdentifier().substring("node".length()));
+    }
+
+    protected void assertRemaining( ChangeJournal.Cursor cursor,
+                                    int first,
+                                    int last ) {
+        for (int i = first; i <= last; ++i) {
+            assertThat(cursor.hasNext(), is(true));
+            assertThat(cursor.nextTimestamp(), is(START + i * 10L));
+            assertThat(numberOf(cursor.next()), is(i));
+        }
+        assertThat(cursor.hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldHaveNoChangeSetsInEmptyJournal() {
+        assertThat(journal.cursor().hasNext(), is(false));
+        assertThat(journal.segmentCount(), is(0));
+    }
+
+    @Test
+    public void shouldReadChangeSetsInOrderAcrossSegments() {
+        record(200);
+        assertThat(journal.segmentCount() > 1, is(true));
+        assertRemaining(journal.cursor(), 0, 199);
+    }
+
+    @Test
+    public void shouldSeeChangeSetsRecordedAfterCursorWasCreated() {
+        record(5);
+        ChangeJournal.Cursor cursor = journal.cursor();
+        assertRemaining(cursor, 0, 4);
+        journal.notify(changeSet(5, START + 50L));
+        assertRemaining(cursor, 5, 5);
+    }
+
+    @Test
+    public void shouldSkipToFirstChangeSetAtOrAfterTime() {
+        record(200);
+        ChangeJournal.Cursor cursor = journal.cursor();
+        cursor.skipTo(START + 1005L);
+        assertRemaining(cursor, 101, 199);
+
+        cursor = journal.cursor();
+        cursor.skipTo(START + 1000L);
+        assertRemaining(cursor, 100, 199);
+
+        cursor = journal.cursor();
+        cursor.skipTo(0L);
+        assertRemaining(cursor, 0, 199);
+
+        cursor = journal.cursor();
+        cursor.skipTo(START + 100000L);
+        assertThat(cursor.hasNext(), is(false));
+    }
+
+    @Test
+    public void shouldNeverMoveCursorBackwards() {
+        record(20);
+        ChangeJournal.Cursor cursor = journal.cursor();
+        cursor.skipTo(START + 150L);
+        cursor.skipTo(START + 50L);
+        assertRemaining(cursor, 15, 19);
+    }
+
+    @Test
+    public void shouldKeepTimestampsInOrder() {
+        journal.notify(changeSet(0, START + 100L));
+        journal.notify(changeSet(1, START));
+        ChangeJournal.Cursor cursor = journal.cursor();
+        assertThat(cursor.nextTimestamp(), is(START + 100L));
+        cursor.next();
+        assertThat(cursor.nextTimestamp(), is(START + 100L));
+        assertThat(numberOf(cursor.next()), is(1));
+    }
+
+    @Test
+    public void shouldReadChangeSetsAfterRestart() throws Exception {
+        record(100);
+        journal.shutdown();
+        journal = newJournal(4096, 256, -1L);
+        assertRemaining(journal.cursor(), 0, 99);
+        journal.notify(changeSet(100, START + 1000L));
+        assertRemaining(journal.cursor(), 0, 100);
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecordAtEndOfLastSegment() throws Exception {
+        record(3);
+        journal.shutdown();
+
+        File[] files = directory.listFiles();
+        assertThat(files.length, is(1));
+        RandomAccessFile file = new RandomAccessFile(files[0], "rw");
+        try {
+            // Find the end of the records ...
+            long end = 0L;
+            file.seek(end);
+            int length = file.readInt();
+            while (length != 0) {
+                end += ChangeJournal.HEADER_SIZE + length;
+                file.seek(end);
+                length = file.readInt();
+            }
+            // Write the header of a record whose contents were never written ...
+            file.seek(end);
+            file.writeInt(100);
+            file.writeInt(12345);
+        } finally {
+            file.close();
+        }
+
+        journal = newJournal(4096, 256, -1L);
+        assertRemaining(journal.cursor(), 0, 2);
+        journal.notify(changeSet(3, START + 30L));
+        assertRemaining(journal.cursor(), 0, 3);
+    }
+
+    @Test
+    public void shouldRemoveExpiredSegments() throws Exception {
+        journal.shutdown();
+        journal = newJournal(4096, 256, 60000L);
+        record(200);
+        int segmentCount = journal.segmentCount();
+        assertThat(segmentCount > 1, is(true));
+        // All of the records are very old, but the segment being written is kept ...
+        assertThat(journal.removeExpiredRecords(), is(segmentCount - 1));
+        assertThat(journal.segmentCount(), is(1));
+        assertThat(journal.cursor().hasNext(), is(true));
+    }
+
+    @Test
+    public void shouldKeepRecordsForeverByDefault() {
+        record(200);
+        int segmentCount = journal.segmentCount();
+        assertThat(journal.removeExpiredRecords(), is(0));
+        assertThat(journal.segmentCount(), is(segmentCount));
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.journal;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.common.util.FileUtil;
+
+/**
+ * Unit test for {@link WorkJournal}
+ */
+public class WorkJournalTest {
+
+    private File directory;
+    private File file;
+    private WorkJournal<String> journal;
+
+    @Before
+    public void beforeEach() throws Exception {
+        directory = new File("target/journal/WorkJournalTest");
+        FileUtil.delete(directory);
+        file = new File(directory, "work.journal");
+        journal = newJournal(1024L * 1024L);
+        assertThat(journal.start().isEmpty(), is(true));
+    }
+
+    @After
+    public void afterEach() {
+        journal.shutdown();
+        FileUtil.delete(directory);
+    }
+
+    protected WorkJournal<String> newJournal( long compactionThreshold ) {
+        return new WorkJournal<String>(file, String.class, compactionThreshold, null);
+    }
+
+    protected SortedMap<Long, String> restart() throws Exception {
+        journal.shutdown();
+        journal = newJournal(1024L * 1024L);
+        return journal.start();
+    }
+
+    protected List<String> items( String prefix,
+                                  int count ) {
+        List<String> items = new ArrayList<String>(count);
+        for (int i = 0; i != count; ++i) {
+            items.add(prefix + i);
+        }
+        return items;
+    }
+
+    @Test
+    public void shouldAssignIncreasingIdentifiers() throws Exception {
+        List<Long> first = journal.add(items("a", 3));
+        List<Long> second = journal.add(items("b", 2));
+        assertThat(first, is(Arrays.asList(1L, 2L, 3L)));
+        assertThat(second, is(Arrays.asList(4L, 5L)));
+        assertThat(journal.pendingCount(), is(5));
+    }
+
+    @Test
+    public void shouldReturnPendingItemsInOrderAfterRestart() throws Exception {
+        List<Long> ids = journal.add(items("a", 5));
+        journal.complete(ids.get(1));
+        journal.complete(ids.get(3));
+        SortedMap<Long, String> pending = restart();
+        assertThat(new ArrayList<String>(pending.values()), is(Arrays.asList("a0", "a2", "a4")));
+        assertThat(new ArrayList<Long>(pending.keySet()), is(Arrays.asList(ids.get(0), ids.get(2), ids.get(4))));
+        assertThat(journal.pendingCount(), is(3));
+
+        // New items should get new identifiers ...
+        assertThat(journal.add(items("b", 1)), is(Arrays.asList(6L)));
+    }
+
+    @Test
+    public void shouldKeepPendingItemsAcrossSeveralRestarts() throws Exception {
+        List<Long> ids = journal.add(items("a", 3));
+        journal.complete(ids.get(0));
+        restart();
+        journal.complete(ids.get(1));
+        SortedMap<Long, String> pending = restart();
+        assertThat(new ArrayList<String>(pending.values()), is(Arrays.asList("a2")));
+    }
+
+    @Test
+    public void shouldRewriteFileWithOnlyPendingItemsUponStart() throws Exception {
+        List<Long> ids = journal.add(items("a", 100));
+        for (int i = 0; i != 99; ++i) {
+            journal.complete(ids.get(i));
+        }
+        long before = file.length();
+        restart();
+        assertThat(file.length() < before / 50, is(true));
+        assertThat(journal.pendingCount(), is(1));
+    }
+
+    @Test
+    public void shouldKeepFileWithinCompactionThresholdWhenNoItemsArePending() throws Exception {
+        journal.shutdown();
+        journal = newJournal(100L);
+        journal.start();
+        List<Long> ids = journal.add(items("a", 10));
+        for (Long id : ids) {
+            journal.complete(id);
+        }
+        assertThat(file.length() <= 100L, is(true));
+        assertThat(restart().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldRecoverFromRewrittenFileWhenFileWasDeletedBeforeBeingReplaced() throws Exception {
+        List<Long> ids = journal.add(items("a", 3));
+        journal.complete(ids.get(1));
+        journal.shutdown();
+        // Leave only the rewritten file, as if the process crashed after deleting the file but before renaming the new one ...
+        journal = newJournal(1024L * 1024L);
+        journal.start();
+        journal.shutdown();
+        File temp = new File(file.getPath() + ".tmp");
+        assertThat(file.renameTo(temp), is(true));
+
+        journal = newJournal(1024L * 1024L);
+        assertThat(new ArrayList<String>(journal.start().values()), is(Arrays.asList("a0", "a2")));
+        assertThat(temp.exists(), is(false));
+    }
+
+    @Test
+    public void shouldRewriteFileWithOnlyPendingItemsWhenFileIsLarge() throws Exception {
+        journal.shutdown();
+        journal = newJournal(100L);
+        journal.start();
+        journal.add(items("first", 1));
+        List<Long> ids = journal.add(items("a", 100));
+        long before = file.length();
+        for (Long id : ids) {
+            journal.complete(id);
+        }
+        // The file should never be much larger than the compaction threshold ...
+        assertThat(file.length() < before / 10, is(true));
+        journal.add(items("last", 1));
+        assertThat(new ArrayList<String>(restart().values()), is(Arrays.asList("first0", "last0")));
+    }
+
+    @Test
+    public void shouldIgnoreCompletionOfUnknownItems() throws Exception {
+        journal.add(items("a", 2));
+        journal.complete(42L);
+        assertThat(journal.pendingCount(), is(2));
+        assertThat(restart().size(), is(2));
+    }
+
+    @Test
+    public void shouldDiscardIncompleteRecordAtEndOfFile() throws Exception {
+        journal.add(items("a", 3));
+        journal.shutdown();
+        // Remove part of the last record, as if the process crashed while writing it ...
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 3);
+        } finally {
+            raf.close();
+        }
+        journal = newJournal(1024L * 1024L);
+        SortedMap<Long, String> pending = journal.start();
+        assertThat(new ArrayList<String>(pending.values()), is(Arrays.asList("a0", "a1")));
+        assertThat(journal.add(items("b", 1)), is(Arrays.asList(3L)));
+        assertThat(new ArrayList<String>(restart().values()), is(Arrays.asList("a0", "a1", "b0")));
+    }
+
+    @Test
+    public void shouldDiscardCorruptRecords() throws Exception {
+        journal.add(items("a", 3));
+        long length = file.length();
+        journal.shutdown();
+        // Change a byte in the payload of the last record ...
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(length - 1);
+            int value = raf.read();
+            raf.seek(length - 1);
+            raf.write(value ^ 0xFF);
+        } finally {
+            raf.close();
+        }
+        journal = newJournal(1024L * 1024L);
+        assertThat(new ArrayList<String>(journal.start().values()), is(Arrays.asList("a0", "a1")));
+    }
+
+    @Test
+    public void shouldIgnoreCompletionAfterShutdown() throws Exception {
+        List<Long> ids = journal.add(items("a", 1));
+        journal.shutdown();
+        journal.complete(ids.get(0));
+        journal = newJournal(1024L * 1024L);
+        assertThat(journal.start().size(), is(1));
+    }
+}
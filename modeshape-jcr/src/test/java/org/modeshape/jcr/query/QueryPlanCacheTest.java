@@ -0,0 +1,187 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.GraphI18n;
+import org.modeshape.jcr.NodeTypeSchemata;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.model.QueryCommand;
+import org.modeshape.jcr.query.plan.PlanHints;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+
+public class QueryPlanCacheTest {
+
+    private CountingQueryPlanCache cache;
+    private Schemata schemata;
+    private QueryCommand query;
+
+    @Before
+    public void beforeEach() {
+        cache = new CountingQueryPlanCache(2);
+        schemata = mock(NodeTypeSchemata.class);
+        query = mock(QueryCommand.class);
+    }
+
+    protected QueryContext newContext( Schemata schemata ) {
+        return new QueryContext(new ExecutionContext(), mock(RepositoryCache.class), Collections.singleton("workspace"), schemata);
+    }
+
+    /**
+     * Plan and optimize the query in the supplied context, and cache the resulting plan.
+     * 
+     * @param context the context
+     * @return the plan
+     */
+    protected PlanNode plan( QueryContext context ) {
+        PlanHints originalHints = context.getHints().clone();
+        Set<String> originalVariableNames = new HashSet<String>(context.getVariables().keySet());
+        // Mimic what the planner and optimizer do ...
+        context.getHints().hasSubqueries = true;
+        context.getVariables().put("__subquery1", null);
+        PlanNode plan = new PlanNode(Type.PROJECT);
+        cache.putPlan(context, query, originalHints, originalVariableNames, plan);
+        return plan;
+    }
+
+    @Test
+    public void shouldFindParsedQueryForSameStatement() {
+        assertThat(cache.getCommand("JCR-SQL2", "SELECT * FROM [nt:base]", schemata), is(nullValue()));
+        cache.putCommand("JCR-SQL2", "SELECT * FROM [nt:base]", schemata, query);
+        assertThat(cache.getCommand("JCR-SQL2", "SELECT * FROM [nt:base]", schemata), is(sameInstance(query)));
+        assertThat(cache.getCommand("JCR-SQL2", "SELECT * FROM [nt:unstructured]", schemata), is(nullValue()));
+        assertThat(cache.getCommand("xpath", "SELECT * FROM [nt:base]", schemata), is(nullValue()));
+        assertThat(cache.hits, is(1));
+        assertThat(cache.misses, is(3));
+    }
+
+    @Test
+    public void shouldNotFindParsedQueryForOtherSchemata() {
+        cache.putCommand("JCR-SQL2", "SELECT * FROM [nt:base]", schemata, query);
+        Schemata other = mock(NodeTypeSchemata.class);
+        assertThat(cache.getCommand("JCR-SQL2", "SELECT * FROM [nt:base]", other), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCacheQueriesUsingSessionSpecificSchemata() {
+        Schemata sessionSchemata = mock(Schemata.class);
+        cache.putCommand("JCR-SQL2", "SELECT * FROM [nt:base]", sessionSchemata, query);
+        assertThat(cache.getCommand("JCR-SQL2", "SELECT * FROM [nt:base]", sessionSchemata), is(nullValue()));
+        assertThat(cache.size(), is(0));
+        assertThat(cache.misses, is(0));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntries() {
+        QueryCommand query2 = mock(QueryCommand.class);
+        QueryCommand query3 = mock(QueryCommand.class);
+        cache.putCommand("JCR-SQL2", "query1", schemata, query);
+        cache.putCommand("JCR-SQL2", "query2", schemata, query2);
+        assertThat(cache.getCommand("JCR-SQL2", "query1", schemata), is(sameInstance(query)));
+        cache.putCommand("JCR-SQL2", "query3", schemata, query3);
+        assertThat(cache.size(), is(2));
+        assertThat(cache.getCommand("JCR-SQL2", "query1", schemata), is(sameInstance(query)));
+        assertThat(cache.getCommand("JCR-SQL2", "query2", schemata), is(nullValue()));
+        assertThat(cache.getCommand("JCR-SQL2", "query3", schemata), is(sameInstance(query3)));
+    }
+
+    @Test
+    public void shouldRemoveAllEntriesWhenInvalidated() {
+        cache.putCommand("JCR-SQL2", "query1", schemata, query);
+        plan(newContext(schemata));
+        assertThat(cache.size(), is(2));
+        cache.invalidate();
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getCommand("JCR-SQL2", "query1", schemata), is(nullValue()));
+        assertThat(cache.getPlan(newContext(schemata), query), is(nullValue()));
+    }
+
+    @Test
+    public void shouldFindPlanAndRestoreHintsAndVariables() {
+        PlanNode plan = plan(newContext(schemata));
+        QueryContext context = newContext(schemata);
+        assertThat(cache.getPlan(context, query), is(sameInstance(plan)));
+        assertThat(context.getHints().hasSubqueries, is(true));
+        assertThat(context.getVariables().containsKey("__subquery1"), is(true));
+        assertThat(cache.hits, is(1));
+    }
+
+    @Test
+    public void shouldNotFindPlanForOtherHints() {
+        plan(newContext(schemata));
+        QueryContext context = newContext(schemata);
+        context.getHints().showPlan = true;
+        assertThat(cache.getPlan(context, query), is(nullValue()));
+        assertThat(cache.misses, is(1));
+    }
+
+    @Test
+    public void shouldNotCachePlanThatDependsOnVariableValues() {
+        QueryContext context = newContext(schemata);
+        PlanHints originalHints = context.getHints().clone();
+        context.getHints().dependsOnVariableValues = true;
+        cache.putPlan(context, query, originalHints, context.getVariables().keySet(), new PlanNode(Type.PROJECT));
+        assertThat(cache.getPlan(newContext(schemata), query), is(nullValue()));
+    }
+
+    @Test
+    public void shouldNotCachePlanWithProblems() {
+        QueryContext context = newContext(schemata);
+        PlanHints originalHints = context.getHints().clone();
+        context.getProblems().addWarning(GraphI18n.missingVariableValue, "var");
+        cache.putPlan(context, query, originalHints, context.getVariables().keySet(), new PlanNode(Type.PROJECT));
+        assertThat(cache.getPlan(newContext(schemata), query), is(nullValue()));
+    }
+
+    protected static class CountingQueryPlanCache extends QueryPlanCache {
+        protected int hits;
+        protected int misses;
+
+        protected CountingQueryPlanCache( int maximumSize ) {
+            super(maximumSize);
+        }
+
+        @Override
+        protected void hit() {
+            ++hits;
+        }
+
+        @Override
+        protected void missed() {
+            ++misses;
+        }
+    }
+}
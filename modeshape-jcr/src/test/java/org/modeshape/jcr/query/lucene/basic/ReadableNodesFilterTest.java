@@ -0,0 +1,134 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.lucene.basic;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.apache.lucene.analysis.KeywordAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Version;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.query.lucene.basic.NodeInfoIndex.FieldName;
+import org.modeshape.jcr.security.SecurityContext;
+
+public class ReadableNodesFilterTest {
+
+    private static final String ID = "id";
+
+    private Directory directory;
+    private IndexReader reader;
+    private SecurityContext securityContext;
+
+    @Before
+    public void beforeEach() throws Exception {
+        directory = new RAMDirectory();
+        IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(Version.LUCENE_CURRENT, new KeywordAnalyzer()));
+        try {
+            // Documents without any read principals can be read by everyone ...
+            writer.addDocument(document("public"));
+            writer.addDocument(document("everyone", "everyone"));
+            writer.addDocument(document("alice", "alice"));
+            writer.addDocument(document("bob", "bob"));
+            writer.addDocument(document("admins", "admin"));
+            writer.addDocument(document("aliceOrAdmins", "alice", "admin"));
+            writer.addDocument(document("nobody", NodeInfoIndex.NO_READ_PRINCIPALS));
+        } finally {
+            writer.close();
+        }
+        reader = IndexReader.open(directory);
+
+        securityContext = mock(SecurityContext.class);
+        when(securityContext.getUserName()).thenReturn("alice");
+        when(securityContext.hasRole("admin")).thenReturn(false);
+    }
+
+    @After
+    public void afterEach() throws Exception {
+        try {
+            reader.close();
+        } finally {
+            directory.close();
+        }
+    }
+
+    protected Document document( String id,
+                                 String... readPrincipals ) {
+        Document doc = new Document();
+        doc.add(new Field(ID, id, Field.Store.YES, Field.Index.NOT_ANALYZED));
+        for (String principal : readPrincipals) {
+            doc.add(new Field(FieldName.READ_PRINCIPALS, principal, Field.Store.NO, Field.Index.NOT_ANALYZED));
+        }
+        return doc;
+    }
+
+    protected Set<String> readableIds() throws Exception {
+        Set<String> ids = new HashSet<String>();
+        DocIdSetIterator iter = new ReadableNodesFilter(securityContext).getDocIdSet(reader).iterator();
+        for (int doc = iter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = iter.nextDoc()) {
+            ids.add(reader.document(doc).get(ID));
+        }
+        return ids;
+    }
+
+    protected Set<String> ids( String... ids ) {
+        return new HashSet<String>(Arrays.asList(ids));
+    }
+
+    @Test
+    public void shouldExcludeDocumentsWithoutPrincipalsThatApplyToUser() throws Exception {
+        assertThat(readableIds(), is(ids("public", "everyone", "alice", "aliceOrAdmins")));
+    }
+
+    @Test
+    public void shouldIncludeDocumentsReadableByRoleOfUser() throws Exception {
+        when(securityContext.hasRole("admin")).thenReturn(true);
+        assertThat(readableIds(), is(ids("public", "everyone", "alice", "admins", "aliceOrAdmins")));
+    }
+
+    @Test
+    public void shouldIncludeDocumentsReadableByUserNameInAngleBrackets() throws Exception {
+        when(securityContext.getUserName()).thenReturn("<bob>");
+        assertThat(readableIds(), is(ids("public", "everyone", "bob")));
+    }
+
+    @Test
+    public void shouldExcludeDocumentsThatNobodyCanRead() throws Exception {
+        when(securityContext.hasRole(NodeInfoIndex.NO_READ_PRINCIPALS)).thenReturn(true);
+        assertThat(readableIds().contains("nobody"), is(false));
+    }
+}
@@ -37,6 +37,7 @@ import org.modeshape.jcr.query.AbstractQueryTest;
 import org.modeshape.jcr.query.QueryContext;
 import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
 import org.modeshape.jcr.query.model.DescendantNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
 import org.modeshape.jcr.query.model.JoinCondition;
 import org.modeshape.jcr.query.model.JoinType;
 import org.modeshape.jcr.query.plan.JoinAlgorithm;
@@ -52,6 +53,7 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
 
     private ChooseJoinAlgorithm bestRule;
     private ChooseJoinAlgorithm nestedRule;
+    private ChooseJoinAlgorithm hashRule;
     private QueryContext context;
 
     @Before
@@ -60,6 +62,7 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
                                    mock(Schemata.class));
         bestRule = ChooseJoinAlgorithm.USE_BEST_JOIN_ALGORITHM;
         nestedRule = ChooseJoinAlgorithm.USE_ONLY_NESTED_JOIN_ALGORITHM;
+        hashRule = ChooseJoinAlgorithm.USE_HASH_JOIN_ALGORITHM;
     }
 
     /**
@@ -157,4 +160,72 @@ public class ChooseJoinAlgorithmTest extends AbstractQueryTest {
 
         assertChildren(join, leftDup, rightDup);
     }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToHashIfConditionIsEquiJoin() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Selector1"), selector("Selector2"));
+        PlanNode s1Source = new PlanNode(Type.SOURCE, join, selector("Selector1"));
+        PlanNode s2Source = new PlanNode(Type.SOURCE, join, selector("Selector2"));
+        // Set the join type and condition ...
+        JoinCondition joinCondition = new EquiJoinCondition(selector("Selector1"), "p1", selector("Selector2"), "p2");
+        join.setProperty(Property.JOIN_CONDITION, joinCondition);
+        join.setProperty(Property.JOIN_TYPE, JoinType.LEFT_OUTER);
+
+        // Execute the rule ...
+        PlanNode result = hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(join)));
+        assertThat(join.getProperty(Property.JOIN_TYPE, JoinType.class), is(JoinType.LEFT_OUTER));
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+        assertThat(join.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(sameInstance(joinCondition)));
+        assertChildren(join, s1Source, s2Source);
+    }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToNestedLoopIfConditionIsDescendantNode() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Ancestor"), selector("Descendant"));
+        PlanNode ancestorSource = new PlanNode(Type.SOURCE, join, selector("Ancestor"));
+        PlanNode descendantSource = new PlanNode(Type.SOURCE, join, selector("Descendant"));
+        // Set the join type and condition ...
+        JoinCondition joinCondition = new DescendantNodeJoinCondition(selector("Ancestor"), selector("Descendant"));
+        join.setProperty(Property.JOIN_CONDITION, joinCondition);
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+
+        // Execute the rule ...
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+        assertChildren(join, ancestorSource, descendantSource);
+    }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToNestedLoopIfJoinIsFullOuter() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Parent"), selector("Child"));
+        new PlanNode(Type.SOURCE, join, selector("Parent"));
+        new PlanNode(Type.SOURCE, join, selector("Child"));
+        join.setProperty(Property.JOIN_CONDITION, new ChildNodeJoinCondition(selector("Parent"), selector("Child")));
+        join.setProperty(Property.JOIN_TYPE, JoinType.FULL_OUTER);
+
+        // Execute the rule ...
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+    }
+
+    @Test
+    public void shouldHaveHashRuleSetJoinAlgorithmToNestedLoopIfBothSidesAreEstimatedToBeSmall() {
+        PlanNode join = new PlanNode(Type.JOIN, selector("Parent"), selector("Child"));
+        PlanNode parentSource = new PlanNode(Type.SOURCE, join, selector("Parent"));
+        PlanNode childSource = new PlanNode(Type.SOURCE, join, selector("Child"));
+        join.setProperty(Property.JOIN_CONDITION, new ChildNodeJoinCondition(selector("Parent"), selector("Child")));
+        join.setProperty(Property.JOIN_TYPE, JoinType.INNER);
+        parentSource.setProperty(Property.ESTIMATED_CARDINALITY, 3L);
+        childSource.setProperty(Property.ESTIMATED_CARDINALITY, 20L);
+
+        // Execute the rule ...
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.NESTED_LOOP));
+
+        // But not when one side is large ...
+        childSource.setProperty(Property.ESTIMATED_CARDINALITY, 20000L);
+        hashRule.execute(context, join, new LinkedList<OptimizerRule>());
+        assertThat(join.getProperty(Property.JOIN_ALGORITHM, JoinAlgorithm.class), is(JoinAlgorithm.HASH));
+    }
 }
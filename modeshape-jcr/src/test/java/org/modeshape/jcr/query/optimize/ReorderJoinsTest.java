@@ -0,0 +1,181 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.optimize;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.ExecutionContext;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.AbstractQueryTest;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.plan.PlanNode;
+import org.modeshape.jcr.query.plan.PlanNode.Property;
+import org.modeshape.jcr.query.plan.PlanNode.Type;
+import org.modeshape.jcr.query.validate.Schemata;
+
+public class ReorderJoinsTest extends AbstractQueryTest {
+
+    private QueryContext context;
+    private PlanNode accessA;
+    private PlanNode accessB;
+    private PlanNode accessC;
+    private JoinCondition joinAB;
+    private JoinCondition joinBC;
+
+    @Before
+    public void beforeEach() {
+        context = new QueryContext(new ExecutionContext(), mock(RepositoryCache.class), Collections.singleton("workspace"),
+                                   mock(Schemata.class));
+        accessA = new PlanNode(Type.ACCESS, selector("A"));
+        accessB = new PlanNode(Type.ACCESS, selector("B"));
+        accessC = new PlanNode(Type.ACCESS, selector("C"));
+        new PlanNode(Type.SOURCE, accessA, selector("A"));
+        new PlanNode(Type.SOURCE, accessB, selector("B"));
+        new PlanNode(Type.SOURCE, accessC, selector("C"));
+        joinAB = new EquiJoinCondition(selector("A"), "id", selector("B"), "ref");
+        joinBC = new EquiJoinCondition(selector("B"), "id", selector("C"), "ref");
+    }
+
+    protected PlanNode join( PlanNode left,
+                             PlanNode right,
+                             JoinCondition condition,
+                             JoinType joinType ) {
+        PlanNode join = new PlanNode(Type.JOIN);
+        join.addLastChild(left);
+        join.addLastChild(right);
+        join.addSelectors(left.getSelectors());
+        join.addSelectors(right.getSelectors());
+        join.setProperty(Property.JOIN_TYPE, joinType);
+        join.setProperty(Property.JOIN_CONDITION, condition);
+        return join;
+    }
+
+    protected PlanNode execute( PlanNode plan ) {
+        return new EstimateCardinalities(new CardinalityEstimator() {
+            @Override
+            public void estimateCardinalities( QueryContext context,
+                                               List<PlanNode> accessNodes ) {
+                // The estimates were set by each test ...
+            }
+        }).execute(context, plan, new LinkedList<OptimizerRule>());
+    }
+
+    @Test
+    public void shouldJoinMostSelectiveInputsFirst() {
+        accessA.setProperty(Property.ESTIMATED_CARDINALITY, 100000L);
+        accessB.setProperty(Property.ESTIMATED_CARDINALITY, 50000L);
+        accessC.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        PlanNode project = new PlanNode(Type.PROJECT, selector("A"), selector("B"), selector("C"));
+        PlanNode plan = join(join(accessA, accessB, joinAB, JoinType.INNER), accessC, joinBC, JoinType.INNER);
+        project.addLastChild(plan);
+        execute(project);
+
+        PlanNode result = ReorderJoins.INSTANCE.execute(context, project, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(project)));
+        PlanNode top = project.getFirstChild();
+        assertThat(top.getType(), is(Type.JOIN));
+        assertThat(top.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(joinAB));
+        assertThat(top.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(100000L));
+        assertThat(top.getFirstChild(), is(sameInstance(accessA)));
+        PlanNode bottom = top.getLastChild();
+        assertThat(bottom.getType(), is(Type.JOIN));
+        assertThat(bottom.getProperty(Property.JOIN_TYPE, JoinType.class), is(JoinType.INNER));
+        assertThat(bottom.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(joinBC));
+        assertThat(bottom.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(50000L));
+        assertChildren(bottom, accessB, accessC);
+        assertSelectors(bottom, "B", "C");
+        assertSelectors(top, "A", "B", "C");
+    }
+
+    @Test
+    public void shouldPlaceSmallerInputOnRightSideOfJoin() {
+        accessA.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        accessB.setProperty(Property.ESTIMATED_CARDINALITY, 50000L);
+        JoinCondition sameNode = new SameNodeJoinCondition(selector("A"), selector("B"));
+        PlanNode plan = join(accessA, accessB, sameNode, JoinType.INNER);
+        execute(plan);
+
+        PlanNode result = ReorderJoins.INSTANCE.execute(context, plan, new LinkedList<OptimizerRule>());
+        assertThat(result.getType(), is(Type.JOIN));
+        assertThat(result.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(sameNode));
+        assertChildren(result, accessB, accessA);
+    }
+
+    @Test
+    public void shouldKeepOrientationOfEquiJoinOnMultiValuedColumn() {
+        // 'B' has a multi-valued REFERENCE property that must stay on the left, even though 'B' is the smaller input ...
+        accessA.setProperty(Property.ESTIMATED_CARDINALITY, 50000L);
+        accessB.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        JoinCondition references = new EquiJoinCondition(selector("B"), "refs", selector("A"), "jcr:uuid");
+        PlanNode plan = join(accessB, accessA, references, JoinType.INNER);
+        execute(plan);
+
+        PlanNode result = ReorderJoins.INSTANCE.execute(context, plan, new LinkedList<OptimizerRule>());
+        assertThat(result.getType(), is(Type.JOIN));
+        assertThat(result.getProperty(Property.JOIN_CONDITION, JoinCondition.class), is(references));
+        assertThat(result.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(50000L));
+        assertChildren(result, accessB, accessA);
+    }
+
+    @Test
+    public void shouldNotReorderJoinsWithoutEstimates() {
+        accessA.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        PlanNode plan = join(join(accessA, accessB, joinAB, JoinType.INNER), accessC, joinBC, JoinType.INNER);
+        PlanNode lower = plan.getFirstChild();
+        execute(plan);
+
+        PlanNode result = ReorderJoins.INSTANCE.execute(context, plan, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(plan)));
+        assertChildren(plan, lower, accessC);
+        assertChildren(lower, accessA, accessB);
+    }
+
+    @Test
+    public void shouldNotReorderOuterJoins() {
+        accessA.setProperty(Property.ESTIMATED_CARDINALITY, 100000L);
+        accessB.setProperty(Property.ESTIMATED_CARDINALITY, 50000L);
+        accessC.setProperty(Property.ESTIMATED_CARDINALITY, 10L);
+        PlanNode plan = join(join(accessA, accessB, joinAB, JoinType.LEFT_OUTER), accessC, joinBC, JoinType.LEFT_OUTER);
+        PlanNode lower = plan.getFirstChild();
+        execute(plan);
+
+        PlanNode result = ReorderJoins.INSTANCE.execute(context, plan, new LinkedList<OptimizerRule>());
+        assertThat(result, is(sameInstance(plan)));
+        assertChildren(plan, lower, accessC);
+        assertChildren(lower, accessA, accessB);
+        assertThat(lower.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(100000L));
+        assertThat(plan.getProperty(Property.ESTIMATED_CARDINALITY, Long.class), is(100000L));
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.model.ChildNodeJoinCondition;
+import org.modeshape.jcr.query.model.EquiJoinCondition;
+import org.modeshape.jcr.query.model.JoinCondition;
+import org.modeshape.jcr.query.model.JoinType;
+import org.modeshape.jcr.query.model.SameNodeJoinCondition;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.PropertyType;
+
+public class HashJoinComponentTest extends AbstractQueryResultsTest {
+
+    private QueryContext context;
+    private Columns parentColumns;
+    private Columns childColumns;
+    private List<Object[]> parentTuples;
+    private List<Object[]> childTuples;
+
+    @Before
+    public void beforeEach() {
+        Schemata schemata = mock(Schemata.class);
+        context = new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton("workspace"), schemata);
+        parentColumns = resultColumns("Parent", new String[] {"id", "name"}, PropertyType.STRING, PropertyType.STRING);
+        childColumns = resultColumns("Child", new String[] {"ref", "name"}, PropertyType.STRING, PropertyType.STRING);
+        parentTuples = new ArrayList<Object[]>();
+        parentTuples.add(tuple(parentColumns, "/a", "id1", "a"));
+        parentTuples.add(tuple(parentColumns, "/b", "id2", "b"));
+        parentTuples.add(tuple(parentColumns, "/c", null, "c"));
+        parentTuples.add(tuple(parentColumns, "/d", "id1", "d"));
+        parentTuples.add(tuple(parentColumns, "/e", new Object[] {"id3", "id2", "id3"}, "e"));
+        childTuples = new ArrayList<Object[]>();
+        childTuples.add(tuple(childColumns, "/a/x", "id2", "x"));
+        childTuples.add(tuple(childColumns, "/b/y", "id1", "y"));
+        childTuples.add(tuple(childColumns, "/a/z", null, "z"));
+        childTuples.add(tuple(childColumns, "/f/w", "id9", "w"));
+    }
+
+    protected ProcessingComponent component( Columns columns,
+                                             final List<Object[]> tuples ) {
+        return new ProcessingComponent(context, columns) {
+            @Override
+            public List<Object[]> execute() {
+                return tuples;
+            }
+        };
+    }
+
+    protected void assertSameResultsAsNestedLoop( ProcessingComponent left,
+                                                  ProcessingComponent right,
+                                                  JoinCondition condition,
+                                                  JoinType joinType,
+                                                  int expectedCount ) {
+        List<Object[]> expected = new NestedLoopJoinComponent(context, left, right, condition, joinType).execute();
+        List<Object[]> actual = new HashJoinComponent(context, left, right, condition, joinType).execute();
+        assertThat(actual.size(), is(expectedCount));
+        assertThat(actual.size(), is(expected.size()));
+        for (int i = 0; i != expected.size(); ++i) {
+            assertThat(actual.get(i), is(expected.get(i)));
+        }
+    }
+
+    @Test
+    public void shouldJoinOnEquiJoinConditionLikeNestedLoopJoin() {
+        ProcessingComponent parents = component(parentColumns, parentTuples);
+        ProcessingComponent children = component(childColumns, childTuples);
+        JoinCondition condition = new EquiJoinCondition(selector("Parent"), "id", selector("Child"), "ref");
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.INNER, 4);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.LEFT_OUTER, 5);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.RIGHT_OUTER, 6);
+    }
+
+    @Test
+    public void shouldJoinOnEquiJoinConditionLikeNestedLoopJoinWhenLeftSideIsSmaller() {
+        ProcessingComponent parents = component(parentColumns, parentTuples.subList(0, 2));
+        ProcessingComponent children = component(childColumns, childTuples);
+        JoinCondition condition = new EquiJoinCondition(selector("Parent"), "id", selector("Child"), "ref");
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.INNER, 2);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.LEFT_OUTER, 2);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.RIGHT_OUTER, 4);
+    }
+
+    @Test
+    public void shouldJoinOnChildNodeJoinConditionLikeNestedLoopJoin() {
+        ProcessingComponent parents = component(parentColumns, parentTuples);
+        ProcessingComponent children = component(childColumns, childTuples);
+        JoinCondition condition = new ChildNodeJoinCondition(selector("Parent"), selector("Child"));
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.INNER, 3);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.LEFT_OUTER, 6);
+        assertSameResultsAsNestedLoop(parents, children, condition, JoinType.RIGHT_OUTER, 4);
+        // And with the child on the left ...
+        assertSameResultsAsNestedLoop(children, parents, condition, JoinType.INNER, 3);
+        assertSameResultsAsNestedLoop(children, parents, condition, JoinType.LEFT_OUTER, 4);
+    }
+
+    @Test
+    public void shouldJoinOnSameNodeJoinConditionLikeNestedLoopJoin() {
+        Columns otherColumns = resultColumns("Other", new String[] {"title"}, PropertyType.STRING);
+        List<Object[]> otherTuples = new ArrayList<Object[]>();
+        otherTuples.add(tuple(otherColumns, "/d", "td"));
+        otherTuples.add(tuple(otherColumns, "/q", "tq"));
+        otherTuples.add(tuple(otherColumns, "/a", "ta"));
+        ProcessingComponent parents = component(parentColumns, parentTuples);
+        ProcessingComponent others = component(otherColumns, otherTuples);
+        JoinCondition condition = new SameNodeJoinCondition(selector("Parent"), selector("Other"));
+        assertSameResultsAsNestedLoop(parents, others, condition, JoinType.INNER, 2);
+        assertSameResultsAsNestedLoop(parents, others, condition, JoinType.LEFT_OUTER, 5);
+        assertSameResultsAsNestedLoop(parents, others, condition, JoinType.RIGHT_OUTER, 3);
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of 
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ * 
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.query.process;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+import org.modeshape.jcr.cache.RepositoryCache;
+import org.modeshape.jcr.query.QueryContext;
+import org.modeshape.jcr.query.QueryResults.Columns;
+import org.modeshape.jcr.query.model.Column;
+import org.modeshape.jcr.query.model.Limit;
+import org.modeshape.jcr.query.validate.Schemata;
+import org.modeshape.jcr.value.PropertyType;
+
+public class LimitComponentTest extends AbstractQueryResultsTest {
+
+    private ProcessingComponent delegate;
+    private QueryContext context;
+    private Columns columns;
+    private List<Object[]> inputTuples;
+    private int pulledCount;
+
+    @Before
+    public void beforeEach() {
+        Schemata schemata = mock(Schemata.class);
+        context = new QueryContext(executionContext, mock(RepositoryCache.class), Collections.singleton("workspace"), schemata);
+        inputTuples = new ArrayList<Object[]>();
+        pulledCount = 0;
+        // Define the columns for the results ...
+        columns = resultColumns("Selector1",
+                                new String[] {"ColA", "ColB", "ColC"},
+                                PropertyType.STRING,
+                                PropertyType.STRING,
+                                PropertyType.STRING);
+        // And define the delegating component that records how many tuples were pulled ...
+        delegate = new ProcessingComponent(context, columns) {
+            @Override
+            public List<Object[]> execute() {
+                throw new AssertionError("The tuples should have been streamed rather than materialized");
+            }
+
+            @SuppressWarnings( "synthetic-access" )
+            @Override
+            public Iterator<Object[]> iterate() {
+                final Iterator<Object[]> tuples = inputTuples.iterator();
+                return new LazyTupleIterator() {
+                    @Override
+                    protected Object[] findNext() {
+                        if (!tuples.hasNext()) return null;
+                        ++pulledCount;
+                        return tuples.next();
+                    }
+                };
+            }
+        };
+        for (int i = 0; i != 10; ++i) {
+            inputTuples.add(tuple(columns, "/a/b/c" + i, "v" + i, "v2", "v3"));
+        }
+    }
+
+    @Test
+    public void shouldPullOnlyTheTuplesWithinTheRowLimit() {
+        LimitComponent component = new LimitComponent(delegate, new Limit(3));
+        assertThat(component.execute(), is(inputTuples.subList(0, 3)));
+        assertThat(pulledCount, is(3));
+    }
+
+    @Test
+    public void shouldPullOnlyTheTuplesWithinTheOffsetAndRowLimit() {
+        LimitComponent component = new LimitComponent(delegate, new Limit(3, 4));
+        assertThat(component.execute(), is(inputTuples.subList(4, 7)));
+        assertThat(pulledCount, is(7));
+    }
+
+    @Test
+    public void shouldReturnAllTuplesAfterOffsetWhenThereIsNoRowLimit() {
+        LimitComponent component = new LimitComponent(delegate, Limit.NONE.withOffset(8));
+        assertThat(component.execute(), is(inputTuples.subList(8, 10)));
+    }
+
+    @Test
+    public void shouldReturnNoTuplesWhenOffsetIsBeyondTheTuples() {
+        LimitComponent component = new LimitComponent(delegate, new Limit(3, 20));
+        assertThat(component.execute().isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldPullNoTuplesWhenRowLimitIsZero() {
+        LimitComponent component = new LimitComponent(delegate, new Limit(0));
+        assertThat(component.execute().isEmpty(), is(true));
+        assertThat(pulledCount, is(0));
+    }
+
+    @Test
+    public void shouldStreamTuplesThroughProjectComponent() {
+        ProjectComponent project = new ProjectComponent(delegate, new ArrayList<Column>(columns.getColumns()));
+        LimitComponent component = new LimitComponent(project, new Limit(2));
+        assertThat(component.execute(), is(inputTuples.subList(0, 2)));
+        assertThat(pulledCount, is(2));
+    }
+}
@@ -26,27 +26,37 @@ package org.modeshape.jcr.security;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNull.notNullValue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import java.security.AccessControlException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import javax.jcr.AccessDeniedException;
 import javax.jcr.ImportUUIDBehavior;
 import javax.jcr.Node;
+import javax.jcr.NodeIterator;
 import javax.jcr.RepositoryException;
 import javax.jcr.Session;
 import javax.jcr.UnsupportedRepositoryOperationException;
+import javax.jcr.query.Query;
+import javax.jcr.query.RowIterator;
 import javax.jcr.security.AccessControlList;
 import javax.jcr.security.AccessControlManager;
 import javax.jcr.security.AccessControlPolicyIterator;
 import javax.jcr.security.Privilege;
+import javax.transaction.TransactionManager;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.modeshape.common.FixFor;
+import org.modeshape.jcr.JcrRepository;
 import org.modeshape.jcr.MultiUseAbstractTest;
+import org.modeshape.jcr.TestingUtil;
 import org.modeshape.jcr.security.acl.Privileges;
 
 public class AccessControlManagerTest extends MultiUseAbstractTest {
@@ -333,6 +343,113 @@ public class AccessControlManagerTest extends MultiUseAbstractTest {
         aircraft = root.getNode("aircraft");
     }
 
+    @Test
+    public void shouldReflectAccessListChangesInInheritedPermissions() throws Exception {
+        Node boats = session.getRootNode().addNode("boats");
+        boats.addNode("sail").addNode("yacht");
+        session.save();
+
+        // Reading the node resolves the (default) access list in effect for the node and its ancestors ...
+        assertThat(session.getNode("/boats/sail/yacht"), is(notNullValue()));
+
+        // Adding an access list to an ancestor changes the access list that is inherited ...
+        setPolicy("/boats", Privilege.JCR_READ_ACCESS_CONTROL, Privilege.JCR_MODIFY_ACCESS_CONTROL);
+        try {
+            session.getNode("/boats/sail/yacht");
+            fail("Inherited access list should deny access");
+        } catch (AccessDeniedException e) {
+        }
+
+        // And so does changing the entries of that access list ...
+        setPolicy("/boats", Privilege.JCR_ALL);
+        assertThat(session.getNode("/boats/sail/yacht"), is(notNullValue()));
+    }
+
+    @Test
+    public void shouldNotShareAccessListsChangedWithinRolledBackTransaction() throws Exception {
+        JcrRepository txnRepository = TestingUtil.startRepositoryWithConfig("config/repo-config-inmemory-jbosstxn.json");
+        try {
+            Session txnSession = txnRepository.login();
+            txnSession.getRootNode().addNode("boats").addNode("sail").addNode("yacht");
+            txnSession.save();
+
+            // Deny access to the nodes within a transaction, and read them using the uncommitted access list ...
+            TransactionManager txnMgr = TestingUtil.transactionManager(txnRepository);
+            txnMgr.begin();
+            try {
+                AccessControlManager txnAcm = txnSession.getAccessControlManager();
+                AccessControlList acl = (AccessControlList)txnAcm.getApplicablePolicies("/boats").nextAccessControlPolicy();
+                acl.addAccessControlEntry(SimplePrincipal.newInstance("anonymous"),
+                                          new Privilege[] {txnAcm.privilegeFromName(Privilege.JCR_READ_ACCESS_CONTROL),
+                                              txnAcm.privilegeFromName(Privilege.JCR_MODIFY_ACCESS_CONTROL)});
+                txnAcm.setPolicy("/boats", acl);
+                txnSession.save();
+                try {
+                    txnSession.getNode("/boats/sail/yacht");
+                    fail("Access list changed within the transaction should deny access");
+                } catch (AccessDeniedException e) {
+                }
+            } finally {
+                txnMgr.rollback();
+            }
+            txnSession.logout();
+
+            // The rolled back access list must not be used by other sessions ...
+            Session otherSession = txnRepository.login();
+            assertThat(otherSession.getNode("/boats/sail/yacht"), is(notNullValue()));
+            otherSession.logout();
+        } finally {
+            TestingUtil.killRepositoryAndContainer(txnRepository);
+        }
+    }
+
+    @Test
+    public void shouldNotReturnNodesThatCannotBeReadFromQueries() throws Exception {
+        String sql = "SELECT [jcr:path] FROM [car:Car] ORDER BY [jcr:path]";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        int luxuryCars = 0;
+        NodeIterator nodes = query.execute().getNodes();
+        while (nodes.hasNext()) {
+            String path = nodes.nextNode().getPath();
+            assertFalse(path, path.startsWith("/Cars/Utility/"));
+            if (path.startsWith("/Cars/Luxury/")) ++luxuryCars;
+        }
+        assertThat(luxuryCars > 0, is(true));
+
+        RowIterator rows = query.execute().getRows();
+        while (rows.hasNext()) {
+            String path = rows.nextRow().getPath();
+            assertFalse(path, path.startsWith("/Cars/Utility/"));
+        }
+    }
+
+    @Test
+    public void shouldReturnNodesFromQueriesAfterAccessListAllowsReading() throws Exception {
+        session.getRootNode().addNode("area").addNode("report");
+        session.save();
+
+        setPolicy("/area", Privilege.JCR_READ_ACCESS_CONTROL, Privilege.JCR_MODIFY_ACCESS_CONTROL);
+        assertThat(pathsOfNodesBelow("/area").isEmpty(), is(true));
+
+        setPolicy("/area", Privilege.JCR_ALL);
+        assertThat(pathsOfNodesBelow("/area"), is(Arrays.asList("/area/report")));
+    }
+
+    @Test
+    public void shouldReturnNodesFromQueriesAfterMovingThemWhereTheyCanBeRead() throws Exception {
+        Node root = session.getRootNode();
+        root.addNode("source").addNode("moved").addNode("child");
+        root.addNode("target");
+        session.save();
+
+        // The nodes can be moved but not read below the source ...
+        setPolicy("/source", Privilege.JCR_WRITE, Privilege.JCR_READ_ACCESS_CONTROL, Privilege.JCR_MODIFY_ACCESS_CONTROL);
+        session.move("/source/moved", "/target/moved");
+        session.save();
+
+        assertThat(pathsOfNodesBelow("/target"), is(Arrays.asList("/target/moved", "/target/moved/child")));
+    }
+
     // -------------------------------
 
     @Test
@@ -363,6 +480,18 @@ public class AccessControlManagerTest extends MultiUseAbstractTest {
         session.save();
     }
 
+    private List<String> pathsOfNodesBelow( String path ) throws Exception {
+        String sql = "SELECT [jcr:path] FROM [nt:unstructured] AS node WHERE ISDESCENDANTNODE(node, '" + path
+                     + "') ORDER BY [jcr:path]";
+        Query query = session.getWorkspace().getQueryManager().createQuery(sql, Query.JCR_SQL2);
+        List<String> paths = new ArrayList<String>();
+        NodeIterator nodes = query.execute().getNodes();
+        while (nodes.hasNext()) {
+            paths.add(nodes.nextNode().getPath());
+        }
+        return paths;
+    }
+
     private AccessControlList getACL( String path ) throws Exception {
         AccessControlPolicyIterator it = acm.getApplicablePolicies(path);
         if (it.hasNext()) {
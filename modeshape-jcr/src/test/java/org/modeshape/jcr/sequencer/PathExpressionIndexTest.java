@@ -0,0 +1,157 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.sequencer;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PathExpressionIndexTest {
+
+    private static final String[] EXPRESSIONS = {"/a/b/c", "/a/b/c/d/e[@something] => .", "/a/b/c[d/e/@something] => .",
+        "/a/*/c[d/e/@something] => .", "/a/*.txt[@something] => .", "/a/*.txt/c[@something] => .",
+        "//*.txt[*]/c[@something] => .", "/a//c[d/e/@something] => .", "/a/b[2,3,4,5]/c/d/e[@something] => /x/y",
+        "/a/b[0,2,3,4,5]/c/d/e[@something] => /x/y", "/a/b[*]/c[]/d/e[@something] => /x/y",
+        "/a(/(b|c|d|)/e)[f/g/@something] => $1/y/z", "/a/(b/c)[(d|e)/(f|g)/@something] => /u/$1/y/z/$2/$3",
+        "//(*.(jpeg|gif|bmp|pcx|png|iff|ras|pbm|pgm|ppm|psd))[*]/jcr:content[@jcr:data]=>/images/$1",
+        "/files(//)*.xsd[*]/jcr:content[@jcr:data] => /x/xsd/$1", "/files(//)(*.xsd[*])/jcr:content[@jcr:data] => /x/xsd/$2",
+        "//*.cnd[*]/jcr:content[@jcr:data] => /cnd", "/Documents//[@jcr:data] => /output", "//.[@*] => /output",
+        "//(*.txt)[@jcr:data] => /output", "/a/b/c[@*] => /output"};
+
+    private static final String[] PATHS = {"/a/b/c/@something", "/a/b/c/d/e/@something", "/a/b[2]/c/d/e/@something",
+        "/a/b[1]/c/d/e/@something", "/a/b[3]/c[2]/d/e/@something", "/a/x/c/d/e/@something", "/a/x/y/c/d/e/@something",
+        "/a/file.txt/@something", "/a/file.txt/c/@something", "/x/y/file.txt[2]/c/@something", "/a/b/e/f/g/@something",
+        "/a/e/f/g/@something", "/a/b/c/e/g/@something", "/x/y/picture.jpeg/jcr:content/@jcr:data",
+        "/picture.GIF[3]/jcr:content/@jcr:data", "/files/x/y/schema.xsd/jcr:content/@jcr:data",
+        "/files/schema.xsd[2]/jcr:content/@jcr:data", "/other/schema.xsd/jcr:content/@jcr:data",
+        "/types.cnd/jcr:content/@jcr:data", "/Documents/x/y/@jcr:data", "/documents/@jcr:data", "/A/B/C/@something",
+        "/x/@jcr:data", "/@jcr:primaryType", "/a/b/c/d/e/f/@other", "/a/b/c/", "/", "relative/path/@prop"};
+
+    private List<SequencerPathExpression> expressions;
+    private PathExpressionIndex<SequencerPathExpression> index;
+
+    @Before
+    public void beforeEach() throws Exception {
+        expressions = new ArrayList<SequencerPathExpression>();
+        PathExpressionIndex.Builder<SequencerPathExpression> builder = PathExpressionIndex.create();
+        for (String expression : EXPRESSIONS) {
+            SequencerPathExpression expr = SequencerPathExpression.compile(expression);
+            expressions.add(expr);
+            builder.add(expr, expr);
+        }
+        index = builder.build();
+    }
+
+    protected List<SequencerPathExpression> candidates( String path ) {
+        return index.candidates(path);
+    }
+
+    protected List<SequencerPathExpression> matches( String path ) {
+        List<SequencerPathExpression> matches = new ArrayList<SequencerPathExpression>();
+        for (SequencerPathExpression expression : expressions) {
+            if (expression.matcher(path).matches()) matches.add(expression);
+        }
+        return matches;
+    }
+
+    protected List<SequencerPathExpression> expressions( int... positions ) {
+        List<SequencerPathExpression> result = new ArrayList<SequencerPathExpression>();
+        for (int position : positions) {
+            result.add(expressions.get(position));
+        }
+        return result;
+    }
+
+    @Test
+    public void shouldIncludeAllValuesInOrder() {
+        assertThat(index.values(), is(expressions));
+        assertThat(index.isEmpty(), is(false));
+    }
+
+    @Test
+    public void shouldBeEmptyWithNoExpressions() {
+        PathExpressionIndex<String> empty = PathExpressionIndex.<String>create().build();
+        assertThat(empty.isEmpty(), is(true));
+        assertThat(empty.candidates("/a/b/c/@something"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shouldNeverOmitExpressionsThatMatch() {
+        for (String path : PATHS) {
+            List<SequencerPathExpression> candidates = candidates(path);
+            List<SequencerPathExpression> matches = matches(path);
+            assertThat("Missing candidates for " + path, candidates.containsAll(matches), is(true));
+            // The candidates must be in the same order as the expressions were added ...
+            List<SequencerPathExpression> ordered = new ArrayList<SequencerPathExpression>(expressions);
+            ordered.retainAll(candidates);
+            assertThat(candidates, is(ordered));
+        }
+    }
+
+    @Test
+    public void shouldFindOnlyExpressionsWithMatchingLiteralSegments() {
+        // Expression 11 spans segments within a group, so it is always a candidate ...
+        assertThat(candidates("/a/b/c/d/e/@something"), is(expressions(1, 2, 3, 4, 7, 8, 9, 10, 11, 12, 18)));
+        assertThat(matches("/a/b/c/d/e/@something"), is(expressions(1, 2, 3, 7, 9, 10)));
+        assertThat(candidates("/a/x/y/c/d/e/@something"), is(expressions(4, 7, 11, 18)));
+        assertThat(candidates("/files/x/y/schema.xsd/jcr:content/@jcr:data"), is(expressions(11, 13, 14, 15, 16, 18, 19)));
+        assertThat(candidates("/other/schema.xsd/jcr:content/@jcr:data"), is(expressions(11, 13, 16, 18, 19)));
+        assertThat(candidates("/x/@jcr:data"), is(expressions(11, 18, 19)));
+    }
+
+    @Test
+    public void shouldMatchLiteralSegmentsWithoutRegardToCase() {
+        assertThat(candidates("/A/B/C/@something"), is(candidates("/a/b/c/@something")));
+        assertThat(candidates("/documents/x/@jcr:data").contains(expressions.get(17)), is(true));
+    }
+
+    @Test
+    public void shouldIgnoreSameNameSiblingIndexesOfLiteralSegments() {
+        assertThat(candidates("/a/b[2]/c/d/e/@something"), is(candidates("/a/b/c/d/e/@something")));
+        assertThat(matches("/a/b[2]/c/d/e/@something"), is(expressions(3, 7, 8, 9, 10)));
+    }
+
+    @Test
+    public void shouldFindNoCandidatesWhenNoLiteralSegmentsMatch() throws Exception {
+        PathExpressionIndex.Builder<String> builder = PathExpressionIndex.create();
+        builder.add(SequencerPathExpression.compile("/a/b/c[@something]"), "first");
+        builder.add(SequencerPathExpression.compile("/x//y/*.txt[@jcr:data]"), "second");
+        PathExpressionIndex<String> index = builder.build();
+        assertThat(index.candidates("/a/b/d/@something"), is(Collections.<String>emptyList()));
+        assertThat(index.candidates("/a/b/c/@something"), is(Arrays.asList("first")));
+        assertThat(index.candidates("/x/y/file.txt/@jcr:data"), is(Arrays.asList("second")));
+        assertThat(index.candidates("/x/p/q/y/file.txt/@jcr:data"), is(Arrays.asList("second")));
+        assertThat(index.candidates("/x/p/q/z/file.txt/@jcr:data"), is(Collections.<String>emptyList()));
+    }
+
+    @Test
+    public void shouldTreatRelativePathsAsMatchingAllExpressions() {
+        assertThat(candidates("relative/path/@prop"), is(expressions));
+    }
+}
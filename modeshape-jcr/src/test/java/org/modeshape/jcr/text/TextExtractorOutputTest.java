@@ -0,0 +1,103 @@
+/*
+ * ModeShape (http://www.modeshape.org)
+ * See the COPYRIGHT.txt file distributed with this work for information
+ * regarding copyright ownership.  Some portions may be licensed
+ * to Red Hat, Inc. under one or more contributor license agreements.
+ * See the AUTHORS.txt file in the distribution for a full listing of
+ * individual contributors.
+ *
+ * ModeShape is free software. Unless otherwise indicated, all code in ModeShape
+ * is licensed to you under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * ModeShape is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.modeshape.jcr.text;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+import org.junit.After;
+import org.junit.Test;
+import org.modeshape.common.util.IoUtil;
+
+/**
+ * Unit test for {@link TextExtractorOutput}
+ */
+public class TextExtractorOutputTest {
+
+    private TextExtractorOutput output;
+
+    @After
+    public void afterEach() {
+        if (output != null) output.close();
+    }
+
+    @Test
+    public void shouldSeparateRecordedText() throws Exception {
+        output = new TextExtractorOutput();
+        output.recordText("one");
+        output.recordText("two");
+        assertThat(output.getText(), is("one two"));
+        assertThat(output.getLength(), is(7L));
+        assertThat(output.isTruncated(), is(false));
+        assertThat(output.isOversized(), is(false));
+        assertThat(IoUtil.read(output.getReader()), is("one two"));
+    }
+
+    @Test
+    public void shouldTruncateTextBeyondMaximumLength() throws Exception {
+        output = new TextExtractorOutput(" ", 10, 100);
+        output.recordText("abcdef");
+        output.recordText("ghijkl");
+        output.recordText("mnopqr");
+        assertThat(output.getText(), is("abcdef ghi"));
+        assertThat(output.getLength(), is(10L));
+        assertThat(output.isTruncated(), is(true));
+        assertThat(output.isOversized(), is(false));
+    }
+
+    @Test
+    public void shouldNotSplitSurrogatePairWhenTruncating() throws Exception {
+        output = new TextExtractorOutput(" ", 3, 100);
+        output.recordText("ab\uD83D\uDE00");
+        assertThat(output.getText(), is("ab"));
+        assertThat(output.isTruncated(), is(true));
+    }
+
+    @Test
+    public void shouldMoveLargeTextToTemporaryFile() throws Exception {
+        output = new TextExtractorOutput(" ", -1, 16);
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i != 100; ++i) {
+            String text = "word\u00e9" + i;
+            output.recordText(text);
+            if (i > 0) expected.append(' ');
+            expected.append(text);
+        }
+        assertThat(output.isOversized(), is(true));
+        assertThat(output.isTruncated(), is(false));
+        assertThat(output.getLength(), is((long)expected.length()));
+        assertThat(IoUtil.read(output.getReader()), is(expected.toString()));
+        assertThat(output.getText(), is(expected.toString()));
+    }
+
+    @Test
+    public void shouldTruncateTextMovedToTemporaryFile() throws Exception {
+        output = new TextExtractorOutput(" ", 40, 16);
+        for (int i = 0; i != 100; ++i) {
+            output.recordText("0123456789");
+        }
+        assertThat(output.isOversized(), is(true));
+        assertThat(output.isTruncated(), is(true));
+        assertThat(output.getText(), is("0123456789 0123456789 0123456789 0123456"));
+    }
+}
@@ -28,6 +28,7 @@ import static org.junit.Assert.assertThat;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
 import org.junit.Before;
 import org.junit.Test;
@@ -99,4 +100,56 @@ public class NamedLocksTest {
         latch.await(10, TimeUnit.SECONDS);
         assertThat(namedLocks.size(), is(0));
     }
+
+    @Test
+    public void shouldAllowMultipleReadersOfSameName() {
+        Lock lock1 = namedLocks.readLock("some name");
+        Lock lock2 = namedLocks.readLock("some name");
+        assertThat(namedLocks.size(), is(1));
+        lock1.unlock();
+        assertThat(namedLocks.size(), is(1));
+        lock2.unlock();
+        assertThat(namedLocks.size(), is(0));
+    }
+
+    @Test
+    public void shouldRemoveLocksWhenManyThreadsConcurrentlyLockOverlappingNames() throws Exception {
+        final int numThreads = 16;
+        final int runsPerThread = 5000;
+        final int numNames = 8;
+        final AtomicInteger[] holders = new AtomicInteger[numNames];
+        for (int i = 0; i != numNames; ++i) {
+            holders[i] = new AtomicInteger();
+        }
+        final AtomicBoolean failed = new AtomicBoolean(false);
+        final CountDownLatch latch = new CountDownLatch(numThreads);
+        final NamedLocks locks = this.namedLocks;
+        for (int i = 0; i != numThreads; ++i) {
+            final int offset = i;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i != runsPerThread; ++i) {
+                            int index = (offset + i) % numNames;
+                            Lock lock = locks.writeLock("name" + index);
+                            try {
+                                // Only this thread may hold the lock with this name ...
+                                if (holders[index].incrementAndGet() != 1) failed.set(true);
+                                holders[index].decrementAndGet();
+                            } finally {
+                                lock.unlock();
+                            }
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+            thread.start();
+        }
+        assertThat(latch.await(30, TimeUnit.SECONDS), is(true));
+        assertThat(failed.get(), is(false));
+        assertThat(namedLocks.size(), is(0));
+    }
 }
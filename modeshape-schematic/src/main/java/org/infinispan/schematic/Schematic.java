@@ -105,7 +105,7 @@ public class Schematic extends DocumentFactory {
      * 
      * @param document the document to be edited
      * @param clone true if the editor should operate against a clone of the document, or false if it should operate against the
-     *        supplied document
+     *        supplied document; read-only documents are always cloned
      * @return the editor for the document
      */
     public static Editor editDocument( Document document,
@@ -125,6 +125,7 @@ public class Schematic extends DocumentFactory {
         MutableDocument mutable = null;
         if (document instanceof MutableDocument) mutable = (MutableDocument)document;
         else if (document instanceof DocumentEditor) mutable = ((DocumentEditor)document).asMutableDocument();
+        else mutable = (MutableDocument)document.clone(); // the document is read-only, so always edit a copy
         return new EditorImpl(mutable, observer, operations);
     }
 
@@ -85,7 +85,7 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
         return value;
     }
 
-    private volatile MutableDocument value;
+    private volatile Document value;
     private final AtomicReference<SchematicDelta> delta = new AtomicReference<SchematicDelta>(null);
     private volatile SchematicEntryProxy proxy;
     volatile boolean copied = false;
@@ -100,7 +100,7 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
         value = new BasicDocument(FieldName.METADATA, metadata, FieldName.CONTENT, new BasicDocument());
     }
 
-    protected SchematicEntryLiteral( MutableDocument document ) {
+    protected SchematicEntryLiteral( Document document ) {
         this.value = document;
         assert this.value != null;
     }
@@ -126,19 +126,25 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
     }
 
     public SchematicEntryLiteral copyForWrite() {
-        SchematicEntryLiteral clone = new SchematicEntryLiteral((MutableDocument)value.clone());
+        SchematicEntryLiteral clone = new SchematicEntryLiteral(value.clone());
         clone.proxy = proxy;
         clone.copied = true;
         return clone;
     }
 
     protected final MutableDocument data() {
-        return value;
+        Document value = this.value;
+        if (!(value instanceof MutableDocument)) {
+            // The document has not been decoded (see LazyDocument), so replace it with an editable copy ...
+            value = value.clone();
+            this.value = value;
+        }
+        return (MutableDocument)value;
     }
 
     protected void setDocument( Document document ) {
         assert this.value != null;
-        this.value = (MutableDocument)document;
+        this.value = document;
     }
 
     @Override
@@ -241,9 +247,12 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
         assert content != null;
         if (content instanceof EditableDocument) {
             content = ((EditableDocument)content).unwrap();
+        } else if (content instanceof Document && !(content instanceof MutableDocument)) {
+            // The content will be edited in place, so it must be editable ...
+            content = ((Document)content).clone();
         }
 
-        Object existing = this.value.put(FieldName.CONTENT, content);
+        Object existing = data().put(FieldName.CONTENT, content);
         SchematicDelta delta = this.delta.get();
         if (delta != null && delta.isRecordingOperations()) {
             if (existing != null) {
@@ -276,7 +285,7 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
             }
 
             // Now record the change ...
-            value.put(FieldName.METADATA, newMetadata);
+            data().put(FieldName.METADATA, newMetadata);
             SchematicDelta delta = this.delta.get();
             if (delta != null && delta.isRecordingOperations()) {
                 PutOperation op = new PutOperation(FieldPath.ROOT, FieldName.METADATA, existingMetadata, newMetadata);
@@ -333,6 +342,7 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
     }
 
     boolean apply( Iterable<Operation> changes ) {
+        MutableDocument value = data();
         try {
             for (Operation o : changes) {
                 o.replay(value);
@@ -354,12 +364,13 @@ public class SchematicEntryLiteral implements SchematicEntry, DeltaAware {
         @Override
         public void writeObject( ObjectOutput output,
                                  SchematicEntryLiteral literal ) throws IOException {
-            output.writeObject(literal.data());
+            // Write the document as is, without decoding it ...
+            output.writeObject(literal.asDocument());
         }
 
         @Override
         public SchematicEntryLiteral readObject( ObjectInput input ) throws IOException, ClassNotFoundException {
-            MutableDocument doc = (MutableDocument)input.readObject();
+            Document doc = (Document)input.readObject();
             return new SchematicEntryLiteral(doc);
         }
 
@@ -66,7 +66,13 @@ public abstract class Operation {
         for (String fieldName : parentPath) {
             assert parent != null : "Unexpected to find path " + parentPath + " in " + delegate + ". Unable to apply operation "
                                     + this;
-            parent = (MutableDocument)parent.getDocument(fieldName);
+            Document child = parent.getDocument(fieldName);
+            if (child != null && !(child instanceof MutableDocument)) {
+                // The nested document is read-only (see LazyDocument), so replace it with an editable copy ...
+                child = child.clone();
+                parent.put(fieldName, child);
+            }
+            parent = (MutableDocument)child;
         }
         return parent;
     }
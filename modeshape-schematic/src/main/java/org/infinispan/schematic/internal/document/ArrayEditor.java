@@ -603,7 +603,11 @@ public class ArrayEditor implements EditableArray {
         if (doc instanceof MutableArray) {
             return createEditableArray((MutableArray)doc, index, factory);
         }
-        assert doc instanceof MutableDocument;
+        if (!(doc instanceof MutableDocument)) {
+            // The nested document is read-only (see LazyDocument), so replace it with an editable copy ...
+            doc = doc.clone();
+            array.setValue(index, doc);
+        }
         return createEditableDocument((MutableDocument)doc, index, factory);
     }
 
@@ -55,7 +55,7 @@ public class BsonReader {
     public Document read( InputStream stream ) throws IOException {
         // Create an object so that this reader is thread safe ...
         DocumentValueFactory valueFactory = VALUE_FACTORY;
-        Reader reader = new Reader(new BsonDataInput(new DataInputStream(stream)), valueFactory);
+        Reader reader = newReader(new BsonDataInput(new DataInputStream(stream)), valueFactory);
         reader.startDocument();
         return reader.endDocument();
     }
@@ -70,7 +70,7 @@ public class BsonReader {
     public Document read( DataInput input ) throws IOException {
         // Create an object so that this reader is thread safe ...
         DocumentValueFactory valueFactory = VALUE_FACTORY;
-        Reader reader = new Reader(new BsonDataInput(input), valueFactory);
+        Reader reader = newReader(new BsonDataInput(input), valueFactory);
         reader.startDocument();
         return reader.endDocument();
     }
@@ -85,7 +85,7 @@ public class BsonReader {
     public Array readArray( InputStream stream ) throws IOException {
         // Create an object so that this reader is thread safe ...
         DocumentValueFactory valueFactory = VALUE_FACTORY;
-        Reader reader = new Reader(new BsonDataInput(new DataInputStream(stream)), valueFactory);
+        Reader reader = newReader(new BsonDataInput(new DataInputStream(stream)), valueFactory);
         reader.startArray();
         return (Array)reader.endDocument();
     }
@@ -100,13 +100,25 @@ public class BsonReader {
     public Array readArray( DataInput input ) throws IOException {
         // Create an object so that this reader is thread safe ...
         DocumentValueFactory valueFactory = VALUE_FACTORY;
-        Reader reader = new Reader(new BsonDataInput(input), valueFactory);
+        Reader reader = newReader(new BsonDataInput(input), valueFactory);
         reader.startArray();
         return (Array)reader.endDocument();
     }
 
+    /**
+     * Create the reader for a single document.
+     * 
+     * @param data the input; may not be null
+     * @param valueFactory the factory for the values; may not be null
+     * @return the reader; never null
+     */
+    protected Reader newReader( BsonDataInput data,
+                                DocumentValueFactory valueFactory ) {
+        return new Reader(data, valueFactory);
+    }
+
     protected static class Reader {
-        private final BsonDataInput data;
+        protected final BsonDataInput data;
         private MutableDocument object;
         private DocumentValueFactory values;
 
@@ -131,7 +143,7 @@ public class BsonReader {
             int length = data.readInt();
             int startingIndex = data.getTotalBytesRead();
             int endingIndex = startingIndex + length;
-            MutableDocument doc = array ? new BasicArray() : new BasicDocument();
+            MutableDocument doc = array ? new BasicArray() : values.createDocument();
             // Read the elements ...
             while (data.getTotalBytesRead() < endingIndex) {
                 byte type = data.readByte();
@@ -143,7 +155,15 @@ public class BsonReader {
 
         protected void readElement( byte type,
                                     MutableDocument bson ) throws IOException {
-            String name = readCString();
+            String name = readName();
+            bson.put(name, readValue(type));
+        }
+
+        protected String readName() throws IOException {
+            return readCString();
+        }
+
+        protected Object readValue( byte type ) throws IOException {
             Object value = null;
             switch (type) {
                 case Bson.Type.ARRAY:
@@ -224,7 +244,7 @@ public class BsonReader {
                     // ignore ...
                     break;
             }
-            bson.put(name, value);
+            return value;
         }
 
         protected String readCString() throws IOException {
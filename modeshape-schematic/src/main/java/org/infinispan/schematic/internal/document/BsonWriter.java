@@ -94,6 +94,11 @@ public class BsonWriter {
      */
     public void write( Object object,
                        DataOutput output ) throws IOException {
+        if (object instanceof LazyDocument && ((LazyDocument)object).isEncodedWith(dictionary())) {
+            // The document is still in the same BSON form, so simply copy the bytes ...
+            ((LazyDocument)object).writeTo(output);
+            return;
+        }
         ByteArrayOutputStream stream = new ByteArrayOutputStream();
         write(object, stream);
         stream.flush();
@@ -157,6 +162,26 @@ public class BsonWriter {
         }
     }
 
+    /**
+     * Get the dictionary of field names that this writer uses.
+     * 
+     * @return the dictionary, or null if the field names are written as standard BSON C-strings
+     */
+    protected FieldNameDictionary dictionary() {
+        return null;
+    }
+
+    /**
+     * Write the name of a field (or the index of an array value).
+     * 
+     * @param name the name of the field; may not be null
+     * @param output the output; may not be null
+     */
+    protected void writeName( String name,
+                              BsonDataOutput output ) {
+        writeCString(name, output);
+    }
+
     protected void writeCString( String value,
                                  BsonDataOutput output ) {
         output.writeUTFString(value);
@@ -178,14 +203,14 @@ public class BsonWriter {
     protected void writeNull( String name,
                               BsonDataOutput output ) {
         output.writeByte(Type.NULL);
-        writeCString(name, output);
+        writeName(name, output);
     }
 
     protected void write( String name,
                           String value,
                           BsonDataOutput output ) {
         output.writeByte(Type.STRING);
-        writeCString(name, output);
+        writeName(name, output);
         writeString(value, output);
     }
 
@@ -193,7 +218,7 @@ public class BsonWriter {
                           boolean value,
                           BsonDataOutput output ) {
         output.writeByte(Type.BOOLEAN);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeByte(value ? (byte)0x01 : (byte)0x00);
     }
 
@@ -201,7 +226,7 @@ public class BsonWriter {
                           int value,
                           BsonDataOutput output ) {
         output.writeByte(Type.INT32);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeInt(value);
     }
 
@@ -209,7 +234,7 @@ public class BsonWriter {
                           long value,
                           BsonDataOutput output ) {
         output.writeByte(Type.INT64);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeLong(value);
     }
 
@@ -217,7 +242,7 @@ public class BsonWriter {
                           float value,
                           BsonDataOutput output ) {
         output.writeByte(Type.DOUBLE);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeDouble(value);
     }
 
@@ -225,7 +250,7 @@ public class BsonWriter {
                           double value,
                           BsonDataOutput output ) {
         output.writeByte(Type.DOUBLE);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeDouble(value);
     }
 
@@ -234,7 +259,7 @@ public class BsonWriter {
                                BsonDataOutput output ) {
         if (name != null) {
             output.writeByte(Type.ARRAY);
-            writeCString(name, output);
+            writeName(name, output);
         }
         // Write the size for the array; we'll come back to this after we write the array ...
         int arraySizePosition = output.size();
@@ -260,7 +285,7 @@ public class BsonWriter {
                           BsonDataOutput output ) {
         if (name != null) {
             output.writeByte(Type.ARRAY);
-            writeCString(name, output);
+            writeName(name, output);
         }
         // Write the size for the array; we'll come back to this after we write the array ...
         int arraySizePosition = output.size();
@@ -285,7 +310,12 @@ public class BsonWriter {
                           BsonDataOutput output ) {
         if (name != null) {
             output.writeByte(Type.DOCUMENT);
-            writeCString(name, output);
+            writeName(name, output);
+        }
+        if (document instanceof LazyDocument && ((LazyDocument)document).isEncodedWith(dictionary())) {
+            // The document is still in the same BSON form, so simply copy the bytes ...
+            ((LazyDocument)document).writeTo(output);
+            return;
         }
         // Write the size for the document; we'll come back to this after we write the array ...
         int arraySizePosition = output.size();
@@ -305,7 +335,7 @@ public class BsonWriter {
                           Binary value,
                           BsonDataOutput output ) {
         output.writeByte(Type.BINARY);
-        writeCString(name, output);
+        writeName(name, output);
         byte[] bytes = value.getBytes();
         output.writeInt(bytes.length);
         output.writeByte(value.getType());
@@ -316,7 +346,7 @@ public class BsonWriter {
                           Symbol value,
                           BsonDataOutput output ) {
         output.writeByte(Type.SYMBOL);
-        writeCString(name, output);
+        writeName(name, output);
         writeString(value.getSymbol(), output);
     }
 
@@ -324,7 +354,7 @@ public class BsonWriter {
                           Pattern value,
                           BsonDataOutput output ) {
         output.writeByte(Type.REGEX);
-        writeCString(name, output);
+        writeName(name, output);
         writeCString(value.pattern(), output);
         writeCString(BsonUtils.regexFlagsFor(value), output);
     }
@@ -333,7 +363,7 @@ public class BsonWriter {
                           Date value,
                           BsonDataOutput output ) {
         output.writeByte(Type.DATETIME);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeLong(value.getTime());
     }
 
@@ -341,7 +371,7 @@ public class BsonWriter {
                           UUID value,
                           BsonDataOutput output ) {
         output.writeByte(Type.BINARY);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeInt(16);
         output.writeByte(BinaryType.UUID);
         output.writeLong(value.getMostSignificantBits());
@@ -352,7 +382,7 @@ public class BsonWriter {
                           CodeWithScope value,
                           BsonDataOutput output ) {
         output.writeByte(Type.JAVASCRIPT_WITH_SCOPE);
-        writeCString(name, output);
+        writeName(name, output);
         // Write the size for the CodeWithScope; we'll come back to this after we write the object ...
         int arraySizePosition = output.size();
         output.writeInt(0);
@@ -370,7 +400,7 @@ public class BsonWriter {
                           Code value,
                           BsonDataOutput output ) {
         output.writeByte(Type.JAVASCRIPT);
-        writeCString(name, output);
+        writeName(name, output);
         writeString(value.getCode(), output);
     }
 
@@ -378,7 +408,7 @@ public class BsonWriter {
                           Timestamp value,
                           BsonDataOutput output ) {
         output.writeByte(Type.TIMESTAMP);
-        writeCString(name, output);
+        writeName(name, output);
         output.writeInt(value.getInc());
         output.writeInt(value.getTime());
     }
@@ -387,7 +417,7 @@ public class BsonWriter {
                           ObjectId value,
                           BsonDataOutput output ) {
         output.writeByte(Type.OBJECTID);
-        writeCString(name, output);
+        writeName(name, output);
         output.write(value.getBytes());
     }
 
@@ -395,13 +425,13 @@ public class BsonWriter {
                           MaxKey value,
                           BsonDataOutput output ) {
         output.writeByte(Type.MAXKEY);
-        writeCString(name, output);
+        writeName(name, output);
     }
 
     protected void write( String name,
                           MinKey value,
                           BsonDataOutput output ) {
         output.writeByte(Type.MINKEY);
-        writeCString(name, output);
+        writeName(name, output);
     }
 }
@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.io.IOException;
+import org.infinispan.schematic.document.ThreadSafe;
+import org.infinispan.schematic.internal.io.BsonDataInput;
+
+/**
+ * A {@link BsonReader} for the compact form of BSON written by {@link CompactBsonWriter}, in which the field names are replaced
+ * by the varint codes defined by a {@link FieldNameDictionary}.
+ */
+@ThreadSafe
+public class CompactBsonReader extends BsonReader {
+
+    private final FieldNameDictionary dictionary;
+
+    public CompactBsonReader( FieldNameDictionary dictionary ) {
+        assert dictionary != null;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    protected Reader newReader( BsonDataInput data,
+                                DocumentValueFactory valueFactory ) {
+        return new CompactReader(data, valueFactory, dictionary);
+    }
+
+    protected static class CompactReader extends Reader {
+        private final FieldNameDictionary dictionary;
+
+        protected CompactReader( BsonDataInput data,
+                                 DocumentValueFactory valueFactory,
+                                 FieldNameDictionary dictionary ) {
+            super(data, valueFactory);
+            this.dictionary = dictionary;
+        }
+
+        @Override
+        protected String readName() throws IOException {
+            int code = readVarint();
+            if (code == FieldNameDictionary.INLINE_NAME) return readCString();
+            try {
+                return dictionary.nameFor(code);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        protected int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                byte b = data.readByte();
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return value;
+            }
+            throw new IOException("Malformed varint in compact BSON field name");
+        }
+    }
+}
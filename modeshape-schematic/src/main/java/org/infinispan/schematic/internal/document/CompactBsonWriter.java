@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import org.infinispan.schematic.document.ThreadSafe;
+import org.infinispan.schematic.internal.io.BsonDataOutput;
+
+/**
+ * A {@link BsonWriter} that writes a compact form of BSON, in which the field names are replaced by the varint codes defined by
+ * a {@link FieldNameDictionary}. All other parts of the BSON format (including the lengths of documents and arrays) are
+ * unchanged. Documents in this form can only be read with a {@link CompactBsonReader} that uses the same dictionary.
+ */
+@ThreadSafe
+public class CompactBsonWriter extends BsonWriter {
+
+    private final FieldNameDictionary dictionary;
+
+    public CompactBsonWriter( FieldNameDictionary dictionary ) {
+        assert dictionary != null;
+        this.dictionary = dictionary;
+    }
+
+    @Override
+    protected FieldNameDictionary dictionary() {
+        return dictionary;
+    }
+
+    @Override
+    protected void writeName( String name,
+                              BsonDataOutput output ) {
+        int code = dictionary.codeFor(name);
+        writeVarint(code, output);
+        if (code == FieldNameDictionary.INLINE_NAME) {
+            writeCString(name, output);
+        }
+    }
+
+    protected static void writeVarint( int value,
+                                       BsonDataOutput output ) {
+        // Write 7 bits at a time, with the high bit set on all but the last byte ...
+        while ((value & ~0x7F) != 0) {
+            output.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte(value);
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import org.infinispan.marshall.SerializeWith;
+import org.infinispan.schematic.document.Array;
+import org.infinispan.schematic.document.Document;
+
+/**
+ * A {@link MutableDocument} that stores its fields in a pair of parallel arrays of names and values, rather than in a hash
+ * table with linked entries as {@link BasicDocument} does. This makes it much smaller than a {@link BasicDocument} with the same
+ * fields, especially for the small documents (such as child references and property values) that make up most of the content.
+ * <p>
+ * Fields are found with a linear scan of the names, unless the document has more than {@link #INDEX_THRESHOLD} fields, in which
+ * case it also maintains an open-addressing hash index of the positions of the names. The fields are always kept in the order in
+ * which they were added.
+ * </p>
+ * <p>
+ * Like {@link BasicDocument}, this class is not thread-safe for concurrent modifications, but may be read concurrently.
+ * </p>
+ */
+@SerializeWith( DocumentExternalizer.class )
+public class CompactDocument extends AbstractDocument implements MutableDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of fields above which the document maintains a hash index of the field names.
+     */
+    public static final int INDEX_THRESHOLD = 8;
+
+    private static final int DEFAULT_CAPACITY = 4;
+    private static final String[] NO_NAMES = new String[0];
+    private static final Object[] NO_VALUES = new Object[0];
+
+    private String[] names;
+    private Object[] values;
+    private int size;
+    /** The hash table of the positions (plus 1) of the names, or null if there are no more than INDEX_THRESHOLD fields */
+    private transient int[] index;
+
+    public CompactDocument() {
+        this.names = NO_NAMES;
+        this.values = NO_VALUES;
+    }
+
+    public CompactDocument( int initialCapacity ) {
+        this.names = initialCapacity > 0 ? new String[initialCapacity] : NO_NAMES;
+        this.values = initialCapacity > 0 ? new Object[initialCapacity] : NO_VALUES;
+    }
+
+    public CompactDocument( Document document ) {
+        this(document.size());
+        putAll(document);
+    }
+
+    public CompactDocument( String name,
+                            Object value ) {
+        this(1);
+        if (name != null) put(name, value);
+    }
+
+    public CompactDocument( String name1,
+                            Object value1,
+                            String name2,
+                            Object value2 ) {
+        this(2);
+        if (name1 != null) put(name1, value1);
+        if (name2 != null) put(name2, value2);
+    }
+
+    @Override
+    public Object get( String name ) {
+        int position = positionOf(name);
+        return position < 0 ? null : values[position];
+    }
+
+    @Override
+    public boolean containsField( String name ) {
+        return positionOf(name) >= 0;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return toMap().keySet();
+    }
+
+    @Override
+    public Map<String, ?> toMap() {
+        return new MapView();
+    }
+
+    @Override
+    public Iterable<Field> fields() {
+        return new Iterable<Field>() {
+            @Override
+            public Iterator<Field> iterator() {
+                return new FieldIterator();
+            }
+        };
+    }
+
+    @Override
+    public Object put( String name,
+                       Object value ) {
+        int position = positionOf(name);
+        if (position >= 0) {
+            Object existing = values[position];
+            values[position] = value;
+            return existing;
+        }
+        if (size == names.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, size + (size >> 1));
+            names = Arrays.copyOf(names, capacity);
+            values = Arrays.copyOf(values, capacity);
+        }
+        names[size] = name;
+        values[size] = value;
+        ++size;
+        if (index != null && size * 2 <= index.length) {
+            addToIndex(index, size - 1);
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    @Override
+    public void putAll( Document object ) {
+        if (object != this) {
+            for (Field field : object.fields()) {
+                put(field.getName(), unwrap(field.getValue()));
+            }
+        }
+    }
+
+    @Override
+    public void putAll( Map<? extends String, ? extends Object> map ) {
+        for (Map.Entry<? extends String, ? extends Object> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Object remove( String name ) {
+        int position = positionOf(name);
+        if (position < 0) return null;
+        Object existing = values[position];
+        int moved = size - position - 1;
+        if (moved > 0) {
+            System.arraycopy(names, position + 1, names, position, moved);
+            System.arraycopy(values, position + 1, values, position, moved);
+        }
+        --size;
+        names[size] = null;
+        values[size] = null;
+        if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        } else {
+            index = null;
+        }
+        return existing;
+    }
+
+    @Override
+    public void removeAll() {
+        Arrays.fill(names, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        index = null;
+    }
+
+    @Override
+    public Document clone() {
+        CompactDocument clone = new CompactDocument(size);
+        for (int i = 0; i != size; ++i) {
+            Object value = unwrap(values[i]);
+            if (value instanceof Array) {
+                value = ((Array)value).clone();
+            } else if (value instanceof Document) {
+                value = ((Document)value).clone();
+            }// every other kind of value is immutable
+            clone.put(names[i], value);
+        }
+        return clone;
+    }
+
+    protected final int positionOf( String name ) {
+        int[] index = this.index;
+        if (index == null) {
+            String[] names = this.names;
+            for (int i = 0; i != size; ++i) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int slot = hash(name) & mask;; slot = (slot + 1) & mask) {
+            int entry = index[slot];
+            if (entry == 0) return -1;
+            if (names[entry - 1].equals(name)) return entry - 1;
+        }
+    }
+
+    private void rebuildIndex() {
+        // Keep the load factor at or below 0.5 ...
+        int capacity = Integer.highestOneBit(size * 4 - 1);
+        int[] index = new int[capacity];
+        for (int i = 0; i != size; ++i) {
+            addToIndex(index, i);
+        }
+        this.index = index;
+    }
+
+    private void addToIndex( int[] index,
+                             int position ) {
+        int mask = index.length - 1;
+        int slot = hash(names[position]) & mask;
+        while (index[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        index[slot] = position + 1;
+    }
+
+    private static int hash( String name ) {
+        int hash = name.hashCode();
+        return hash ^ (hash >>> 16);
+    }
+
+    private void readObject( ObjectInputStream stream ) throws IOException, ClassNotFoundException {
+        stream.defaultReadObject();
+        if (size > INDEX_THRESHOLD) rebuildIndex();
+    }
+
+    protected class FieldIterator implements Iterator<Field> {
+        private int next = 0;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public Field next() {
+            if (next >= size) throw new NoSuchElementException();
+            int position = next++;
+            return new ImmutableField(names[position], values[position]);
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * An unmodifiable {@link Map} view of the document.
+     */
+    protected class MapView extends AbstractMap<String, Object> {
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            return new AbstractSet<Map.Entry<String, Object>>() {
+                @Override
+                public Iterator<Map.Entry<String, Object>> iterator() {
+                    final Iterator<Field> fields = new FieldIterator();
+                    return new Iterator<Map.Entry<String, Object>>() {
+                        @Override
+                        public boolean hasNext() {
+                            return fields.hasNext();
+                        }
+
+                        @Override
+                        public Map.Entry<String, Object> next() {
+                            Field field = fields.next();
+                            return new SimpleImmutableEntry<String, Object>(field.getName(), field.getValue());
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException();
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return size;
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public boolean containsKey( Object key ) {
+            return key instanceof String && positionOf((String)key) >= 0;
+        }
+
+        @Override
+        public Object get( Object key ) {
+            return key instanceof String ? CompactDocument.this.get((String)key) : null;
+        }
+    }
+}
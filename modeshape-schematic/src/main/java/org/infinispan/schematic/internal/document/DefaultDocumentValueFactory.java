@@ -43,6 +43,11 @@ public class DefaultDocumentValueFactory implements DocumentValueFactory, Serial
 
    private static final long serialVersionUID = 1L;
 
+   @Override
+   public MutableDocument createDocument() {
+      return new CompactDocument();
+   }
+
    @Override
    public String createString(String value) {
       return value;
@@ -624,7 +624,11 @@ public class DocumentEditor implements EditableDocument {
         if (doc instanceof MutableArray) {
             return createEditableArray((MutableArray)doc, fieldName, factory);
         }
-        assert doc instanceof MutableDocument;
+        if (!(doc instanceof MutableDocument)) {
+            // The nested document is read-only (see LazyDocument), so replace it with an editable copy ...
+            doc = doc.clone();
+            document.put(fieldName, doc);
+        }
         return createEditableDocument((MutableDocument)doc, fieldName, factory);
     }
 
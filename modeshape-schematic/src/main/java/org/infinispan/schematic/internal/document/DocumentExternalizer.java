@@ -30,16 +30,72 @@ import org.infinispan.schematic.document.Document;
 import org.infinispan.schematic.internal.SchematicExternalizer;
 import org.infinispan.schematic.internal.marshall.Ids;
 import org.infinispan.util.Util;
+import org.infinispan.util.logging.Log;
+import org.infinispan.util.logging.LogFactory;
 
 public class DocumentExternalizer extends SchematicExternalizer<Document> {
     /** The serialVersionUID */
     private static final long serialVersionUID = 1L;
 
+    private static final Log LOGGER = LogFactory.getLog(DocumentExternalizer.class);
+
+    /**
+     * The name of the system property that specifies the version of the {@link FieldNameDictionary} that is used to write
+     * documents in the {@link CompactBsonWriter compact form} of BSON. When the property is not set (or is "0"), documents are
+     * written in the standard BSON form. Documents in either form can always be read, but the compact form should only be enabled
+     * once all processes that read the documents (including all members of a cluster) support that version of the dictionary.
+     */
+    public static final String COMPACT_BSON_VERSION = "org.infinispan.schematic.bson.compact.version";
+
+    /** The type byte for documents in the standard BSON form. */
+    private static final byte STANDARD_BSON = 1;
+
+    /** The type byte for documents in the compact BSON form; it is followed by the version of the dictionary. */
+    private static final byte COMPACT_BSON = 2;
+
+    private static final CompactBsonWriter COMPACT_WRITER = configuredCompactWriter(System.getProperty(COMPACT_BSON_VERSION));
+
+    /**
+     * Obtain the writer for the version of the compact form given by the {@link #COMPACT_BSON_VERSION system property}. An
+     * invalid value must not prevent this class from being initialized, so it is logged and the standard form is used instead.
+     * 
+     * @param version the value of the system property; may be null
+     * @return the compact writer, or null if documents are to be written in the standard BSON form
+     */
+    static CompactBsonWriter configuredCompactWriter( String version ) {
+        try {
+            return compactWriter(version);
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("Ignoring the invalid value '" + version + "' of the '" + COMPACT_BSON_VERSION
+                        + "' system property; documents will be written in the standard BSON form");
+            return null;
+        }
+    }
+
+    static CompactBsonWriter compactWriter( String version ) {
+        if (version == null || version.trim().length() == 0 || "0".equals(version.trim())) return null;
+        FieldNameDictionary dictionary = FieldNameDictionary.forVersion(Integer.parseInt(version.trim()));
+        if (dictionary == null) {
+            throw new IllegalArgumentException("Unknown version of the BSON field name dictionary: " + version);
+        }
+        return new CompactBsonWriter(dictionary);
+    }
+
     @Override
     public void writeObject( ObjectOutput output,
                              Document doc ) throws IOException {
+        CompactBsonWriter writer = COMPACT_WRITER;
+        if (writer != null) {
+            // Write the type byte and the version of the dictionary ...
+            output.writeByte(COMPACT_BSON);
+            output.writeByte(writer.dictionary().getVersion());
+
+            // Write the compact BSON ...
+            writer.write(doc, output);
+            return;
+        }
         // Write the type byte ...
-        output.writeByte(1);
+        output.writeByte(STANDARD_BSON);
 
         // Write the BSON ...
         Bson.write(doc, output);
@@ -49,10 +105,19 @@ public class DocumentExternalizer extends SchematicExternalizer<Document> {
     public Document readObject( ObjectInput input ) throws IOException {
         // Read the type byte ...
         int type = input.readByte();
-        assert type == 1;
+        FieldNameDictionary dictionary = null;
+        if (type == COMPACT_BSON) {
+            int version = input.readByte();
+            dictionary = FieldNameDictionary.forVersion(version);
+            if (dictionary == null) {
+                throw new IOException("Unknown version of the BSON field name dictionary: " + version);
+            }
+        } else {
+            assert type == STANDARD_BSON;
+        }
 
-        // Read the BSON ...
-        return Bson.read(input);
+        // Read the BSON, but decode the fields only when they are used ...
+        return LazyDocument.read(input, dictionary);
     }
 
     @Override
@@ -63,6 +128,6 @@ public class DocumentExternalizer extends SchematicExternalizer<Document> {
     @SuppressWarnings( "unchecked" )
     @Override
     public Set<Class<? extends Document>> getTypeClasses() {
-        return Util.<Class<? extends Document>>asSet(BasicDocument.class);
+        return Util.<Class<? extends Document>>asSet(BasicDocument.class, CompactDocument.class, LazyDocument.class);
     }
 }
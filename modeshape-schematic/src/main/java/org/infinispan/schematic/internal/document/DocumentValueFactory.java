@@ -36,6 +36,13 @@ import org.infinispan.schematic.document.Timestamp;
 
 public interface DocumentValueFactory {
 
+   /**
+    * Create an empty document into which the fields of a document that is being read can be placed.
+    * 
+    * @return the new document; never null
+    */
+   MutableDocument createDocument();
+
    String createString(String value);
 
    Integer createInt(int value);
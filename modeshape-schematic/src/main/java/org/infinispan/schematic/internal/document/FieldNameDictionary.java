@@ -0,0 +1,165 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.infinispan.schematic.document.Immutable;
+
+/**
+ * A fixed and versioned list of the field names that are used in most documents, so that the {@link CompactBsonWriter compact
+ * BSON format} can write each of these names as a small integer rather than as a UTF-8 string. The names include the fields of
+ * the schematic entries, the fields of ModeShape's node documents, and the URIs of the built-in namespaces (which are the names
+ * of the fields within a node's properties).
+ * <p>
+ * Every document written in the compact format records the version of the dictionary that was used, so a dictionary can never be
+ * changed once it is released. Instead, a new version must be created by appending names to the list of the previous version, and
+ * must be registered in {@link #forVersion(int)}.
+ * </p>
+ * <p>
+ * Each field name in the compact format is a varint code, which is:
+ * <ul>
+ * <li>0 when the name is not in the dictionary, in which case the code is followed by the name as a BSON C-string;</li>
+ * <li>odd for a name in the dictionary, where the remaining bits are the identifier of the name; or</li>
+ * <li>even (but not 0) for a name that is an array index, where the remaining bits are the index plus 1.</li>
+ * </ul>
+ * </p>
+ */
+@Immutable
+public final class FieldNameDictionary {
+
+    /**
+     * The code for a field name that is written as a C-string.
+     */
+    public static final int INLINE_NAME = 0;
+
+    /**
+     * The first version of the dictionary.
+     */
+    public static final FieldNameDictionary V1 = new FieldNameDictionary(1, new String[] {
+        // Schematic entries ...
+        "metadata", "content", "id", "contentType", "$schema",
+        // Node documents ...
+        "key", "parent", "properties", "children", "childrenInfo", "name", "count", "blockSize", "nextBlock", "lastBlock",
+        "federatedSegments", "referrers", "weak", "strong", "refCount", "$queryable", "embeddedDocuments", "cacheTtlSeconds",
+        // Property values ...
+        "$ref", "$wref", "$sref", "$dec", "$date", "$name", "$path", "$relative", "$uuid", "$uri", "$foreign", "$sha1",
+        "$len", "$externalBinaryId", "$sourceName", "sha1", "len", "value",
+        // Namespaces ...
+        "", "http://www.jcp.org/jcr/1.0", "http://www.jcp.org/jcr/mix/1.0", "http://www.jcp.org/jcr/nt/1.0",
+        "http://www.jcp.org/jcr/sv/1.0", "http://www.modeshape.org/1.0",
+        // Common properties ...
+        "primaryType", "mixinTypes", "uuid", "created", "createdBy", "lastModified", "lastModifiedBy", "data", "mimeType",
+        "encoding", "isCheckedOut", "baseVersion", "predecessors", "versionHistory"});
+
+    /**
+     * Get the dictionary with the supplied version.
+     * 
+     * @param version the version of the dictionary
+     * @return the dictionary, or null if there is no such version
+     */
+    public static FieldNameDictionary forVersion( int version ) {
+        return version == V1.version ? V1 : null;
+    }
+
+    private final int version;
+    private final String[] names;
+    private final Map<String, Integer> codes;
+
+    private FieldNameDictionary( int version,
+                                 String[] names ) {
+        assert version > 0 && version < 128;
+        this.version = version;
+        this.names = names;
+        this.codes = new HashMap<String, Integer>((int)(names.length / 0.75f) + 1);
+        for (int i = 0; i != names.length; ++i) {
+            Integer existing = this.codes.put(names[i], (i << 1) | 1);
+            assert existing == null : "Duplicate name '" + names[i] + "' in field name dictionary";
+        }
+    }
+
+    /**
+     * Get the version of this dictionary.
+     * 
+     * @return the version; always positive
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Get the code for the supplied field name.
+     * 
+     * @param name the field name; may not be null
+     * @return the code, or {@link #INLINE_NAME} if the name is to be written as a C-string
+     */
+    public int codeFor( String name ) {
+        Integer code = codes.get(name);
+        if (code != null) return code.intValue();
+        int index = indexFrom(name);
+        return index < 0 ? INLINE_NAME : (index + 1) << 1;
+    }
+
+    /**
+     * Get the field name for the supplied code.
+     * 
+     * @param code the code, which may not be {@link #INLINE_NAME}
+     * @return the field name; never null
+     * @throws IllegalArgumentException if the code does not represent a name in this dictionary
+     */
+    public String nameFor( int code ) {
+        assert code != INLINE_NAME;
+        if ((code & 1) == 0) {
+            int index = (code >>> 1) - 1;
+            return index < IndexSequence.MAXIMUM_KEY_COUNT ? IndexSequence.INDEX_VALUES[index] : Integer.toString(index);
+        }
+        int id = code >>> 1;
+        if (id >= names.length) {
+            throw new IllegalArgumentException("Field name " + id + " is not in version " + version + " of the dictionary");
+        }
+        return names[id];
+    }
+
+    @Override
+    public String toString() {
+        return "FieldNameDictionary v" + version;
+    }
+
+    /**
+     * Determine the array index for the supplied name, if the name is the canonical form of a small non-negative integer.
+     * 
+     * @param name the name
+     * @return the index, or -1 if the name is not an index
+     */
+    private static int indexFrom( String name ) {
+        // Limit the length so the code always fits in an int ...
+        int length = name.length();
+        if (length == 0 || length > 8 || (length > 1 && name.charAt(0) == '0')) return -1;
+        int index = 0;
+        for (int i = 0; i != length; ++i) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') return -1;
+            index = index * 10 + (c - '0');
+        }
+        return index;
+    }
+}
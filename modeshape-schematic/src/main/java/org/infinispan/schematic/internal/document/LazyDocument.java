@@ -0,0 +1,492 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.infinispan.marshall.SerializeWith;
+import org.infinispan.schematic.document.Bson;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.ThreadSafe;
+import org.infinispan.schematic.internal.io.BsonDataInput;
+import org.infinispan.schematic.internal.io.BsonDataOutput;
+import org.infinispan.schematic.internal.io.Utf8Util;
+
+/**
+ * A read-only {@link Document} that wraps the BSON representation of a document and that decodes each field only when it is
+ * first used. The first access to any field scans the element headers to build a small index of the names, types and offsets of
+ * the fields; after that, a field's value is decoded (once) only when it is requested, so that values that are never used are
+ * never decoded. Nested documents are themselves {@link LazyDocument} instances that share the same byte array, while arrays are
+ * decoded completely when they are first accessed. The bytes may be in the standard BSON form, or in the compact form written by
+ * a {@link CompactBsonWriter}.
+ * <p>
+ * A {@link LazyDocument} cannot be modified. Instead, it should be {@link #clone() cloned} into a fully-decoded
+ * {@link MutableDocument} before it is edited. When a {@link LazyDocument} is written as BSON, its original bytes are copied as is
+ * and are not re-encoded.
+ * </p>
+ */
+@ThreadSafe
+@SerializeWith( DocumentExternalizer.class )
+public final class LazyDocument extends AbstractDocument {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The number of fields above which the index also includes a map of the field names to their positions.
+     */
+    private static final int MAX_FIELDS_SCANNED = 16;
+
+    /**
+     * The marker for a field whose value has been decoded as null.
+     */
+    private static final Object DECODED_NULL = new Object();
+
+    /**
+     * Read the complete BSON representation of a document from the supplied input, but do not decode any of its fields.
+     * 
+     * @param input the input from which the BSON document is to be read; may not be null
+     * @return the lazily-decoded document; never null
+     * @throws IOException if there was a problem reading from the input
+     */
+    public static LazyDocument read( DataInput input ) throws IOException {
+        return read(input, null);
+    }
+
+    /**
+     * Read the complete BSON representation of a document from the supplied input, but do not decode any of its fields.
+     * 
+     * @param input the input from which the BSON document is to be read; may not be null
+     * @param dictionary the dictionary of field names used in the {@link CompactBsonWriter compact form} of BSON, or null if the
+     *        document is in the standard BSON form
+     * @return the lazily-decoded document; never null
+     * @throws IOException if there was a problem reading from the input
+     */
+    public static LazyDocument read( DataInput input,
+                                     FieldNameDictionary dictionary ) throws IOException {
+        // The length of the document is a little-endian int32 that includes the length itself ...
+        byte[] lengthBytes = new byte[4];
+        input.readFully(lengthBytes);
+        int length = readInt(lengthBytes, 0);
+        if (length < 5) {
+            throw new IOException("Invalid BSON document length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        System.arraycopy(lengthBytes, 0, bytes, 0, 4);
+        input.readFully(bytes, 4, length - 4);
+        return new LazyDocument(bytes, 0, length, dictionary);
+    }
+
+    private final byte[] bytes;
+    private final int offset;
+    private final int length;
+    private final FieldNameDictionary dictionary;
+    private transient volatile Index index;
+
+    /**
+     * Create a document that wraps the supplied BSON representation.
+     * 
+     * @param bytes the complete BSON representation of the document; may not be null
+     */
+    public LazyDocument( byte[] bytes ) {
+        this(bytes, 0, readInt(bytes, 0), null);
+    }
+
+    /**
+     * Create a document that wraps the supplied BSON representation.
+     * 
+     * @param bytes the complete BSON representation of the document; may not be null
+     * @param dictionary the dictionary of field names used in the {@link CompactBsonWriter compact form} of BSON, or null if the
+     *        document is in the standard BSON form
+     */
+    public LazyDocument( byte[] bytes,
+                         FieldNameDictionary dictionary ) {
+        this(bytes, 0, readInt(bytes, 0), dictionary);
+    }
+
+    protected LazyDocument( byte[] bytes,
+                            int offset,
+                            int length,
+                            FieldNameDictionary dictionary ) {
+        assert bytes != null;
+        if (length < 5 || offset < 0 || offset + length > bytes.length) {
+            throw new IllegalArgumentException("Invalid BSON document length: " + length);
+        }
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.dictionary = dictionary;
+    }
+
+    /**
+     * Get the number of bytes in the BSON representation of this document.
+     * 
+     * @return the number of bytes
+     */
+    public int getLength() {
+        return length;
+    }
+
+    /**
+     * Determine whether the bytes of this document are in the form written with the supplied dictionary.
+     * 
+     * @param dictionary the dictionary of field names, or null for the standard BSON form
+     * @return true if the bytes are in that form, or false otherwise
+     */
+    public boolean isEncodedWith( FieldNameDictionary dictionary ) {
+        return this.dictionary == dictionary;
+    }
+
+    /**
+     * Write the BSON representation of this document to the supplied output.
+     * 
+     * @param output the output; may not be null
+     * @throws IOException if there was a problem writing to the output
+     */
+    public void writeTo( DataOutput output ) throws IOException {
+        output.write(bytes, offset, length);
+    }
+
+    /**
+     * Write the BSON representation of this document to the supplied buffer.
+     * 
+     * @param output the buffer; may not be null
+     */
+    protected void writeTo( BsonDataOutput output ) {
+        output.write(bytes, offset, length);
+    }
+
+    @Override
+    public Object get( String name ) {
+        Index index = index();
+        int position = index.positionOf(name);
+        return position < 0 ? null : valueAt(index, position);
+    }
+
+    @Override
+    public boolean containsField( String name ) {
+        return index().positionOf(name) >= 0;
+    }
+
+    @Override
+    public Set<String> keySet() {
+        Index index = index();
+        Set<String> names = new LinkedHashSet<String>();
+        for (int i = 0; i != index.size; ++i) {
+            names.add(index.names[i]);
+        }
+        return Collections.unmodifiableSet(names);
+    }
+
+    @Override
+    public int size() {
+        return index().size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return index().size == 0;
+    }
+
+    @Override
+    public Map<String, ?> toMap() {
+        final Index index = index();
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        for (int i = 0; i != index.size; ++i) {
+            map.put(index.names[i], valueAt(index, i));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    @Override
+    public Iterable<Field> fields() {
+        final Index index = index();
+        return new Iterable<Field>() {
+            @Override
+            public Iterator<Field> iterator() {
+                return new Iterator<Field>() {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return next < index.size;
+                    }
+
+                    @Override
+                    public Field next() {
+                        if (next >= index.size) throw new NoSuchElementException();
+                        int position = next++;
+                        return new ImmutableField(index.names[position], valueAt(index, position));
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Obtain a fully-decoded and editable copy of this document.
+     * 
+     * @return the editable {@link MutableDocument} copy; never null
+     */
+    @Override
+    public Document clone() {
+        try {
+            BsonDataInput input = new BsonDataInput(new DataInputStream(new ByteArrayInputStream(bytes, offset, length)));
+            BsonReader.Reader reader = newReader(input);
+            reader.startDocument();
+            return reader.endDocument();
+        } catch (IOException e) {
+            // Should never happen, since the bytes were already scanned ...
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private Index index() {
+        Index index = this.index;
+        if (index == null) {
+            // Concurrent threads may each build an index, but they will be identical ...
+            index = new Index(bytes, offset, length, dictionary);
+            this.index = index;
+        }
+        return index;
+    }
+
+    private Object valueAt( Index index,
+                            int position ) {
+        Object value = index.values.get(position);
+        if (value == null) {
+            value = decode(index.types[position], index.offsets[position]);
+            if (value == null) value = DECODED_NULL;
+            if (!index.values.compareAndSet(position, null, value)) {
+                // Another thread already decoded the value, so use it ...
+                value = index.values.get(position);
+            }
+        }
+        return value == DECODED_NULL ? null : value;
+    }
+
+    private Object decode( byte type,
+                           int position ) {
+        switch (type) {
+            case Bson.Type.STRING:
+            case Bson.Type.SYMBOL:
+                // The length includes the zero-byte terminator ...
+                int stringLength = readInt(bytes, position);
+                return BsonReader.VALUE_FACTORY.createString(new String(bytes, position + 4, stringLength - 1,
+                                                                        Utf8Util.CHARSET));
+            case Bson.Type.INT32:
+                return BsonReader.VALUE_FACTORY.createInt(readInt(bytes, position));
+            case Bson.Type.INT64:
+                return BsonReader.VALUE_FACTORY.createLong(readLong(bytes, position));
+            case Bson.Type.DOUBLE:
+                return BsonReader.VALUE_FACTORY.createDouble(Double.longBitsToDouble(readLong(bytes, position)));
+            case Bson.Type.BOOLEAN:
+                return BsonReader.VALUE_FACTORY.createBoolean(bytes[position] != 0);
+            case Bson.Type.DATETIME:
+                return BsonReader.VALUE_FACTORY.createDate(readLong(bytes, position));
+            case Bson.Type.NULL:
+                return BsonReader.VALUE_FACTORY.createNull();
+            case Bson.Type.DOCUMENT:
+                return new LazyDocument(bytes, position, readInt(bytes, position), dictionary);
+            default:
+                // Use the regular reader for all other kinds of values (including arrays) ...
+                try {
+                    int remaining = offset + length - position;
+                    BsonDataInput input = new BsonDataInput(new DataInputStream(new ByteArrayInputStream(bytes, position,
+                                                                                                         remaining)));
+                    return newReader(input).readValue(type);
+                } catch (IOException e) {
+                    // Should never happen, since the bytes were already scanned ...
+                    throw new IllegalStateException(e);
+                }
+        }
+    }
+
+    private BsonReader.Reader newReader( BsonDataInput input ) {
+        if (dictionary == null) return new BsonReader.Reader(input, BsonReader.VALUE_FACTORY);
+        return new CompactBsonReader.CompactReader(input, BsonReader.VALUE_FACTORY, dictionary);
+    }
+
+    protected static int readInt( byte[] bytes,
+                                  int position ) {
+        return (bytes[position] & 0xff) | (bytes[position + 1] & 0xff) << 8 | (bytes[position + 2] & 0xff) << 16
+               | (bytes[position + 3] & 0xff) << 24;
+    }
+
+    protected static long readLong( byte[] bytes,
+                                    int position ) {
+        return (readInt(bytes, position) & 0xffffffffL) | ((long)readInt(bytes, position + 4)) << 32;
+    }
+
+    /**
+     * The names, types and offsets of the values of the fields in a BSON document, and the values that have been decoded.
+     */
+    protected static final class Index {
+        protected final int size;
+        protected final String[] names;
+        protected final byte[] types;
+        protected final int[] offsets;
+        protected final AtomicReferenceArray<Object> values;
+        private final Map<String, Integer> positions;
+
+        protected Index( byte[] bytes,
+                         int offset,
+                         int length,
+                         FieldNameDictionary dictionary ) {
+            int capacity = 8;
+            String[] names = new String[capacity];
+            byte[] types = new byte[capacity];
+            int[] offsets = new int[capacity];
+            int size = 0;
+            int end = offset + length - 1; // the last byte is the document terminator
+            int position = offset + 4;
+            while (position < end) {
+                byte type = bytes[position++];
+                if (type == Bson.END_OF_DOCUMENT) break;
+                String name = null;
+                if (dictionary != null) {
+                    // The name is a varint code ...
+                    int code = 0;
+                    int shift = 0;
+                    byte b;
+                    do {
+                        b = bytes[position++];
+                        code |= (b & 0x7F) << shift;
+                        shift += 7;
+                    } while ((b & 0x80) != 0);
+                    if (code != FieldNameDictionary.INLINE_NAME) name = dictionary.nameFor(code);
+                }
+                if (name == null) {
+                    // The name is a C-string ...
+                    int nameEnd = position;
+                    while (bytes[nameEnd] != 0) {
+                        ++nameEnd;
+                    }
+                    name = new String(bytes, position, nameEnd - position, Utf8Util.CHARSET);
+                    position = nameEnd + 1;
+                }
+                if (size == capacity) {
+                    capacity *= 2;
+                    names = Arrays.copyOf(names, capacity);
+                    types = Arrays.copyOf(types, capacity);
+                    offsets = Arrays.copyOf(offsets, capacity);
+                }
+                names[size] = name;
+                types[size] = type;
+                offsets[size] = position;
+                position += valueLength(bytes, type, position);
+                ++size;
+            }
+            this.size = size;
+            this.names = names;
+            this.types = types;
+            this.offsets = offsets;
+            this.values = new AtomicReferenceArray<Object>(size);
+            if (size > MAX_FIELDS_SCANNED) {
+                Map<String, Integer> positions = new HashMap<String, Integer>((int)(size / 0.75f) + 1);
+                for (int i = 0; i != size; ++i) {
+                    positions.put(names[i], i);
+                }
+                this.positions = positions;
+            } else {
+                this.positions = null;
+            }
+        }
+
+        protected int positionOf( String name ) {
+            if (positions != null) {
+                Integer position = positions.get(name);
+                return position != null ? position.intValue() : -1;
+            }
+            for (int i = 0; i != size; ++i) {
+                if (names[i].equals(name)) return i;
+            }
+            return -1;
+        }
+
+        private static int valueLength( byte[] bytes,
+                                        byte type,
+                                        int position ) {
+            switch (type) {
+                case Bson.Type.DOUBLE:
+                case Bson.Type.DATETIME:
+                case Bson.Type.INT64:
+                case Bson.Type.TIMESTAMP:
+                    return 8;
+                case Bson.Type.INT32:
+                    return 4;
+                case Bson.Type.BOOLEAN:
+                    return 1;
+                case Bson.Type.OBJECTID:
+                    return 12;
+                case Bson.Type.STRING:
+                case Bson.Type.JAVASCRIPT:
+                case Bson.Type.SYMBOL:
+                    return 4 + readInt(bytes, position);
+                case Bson.Type.DOCUMENT:
+                case Bson.Type.ARRAY:
+                case Bson.Type.JAVASCRIPT_WITH_SCOPE:
+                    return readInt(bytes, position);
+                case Bson.Type.BINARY:
+                    // The length, the subtype, and then the bytes ...
+                    return 5 + readInt(bytes, position);
+                case Bson.Type.DBPOINTER:
+                    // The string and then the 12-byte identifier ...
+                    return 4 + readInt(bytes, position) + 12;
+                case Bson.Type.REGEX:
+                    // Two C-strings ...
+                    int end = position;
+                    while (bytes[end] != 0) {
+                        ++end;
+                    }
+                    ++end;
+                    while (bytes[end] != 0) {
+                        ++end;
+                    }
+                    return end + 1 - position;
+                case Bson.Type.UNDEFINED:
+                case Bson.Type.NULL:
+                case Bson.Type.MINKEY:
+                case Bson.Type.MAXKEY:
+                    return 0;
+            }
+            throw new IllegalStateException("Unexpected BSON type " + type + " at offset " + position);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.io.ByteArrayInputStream;
+import java.util.concurrent.atomic.AtomicReference;
+import org.infinispan.schematic.TestUtil;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.Json;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the size of ModeShape's node documents in the standard and {@link CompactBsonWriter compact} forms of BSON, and the
+ * time required to write and read them.
+ */
+@Ignore
+public class CompactBsonPerformanceTest {
+
+    private static final String[] NODE_DOCUMENTS = {"json/sample-large-modeshape-doc.json",
+        "json/sample-large-modeshape-doc2.json", "json/sample-large-modeshape-doc3.json"};
+
+    protected BsonWriter writer;
+    protected BsonReader reader;
+    protected CompactBsonWriter compactWriter;
+    protected CompactBsonReader compactReader;
+    protected boolean print;
+
+    @Before
+    public void beforeTest() {
+        writer = new BsonWriter();
+        reader = new BsonReader();
+        compactWriter = new CompactBsonWriter(FieldNameDictionary.V1);
+        compactReader = new CompactBsonReader(FieldNameDictionary.V1);
+        print = true;
+    }
+
+    @Test
+    public void shouldCompareSizesOfNodeDocuments() throws Exception {
+        for (String resourcePath : NODE_DOCUMENTS) {
+            Document doc = Json.read(TestUtil.resource(resourcePath));
+            int standard = writer.write(doc).length;
+            int compact = compactWriter.write(doc).length;
+            if (print) {
+                System.out.println(resourcePath + " -- standard: " + standard + " bytes -- compact: " + compact + " bytes ("
+                                   + (100 * compact / standard) + "%)");
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteNodeDocuments() throws Exception {
+        for (String resourcePath : NODE_DOCUMENTS) {
+            Document doc = Json.read(TestUtil.resource(resourcePath));
+            testWriting("BsonWriter.write(" + resourcePath + ")", writer, doc, 1000);
+            testWriting("CompactBsonWriter.write(" + resourcePath + ")", compactWriter, doc, 1000);
+        }
+    }
+
+    @Test
+    public void shouldReadNodeDocuments() throws Exception {
+        for (String resourcePath : NODE_DOCUMENTS) {
+            Document doc = Json.read(TestUtil.resource(resourcePath));
+            testReading("BsonReader.read(" + resourcePath + ")", reader, writer.write(doc), 1000);
+            testReading("CompactBsonReader.read(" + resourcePath + ")", compactReader, compactWriter.write(doc), 1000);
+        }
+    }
+
+    private void runTest( String message,
+                          int loops,
+                          int testDataLength,
+                          Runnable function ) {
+        assert loops > 0;
+        // Run several times to warm up ...
+        for (int i = 0; i != 100; ++i) {
+            function.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i != loops; ++i) {
+            function.run();
+        }
+        long stop = System.nanoTime();
+        if (print) {
+            while (message.length() < 80)
+                message = message + " ";
+            double micros = (stop - start) / (loops * 1000.0D);
+            double megabytesPerSecond = (testDataLength / (1024.0D * 1024.0D)) / (micros / 1000000.0D);
+            System.out.println(message + " -- bytes: " + testDataLength + " -- average time: " + micros + " micros -- "
+                               + megabytesPerSecond + " MB/s");
+        }
+    }
+
+    protected void testWriting( String message,
+                                final BsonWriter writer,
+                                final Document doc,
+                                int numberOfRuns ) throws Exception {
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        runTest(message, numberOfRuns, writer.write(doc).length, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.write(doc);
+                } catch (Exception t) {
+                    error.compareAndSet(null, t);
+                }
+            }
+        });
+        if (error.get() != null) throw error.get();
+    }
+
+    protected void testReading( String message,
+                                final BsonReader reader,
+                                final byte[] bytes,
+                                int numberOfRuns ) throws Exception {
+        final AtomicReference<Exception> error = new AtomicReference<Exception>();
+        runTest(message, numberOfRuns, bytes.length, new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reader.read(new ByteArrayInputStream(bytes)).get("content");
+                } catch (Exception t) {
+                    error.compareAndSet(null, t);
+                }
+            }
+        });
+        if (error.get() != null) throw error.get();
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import org.infinispan.schematic.TestUtil;
+import org.infinispan.schematic.document.Binary;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.Json;
+import org.infinispan.schematic.document.Null;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactBsonTest {
+
+    protected FieldNameDictionary dictionary;
+    protected BsonWriter writer;
+    protected CompactBsonWriter compactWriter;
+    protected CompactBsonReader compactReader;
+
+    @Before
+    public void beforeTest() {
+        dictionary = FieldNameDictionary.V1;
+        writer = new BsonWriter();
+        compactWriter = new CompactBsonWriter(dictionary);
+        compactReader = new CompactBsonReader(dictionary);
+    }
+
+    @Test
+    public void shouldEncodeFieldNamesAsCodes() {
+        assertThat(dictionary.nameFor(dictionary.codeFor("key")), is("key"));
+        assertThat(dictionary.nameFor(dictionary.codeFor("http://www.jcp.org/jcr/1.0")), is("http://www.jcp.org/jcr/1.0"));
+        assertThat(dictionary.nameFor(dictionary.codeFor("0")), is("0"));
+        assertThat(dictionary.nameFor(dictionary.codeFor("12345")), is("12345"));
+        assertThat(dictionary.codeFor("not in dictionary"), is(FieldNameDictionary.INLINE_NAME));
+        assertThat(dictionary.codeFor("01"), is(FieldNameDictionary.INLINE_NAME));
+        assertThat(dictionary.codeFor("-1"), is(FieldNameDictionary.INLINE_NAME));
+        assertThat(dictionary.codeFor("123456789"), is(FieldNameDictionary.INLINE_NAME));
+    }
+
+    @Test
+    public void shouldRoundTripNodeDocuments() throws Exception {
+        assertRoundTrip(Json.read(TestUtil.resource("json/sample-large-modeshape-doc.json")));
+        assertRoundTrip(Json.read(TestUtil.resource("json/sample-large-modeshape-doc3.json")));
+    }
+
+    @Test
+    public void shouldRoundTripDocumentWithValuesOfAllTypes() throws Exception {
+        BasicDocument doc = new BasicDocument();
+        doc.put("key", "value");
+        doc.put("a name not in the dictionary", 42);
+        doc.put("", 3L);
+        doc.put("date", new Date());
+        doc.put("uuid", UUID.randomUUID());
+        doc.put("binary", new Binary(new byte[] {1, 2, 3}));
+        doc.put("null", Null.getInstance());
+        doc.put("children", new BasicArray(new BasicDocument("key", "k1", "name", "n1"), "two", 3));
+        doc.put("properties", new BasicDocument("http://www.jcp.org/jcr/1.0", new BasicDocument("primaryType", "nt:file")));
+        assertRoundTrip(doc);
+    }
+
+    @Test
+    public void shouldWriteFewerBytesForNodeDocuments() throws Exception {
+        Document doc = Json.read(TestUtil.resource("json/sample-large-modeshape-doc3.json"));
+        byte[] standard = writer.write(doc);
+        byte[] compact = compactWriter.write(doc);
+        assertThat(compact.length < standard.length, is(true));
+    }
+
+    @Test
+    public void shouldReadCompactBytesLazily() throws Exception {
+        Document doc = Json.read(TestUtil.resource("json/sample-large-modeshape-doc3.json"));
+        byte[] compact = compactWriter.write(doc);
+        LazyDocument lazy = LazyDocument.read(new DataInputStream(new ByteArrayInputStream(compact)), dictionary);
+        assertThat(lazy.equals(doc), is(true));
+        assertThat(lazy.getDocument("content"), is(instanceOf(LazyDocument.class)));
+        assertThat(lazy.clone().equals(doc), is(true));
+
+        // The compact bytes are copied only when written in compact form ...
+        assertThat(Arrays.equals(compactWriter.write(lazy), compact), is(true));
+        assertThat(Arrays.equals(writer.write(lazy), writer.write(doc)), is(true));
+
+        // And standard bytes are re-encoded when written in compact form ...
+        LazyDocument standard = new LazyDocument(writer.write(doc));
+        assertThat(Arrays.equals(compactWriter.write(standard), compact), is(true));
+    }
+
+    @Test
+    public void shouldChooseCompactWriterFromVersion() {
+        assertThat(DocumentExternalizer.compactWriter(null) == null, is(true));
+        assertThat(DocumentExternalizer.compactWriter("0") == null, is(true));
+        assertThat(DocumentExternalizer.compactWriter("1").dictionary(), is(FieldNameDictionary.V1));
+    }
+
+    @Test( expected = IllegalArgumentException.class )
+    public void shouldNotChooseCompactWriterForUnknownVersion() {
+        DocumentExternalizer.compactWriter("99");
+    }
+
+    @Test
+    public void shouldFallBackToStandardFormForInvalidConfiguredVersion() {
+        assertThat(DocumentExternalizer.configuredCompactWriter("99") == null, is(true));
+        assertThat(DocumentExternalizer.configuredCompactWriter("not-a-number") == null, is(true));
+        assertThat(DocumentExternalizer.configuredCompactWriter("1").dictionary(), is(FieldNameDictionary.V1));
+    }
+
+    protected void assertRoundTrip( Document doc ) throws Exception {
+        byte[] compact = compactWriter.write(doc);
+        Document read = compactReader.read(new ByteArrayInputStream(compact));
+        assertThat(read, is(instanceOf(CompactDocument.class)));
+        assertThat(read.equals(doc), is(true));
+        assertThat(Json.write(read), is(Json.write(doc)));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.infinispan.schematic.document.Document;
+import org.junit.Before;
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Compares the heap space used by, and the time required to read fields from, {@link BasicDocument} and {@link CompactDocument}
+ * instances that hold the small documents (such as child references) that are most common in ModeShape's node documents.
+ */
+@Ignore
+public class CompactDocumentPerformanceTest {
+
+    private static final int DOCUMENT_COUNT = 100000;
+
+    protected boolean print;
+
+    @Before
+    public void beforeTest() {
+        print = true;
+    }
+
+    @Test
+    public void shouldCompareHeapSpaceOfSmallDocuments() {
+        long basic = measureHeapSpace(new BasicDocument());
+        long compact = measureHeapSpace(new CompactDocument());
+        if (print) {
+            System.out.println("BasicDocument -- " + (basic / DOCUMENT_COUNT) + " bytes per document");
+            System.out.println("CompactDocument -- " + (compact / DOCUMENT_COUNT) + " bytes per document ("
+                               + (100 * compact / basic) + "%)");
+        }
+    }
+
+    @Test
+    public void shouldCompareTimeToReadFieldsOfSmallDocuments() {
+        List<Document> basic = createDocuments(new BasicDocument());
+        List<Document> compact = createDocuments(new CompactDocument());
+        runTest("BasicDocument.get(...)", 100, basic);
+        runTest("CompactDocument.get(...)", 100, compact);
+    }
+
+    private List<Document> createDocuments( MutableDocument prototype ) {
+        List<Document> docs = new ArrayList<Document>(DOCUMENT_COUNT);
+        for (int i = 0; i != DOCUMENT_COUNT; ++i) {
+            MutableDocument doc = (MutableDocument)prototype.clone();
+            doc.put("key", "b7a1f2e0a1b2c3d4e5f6a7b8c9d0e1f2-" + i);
+            doc.put("name", "child" + i);
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    private long measureHeapSpace( MutableDocument prototype ) {
+        // Create the field values and the list first, so that only the documents themselves are measured ...
+        List<Document> docs = createDocuments(new CompactDocument());
+        List<Document> copies = new ArrayList<Document>(DOCUMENT_COUNT);
+        long before = usedMemory();
+        for (Document doc : docs) {
+            MutableDocument copy = (MutableDocument)prototype.clone();
+            copy.putAll(doc);
+            copies.add(copy);
+        }
+        long after = usedMemory();
+        // Keep the documents reachable until the memory has been measured ...
+        assert copies.size() == docs.size();
+        return after - before;
+    }
+
+    private long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i != 5; ++i) {
+            System.gc();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private void runTest( String message,
+                          int loops,
+                          List<Document> docs ) {
+        assert loops > 0;
+        // Run several times to warm up ...
+        int found = 0;
+        for (int i = 0; i != 10; ++i) {
+            found += readFields(docs);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i != loops; ++i) {
+            found += readFields(docs);
+        }
+        long stop = System.nanoTime();
+        if (print) {
+            while (message.length() < 40)
+                message = message + " ";
+            double nanos = (stop - start) / ((double)loops * docs.size());
+            System.out.println(message + " -- average time per document: " + nanos + " nanos (" + found + " fields)");
+        }
+    }
+
+    private int readFields( List<Document> docs ) {
+        int found = 0;
+        for (Document doc : docs) {
+            if (doc.getString("name") != null) ++found;
+            if (doc.getString("key") != null) ++found;
+        }
+        return found;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import org.infinispan.schematic.TestUtil;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.Json;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactDocumentTest {
+
+    protected CompactDocument doc;
+
+    @Before
+    public void beforeTest() {
+        doc = new CompactDocument();
+    }
+
+    @Test
+    public void shouldPutAndGetFields() {
+        assertThat(doc.isEmpty(), is(true));
+        assertThat(doc.put("name", "Joe"), is(nullValue()));
+        assertThat(doc.put("age", 30), is(nullValue()));
+        assertThat(doc.size(), is(2));
+        assertThat(doc.getString("name"), is("Joe"));
+        assertThat(doc.getInteger("age"), is(30));
+        assertThat(doc.containsField("name"), is(true));
+        assertThat(doc.containsField("other"), is(false));
+        assertThat(doc.get("other"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldReplaceExistingField() {
+        doc.put("name", "Joe");
+        assertThat(doc.put("name", "Jane"), is((Object)"Joe"));
+        assertThat(doc.size(), is(1));
+        assertThat(doc.getString("name"), is("Jane"));
+    }
+
+    @Test
+    public void shouldKeepFieldsInInsertionOrder() {
+        List<String> names = putFields(20);
+        assertThat(new ArrayList<String>(doc.keySet()), is(names));
+        List<String> fieldNames = new ArrayList<String>();
+        for (Document.Field field : doc.fields()) {
+            fieldNames.add(field.getName());
+        }
+        assertThat(fieldNames, is(names));
+    }
+
+    @Test
+    public void shouldFindFieldsBeyondIndexThreshold() {
+        int count = CompactDocument.INDEX_THRESHOLD * 10;
+        putFields(count);
+        assertThat(doc.size(), is(count));
+        for (int i = 0; i != count; ++i) {
+            assertThat(doc.getInteger("field" + i), is(i));
+        }
+        assertThat(doc.containsField("field" + count), is(false));
+    }
+
+    @Test
+    public void shouldRemoveFieldsAcrossIndexThreshold() {
+        int count = CompactDocument.INDEX_THRESHOLD + 4;
+        putFields(count);
+        for (int i = 0; i != count; i += 2) {
+            assertThat(doc.remove("field" + i), is((Object)i));
+        }
+        assertThat(doc.size(), is(count / 2));
+        for (int i = 0; i != count; ++i) {
+            assertThat(doc.containsField("field" + i), is(i % 2 != 0));
+        }
+        assertThat(doc.remove("field0"), is(nullValue()));
+        doc.put("field0", 0);
+        assertThat(doc.getInteger("field0"), is(0));
+        doc.removeAll();
+        assertThat(doc.isEmpty(), is(true));
+        assertThat(doc.get("field1"), is(nullValue()));
+    }
+
+    @Test
+    public void shouldBeEqualToBasicDocumentWithSameFields() {
+        putFields(12);
+        BasicDocument basic = new BasicDocument();
+        basic.putAll(doc);
+        assertThat(doc.equals(basic), is(true));
+        assertThat(basic.equals(doc), is(true));
+        assertThat(doc.hashCode(), is(basic.hashCode()));
+        assertThat(doc.toMap().equals(basic), is(true));
+        assertThat(Json.write(doc), is(Json.write(basic)));
+    }
+
+    @Test
+    public void shouldCloneNestedDocumentsAndArrays() {
+        doc.put("nested", new CompactDocument("value", 1));
+        doc.put("array", new BasicArray("a", "b"));
+        Document clone = doc.clone();
+        assertThat(clone, is(instanceOf(CompactDocument.class)));
+        assertThat(clone.equals(doc), is(true));
+
+        ((MutableDocument)clone.getDocument("nested")).put("value", 2);
+        ((MutableArray)clone.getArray("array")).addValue("c");
+        assertThat(doc.getDocument("nested").getInteger("value"), is(1));
+        assertThat(doc.getArray("array").size(), is(2));
+    }
+
+    @Test
+    public void shouldBeReadFromBson() throws Exception {
+        Document original = Json.read(TestUtil.resource("json/sample-large-modeshape-doc.json"));
+        Document read = new BsonReader().read(new ByteArrayInputStream(new BsonWriter().write(original)));
+        assertThat(read, is(instanceOf(CompactDocument.class)));
+        assertThat(read.equals(original), is(true));
+        assertThat(Json.write(read), is(Json.write(original)));
+    }
+
+    protected List<String> putFields( int count ) {
+        List<String> names = new ArrayList<String>();
+        for (int i = 0; i != count; ++i) {
+            String name = "field" + i;
+            doc.put(name, i);
+            names.add(name);
+        }
+        return names;
+    }
+}
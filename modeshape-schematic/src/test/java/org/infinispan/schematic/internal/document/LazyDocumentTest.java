@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2009, Red Hat Middleware LLC, and individual contributors
+ * as indicated by the @author tags. See the copyright.txt file in the
+ * distribution for a full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.infinispan.schematic.internal.document;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsInstanceOf.instanceOf;
+import static org.hamcrest.core.IsNull.notNullValue;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.IsSame.sameInstance;
+import static org.junit.Assert.assertThat;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+import java.util.regex.Pattern;
+import org.infinispan.schematic.document.Binary;
+import org.infinispan.schematic.document.Document;
+import org.infinispan.schematic.document.EditableDocument;
+import org.infinispan.schematic.document.Json;
+import org.infinispan.schematic.document.Null;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LazyDocumentTest {
+
+    protected BsonWriter writer;
+
+    @Before
+    public void beforeTest() {
+        writer = new BsonWriter();
+    }
+
+    @Test
+    public void shouldBeEqualToFullyDecodedDocument() throws Exception {
+        Document doc = readJson("json/sample-repo-config.json");
+        LazyDocument lazy = new LazyDocument(writer.write(doc));
+        assertThat(lazy.size(), is(doc.size()));
+        assertThat(lazy.keySet(), is(doc.keySet()));
+        assertThat(lazy.equals(doc), is(true));
+        assertThat(doc.equals(lazy), is(true));
+        assertThat(lazy.hashCode(), is(doc.hashCode()));
+        assertThat(Json.write(lazy), is(Json.write(doc)));
+    }
+
+    @Test
+    public void shouldReadValuesOfAllTypes() throws Exception {
+        Date now = new Date();
+        UUID uuid = UUID.randomUUID();
+        BasicDocument doc = new BasicDocument();
+        doc.put("string", "value \u00e9\u00e8");
+        doc.put("int", 42);
+        doc.put("long", Long.MAX_VALUE - 3);
+        doc.put("double", 3.14d);
+        doc.put("boolean", true);
+        doc.put("date", now);
+        doc.put("uuid", uuid);
+        doc.put("binary", new Binary(new byte[] {1, 2, 3, 4}));
+        doc.put("pattern", Pattern.compile("[a-z]+"));
+        doc.put("null", Null.getInstance());
+        doc.put("array", new BasicArray("a", 2, 3L));
+        doc.put("nested", new BasicDocument("name", "Joe", "age", 30));
+        doc.put("last", "end");
+
+        LazyDocument lazy = new LazyDocument(writer.write(doc));
+        assertThat(lazy.getString("string"), is("value \u00e9\u00e8"));
+        assertThat(lazy.getInteger("int"), is(42));
+        assertThat(lazy.getLong("long"), is(Long.MAX_VALUE - 3));
+        assertThat(lazy.getDouble("double"), is(3.14d));
+        assertThat(lazy.getBoolean("boolean"), is(true));
+        assertThat((Date)lazy.get("date"), is(now));
+        assertThat(lazy.getUuid("uuid"), is(uuid));
+        assertThat(lazy.getBinary("binary").getBytes(), is(new byte[] {1, 2, 3, 4}));
+        assertThat(lazy.getPattern("pattern").pattern(), is("[a-z]+"));
+        assertThat(lazy.isNull("null"), is(true));
+        assertThat(lazy.getArray("array").size(), is(3));
+        assertThat(lazy.getDocument("nested").getString("name"), is("Joe"));
+        assertThat(lazy.getDocument("nested").getInteger("age"), is(30));
+        assertThat(lazy.getString("last"), is("end"));
+        assertThat(lazy.get("missing"), is(nullValue()));
+        assertThat(lazy.containsField("missing"), is(false));
+        assertThat(lazy.equals(doc), is(true));
+    }
+
+    @Test
+    public void shouldFindFieldsInDocumentWithManyFields() throws Exception {
+        BasicDocument doc = new BasicDocument();
+        for (int i = 0; i != 100; ++i) {
+            doc.put("field" + i, i);
+        }
+        LazyDocument lazy = new LazyDocument(writer.write(doc));
+        assertThat(lazy.size(), is(100));
+        for (int i = 99; i >= 0; --i) {
+            assertThat(lazy.getInteger("field" + i), is(i));
+        }
+        assertThat(lazy.containsField("field100"), is(false));
+    }
+
+    @Test
+    public void shouldReturnNestedDocumentsThatAreAlsoLazy() throws Exception {
+        BasicDocument doc = new BasicDocument("nested", new BasicDocument("inner", new BasicDocument("value", 1)));
+        LazyDocument lazy = new LazyDocument(writer.write(doc));
+        Document nested = lazy.getDocument("nested");
+        assertThat(nested, is(instanceOf(LazyDocument.class)));
+        assertThat(nested.getDocument("inner").getInteger("value"), is(1));
+        assertThat(lazy.getDocument("nested"), is(sameInstance(nested)));
+    }
+
+    @Test
+    public void shouldCloneIntoEditableDocument() throws Exception {
+        BasicDocument doc = new BasicDocument("name", "Joe", "nested", new BasicDocument("value", 1));
+        LazyDocument lazy = new LazyDocument(writer.write(doc));
+        Document clone = lazy.clone();
+        assertThat(clone, is(instanceOf(CompactDocument.class)));
+        assertThat(clone.getDocument("nested"), is(instanceOf(CompactDocument.class)));
+        assertThat(clone.equals(lazy), is(true));
+
+        ((MutableDocument)clone.getDocument("nested")).put("value", 2);
+        assertThat(lazy.getDocument("nested").getInteger("value"), is(1));
+    }
+
+    @Test
+    public void shouldEditNestedLazyDocumentsByReplacingThemWithCopies() throws Exception {
+        LazyDocument nested = new LazyDocument(writer.write(new BasicDocument("value", 1)));
+        BasicDocument doc = new BasicDocument("nested", nested);
+        EditableDocument editor = new DocumentEditor(doc);
+        editor.getDocument("nested").setNumber("value", 2);
+        assertThat(doc.getDocument("nested"), is(instanceOf(CompactDocument.class)));
+        assertThat(doc.getDocument("nested").getInteger("value"), is(2));
+        assertThat(nested.getInteger("value"), is(1));
+    }
+
+    @Test
+    public void shouldWriteOriginalBytes() throws Exception {
+        Document doc = readJson("json/sample-repo-config.json");
+        byte[] bytes = writer.write(doc);
+        LazyDocument lazy = new LazyDocument(bytes);
+        assertThat(Arrays.equals(writer.write(lazy), bytes), is(true));
+
+        // And when nested within another document ...
+        byte[] expected = writer.write(new BasicDocument("doc", doc));
+        assertThat(Arrays.equals(writer.write(new BasicDocument("doc", lazy)), expected), is(true));
+    }
+
+    @Test
+    public void shouldReadDocumentFromInput() throws Exception {
+        Document doc = readJson("json/spec-example-doc.json");
+        byte[] bytes = writer.write(doc);
+        LazyDocument lazy = LazyDocument.read(new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertThat(lazy.getLength(), is(bytes.length));
+        assertThat(lazy.equals(doc), is(true));
+    }
+
+    protected Document readJson( String resourcePath ) throws Exception {
+        InputStream stream = getClass().getClassLoader().getResourceAsStream(resourcePath);
+        assertThat(stream, is(notNullValue()));
+        return Json.read(stream);
+    }
+}